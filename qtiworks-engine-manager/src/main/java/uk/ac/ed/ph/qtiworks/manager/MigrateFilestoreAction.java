@@ -0,0 +1,103 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.manager;
+
+import uk.ac.ed.ph.qtiworks.services.FilespaceManager;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Moves candidate session data into the sharded filestore layout.
+ *
+ * @see FilespaceManager#migrateCandidateSessionDirectories(long)
+ *
+ * @author David McKain
+ */
+public final class MigrateFilestoreAction extends ManagerAction {
+
+    private static final Logger logger = LoggerFactory.getLogger(MigrateFilestoreAction.class);
+
+    /** Default minimum idle time for session data to be moved, in minutes */
+    private static final int DEFAULT_MIN_IDLE_MINUTES = 10;
+
+    @Override
+    public String[] getActionSummary() {
+        return new String[] {
+                "Moves candidate session data into the sharded filestore layout specified by",
+                "qtiworks.filestore.shard.depth. This may be run while QTIWorks is running.",
+                "Session data modified within the last <minIdleMinutes> minutes (default "
+                        + DEFAULT_MIN_IDLE_MINUTES + ") is skipped."
+        };
+    }
+
+    @Override
+    public String getActionParameterSummary() {
+        return "[<minIdleMinutes>]";
+    }
+
+    @Override
+    public String validateParameters(final List<String> parameters) {
+        if (parameters.size() > 1) {
+            return "Optional parameter: <minIdleMinutes>";
+        }
+        if (parameters.size()==1) {
+            try {
+                if (Integer.parseInt(parameters.get(0)) < 0) {
+                    return "<minIdleMinutes> must not be negative";
+                }
+            }
+            catch (final NumberFormatException e) {
+                return "<minIdleMinutes> must be an integer";
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void run(final ApplicationContext applicationContext, final List<String> parameters) {
+        final FilespaceManager filespaceManager = applicationContext.getBean(FilespaceManager.class);
+        if (!filespaceManager.isSharded()) {
+            logger.warn("Filestore sharding has not been enabled. Set qtiworks.filestore.shard.depth first.");
+            return;
+        }
+        final int minIdleMinutes = parameters.isEmpty() ? DEFAULT_MIN_IDLE_MINUTES : Integer.parseInt(parameters.get(0));
+        logger.info("Moving candidate session data into sharded filestore layout");
+        final int movedCount = filespaceManager.migrateCandidateSessionDirectories(minIdleMinutes * 60 * 1000L);
+        logger.info("Moved {} candidate session folder(s)", movedCount);
+    }
+}
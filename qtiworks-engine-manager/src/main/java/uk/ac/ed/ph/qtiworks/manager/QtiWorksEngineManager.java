@@ -86,6 +86,9 @@ public final class QtiWorksEngineManager {
         actionMap.put("importLtiDomains", new ImportLtiDomainsAction());
         actionMap.put("exportLtiDomains", new ExportLtiDomainsAction());
         actionMap.put("runMaintenanceJobs", new RunMaintenanceJobs());
+        actionMap.put("migrateFilestore", new MigrateFilestoreAction());
+        actionMap.put("verifyReplay", new VerifyReplayAction());
+        actionMap.put("warmUp", new WarmUpAction());
         actionMap.put("sendQueuedLtiOutcomes", new SendQueuedLtiOutcomesAction());
         actionMap.put("deleteUsers", new DeleteUsersAction());
         actionMap.put("deleteCandidateSession", new DeleteCandidateSessionAction());
@@ -0,0 +1,80 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.manager;
+
+import uk.ac.ed.ph.qtiworks.services.ProcessingMapWarmUpService;
+import uk.ac.ed.ph.qtiworks.services.domain.ProcessingMapWarmUpStatus;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Reads in the assessments used by all open deliveries, reporting progress as it goes.
+ *
+ * @see ProcessingMapWarmUpService
+ *
+ * @author David McKain
+ */
+public final class WarmUpAction extends ManagerAction {
+
+    private static final Logger logger = LoggerFactory.getLogger(WarmUpAction.class);
+
+    /** Interval between progress reports, in milliseconds */
+    private static final long PROGRESS_INTERVAL = 2000L;
+
+    @Override
+    public String[] getActionSummary() {
+        return new String[] {
+                "Reads in the assessments used by all open deliveries, as is done when QTIWorks",
+                "starts up. This is useful for checking that these can all be loaded successfully."
+        };
+    }
+
+    @Override
+    public void run(final ApplicationContext applicationContext, final List<String> parameters) throws Exception {
+        final ProcessingMapWarmUpService processingMapWarmUpService = applicationContext.getBean(ProcessingMapWarmUpService.class);
+        ProcessingMapWarmUpStatus status = processingMapWarmUpService.startWarmUp();
+        while (status.isRunning()) {
+            Thread.sleep(PROGRESS_INTERVAL);
+            status = processingMapWarmUpService.getStatus();
+            logger.info("Warmed up {} of {} assessment package(s)",
+                    status.getLoadedCount() + status.getFailedCount() + status.getSkippedCount(), status.getPackageCount());
+        }
+        logger.info("Warm-up complete: {} loaded, {} failed, {} skipped", new Object[] {
+                status.getLoadedCount(), status.getFailedCount(), status.getSkippedCount() });
+    }
+}
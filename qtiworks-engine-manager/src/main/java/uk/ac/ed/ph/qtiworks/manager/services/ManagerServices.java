@@ -45,6 +45,7 @@ import uk.ac.ed.ph.qtiworks.domain.entities.SystemUser;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.domain.entities.UserRole;
 import uk.ac.ed.ph.qtiworks.services.AssessmentDataService;
+import uk.ac.ed.ph.qtiworks.services.CandidateSessionReplayVerifier;
 import uk.ac.ed.ph.qtiworks.services.DataDeletionService;
 import uk.ac.ed.ph.qtiworks.services.ServiceUtilities;
 import uk.ac.ed.ph.qtiworks.services.dao.AssessmentDao;
@@ -55,6 +56,7 @@ import uk.ac.ed.ph.qtiworks.services.dao.LtiDomainDao;
 import uk.ac.ed.ph.qtiworks.services.dao.LtiResourceDao;
 import uk.ac.ed.ph.qtiworks.services.dao.SystemUserDao;
 import uk.ac.ed.ph.qtiworks.services.dao.UserDao;
+import uk.ac.ed.ph.qtiworks.services.domain.CandidateSessionReplayReport;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 
@@ -91,6 +93,9 @@ public class ManagerServices {
     @Resource
     private AssessmentDataService assessmentDataService;
 
+    @Resource
+    private CandidateSessionReplayVerifier candidateSessionReplayVerifier;
+
     @Resource
     private AssessmentDao assessmentDao;
 
@@ -308,6 +313,15 @@ public class ManagerServices {
         return true;
     }
 
+    public CandidateSessionReplayReport verifyCandidateSessionReplay(final Long xid) {
+        final CandidateSession candidateSession = candidateSessionDao.findById(xid);
+        if (candidateSession==null) {
+            logger.warn("Could not find CandidateSession with ID {}", xid);
+            return null;
+        }
+        return candidateSessionReplayVerifier.verifyCandidateSession(candidateSession);
+    }
+
     public int deleteCandidateSessions(final Long did) {
         final Delivery delivery = deliveryDao.findById(did);
         if (delivery==null) {
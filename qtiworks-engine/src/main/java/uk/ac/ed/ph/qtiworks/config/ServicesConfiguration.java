@@ -41,17 +41,22 @@ import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionPackage;
 import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
 import uk.ac.ed.ph.jqtiplus.serialization.QtiSerializer;
+import uk.ac.ed.ph.jqtiplus.xmlutils.ConcurrentSchemaCache;
 import uk.ac.ed.ph.jqtiplus.xmlutils.SchemaCache;
-import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleSchemaCache;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.SimpleXsltStylesheetCache;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetCache;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.activation.FileTypeMap;
 import javax.activation.MimetypesFileTypeMap;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.sql.DataSource;
 
@@ -84,6 +89,12 @@ public class ServicesConfiguration {
     @Resource
     private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
+    /** Thread pool used to resolve test items in parallel, if enabled */
+    private ExecutorService itemResolutionExecutor;
+
+    /** Thread pool used to validate test items in parallel, if enabled */
+    private ExecutorService itemValidationExecutor;
+
     @Bean
     RequestTimestampContext requestTimestampContext() {
         return new RequestTimestampContext();
@@ -148,7 +159,7 @@ public class ServicesConfiguration {
 
     @Bean
     public SchemaCache schemaCache() {
-        return new SimpleSchemaCache();
+        return new ConcurrentSchemaCache();
     }
 
     @Bean
@@ -166,7 +177,47 @@ public class ServicesConfiguration {
             extensionPackages.add(new MathAssessExtensionPackage(xsltStylesheetCache()));
         }
 
-        return new JqtiExtensionManager(extensionPackages);
+        final JqtiExtensionManager jqtiExtensionManager = new JqtiExtensionManager(extensionPackages);
+
+        /* Resolve test items in parallel if requested */
+        final int itemResolutionThreads = qtiWorksDeploymentSettings.getItemResolutionThreads();
+        if (itemResolutionThreads > 1) {
+            logger.info("Test items will be resolved using {} threads", itemResolutionThreads);
+            itemResolutionExecutor = createDaemonThreadPool(itemResolutionThreads, "ItemResolution-");
+            jqtiExtensionManager.setItemResolutionExecutor(itemResolutionExecutor);
+        }
+
+        /* Validate test items in parallel if requested */
+        final int itemValidationThreads = qtiWorksDeploymentSettings.getItemValidationThreads();
+        if (itemValidationThreads > 1) {
+            logger.info("Test items will be validated using {} threads", itemValidationThreads);
+            itemValidationExecutor = createDaemonThreadPool(itemValidationThreads, "ItemValidation-");
+            jqtiExtensionManager.setItemValidationExecutor(itemValidationExecutor);
+        }
+        return jqtiExtensionManager;
+    }
+
+    private static ExecutorService createDaemonThreadPool(final int threadCount, final String threadNamePrefix) {
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (itemResolutionExecutor!=null) {
+            itemResolutionExecutor.shutdownNow();
+        }
+        if (itemValidationExecutor!=null) {
+            itemValidationExecutor.shutdownNow();
+        }
     }
 
     @Bean
@@ -69,6 +69,28 @@ public final class QtiWorksDeploymentSettings implements Serializable {
     private @Value("${qtiworks.features.publicdemos:false}") boolean publicDemosEnabled; /* (Optional - default false) */
     private @Value("${qtiworks.features.rest:false}") boolean restEnabled; /* (Optional - default false) */
     private @Value("${qtiworks.retention.max.candidatesession.age:180}") int maxCandidateSessionAge; /* (Optional - default 180 days) */
+    private @Value("${qtiworks.state.binary:false}") boolean binaryStateStorage; /* (Optional - default false) */
+    private @Value("${qtiworks.state.checkpoint.interval:10}") int stateCheckpointInterval; /* (Optional - default 10 events) */
+    private @Value("${qtiworks.state.cache.size:1000}") int stateCacheSize; /* (Optional - default 1000 sessions) */
+    private @Value("${qtiworks.state.xml.indent:false}") boolean stateXmlIndenting; /* (Optional - default false) */
+    private @Value("${qtiworks.state.log:false}") boolean stateLogStorage; /* (Optional - default false) */
+    private @Value("${qtiworks.state.log.compress:true}") boolean stateLogCompressing; /* (Optional - default true) */
+    private @Value("${qtiworks.state.log.sync.batch:16}") int stateLogSyncBatchSize; /* (Optional - default 16 records) */
+    private @Value("${qtiworks.results.writer.threads:2}") int resultWriterThreads; /* (Optional - default 2 threads) */
+    private @Value("${qtiworks.results.duration.refresh:60}") int resultDurationRefreshInterval; /* (Optional - default 60 seconds) */
+    private @Value("${qtiworks.filestore.shard.depth:0}") int filestoreShardDepth; /* (Optional - default 0, i.e. not sharded) */
+    private @Value("${qtiworks.filestore.purge.threads:4}") int filestorePurgeThreads; /* (Optional - default 4 threads) */
+    private @Value("${qtiworks.state.eventsourced:false}") boolean eventSourcedStateStorage; /* (Optional - default false) */
+    private @Value("${qtiworks.processing.cache.size:256}") int processingCacheSize; /* (Optional - default 256MB) */
+    private @Value("${qtiworks.processing.cache.expiry:0}") int processingCacheExpiry; /* (Optional - default 0 minutes, i.e. never) */
+    private @Value("${qtiworks.warmup.startup:true}") boolean warmUpOnStartup; /* (Optional - default true) */
+    private @Value("${qtiworks.warmup.threads:2}") int warmUpThreads; /* (Optional - default 2 threads) */
+    private @Value("${qtiworks.warmup.time.budget:300}") int warmUpTimeBudget; /* (Optional - default 300 seconds) */
+    private @Value("${qtiworks.processing.snapshots:true}") boolean processingSnapshots; /* (Optional - default true) */
+    private @Value("${qtiworks.resolution.threads:4}") int itemResolutionThreads; /* (Optional - default 4 threads) */
+    private @Value("${qtiworks.schemas.preload:true}") boolean preloadSchemas; /* (Optional - default true) */
+    private @Value("${qtiworks.processing.compact:true}") boolean processingCompact; /* (Optional - default true) */
+    private @Value("${qtiworks.validation.threads:4}") int itemValidationThreads; /* (Optional - default 4 threads) */
 
 
     public String getJdbcDriverClassName() {
@@ -131,6 +153,94 @@ public final class QtiWorksDeploymentSettings implements Serializable {
         return maxCandidateSessionAge;
     }
 
+    public boolean isBinaryStateStorage() {
+        return binaryStateStorage;
+    }
+
+    public int getStateCheckpointInterval() {
+        return stateCheckpointInterval;
+    }
+
+    public int getStateCacheSize() {
+        return stateCacheSize;
+    }
+
+    public boolean isStateXmlIndenting() {
+        return stateXmlIndenting;
+    }
+
+    public boolean isStateLogStorage() {
+        return stateLogStorage;
+    }
+
+    public boolean isStateLogCompressing() {
+        return stateLogCompressing;
+    }
+
+    public int getStateLogSyncBatchSize() {
+        return stateLogSyncBatchSize;
+    }
+
+    public int getResultWriterThreads() {
+        return resultWriterThreads;
+    }
+
+    public int getResultDurationRefreshInterval() {
+        return resultDurationRefreshInterval;
+    }
+
+    public int getFilestoreShardDepth() {
+        return filestoreShardDepth;
+    }
+
+    public int getFilestorePurgeThreads() {
+        return filestorePurgeThreads;
+    }
+
+    public boolean isEventSourcedStateStorage() {
+        return eventSourcedStateStorage;
+    }
+
+    public int getProcessingCacheSize() {
+        return processingCacheSize;
+    }
+
+    public int getProcessingCacheExpiry() {
+        return processingCacheExpiry;
+    }
+
+    public boolean isWarmUpOnStartup() {
+        return warmUpOnStartup;
+    }
+
+    public int getWarmUpThreads() {
+        return warmUpThreads;
+    }
+
+    public int getWarmUpTimeBudget() {
+        return warmUpTimeBudget;
+    }
+
+    public boolean isProcessingSnapshots() {
+        return processingSnapshots;
+    }
+
+    public int getItemResolutionThreads() {
+        return itemResolutionThreads;
+    }
+
+    public boolean isPreloadSchemas() {
+        return preloadSchemas;
+    }
+
+    public boolean isProcessingCompact() {
+        return processingCompact;
+    }
+
+    public int getItemValidationThreads() {
+        return itemValidationThreads;
+    }
+
     @Override
     public String toString() {
         return ObjectUtilities.beanToString(this);
@@ -115,7 +115,20 @@ import org.hibernate.annotations.Type;
                 + "  FROM Delivery d"
                 + "  WHERE d.assessment.ownerUser = :user"
                 + "    AND d.deliveryType = :deliveryType"
-                + "    AND d.creationTime < :creationTime")
+                + "    AND d.creationTime < :creationTime"),
+    @NamedQuery(name="Delivery.getOpen",
+            query="SELECT d"
+                + "  FROM Delivery d"
+                + "  LEFT JOIN FETCH d.assessment a"
+                + "  LEFT JOIN FETCH a.selectedAssessmentPackage"
+                + "  WHERE d.open = true"
+                + "  ORDER BY d.id DESC"),
+    @NamedQuery(name="Delivery.getOpenIdsByLatestLaunch",
+            query="SELECT x.delivery.id"
+                + "  FROM CandidateSession x"
+                + "  WHERE x.delivery.open = true"
+                + "  GROUP BY x.delivery.id"
+                + "  ORDER BY MAX(x.creationTime) DESC")
 })
 public class Delivery implements BaseEntity, TimestampedOnCreation {
 
@@ -35,7 +35,6 @@ package uk.ac.ed.ph.qtiworks.rendering;
 
 import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksProperties;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
-import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.node.test.NavigationMode;
@@ -47,8 +46,9 @@ import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
-import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
-import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateSaxMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateSaxMarshaller;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParserPool;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetCache;
@@ -67,6 +67,7 @@ import java.util.Map.Entry;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import javax.xml.parsers.SAXParser;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
 import javax.xml.transform.Transformer;
@@ -79,7 +80,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.Validator;
-import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLReader;
 
@@ -207,9 +207,9 @@ public class AssessmentRenderer {
         final Map<String, Object> xsltParameters = new HashMap<String, Object>();
         setBaseRenderingParameters(xsltParameters, request, notifications);
 
-        /* Pass ItemSessionState (as DOM Document) */
+        /* Pass ItemSessionState (streamed as XML) */
         final ItemSessionState itemSessionState = request.getItemSessionState();
-        xsltParameters.put("itemSessionState", ItemSessionStateXmlMarshaller.marshal(itemSessionState).getDocumentElement());
+        xsltParameters.put("itemSessionStateDocument", ItemSessionStateSaxMarshaller.createSaxSource(itemSessionState));
 
         /* Set control parameters */
         xsltParameters.put("prompt", request.getPrompt());
@@ -261,7 +261,7 @@ public class AssessmentRenderer {
 
         final TestSessionController testSessionController = request.getTestSessionController();
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
-        xsltParameters.put("testSessionState", TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
+        xsltParameters.put("testSessionStateDocument", TestSessionStateSaxMarshaller.createSaxSource(testSessionState));
         xsltParameters.put("testSystemId", request.getAssessmentResourceUri().toString());
 
         /* Pass rendering options */
@@ -427,10 +427,9 @@ public class AssessmentRenderer {
         final Map<String, Object> xsltParameters = new HashMap<String, Object>();
         setBaseRenderingParameters(xsltParameters, request, notifications);
 
-        /* Pass ItemSessionState (as DOM Document and XML text) */
+        /* Pass ItemSessionState */
         final ItemSessionState itemSessionState = request.getItemSessionState();
-        final Document itemSessionStateDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
-        xsltParameters.put("itemSessionState", itemSessionStateDocument.getDocumentElement());
+        xsltParameters.put("itemSessionStateDocument", ItemSessionStateSaxMarshaller.createSaxSource(itemSessionState));
 
         /* Perform transform */
         doTransform(request, null, itemAuthorViewXsltUri, xsltParameters, result);
@@ -464,7 +463,7 @@ public class AssessmentRenderer {
 
         final TestSessionController testSessionController = request.getTestSessionController();
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
-        xsltParameters.put("testSessionState", TestSessionStateXmlMarshaller.marshal(testSessionState).getDocumentElement());
+        xsltParameters.put("testSessionStateDocument", TestSessionStateSaxMarshaller.createSaxSource(testSessionState));
         xsltParameters.put("testSystemId", request.getAssessmentResourceUri().toString());
 
         doTransform(request, null, testAuthorViewXsltUri, xsltParameters, result);
@@ -522,7 +521,7 @@ public class AssessmentRenderer {
         }
 
         /* Add item-specific parameters */
-        xsltParameters.put("itemSessionState", ItemSessionStateXmlMarshaller.marshal(itemSessionState).getDocumentElement());
+        xsltParameters.put("itemSessionStateDocument", ItemSessionStateSaxMarshaller.createSaxSource(itemSessionState));
         xsltParameters.put("itemKey", itemKey.toString());
 
         /* Pass ItemSessionControl parameters */
@@ -701,16 +700,21 @@ public class AssessmentRenderer {
         mathmlTransformerHandler.setResult(mathmlResult);
         final SAXResult rendererResult = new SAXResult(mathmlTransformerHandler);
         rendererTransformerHandler.setResult(rendererResult);
-        final XMLReader xmlReader = XmlUtilities.createNsAwareSaxReader(false);
-        xmlReader.setContentHandler(rendererTransformerHandler);
 
         /* Finally we run the pipeline */
+        final XmlParserPool xmlParserPool = XmlParserPool.getNsAwareInstance();
+        final SAXParser saxParser = xmlParserPool.borrowSaxParser();
         try {
+            final XMLReader xmlReader = saxParser.getXMLReader();
+            xmlReader.setContentHandler(rendererTransformerHandler);
             xmlReader.parse(assessmentSaxSource);
         }
         catch (final Exception e) {
             logger.error("Rendering XSLT pipeline failed for request {}", renderingRequest, e);
             throw new QtiWorksRenderingException("Unexpected Exception running rendering XML pipeline", e);
         }
+        finally {
+            xmlParserPool.returnSaxParser(saxParser);
+        }
     }
 }
@@ -38,12 +38,10 @@ import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.serialization.QtiSaxDocumentFirer;
 import uk.ac.ed.ph.jqtiplus.serialization.SaxFiringOptions;
 import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleDomBuilderHandler;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParserPool;
 
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
@@ -73,10 +71,7 @@ public final class XsltParamDocumentBuilder {
 
     public Document buildDocument() {
         try {
-            final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            dbFactory.setNamespaceAware(true);
-            final DocumentBuilder documentBuilder = dbFactory.newDocumentBuilder();
-            final Document document = documentBuilder.newDocument();
+            final Document document = XmlParserPool.getNsAwareInstance().newDocument();
             final SimpleDomBuilderHandler domBuilderHandler = new SimpleDomBuilderHandler(document);
 
             /* Create QTI SAX firer with suitable options */
@@ -133,9 +133,18 @@ public class AssessmentManagementService {
     @Resource
     private DeliverySettingsDao deliverySettingsDao;
 
+    @Resource
+    private CandidateDataService candidateDataService;
+
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
+    @Resource
+    private CandidateSessionStateCache candidateSessionStateCache;
+
+    @Resource
+    private CandidateSessionResultWriter candidateSessionResultWriter;
+
     @Resource
     private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
 
@@ -913,9 +922,15 @@ public class AssessmentManagementService {
         for (final CandidateSession candidateSession : nonTerminatedCandidateSessions) {
             candidateSession.setTerminationTime(currentTimestamp);
             candidateSessionDao.update(candidateSession);
+            candidateDataService.checkpointMostRecentTestSessionState(candidateSession);
+            candidateSessionStateCache.evict(candidateSession);
             if (deleteOutcomes) {
+                candidateSessionResultWriter.discard(candidateSession);
                 candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
             }
+            else {
+                candidateSessionResultWriter.flush(candidateSession);
+            }
         }
         return nonTerminatedCandidateSessions.size();
     }
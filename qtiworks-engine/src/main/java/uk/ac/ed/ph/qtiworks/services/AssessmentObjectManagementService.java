@@ -33,34 +33,66 @@
  */
 package uk.ac.ed.ph.qtiworks.services;
 
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
-import uk.ac.ed.ph.qtiworks.utils.LruHashMap;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentObject;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
 import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
 import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
+import uk.ac.ed.ph.jqtiplus.utils.TreeWalkNodeHandler;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
  * Middle layer service responsible for instantiating and caching {@link ItemProcessingMap}
  * and {@link TestProcessingMap} Objects.
  * <p>
+ * The cache is bounded by the estimated memory used by its entries rather than the number
+ * of entries, evicting the least recently used entries first. Each {@link AssessmentPackage}
+ * is loaded at most once at a time: concurrent requests for the same package wait for the
+ * result, while requests for other packages proceed independently.
+ * <p>
+ * Uploaded packages are identified within the cache by a hash of their content, so packages
+ * with identical content (e.g. the same package uploaded several times) share a single
+ * processing map. This is safe since processing maps are not modified once created.
+ * <p>
+ * Processing maps that aren't in the cache are loaded from their {@link ProcessingMapSnapshotStore}
+ * snapshot if possible, falling back to reading and resolving the XML (and snapshotting the result).
+ * <p>
  * This is NO authorisation at this level.
  *
- * FIXME: For the time being, we'll use an {@link LruHashMap}, though this is probably not the best choice.
+ * @see QtiWorksDeploymentSettings#getProcessingCacheSize()
+ * @see QtiWorksDeploymentSettings#getProcessingCacheExpiry()
  *
  * @author David McKain
  */
@@ -69,18 +101,68 @@ public class AssessmentObjectManagementService {
 
     private static final Logger logger = LoggerFactory.getLogger(AssessmentObjectManagementService.class);
 
-    private int cacheMissCount;
-    private int cacheHitCount;
+    /**
+     * Rough estimate of the memory used by each {@link QtiNode} within a processing map,
+     * in bytes. Cache weights are measured in KB, so each node has a weight of about 1.
+     */
+    private static final int ESTIMATED_BYTES_PER_NODE = 1024;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
     @Resource
     private AssessmentPackageFileService assessmentPackageFileService;
 
-    private final LruHashMap<Long, Object> cache;
+    @Resource
+    private ProcessingMapSnapshotStore processingMapSnapshotStore;
 
-    public AssessmentObjectManagementService() {
-        this.cache = new LruHashMap<Long, Object>();
-        this.cacheMissCount = 0;
-        this.cacheHitCount = 0;
+    /**
+     * Cached processing maps, keyed as per {@link #getCacheKey(AssessmentPackage, String)}. An absent value
+     * records that a processing map could not be created for the package.
+     */
+    private Cache<String, Optional<Object>> cache;
+    private long cacheMaxWeight;
+
+    /** Total weight of the entries currently in the cache (in KB) */
+    private final AtomicLong cacheWeight = new AtomicLong();
+
+    /**
+     * Content hashes of the {@link AssessmentPackage}s used so far, keyed on ID. An absent value
+     * records that the package has no content hash. (Packages never change once imported, so
+     * these never need recomputed.) Hashing a package means reading its whole sandbox, so we use
+     * a {@link Cache} here to ensure that only one thread ever computes the hash of a given package.
+     */
+    private final Cache<Long, Optional<String>> contentHashCache = CacheBuilder.newBuilder().build();
+
+    @PostConstruct
+    public void init() {
+        final int cacheSize = qtiWorksDeploymentSettings.getProcessingCacheSize();
+        final int cacheExpiry = qtiWorksDeploymentSettings.getProcessingCacheExpiry();
+        cacheMaxWeight = Math.max(0, cacheSize) * 1024L;
+        final ProcessingMapWeigher weigher = new ProcessingMapWeigher();
+        final CacheBuilder<String, Optional<Object>> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumWeight(cacheMaxWeight)
+                .weigher(new Weigher<String, Optional<Object>>() {
+                    @Override
+                    public int weigh(final String cacheKey, final Optional<Object> value) {
+                        final int weight = weigher.weigh(cacheKey, value);
+                        cacheWeight.addAndGet(weight);
+                        return weight;
+                    }
+                })
+                .removalListener(new RemovalListener<String, Optional<Object>>() {
+                    @Override
+                    public void onRemoval(final RemovalNotification<String, Optional<Object>> notification) {
+                        /* (Processing maps never change, so weighing again gives the same result) */
+                        cacheWeight.addAndGet(-weigher.weigh(notification.getKey(), notification.getValue()));
+                    }
+                })
+                .recordStats();
+        if (cacheExpiry > 0) {
+            cacheBuilder.expireAfterAccess(cacheExpiry, TimeUnit.MINUTES);
+        }
+        cache = cacheBuilder.build();
+        logger.info("Processing map cache size is {}MB, idle expiry is {} minutes", cacheSize, cacheExpiry);
     }
 
     /**
@@ -90,27 +172,31 @@ public class AssessmentObjectManagementService {
     public ItemProcessingMap getItemProcessingMap(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final Long apid = assessmentPackage.getId();
-        ItemProcessingMap result = null;
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                logger.debug("Cache HIT for package #{}", apid);
-                result = (ItemProcessingMap) cache.get(apid);
-                cacheHitCount++;
-            }
-            else {
+        final String contentHash = getContentHash(assessmentPackage);
+        return (ItemProcessingMap) getProcessingMap(getCacheKey(assessmentPackage, contentHash), new Callable<Optional<Object>>() {
+            @Override
+            public Optional<Object> call() {
+                ItemProcessingMap result = processingMapSnapshotStore.loadSnapshot(assessmentPackage, contentHash, ItemProcessingMap.class);
+                if (result!=null) {
+                    logger.debug("Cache MISS for package #{}. Loaded snapshot", apid);
+                    maybeCompact(result.getResolvedAssessmentItem());
+                    return Optional.<Object>of(result);
+                }
                 logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
-                cacheMissCount++;
                 try {
                     final ResolvedAssessmentItem resolvedAssessmentItem = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
                     result = new ItemProcessingInitializer(resolvedAssessmentItem, assessmentPackage.isValid()).initialize();
+                    maybeCompact(resolvedAssessmentItem);
                 }
                 catch (final RuntimeException e) {
                     logger.info("Failed to create ItemProcessingMap for package #{}", apid);
                 }
-                cache.put(apid, result);
+                if (result!=null) {
+                    processingMapSnapshotStore.storeSnapshot(assessmentPackage, contentHash, result);
+                }
+                return Optional.<Object>fromNullable(result);
             }
-        }
-        return result;
+        });
     }
 
     /**
@@ -120,65 +206,213 @@ public class AssessmentObjectManagementService {
     public TestProcessingMap getTestProcessingMap(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final Long apid = assessmentPackage.getId();
-        TestProcessingMap result = null;
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                logger.debug("Cache HIT for package #{}", apid);
-                result = (TestProcessingMap) cache.get(apid);
-                cacheHitCount++;
-            }
-            else {
+        final String contentHash = getContentHash(assessmentPackage);
+        return (TestProcessingMap) getProcessingMap(getCacheKey(assessmentPackage, contentHash), new Callable<Optional<Object>>() {
+            @Override
+            public Optional<Object> call() {
+                TestProcessingMap result = processingMapSnapshotStore.loadSnapshot(assessmentPackage, contentHash, TestProcessingMap.class);
+                if (result!=null) {
+                    logger.debug("Cache MISS for package #{}. Loaded snapshot", apid);
+                    maybeCompact(result.getResolvedAssessmentTest());
+                    return Optional.<Object>of(result);
+                }
                 logger.debug("Cache MISS for package #{}. Reading and resolving XML", apid);
-                cacheMissCount++;
                 try {
                     final ResolvedAssessmentTest resolvedAssessmentTest = assessmentPackageFileService.loadAndResolveAssessmentObject(assessmentPackage);
                     result = new TestProcessingInitializer(resolvedAssessmentTest, assessmentPackage.isValid()).initialize();
+                    maybeCompact(resolvedAssessmentTest);
                 }
                 catch (final RuntimeException e) {
                     logger.info("Failed to create TestProcessingMap for package #{}", apid);
                 }
-                cache.put(apid, result);
+                if (result!=null) {
+                    processingMapSnapshotStore.storeSnapshot(assessmentPackage, contentHash, result);
+                }
+                return Optional.<Object>fromNullable(result);
             }
+        });
+    }
+
+    /**
+     * Compacts the given {@link ResolvedAssessmentObject} before it goes into the cache, if this
+     * has been enabled. (This must happen after the processing map has been initialized.)
+     */
+    private void maybeCompact(final ResolvedAssessmentObject<?> resolvedAssessmentObject) {
+        if (qtiWorksDeploymentSettings.isProcessingCompact()) {
+            resolvedAssessmentObject.compact();
+        }
+    }
+
+    private Object getProcessingMap(final String cacheKey, final Callable<Optional<Object>> loader) {
+        try {
+            return cache.get(cacheKey, loader).orNull();
+        }
+        catch (final ExecutionException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e.getCause());
+        }
+        catch (final UncheckedExecutionException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e.getCause());
         }
-        return result;
     }
 
+    /**
+     * Purges any cached data for the given {@link AssessmentPackage}. Note that this will also
+     * purge the processing map for any other packages having the same content.
+     */
     public void purge(final AssessmentPackage assessmentPackage) {
         Assert.notNull(assessmentPackage, "assessmentPackage");
         final Long apid = assessmentPackage.getId();
-        synchronized (cache) {
-            if (cache.containsKey(apid)) {
-                cache.remove(apid);
-                logger.debug("Actively purged package #{}", assessmentPackage);
+        /* (Don't recompute the content hash here, as the package files may already have been deleted) */
+        final Optional<String> contentHash = contentHashCache.getIfPresent(apid);
+        contentHashCache.invalidate(apid);
+        if (contentHash!=null && cache.asMap().remove(getCacheKey(assessmentPackage, contentHash.orNull()))!=null) {
+            logger.debug("Actively purged package #{}", assessmentPackage);
+        }
+        processingMapSnapshotStore.deleteSnapshot(assessmentPackage);
+    }
+
+    /**
+     * Returns the content hash for the given {@link AssessmentPackage}, computing it if required.
+     * Returns null if the package has no content hash (e.g. the bundled samples) or if it could
+     * not be computed.
+     */
+    private String getContentHash(final AssessmentPackage assessmentPackage) {
+        final Long apid = assessmentPackage.getId();
+        try {
+            return contentHashCache.get(apid, new Callable<Optional<String>>() {
+                @Override
+                public Optional<String> call() {
+                    Optional<String> result;
+                    try {
+                        result = Optional.fromNullable(assessmentPackageFileService.computeContentHash(assessmentPackage));
+                    }
+                    catch (final RuntimeException e) {
+                        logger.warn("Failed to compute content hash for package #{}. It will not be shared", apid, e);
+                        result = Optional.absent();
+                    }
+                    logger.debug("Content hash for package #{} is {}", apid, result.orNull());
+                    return result;
+                }
+            }).orNull();
+        }
+        catch (final ExecutionException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e.getCause());
+        }
+        catch (final UncheckedExecutionException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the key used to identify the processing map for the given {@link AssessmentPackage}
+     * within the cache. Where the content hash is known, this is built from this and the details
+     * of the package that affect its processing map. Otherwise it is built from the package ID.
+     */
+    private static String getCacheKey(final AssessmentPackage assessmentPackage, final String contentHash) {
+        if (contentHash==null) {
+            return "package:" + assessmentPackage.getId();
+        }
+        return "content:" + contentHash
+                + "/" + assessmentPackage.getAssessmentType()
+                + "/" + assessmentPackage.isValid()
+                + "/" + assessmentPackage.getAssessmentHref();
+    }
+
+    //--------------------------------------------------------------------------
+
+    /**
+     * Estimates the memory used by a cached processing map (in KB) from the number of
+     * {@link QtiNode}s in the item(s) and test it holds.
+     */
+    private static final class ProcessingMapWeigher implements Weigher<String, Optional<Object>> {
+
+        @Override
+        public int weigh(final String cacheKey, final Optional<Object> value) {
+            if (!value.isPresent()) {
+                return 1;
+            }
+            final Object processingMap = value.get();
+            final NodeCounter nodeCounter = new NodeCounter();
+            if (processingMap instanceof ItemProcessingMap) {
+                countNodes(nodeCounter, ((ItemProcessingMap) processingMap).getResolvedAssessmentItem());
+            }
+            else {
+                final ResolvedAssessmentTest resolvedAssessmentTest = ((TestProcessingMap) processingMap).getResolvedAssessmentTest();
+                countNodes(nodeCounter, resolvedAssessmentTest.getTestLookup());
+                for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().values()) {
+                    countNodes(nodeCounter, resolvedAssessmentItem);
+                }
+            }
+            final long weight = nodeCounter.getNodeCount() * ESTIMATED_BYTES_PER_NODE / 1024;
+            return (int) Math.max(1L, Math.min(weight, Integer.MAX_VALUE));
+        }
+
+        private static void countNodes(final NodeCounter nodeCounter, final ResolvedAssessmentItem resolvedAssessmentItem) {
+            countNodes(nodeCounter, resolvedAssessmentItem.getItemLookup());
+            countNodes(nodeCounter, resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup());
+        }
+
+        private static void countNodes(final NodeCounter nodeCounter, final RootNodeLookup<?> rootNodeLookup) {
+            if (rootNodeLookup!=null && rootNodeLookup.wasSuccessful()) {
+                QueryUtils.walkTree(nodeCounter, Collections.singletonList(rootNodeLookup.extractIfSuccessful()));
             }
         }
     }
 
+    private static final class NodeCounter implements TreeWalkNodeHandler {
+
+        private long nodeCount;
+
+        @Override
+        public boolean handleNode(final QtiNode node) {
+            nodeCount++;
+            return true;
+        }
+
+        public long getNodeCount() {
+            return nodeCount;
+        }
+    }
+
     //--------------------------------------------------------------------------
     // Reporting
 
-    public int getCacheUsage() {
+    public long getCacheUsage() {
         return cache.size();
     }
 
-    public int getCacheMaxSize() {
-        return cache.getMaxSize();
+    /** Returns the estimated total weight of the cached processing maps, in KB */
+    public long getCacheWeight() {
+        return cacheWeight.get();
+    }
+
+    public long getCacheMaxWeight() {
+        return cacheMaxWeight;
+    }
+
+    public long getCacheMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public long getCacheHitCount() {
+        return cache.stats().hitCount();
     }
 
-    public int getCacheMissCount() {
-        return cacheMissCount;
+    public long getCachePurgeCount() {
+        return cache.stats().evictionCount();
     }
 
-    public int getCacheHitCount() {
-        return cacheHitCount;
+    public long getCacheLoadCount() {
+        return cache.stats().loadCount();
     }
 
-    public int getCachePurgeCount() {
-        return cache.getPurgeCount();
+    /** Returns the total time spent loading processing maps into the cache, in nanoseconds */
+    public long getCacheTotalLoadTime() {
+        return cache.stats().totalLoadTime();
     }
 
-    public Map<Long, Object> getCacheView() {
-        return Collections.unmodifiableMap(cache);
+    public Map<String, Optional<Object>> getCacheView() {
+        return Collections.unmodifiableMap(cache.asMap());
     }
 
     @Override
@@ -54,6 +54,7 @@ import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
 import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentObject;
 import uk.ac.ed.ph.jqtiplus.utils.contentpackaging.QtiContentPackageExtractor;
 import uk.ac.ed.ph.jqtiplus.validation.AssessmentObjectValidationResult;
+import uk.ac.ed.ph.jqtiplus.validation.ValidationProgressListener;
 import uk.ac.ed.ph.jqtiplus.xmlutils.CustomUriScheme;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlReadResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceNotFoundException;
@@ -64,10 +65,14 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.locators.NetworkHttpResourceLocator;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import javax.activation.FileTypeMap;
 import javax.annotation.Resource;
@@ -79,6 +84,12 @@ import org.springframework.util.Assert;
 import org.springframework.web.multipart.MultipartFile;
 import org.w3c.dom.Document;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
 /**
  * Provides read-only access (and related services) to {@link AssessmentPackage} files.
  * <p>
@@ -112,6 +123,9 @@ public class AssessmentPackageFileService {
     @Resource
     private FileTypeMap fileTypeMap;
 
+    @Resource
+    private ValidationProgressService validationProgressService;
+
     /**
      * {@link ResourceLocator} for reading in sample assessment resources. These are bundled
      * within the ClassPath in a fixed way.
@@ -321,6 +335,10 @@ public class AssessmentPackageFileService {
 
     /**
      * Invokes the JQTI+ load & resolution process on the given {@link AssessmentPackage}.
+     * <p>
+     * The presentation content of items is skipped, as QTIWorks renders directly from the
+     * underlying XML and only needs the resulting JQTI+ Object models for template and
+     * response processing. (See {@link AssessmentItem#isPresentationContentSkipped()}.)
      *
      * @param assessmentPackage package to validate, which must not be null.
      */
@@ -329,7 +347,7 @@ public class AssessmentPackageFileService {
     E loadAndResolveAssessmentObject(final AssessmentPackage assessmentPackage) {
         final ResourceLocator inputResourceLocator = createResolvingResourceLocator(assessmentPackage);
         final URI assessmentObjectSystemId = createAssessmentObjectUri(assessmentPackage);
-        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator);
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, inputResourceLocator, true);
         final AssessmentObjectType assessmentObjectType = assessmentPackage.getAssessmentType();
         E result;
         if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_ITEM) {
@@ -346,6 +364,9 @@ public class AssessmentPackageFileService {
 
     /**
      * Invokes the JQTI+ validator on the given {@link AssessmentPackage}.
+     * <p>
+     * The progress of validating the items within a test is recorded for the current user
+     * via the {@link ValidationProgressService}.
      *
      * @param assessmentPackage package to validate, which must not be null.
      */
@@ -362,7 +383,13 @@ public class AssessmentPackageFileService {
             result = (E) assessmentObjectXmlLoader.loadResolveAndValidateItem(assessmentObjectSystemId);
         }
         else if (assessmentObjectType==AssessmentObjectType.ASSESSMENT_TEST) {
-            result = (E) assessmentObjectXmlLoader.loadResolveAndValidateTest(assessmentObjectSystemId);
+            final ValidationProgressListener progressListener = validationProgressService.startTracking();
+            try {
+                result = (E) assessmentObjectXmlLoader.loadResolveAndValidateTest(assessmentObjectSystemId, progressListener);
+            }
+            finally {
+                validationProgressService.endTracking(progressListener);
+            }
         }
         else {
             throw new QtiWorksLogicException("Unexpected logic branch " + assessmentObjectType);
@@ -379,6 +406,63 @@ public class AssessmentPackageFileService {
 
     //-------------------------------------------------
 
+    /**
+     * Computes a SHA-256 hash of the content of the given {@link AssessmentPackage}, covering the
+     * path and content of each file in its sandbox. Packages with the same hash will therefore
+     * yield identical JQTI+ objects when read in. (This is safe since the URIs used for reading
+     * uploaded packages are relative to the package, rather than where it is stored.)
+     * <p>
+     * Returns null for the bundled samples.
+     *
+     * @throws QtiWorksRuntimeException if the sandbox files could not be read
+     */
+    public String computeContentHash(final AssessmentPackage assessmentPackage) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        if (assessmentPackage.getImportType()==AssessmentPackageImportType.BUNDLED_SAMPLE) {
+            return null;
+        }
+        final File sandboxDirectory = new File(assessmentPackage.getSandboxPath());
+        final List<String> relativePaths = new ArrayList<String>();
+        collectRelativePaths(sandboxDirectory, "", relativePaths);
+        Collections.sort(relativePaths);
+        final Hasher hasher = Hashing.sha256().newHasher();
+        for (final String relativePath : relativePaths) {
+            final File file = new File(sandboxDirectory, relativePath);
+            hasher.putString(relativePath, Charsets.UTF_8);
+            hasher.putLong(file.length());
+            InputStream fileStream = null;
+            try {
+                fileStream = new FileInputStream(file);
+                ByteStreams.copy(fileStream, Funnels.asOutputStream(hasher));
+            }
+            catch (final IOException e) {
+                throw new QtiWorksRuntimeException("Unexpected failure reading package file " + file, e);
+            }
+            finally {
+                ServiceUtilities.ensureClose(fileStream);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void collectRelativePaths(final File directory, final String pathPrefix, final List<String> resultBuilder) {
+        final File[] children = directory.listFiles();
+        if (children==null) {
+            return;
+        }
+        for (final File child : children) {
+            final String childPath = pathPrefix + child.getName();
+            if (child.isDirectory()) {
+                collectRelativePaths(child, childPath + "/", resultBuilder);
+            }
+            else {
+                resultBuilder.add(childPath);
+            }
+        }
+    }
+
+    //-------------------------------------------------
+
     /**
      * Streams the source of the given {@link AssessmentPackage} to the required {@link OutputStreamer}
      *
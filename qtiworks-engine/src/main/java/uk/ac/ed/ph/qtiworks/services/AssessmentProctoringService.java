@@ -71,9 +71,18 @@ public class AssessmentProctoringService {
     @Resource
     private DataDeletionService dataDeletionService;
 
+    @Resource
+    private CandidateDataService candidateDataService;
+
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
+    @Resource
+    private CandidateSessionStateCache candidateSessionStateCache;
+
+    @Resource
+    private CandidateSessionResultWriter candidateSessionResultWriter;
+
     @Resource
     private RequestTimestampContext requestTimestampContext;
 
@@ -115,6 +124,9 @@ public class AssessmentProctoringService {
         if (!candidateSession.isTerminated()) {
             candidateSession.setTerminationTime(requestTimestampContext.getCurrentRequestTimestamp());
             candidateSessionDao.update(candidateSession);
+            candidateDataService.checkpointMostRecentTestSessionState(candidateSession);
+            candidateSessionStateCache.evict(candidateSession);
+            candidateSessionResultWriter.flush(candidateSession);
         }
     }
 
@@ -108,6 +108,9 @@ public class AssessmentReportingService {
     @Resource
     private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
 
+    @Resource
+    private CandidateSessionResultWriter candidateSessionResultWriter;
+
     //-------------------------------------------------
 
     public CandidateSession lookupCandidateSession(final long xid)
@@ -137,7 +140,8 @@ public class AssessmentReportingService {
     public CandidateSessionSummaryReport buildCandidateSessionSummaryReport(final CandidateSession candidateSession) {
         Assert.notNull(candidateSession, "candidateSession");
 
-        /* Look up stored outcomes for this session */
+        /* Look up stored outcomes for this session (making sure they're up to date) */
+        candidateSessionResultWriter.flush(candidateSession);
         final List<CandidateSessionOutcome> candidateSessionOutcomes = candidateSessionOutcomeDao.getForSession(candidateSession);
 
         /* Convert outcomes into an easy form for manipulating */
@@ -251,7 +255,8 @@ public class AssessmentReportingService {
     public DeliveryCandidateSummaryReport buildDeliveryCandidateSummaryReport(final Delivery delivery) {
         Assert.notNull(delivery, "delivery");
 
-        /* Look up all outcomes for all sessions associated with this delivery */
+        /* Look up all outcomes for all sessions associated with this delivery (making sure they're up to date) */
+        candidateSessionResultWriter.flush(delivery);
         final List<CandidateSessionOutcome> candidateSessionOutcomes = candidateSessionOutcomeDao.getForDelivery(delivery);
 
         /* Group results by each individual CandidateSession, also building up lists (ordered sets) of unique outcome identifiers */
@@ -0,0 +1,189 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.services.domain.CacheStatistics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Exposes the statistics gathered by {@link CacheStatisticsService} as JMX MXBeans
+ * registered with the platform MBean server, named
+ * <code>uk.ac.ed.ph.qtiworks:type=Cache,name=(cache name)</code>.
+ *
+ * @author David McKain
+ */
+@Service
+public class CacheStatisticsMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheStatisticsMonitor.class);
+
+    public static final String OBJECT_NAME_PREFIX = "uk.ac.ed.ph.qtiworks:type=Cache,name=";
+
+    @Resource
+    private CacheStatisticsService cacheStatisticsService;
+
+    private final List<ObjectName> registeredObjectNames = new ArrayList<ObjectName>();
+
+    @PostConstruct
+    public void init() {
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (final CacheStatistics cacheStatistics : cacheStatisticsService.getAllCacheStatistics()) {
+            final String cacheName = cacheStatistics.getCacheName();
+            try {
+                final ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + cacheName);
+                mbeanServer.registerMBean(new CacheMXBeanImpl(cacheName), objectName);
+                registeredObjectNames.add(objectName);
+            }
+            catch (final InstanceAlreadyExistsException e) {
+                /* (This can happen if more than one QTIWorks is running in the same JVM) */
+                logger.warn("JMX statistics for cache {} are already registered by another application", cacheName);
+            }
+            catch (final JMException e) {
+                logger.warn("Failed to register JMX statistics for cache {}", cacheName, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName objectName : registeredObjectNames) {
+            try {
+                mbeanServer.unregisterMBean(objectName);
+            }
+            catch (final JMException e) {
+                logger.warn("Failed to unregister JMX MBean {}", objectName, e);
+            }
+        }
+        registeredObjectNames.clear();
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * JMX view of the {@link CacheStatistics} for a single cache.
+     */
+    public interface CacheMXBean {
+
+        long getSize();
+        long getCapacity();
+        long getHitCount();
+        long getMissCount();
+        double getHitRate();
+        long getLoadCount();
+        long getTotalLoadTime();
+        double getAverageLoadTime();
+        long getEvictionCount();
+
+    }
+
+    private final class CacheMXBeanImpl implements CacheMXBean {
+
+        private final String cacheName;
+
+        public CacheMXBeanImpl(final String cacheName) {
+            this.cacheName = cacheName;
+        }
+
+        private CacheStatistics getStatistics() {
+            if (CacheStatisticsService.PROCESSING_MAP_CACHE_NAME.equals(cacheName)) {
+                return cacheStatisticsService.getProcessingMapCacheStatistics();
+            }
+            else if (CacheStatisticsService.SESSION_STATE_CACHE_NAME.equals(cacheName)) {
+                return cacheStatisticsService.getSessionStateCacheStatistics();
+            }
+            return cacheStatisticsService.getXsltStylesheetCacheStatistics();
+        }
+
+        @Override
+        public long getSize() {
+            return getStatistics().getSize();
+        }
+
+        @Override
+        public long getCapacity() {
+            return getStatistics().getCapacity();
+        }
+
+        @Override
+        public long getHitCount() {
+            return getStatistics().getHitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return getStatistics().getMissCount();
+        }
+
+        @Override
+        public double getHitRate() {
+            return getStatistics().getHitRate();
+        }
+
+        @Override
+        public long getLoadCount() {
+            return getStatistics().getLoadCount();
+        }
+
+        @Override
+        public long getTotalLoadTime() {
+            return getStatistics().getTotalLoadTime();
+        }
+
+        @Override
+        public double getAverageLoadTime() {
+            return getStatistics().getAverageLoadTime();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return getStatistics().getEvictionCount();
+        }
+    }
+}
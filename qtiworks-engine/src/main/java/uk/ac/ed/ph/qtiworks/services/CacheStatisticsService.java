@@ -0,0 +1,122 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.services.domain.CacheStatistics;
+
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.SimpleXsltStylesheetCache;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Gathers usage statistics for the in-memory caches used by QTIWorks. These are also
+ * exposed over JMX by {@link CacheStatisticsMonitor}.
+ * <p>
+ * The underlying counters are all maintained without locking, so gathering these statistics
+ * doesn't hold up users of the caches.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @author David McKain
+ */
+@Service
+public class CacheStatisticsService {
+
+    public static final String PROCESSING_MAP_CACHE_NAME = "processingMaps";
+    public static final String SESSION_STATE_CACHE_NAME = "sessionStates";
+    public static final String XSLT_STYLESHEET_CACHE_NAME = "xsltStylesheets";
+
+    @Resource
+    private AssessmentObjectManagementService assessmentObjectManagementService;
+
+    @Resource
+    private CandidateSessionStateCache candidateSessionStateCache;
+
+    @Resource
+    private XsltStylesheetCache xsltStylesheetCache;
+
+    public List<CacheStatistics> getAllCacheStatistics() {
+        final List<CacheStatistics> result = new ArrayList<CacheStatistics>();
+        result.add(getProcessingMapCacheStatistics());
+        result.add(getSessionStateCacheStatistics());
+        result.add(getXsltStylesheetCacheStatistics());
+        return result;
+    }
+
+    public CacheStatistics getProcessingMapCacheStatistics() {
+        return new CacheStatistics(PROCESSING_MAP_CACHE_NAME,
+                assessmentObjectManagementService.getCacheUsage(),
+                assessmentObjectManagementService.getCacheMaxWeight(),
+                assessmentObjectManagementService.getCacheHitCount(),
+                assessmentObjectManagementService.getCacheMissCount(),
+                assessmentObjectManagementService.getCacheLoadCount(),
+                TimeUnit.NANOSECONDS.toMillis(assessmentObjectManagementService.getCacheTotalLoadTime()),
+                assessmentObjectManagementService.getCachePurgeCount());
+    }
+
+    public CacheStatistics getSessionStateCacheStatistics() {
+        /* (States are put into this cache as they are recorded rather than loaded on a miss) */
+        return new CacheStatistics(SESSION_STATE_CACHE_NAME,
+                candidateSessionStateCache.getCacheUsage(),
+                candidateSessionStateCache.getCacheMaxSize(),
+                candidateSessionStateCache.getCacheHitCount(),
+                candidateSessionStateCache.getCacheMissCount(),
+                -1L,
+                -1L,
+                candidateSessionStateCache.getCachePurgeCount());
+    }
+
+    public CacheStatistics getXsltStylesheetCacheStatistics() {
+        if (!(xsltStylesheetCache instanceof SimpleXsltStylesheetCache)) {
+            /* (Other implementations don't keep statistics) */
+            return new CacheStatistics(XSLT_STYLESHEET_CACHE_NAME, -1L, -1L, -1L, -1L, -1L, -1L, -1L);
+        }
+        final SimpleXsltStylesheetCache simpleXsltStylesheetCache = (SimpleXsltStylesheetCache) xsltStylesheetCache;
+        return new CacheStatistics(XSLT_STYLESHEET_CACHE_NAME,
+                simpleXsltStylesheetCache.getSize(),
+                -1L,
+                simpleXsltStylesheetCache.getHitCount(),
+                simpleXsltStylesheetCache.getMissCount(),
+                simpleXsltStylesheetCache.getLoadCount(),
+                TimeUnit.NANOSECONDS.toMillis(simpleXsltStylesheetCache.getTotalLoadTime()),
+                0L);
+    }
+}
@@ -41,31 +41,24 @@ import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEventNotification;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateItemEventType;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
-import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateTestEventType;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 import uk.ac.ed.ph.qtiworks.domain.entities.DeliverySettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.ItemDeliverySettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.TestDeliverySettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
-import uk.ac.ed.ph.qtiworks.mathassess.GlueValueBinder;
-import uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants;
+import uk.ac.ed.ph.qtiworks.services.CandidateSessionStateLog.RecordType;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventDao;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventNotificationDao;
-import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
-import uk.ac.ed.ph.qtiworks.utils.XmlUtilities;
+import uk.ac.ed.ph.qtiworks.services.domain.OutputStreamer;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.JqtiPlus;
-import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.attribute.Attribute;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
-import uk.ac.ed.ph.jqtiplus.node.result.AbstractResult;
 import uk.ac.ed.ph.jqtiplus.node.result.AssessmentResult;
-import uk.ac.ed.ph.jqtiplus.node.result.ItemVariable;
-import uk.ac.ed.ph.jqtiplus.node.result.OutcomeVariable;
 import uk.ac.ed.ph.jqtiplus.notification.Notification;
 import uk.ac.ed.ph.jqtiplus.notification.NotificationRecorder;
 import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
@@ -80,33 +73,42 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlan;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
-import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
-import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
-import uk.ac.ed.ph.jqtiplus.value.RecordValue;
-import uk.ac.ed.ph.jqtiplus.value.SingleValue;
-import uk.ac.ed.ph.jqtiplus.value.Value;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryUnmarshallingException;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateSaxMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateStaxUnmarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateDeltaBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateSaxMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateStaxUnmarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.XmlUnmarshallingException;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
-import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
-import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
 
 import javax.annotation.Resource;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import org.w3c.dom.Document;
 
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
@@ -121,6 +123,23 @@ import com.google.common.io.Files;
 @Transactional(propagation=Propagation.SUPPORTS)
 public class CandidateDataService {
 
+    private static final Logger logger = LoggerFactory.getLogger(CandidateDataService.class);
+
+    /** File extension used for state files stored as XML */
+    private static final String XML_STATE_FILE_EXTENSION = ".xml";
+
+    /** File extension used for state files stored in binary format */
+    private static final String BINARY_STATE_FILE_EXTENSION = ".bin";
+
+    /** File extension used for test state deltas */
+    private static final String DELTA_STATE_FILE_EXTENSION = ".delta";
+
+    /** Length of the prefix (base event ID and depth) at the start of each delta file */
+    private static final int DELTA_STATE_FILE_PREFIX_LENGTH = 12;
+
+    /** File extension used for recorded test event inputs */
+    private static final String EVENT_INPUT_FILE_EXTENSION = ".input";
+
     @Resource
     private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
@@ -137,7 +156,13 @@ public class CandidateDataService {
     private AssessmentObjectManagementService assessmentObjectManagementService;
 
     @Resource
-    private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
+    private CandidateSessionStateCache candidateSessionStateCache;
+
+    @Resource
+    private CandidateSessionStateLog candidateSessionStateLog;
+
+    @Resource
+    private CandidateSessionResultWriter candidateSessionResultWriter;
 
     @Resource
     private CandidateEventDao candidateEventDao;
@@ -226,13 +251,59 @@ public class CandidateDataService {
     // Item methods
 
     public void storeItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
-        final Document stateDocument = ItemSessionStateXmlMarshaller.marshal(itemSessionState);
-        storeStateDocument(candidateEvent, stateDocument);
+        if (qtiWorksDeploymentSettings.isBinaryStateStorage()) {
+            storeStateData(candidateEvent, RecordType.BINARY_STATE, ItemSessionStateBinaryMarshaller.marshal(itemSessionState));
+        }
+        else {
+            final OutputStream outputStream = createStateXmlOutputStream(candidateEvent);
+            try {
+                ItemSessionStateSaxMarshaller.marshal(itemSessionState, outputStream, qtiWorksDeploymentSettings.isStateXmlIndenting());
+            }
+            finally {
+                ServiceUtilities.ensureClose(outputStream);
+            }
+        }
+        candidateSessionStateCache.cacheItemSessionState(candidateEvent, itemSessionState);
     }
 
+    /**
+     * Loads the {@link ItemSessionState} recorded for the given {@link CandidateEvent}. The
+     * resulting state will be marked as clean.
+     *
+     * @see ItemSessionState#isResultDirty()
+     */
     public ItemSessionState loadItemSessionState(final CandidateEvent candidateEvent) {
-        final Document document = loadStateDocument(candidateEvent);
-        return ItemSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+        ItemSessionState itemSessionState = candidateSessionStateCache.getItemSessionState(candidateEvent);
+        if (itemSessionState==null) {
+            itemSessionState = loadItemSessionStateFile(candidateEvent);
+            candidateSessionStateCache.cacheItemSessionState(candidateEvent, itemSessionState);
+        }
+        itemSessionState.clearResultDirty();
+        return itemSessionState;
+    }
+
+    private ItemSessionState loadItemSessionStateFile(final CandidateEvent candidateEvent) {
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        final long eventId = candidateEvent.getId().longValue();
+        final byte[] binaryStateData = loadStateData(candidateSession, eventId, RecordType.BINARY_STATE);
+        if (binaryStateData!=null) {
+            try {
+                return ItemSessionStateBinaryMarshaller.unmarshal(binaryStateData);
+            }
+            catch (final BinaryUnmarshallingException e) {
+                throw new QtiWorksLogicException("Could not unmarshal binary state data. This is an internal error as we currently don't expose this data to clients", e);
+            }
+        }
+        final InputStream inputStream = openStateXml(candidateSession, eventId);
+        try {
+            return ItemSessionStateStaxUnmarshaller.unmarshal(inputStream);
+        }
+        catch (final XmlUnmarshallingException e) {
+            throw new QtiWorksLogicException("Could not parse serialized state XML. This is an internal error as we currently don't expose this data to clients", e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(inputStream);
+        }
     }
 
     public CandidateEvent recordCandidateItemEvent(final CandidateSession candidateSession,
@@ -373,12 +444,14 @@ public class CandidateDataService {
         return itemSessionController.computeAssessmentResult(requestTimestampContext.getCurrentRequestTimestamp(), sessionIdentifier, sessionIdentifierSourceId);
     }
 
+    /**
+     * Records the given {@link AssessmentResult} (and item outcome variables) for the given
+     * {@link CandidateSession}. This is normally done in the background.
+     *
+     * @see CandidateSessionResultWriter
+     */
     public void recordItemAssessmentResult(final CandidateSession candidateSession, final AssessmentResult assessmentResult) {
-        /* First record full result XML to filesystem */
-        storeAssessmentResultFile(candidateSession, assessmentResult);
-
-        /* Then record item outcome variables to DB */
-        recordOutcomeVariables(candidateSession, assessmentResult.getItemResults().get(0));
+        candidateSessionResultWriter.recordResult(candidateSession, assessmentResult, assessmentResult.getItemResults().get(0));
     }
 
     public void ensureItemDelivery(final Delivery delivery) {
@@ -391,14 +464,321 @@ public class CandidateDataService {
     //----------------------------------------------------
     // Test methods
 
+    /**
+     * Stores a full checkpoint of the given {@link TestSessionState} for the given {@link CandidateEvent}.
+     */
     public void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState) {
-        final Document stateDocument = TestSessionStateXmlMarshaller.marshal(testSessionState);
-        storeStateDocument(candidateEvent, stateDocument);
+        if (qtiWorksDeploymentSettings.isBinaryStateStorage()) {
+            storeStateData(candidateEvent, RecordType.BINARY_STATE, TestSessionStateBinaryMarshaller.marshal(testSessionState));
+        }
+        else {
+            final OutputStream outputStream = createStateXmlOutputStream(candidateEvent);
+            try {
+                TestSessionStateSaxMarshaller.marshal(testSessionState, outputStream, qtiWorksDeploymentSettings.isStateXmlIndenting());
+            }
+            finally {
+                ServiceUtilities.ensureClose(outputStream);
+            }
+        }
+        candidateSessionStateCache.cacheTestSessionState(candidateEvent, testSessionState, 0);
+    }
+
+    /**
+     * Stores the {@link TestSessionState} of the given {@link TestSessionController} for the given
+     * {@link CandidateEvent}. If a {@link TestSessionStateBase} is provided then the state will be
+     * stored as a delta against it (or just the operations performed by the controller when using
+     * event-sourced storage), unless it is time to record a new full checkpoint.
+     * <p>
+     * A full checkpoint is always stored once the test has been exited, so that the final state
+     * of the session never needs to be rebuilt.
+     *
+     * @see QtiWorksDeploymentSettings#getStateCheckpointInterval()
+     * @see QtiWorksDeploymentSettings#isEventSourcedStateStorage()
+     */
+    private void storeTestSessionState(final CandidateEvent candidateEvent, final TestSessionStateBase stateBase,
+            final TestSessionController testSessionController) {
+        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        if (stateBase!=null && qtiWorksDeploymentSettings.isEventSourcedStateStorage()
+                && testSessionController.getRecordedOperations()!=null
+                && testSessionController.getRandomSeed()!=null) {
+            storeTestEventInput(candidateEvent, stateBase, testSessionController);
+            return;
+        }
+        final int depth = stateBase!=null ? stateBase.getChainDepth() + 1 : 0;
+        if (stateBase!=null && depth < qtiWorksDeploymentSettings.getStateCheckpointInterval()
+                && !testSessionState.isExited()) {
+            final byte[] deltaData = TestSessionStateDeltaBinaryMarshaller.marshalDelta(stateBase.createTestSessionState(), testSessionState);
+            storeTestSessionStateDelta(candidateEvent,
+                    new TestSessionStateDelta(stateBase.getCandidateEvent().getId().longValue(), depth, deltaData));
+            candidateSessionStateCache.cacheTestSessionState(candidateEvent, testSessionState, depth);
+            return;
+        }
+        storeTestSessionState(candidateEvent, testSessionState);
+    }
+
+    /**
+     * Records the inputs of the given {@link CandidateEvent}, from which its state can be rebuilt
+     * by replaying the operations recorded by the given {@link TestSessionController} on the state
+     * held in the given {@link TestSessionStateBase}. A full checkpoint of the resulting state is
+     * also stored every {@link QtiWorksDeploymentSettings#getStateCheckpointInterval()} events,
+     * and once the test has been exited.
+     */
+    private void storeTestEventInput(final CandidateEvent candidateEvent, final TestSessionStateBase stateBase,
+            final TestSessionController testSessionController) {
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final int nextDepth = stateBase.getChainDepth() + 1;
+        final int depth = nextDepth < qtiWorksDeploymentSettings.getStateCheckpointInterval()
+                && !testSessionState.isExited() ? nextDepth : 0;
+
+        final AssessmentPackage assessmentPackage = assessmentDataService.ensureSelectedAssessmentPackage(candidateSession.getDelivery());
+        final CandidateTestEventInput eventInput = new CandidateTestEventInput(stateBase.getCandidateEvent().getId().longValue(),
+                depth, assessmentPackage.getId().longValue(), candidateEvent.getTestEventType(),
+                testSessionController.getRandomSeed().longValue(), testSessionController.getRecordedOperations());
+        storeStateData(candidateEvent, RecordType.EVENT_INPUT, eventInput.marshal(filespaceManager));
+
+        if (depth==0) {
+            storeTestSessionState(candidateEvent, testSessionState);
+        }
+        else {
+            candidateSessionStateCache.cacheTestSessionState(candidateEvent, testSessionState, depth);
+        }
+    }
+
+    /**
+     * Loads the {@link CandidateTestEventInput} recorded for the given {@link CandidateEvent},
+     * returning null if its inputs were not recorded.
+     */
+    public CandidateTestEventInput loadTestEventInput(final CandidateEvent candidateEvent) {
+        return loadTestEventInput(candidateEvent.getCandidateSession(), candidateEvent.getId().longValue());
+    }
+
+    private CandidateTestEventInput loadTestEventInput(final CandidateSession candidateSession, final long eventId) {
+        final byte[] eventInputData = loadStateData(candidateSession, eventId, RecordType.EVENT_INPUT);
+        return eventInputData!=null ? CandidateTestEventInput.unmarshal(eventInputData, filespaceManager) : null;
+    }
+
+    /**
+     * Computes the random seed used when handling a test event at the given time. This is
+     * deterministic so that the same seed can be recorded against the resulting event.
+     */
+    private static long computeTestEventRandomSeed(final CandidateSession candidateSession, final Date timestamp) {
+        return (candidateSession.getId().longValue() * 0x9E3779B97F4A7C15L) ^ timestamp.getTime();
+    }
+
+    /**
+     * Replays the given {@link CandidateTestEventInput} on the given {@link TestSessionState} when
+     * rebuilding the state of a {@link CandidateSession}. The given state is updated in place and
+     * returned.
+     *
+     * @throws QtiWorksLogicException if the event was recorded against a different
+     *   {@link AssessmentPackage} to the one currently selected for the {@link CandidateSession},
+     *   as replaying it against different content would not rebuild the state the candidate saw.
+     */
+    private TestSessionState replayRecordedTestEvent(final CandidateSession candidateSession, final TestSessionState testSessionState,
+            final CandidateTestEventInput eventInput) {
+        final AssessmentPackage assessmentPackage = assessmentDataService.ensureSelectedAssessmentPackage(candidateSession.getDelivery());
+        if (assessmentPackage.getId().longValue()!=eventInput.getAssessmentPackageId()) {
+            throw new QtiWorksLogicException("Cannot rebuild state of " + candidateSession
+                    + " as its events were recorded against AssessmentPackage #" + eventInput.getAssessmentPackageId()
+                    + " but " + assessmentPackage + " is now selected");
+        }
+        return replayTestEventWithSelectedPackage(candidateSession, testSessionState, eventInput);
+    }
+
+    /**
+     * Replays the given {@link CandidateTestEventInput} on the given {@link TestSessionState},
+     * using the currently selected {@link AssessmentPackage} for the {@link CandidateSession},
+     * regardless of which {@link AssessmentPackage} the event was originally recorded against.
+     * The given state is updated in place and returned.
+     * <p>
+     * This should only be used when deliberately replaying events against (possibly) new content,
+     * i.e. by {@link CandidateSessionReplayVerifier} or when re-scoring sessions. Candidate state
+     * should be loaded via {@link #loadTestSessionState(CandidateEvent)} and friends instead.
+     *
+     * @see CandidateTestEventReplayer
+     */
+    public TestSessionState replayTestEventWithSelectedPackage(final CandidateSession candidateSession,
+            final TestSessionState testSessionState, final CandidateTestEventInput eventInput) {
+        final TestSessionController testSessionController = createTestSessionController(candidateSession, testSessionState, null);
+        if (testSessionController==null) {
+            throw new QtiWorksLogicException("Cannot replay event as the TestProcessingMap for " + candidateSession + " could not be created");
+        }
+        CandidateTestEventReplayer.replay(testSessionController, eventInput);
+        return testSessionState;
     }
 
+    /**
+     * Loads the {@link TestSessionState} recorded for the given {@link CandidateEvent}, rebuilding
+     * it from the nearest full checkpoint and any subsequent deltas or event inputs if required.
+     * The resulting state will be marked as clean.
+     *
+     * @see TestSessionState#isResultDirty()
+     */
     public TestSessionState loadTestSessionState(final CandidateEvent candidateEvent) {
-        final Document document = loadStateDocument(candidateEvent);
-        return TestSessionStateXmlMarshaller.unmarshal(document.getDocumentElement());
+        TestSessionState testSessionState = candidateSessionStateCache.getTestSessionState(candidateEvent);
+        if (testSessionState==null) {
+            final TestSessionStateChain chain = findTestSessionStateChain(candidateEvent);
+            testSessionState = rollForwardTestSessionState(candidateEvent.getCandidateSession(), chain);
+            candidateSessionStateCache.cacheTestSessionState(candidateEvent, testSessionState, chain.getDepth());
+        }
+        testSessionState.clearResultDirty();
+        return testSessionState;
+    }
+
+    /**
+     * Loads the {@link TestSessionState} recorded for the given {@link CandidateEvent} as a
+     * {@link TestSessionStateBase}. This should be used before performing a candidate action on
+     * the most recent state, with the result passed back when recording the resulting event.
+     *
+     * @see #createTestSessionController(TestSessionStateBase, NotificationRecorder)
+     * @see #recordCandidateTestEvent(CandidateSession, TestSessionStateBase, CandidateTestEventType, CandidateItemEventType, TestPlanNodeKey, TestSessionController, NotificationRecorder)
+     */
+    public TestSessionStateBase loadTestSessionStateBase(final CandidateEvent candidateEvent) {
+        TestSessionStateBase result = candidateSessionStateCache.getTestSessionStateBase(candidateEvent);
+        if (result==null) {
+            final TestSessionStateChain chain = findTestSessionStateChain(candidateEvent);
+            final TestSessionState testSessionState = rollForwardTestSessionState(candidateEvent.getCandidateSession(), chain);
+            result = new TestSessionStateBase(candidateEvent, chain.getDepth(), TestSessionStateBinaryMarshaller.marshal(testSessionState));
+            candidateSessionStateCache.cacheTestSessionStateBase(result);
+        }
+        return result;
+    }
+
+    /**
+     * Rebuilds the {@link TestSessionState} recorded for the given {@link CandidateEvent} from
+     * its stored data, bypassing the {@link CandidateSessionStateCache}. The caller is free to
+     * modify the resulting state.
+     */
+    public TestSessionState rebuildTestSessionState(final CandidateEvent candidateEvent) {
+        return rollForwardTestSessionState(candidateEvent.getCandidateSession(), findTestSessionStateChain(candidateEvent));
+    }
+
+    /**
+     * Stores a full checkpoint of the {@link TestSessionState} for the most recent {@link CandidateEvent}
+     * in the given {@link CandidateSession}, unless it already has one. This should be called when
+     * a test session is terminated other than by the candidate exiting the test, so that its final
+     * state never needs to be rebuilt from deltas or event inputs (e.g. after its
+     * {@link AssessmentPackage} has been replaced).
+     * <p>
+     * This does nothing for item sessions, which always store full state. Failure to rebuild the
+     * state is logged rather than thrown, so that termination can always go ahead.
+     *
+     * @return true if the most recent event now has a checkpoint (or the session is not a test
+     *   session or has no events), false if its state could not be rebuilt
+     */
+    public boolean checkpointMostRecentTestSessionState(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        if (candidateSession.getDelivery().getAssessment().getAssessmentType()!=AssessmentObjectType.ASSESSMENT_TEST) {
+            return true;
+        }
+        final CandidateEvent mostRecentEvent = getMostRecentEvent(candidateSession);
+        if (mostRecentEvent==null || hasTestSessionStateCheckpoint(candidateSession, mostRecentEvent.getId().longValue())) {
+            return true;
+        }
+        final TestSessionState testSessionState;
+        try {
+            testSessionState = rebuildTestSessionState(mostRecentEvent);
+        }
+        catch (final RuntimeException e) {
+            logger.warn("Could not rebuild state of CandidateEvent #" + mostRecentEvent.getId()
+                    + " in order to checkpoint it", e);
+            return false;
+        }
+        storeTestSessionState(mostRecentEvent, testSessionState);
+        return true;
+    }
+
+    /**
+     * Walks back from the given {@link CandidateEvent} through any stored deltas and event inputs
+     * until a full checkpoint is reached.
+     */
+    private TestSessionStateChain findTestSessionStateChain(final CandidateEvent candidateEvent) {
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        final LinkedList<Object> chain = new LinkedList<Object>();
+        long checkpointEventId = candidateEvent.getId().longValue();
+        while (true) {
+            /* Stop at the first checkpoint, which may have been added after a delta or event input
+             * was stored for this event */
+            if (hasTestSessionStateCheckpoint(candidateSession, checkpointEventId)) {
+                break;
+            }
+            final TestSessionStateDelta delta = loadTestSessionStateDelta(candidateSession, checkpointEventId);
+            if (delta!=null) {
+                chain.addFirst(delta);
+                checkpointEventId = delta.getBaseEventId();
+                continue;
+            }
+            final CandidateTestEventInput eventInput = loadTestEventInput(candidateSession, checkpointEventId);
+            if (eventInput!=null && eventInput.getDepth() > 0) {
+                chain.addFirst(eventInput);
+                checkpointEventId = eventInput.getBaseEventId();
+                continue;
+            }
+            break;
+        }
+        return new TestSessionStateChain(checkpointEventId, chain);
+    }
+
+    private TestSessionState rollForwardTestSessionState(final CandidateSession candidateSession, final TestSessionStateChain chain) {
+        /* Load checkpoint, then roll forward through the deltas and replayed events */
+        TestSessionState result = loadTestSessionStateCheckpoint(candidateSession, chain.getCheckpointEventId());
+        for (final Object link : chain.getLinks()) {
+            if (link instanceof CandidateTestEventInput) {
+                result = replayRecordedTestEvent(candidateSession, result, (CandidateTestEventInput) link);
+                continue;
+            }
+            try {
+                result = TestSessionStateDeltaBinaryMarshaller.applyDelta(result, ((TestSessionStateDelta) link).getDeltaData());
+            }
+            catch (final BinaryUnmarshallingException e) {
+                throw new QtiWorksLogicException("Could not apply binary state delta. This is an internal error as we currently don't expose this data to clients", e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the full checkpoint of the {@link TestSessionState} stored for the given
+     * {@link CandidateEvent}, bypassing the {@link CandidateSessionStateCache}.
+     *
+     * @throws QtiWorksLogicException if no checkpoint was stored for this event
+     */
+    public TestSessionState loadTestSessionStateCheckpoint(final CandidateEvent candidateEvent) {
+        return loadTestSessionStateCheckpoint(candidateEvent.getCandidateSession(), candidateEvent.getId().longValue());
+    }
+
+    /**
+     * Returns whether a full checkpoint of the {@link TestSessionState} has been stored for the
+     * {@link CandidateEvent} having the given ID, without loading it.
+     */
+    private boolean hasTestSessionStateCheckpoint(final CandidateSession candidateSession, final long eventId) {
+        return candidateSessionStateLog.hasRecord(candidateSession, eventId, RecordType.BINARY_STATE)
+                || candidateSessionStateLog.hasRecord(candidateSession, eventId, RecordType.XML_STATE)
+                || getSessionStateFile(candidateSession, eventId, RecordType.BINARY_STATE).exists()
+                || getSessionStateFile(candidateSession, eventId, RecordType.XML_STATE).exists();
+    }
+
+    private TestSessionState loadTestSessionStateCheckpoint(final CandidateSession candidateSession, final long eventId) {
+        final byte[] binaryStateData = loadStateData(candidateSession, eventId, RecordType.BINARY_STATE);
+        if (binaryStateData!=null) {
+            try {
+                return TestSessionStateBinaryMarshaller.unmarshal(binaryStateData);
+            }
+            catch (final BinaryUnmarshallingException e) {
+                throw new QtiWorksLogicException("Could not unmarshal binary state data. This is an internal error as we currently don't expose this data to clients", e);
+            }
+        }
+        final InputStream inputStream = openStateXml(candidateSession, eventId);
+        try {
+            return TestSessionStateStaxUnmarshaller.unmarshal(inputStream);
+        }
+        catch (final XmlUnmarshallingException e) {
+            throw new QtiWorksLogicException("Could not parse serialized state XML. This is an internal error as we currently don't expose this data to clients", e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(inputStream);
+        }
     }
 
     /**
@@ -454,6 +834,28 @@ public class CandidateDataService {
         return createTestSessionController(candidateEvent.getCandidateSession(), testSessionState, notificationRecorder);
     }
 
+    /**
+     * Wraps a new copy of the {@link TestSessionState} held in the given {@link TestSessionStateBase}
+     * in a {@link TestSessionController}.
+     * <p>
+     * When using event-sourced storage, the resulting {@link TestSessionController} will record the
+     * operations performed on it, which will then be stored when recording the resulting event.
+     * <p>
+     * It is assumed that the test was runnable, so this will never return null.
+     *
+     * @see TestSessionController#startRecordingOperations()
+     */
+    public TestSessionController createTestSessionController(final TestSessionStateBase stateBase,
+            final NotificationRecorder notificationRecorder) {
+        Assert.notNull(stateBase, "stateBase");
+        final TestSessionController result = createTestSessionController(stateBase.getCandidateEvent().getCandidateSession(),
+                stateBase.createTestSessionState(), notificationRecorder);
+        if (qtiWorksDeploymentSettings.isEventSourcedStateStorage()) {
+            result.startRecordingOperations();
+        }
+        return result;
+    }
+
     /**
      * Wraps the given {@link TestSessionState} in a {@link TestSessionController}.
      * <p>
@@ -485,35 +887,49 @@ public class CandidateDataService {
             result.addNotificationListener(notificationRecorder);
         }
 
+        /* Use a reproducible random seed if we're only recording event inputs */
+        if (qtiWorksDeploymentSettings.isEventSourcedStateStorage()) {
+            final Date timestamp = requestTimestampContext.getCurrentRequestTimestamp();
+            result.setRandomSeed(Long.valueOf(computeTestEventRandomSeed(candidateSession, timestamp)));
+        }
+
         return result;
     }
 
     public CandidateEvent recordCandidateExitTestEvent(final CandidateSession candidateSession,
-            final TestSessionState testSessionState,
+            final TestSessionStateBase stateBase, final TestSessionController testSessionController,
             final NotificationRecorder notificationRecorder) {
-        return recordCandidateTestEvent(candidateSession, CandidateTestEventType.END_TEST_PART, null, null, testSessionState, notificationRecorder);
+        return recordCandidateTestEvent(candidateSession, stateBase, CandidateTestEventType.END_TEST_PART, null, null, testSessionController, notificationRecorder);
     }
 
     public CandidateEvent recordCandidateTestEvent(final CandidateSession candidateSession,
-            final CandidateTestEventType testEventType, final TestSessionState testSessionState,
-            final NotificationRecorder notificationRecorder) {
-        return recordCandidateTestEvent(candidateSession, testEventType, null, null, testSessionState, notificationRecorder);
+            final TestSessionStateBase stateBase, final CandidateTestEventType testEventType,
+            final TestSessionController testSessionController, final NotificationRecorder notificationRecorder) {
+        return recordCandidateTestEvent(candidateSession, stateBase, testEventType, null, null, testSessionController, notificationRecorder);
     }
 
     public CandidateEvent recordCandidateTestEvent(final CandidateSession candidateSession,
-            final CandidateTestEventType testEventType, final CandidateItemEventType itemEventType,
-            final TestSessionState testSessionState,
+            final TestSessionStateBase stateBase, final CandidateTestEventType testEventType,
+            final CandidateItemEventType itemEventType, final TestSessionController testSessionController,
             final NotificationRecorder notificationRecorder) {
-        return recordCandidateTestEvent(candidateSession, testEventType, itemEventType, null, testSessionState, notificationRecorder);
+        return recordCandidateTestEvent(candidateSession, stateBase, testEventType, itemEventType, null, testSessionController, notificationRecorder);
     }
 
+    /**
+     * Records a new test {@link CandidateEvent}, storing the {@link TestSessionState} of the
+     * given {@link TestSessionController} that resulted from it.
+     *
+     * @param stateBase {@link TestSessionStateBase} that was loaded for the previous event before
+     *   performing the action that led to this event, or null if there was no previous event.
+     *   This is used as the base for storing the new state.
+     */
     public CandidateEvent recordCandidateTestEvent(final CandidateSession candidateSession,
-            final CandidateTestEventType testEventType, final CandidateItemEventType itemEventType,
-            final TestPlanNodeKey itemKey, final TestSessionState testSessionState,
-            final NotificationRecorder notificationRecorder) {
+            final TestSessionStateBase stateBase, final CandidateTestEventType testEventType,
+            final CandidateItemEventType itemEventType, final TestPlanNodeKey itemKey,
+            final TestSessionController testSessionController, final NotificationRecorder notificationRecorder) {
         Assert.notNull(candidateSession, "candidateSession");
         Assert.notNull(testEventType, "testEventType");
-        Assert.notNull(testSessionState, "testSessionState");
+        Assert.notNull(testSessionController, "testSessionController");
 
         /* Create event */
         final CandidateEvent event = new CandidateEvent();
@@ -525,11 +941,17 @@ public class CandidateDataService {
         }
         event.setTimestamp(requestTimestampContext.getCurrentRequestTimestamp());
 
+        /* Make sure the base state is for the previous event. (If another action has happened
+         * in the meantime then we'll play safe and store a full checkpoint.) */
+        final CandidateEvent previousEvent = getMostRecentEvent(candidateSession);
+        final boolean baseValid = stateBase!=null && previousEvent!=null
+                && previousEvent.getId().equals(stateBase.getCandidateEvent().getId());
+
         /* Store event */
         candidateEventDao.persist(event);
 
         /* Store test session state */
-        storeTestSessionState(event, testSessionState);
+        storeTestSessionState(event, baseValid ? stateBase : null, testSessionController);
 
         /* Now store processing notifications */
         if (notificationRecorder!=null) {
@@ -550,15 +972,42 @@ public class CandidateDataService {
     public AssessmentResult computeAndRecordTestAssessmentResult(final CandidateSession candidateSession, final TestSessionController testSessionController) {
         final AssessmentResult assessmentResult = computeTestAssessmentResult(candidateSession, testSessionController);
         recordTestAssessmentResult(candidateSession, assessmentResult);
+        testSessionController.getTestSessionState().clearResultDirty();
         return assessmentResult;
     }
 
-    public void recordTestAssessmentResult(final CandidateSession candidateSession, final AssessmentResult assessmentResult) {
-        /* First record full result XML to filesystem */
-        storeAssessmentResultFile(candidateSession, assessmentResult);
+    /**
+     * Variant of {@link #computeAndRecordTestAssessmentResult(CandidateSession, TestSessionController)}
+     * intended for use after navigation actions, which usually change nothing other than durations.
+     * The {@link AssessmentResult} is only recomputed and recorded if the {@link TestSessionState}
+     * has changed in a way that affects results, or if the recorded result is older than the
+     * configured duration refresh interval.
+     *
+     * @return the newly recorded {@link AssessmentResult}, or null if nothing needed to be recorded
+     *
+     * @see TestSessionState#isResultDirty()
+     * @see QtiWorksDeploymentSettings#getResultDurationRefreshInterval()
+     */
+    public AssessmentResult computeAndRecordTestAssessmentResultIfChanged(final CandidateSession candidateSession, final TestSessionController testSessionController) {
+        if (!testSessionController.getTestSessionState().isResultDirty()) {
+            final long refreshIntervalMillis = qtiWorksDeploymentSettings.getResultDurationRefreshInterval() * 1000L;
+            final long lastRecordedTime = candidateSessionResultWriter.getLastRecordedTime(candidateSession);
+            if (requestTimestampContext.getCurrentRequestTimestamp().getTime() - lastRecordedTime < refreshIntervalMillis) {
+                /* Only durations have changed, and these were recorded recently enough */
+                return null;
+            }
+        }
+        return computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+    }
 
-        /* Then record test outcome variables to DB */
-        recordOutcomeVariables(candidateSession, assessmentResult.getTestResult());
+    /**
+     * Records the given {@link AssessmentResult} (and test outcome variables) for the given
+     * {@link CandidateSession}. This is normally done in the background.
+     *
+     * @see CandidateSessionResultWriter
+     */
+    public void recordTestAssessmentResult(final CandidateSession candidateSession, final AssessmentResult assessmentResult) {
+        candidateSessionResultWriter.recordResult(candidateSession, assessmentResult, assessmentResult.getTestResult());
     }
 
     private void ensureTestDelivery(final Delivery delivery) {
@@ -570,76 +1019,286 @@ public class CandidateDataService {
 
     //----------------------------------------------------
     // State file management
-
-    private void storeStateDocument(final CandidateEvent candidateEvent, final Document stateXml) {
-        final File sessionFile = getSessionStateFile(candidateEvent);
-        final XsltSerializationOptions xsltSerializationOptions = new XsltSerializationOptions();
-        xsltSerializationOptions.setIndenting(true);
-        xsltSerializationOptions.setIncludingXMLDeclaration(false);
-        final Transformer serializer = XsltStylesheetManager.createSerializer(xsltSerializationOptions);
-        FileOutputStream resultStream = null;
-        try {
-            resultStream = new FileOutputStream(sessionFile);
-            serializer.transform(new DOMSource(stateXml), new StreamResult(resultStream));
+    //
+    // State is stored either as XML or in the compact binary format provided by
+    // JQTI+, depending on the deployment settings. Binary state files have a
+    // different extension to XML ones, so existing XML data can still be read
+    // back after binary storage has been enabled (and vice versa).
+    //
+    // Test state may also be stored as a delta against the state for the previous
+    // event, with a full checkpoint being stored periodically.
+    //
+    // Each of these may either be stored in its own file or appended to the
+    // CandidateSessionStateLog for the session. Both places are checked when reading
+    // state back, so the storage setting may be changed at any time.
+
+    private OutputStream createStateXmlOutputStream(final CandidateEvent candidateEvent) {
+        if (qtiWorksDeploymentSettings.isStateLogStorage()) {
+            return new StateLogRecordOutputStream(candidateEvent, RecordType.XML_STATE);
         }
-        catch (final TransformerException e) {
-            throw new QtiWorksRuntimeException("Unexpected Exception serializing state DOM", e);
+        final File sessionFile = getSessionStateFile(candidateEvent.getCandidateSession(), candidateEvent.getId().longValue(), RecordType.XML_STATE);
+        try {
+            return new BufferedOutputStream(new FileOutputStream(sessionFile));
         }
         catch (final FileNotFoundException e) {
             throw QtiWorksRuntimeException.unexpectedException(e);
         }
-        finally {
-            ServiceUtilities.ensureClose(resultStream);
+    }
+
+    /**
+     * Opens the XML state recorded for the {@link CandidateEvent} having the given ID, which must exist.
+     */
+    private InputStream openStateXml(final CandidateSession candidateSession, final long eventId) {
+        final byte[] loggedStateXml = candidateSessionStateLog.readRecord(candidateSession, eventId, RecordType.XML_STATE);
+        if (loggedStateXml!=null) {
+            return new ByteArrayInputStream(loggedStateXml);
+        }
+        final File sessionFile = getSessionStateFile(candidateSession, eventId, RecordType.XML_STATE);
+        try {
+            return new BufferedInputStream(new FileInputStream(sessionFile));
+        }
+        catch (final FileNotFoundException e) {
+            throw new QtiWorksLogicException("Expectation failed: No state recorded for CandidateEvent #" + eventId
+                    + " in either the state log or " + sessionFile, e);
         }
     }
 
-    private Document loadStateDocument(final CandidateEvent candidateEvent) {
-        final File sessionFile = ensureSessionStateFile(candidateEvent);
-        final DocumentBuilder documentBuilder = XmlUtilities.createNsAwareDocumentBuilder();
+    private void storeStateData(final CandidateEvent candidateEvent, final RecordType recordType, final byte[] stateData) {
+        if (qtiWorksDeploymentSettings.isStateLogStorage()) {
+            candidateSessionStateLog.appendRecord(candidateEvent, recordType, stateData);
+            return;
+        }
+        final File sessionFile = getSessionStateFile(candidateEvent.getCandidateSession(), candidateEvent.getId().longValue(), recordType);
         try {
-            return documentBuilder.parse(sessionFile);
+            Files.write(stateData, sessionFile);
         }
-        catch (final Exception e) {
-            throw new QtiWorksLogicException("Could not parse serailized state XML. This is an internal error as we currently don't expose this data to clients", e);
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
         }
     }
 
-    public File ensureSessionStateFile(final CandidateEvent candidateEvent) {
-        final File sessionStateFile = getSessionStateFile(candidateEvent);
-        if (!sessionStateFile.exists()) {
-            throw new QtiWorksLogicException("Expectation failed: State file " + sessionStateFile + " does not exist");
+    /**
+     * Loads the state data of the given {@link RecordType} recorded for the {@link CandidateEvent}
+     * having the given ID, returning null if no such data has been recorded.
+     */
+    private byte[] loadStateData(final CandidateSession candidateSession, final long eventId, final RecordType recordType) {
+        final byte[] loggedStateData = candidateSessionStateLog.readRecord(candidateSession, eventId, recordType);
+        if (loggedStateData!=null) {
+            return loggedStateData;
+        }
+        final File sessionFile = getSessionStateFile(candidateSession, eventId, recordType);
+        if (!sessionFile.exists()) {
+            return null;
+        }
+        try {
+            return Files.toByteArray(sessionFile);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
         }
-        return sessionStateFile;
     }
 
-    private File getSessionStateFile(final CandidateEvent candidateEvent) {
+    /**
+     * Streams the state recorded for the given {@link CandidateEvent} to the given
+     * {@link OutputStreamer} in XML format. Binary state data and deltas are converted to
+     * XML on the fly.
+     */
+    public void streamSessionStateXml(final CandidateEvent candidateEvent, final OutputStreamer outputStreamer)
+            throws IOException {
         final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        final long eventId = candidateEvent.getId().longValue();
+        final Date lastModifiedTime = candidateEvent.getTimestamp();
+        final byte[] loggedStateXml = candidateSessionStateLog.readRecord(candidateSession, eventId, RecordType.XML_STATE);
+        if (loggedStateXml!=null) {
+            outputStreamer.stream("application/xml", loggedStateXml.length, lastModifiedTime, new ByteArrayInputStream(loggedStateXml));
+            return;
+        }
+        final File xmlSessionStateFile = getSessionStateFile(candidateSession, eventId, RecordType.XML_STATE);
+        if (xmlSessionStateFile.exists()) {
+            ServiceUtilities.streamFile(xmlSessionStateFile, "application/xml", lastModifiedTime, outputStreamer);
+            return;
+        }
+        final AssessmentObjectType assessmentType = candidateSession.getDelivery().getAssessment().getAssessmentType();
+        final boolean indenting = qtiWorksDeploymentSettings.isStateXmlIndenting();
+        final ByteArrayOutputStream xmlStream = new ByteArrayOutputStream();
+        switch (assessmentType) {
+            case ASSESSMENT_ITEM:
+                ItemSessionStateSaxMarshaller.marshal(loadItemSessionState(candidateEvent), xmlStream, indenting);
+                break;
+
+            case ASSESSMENT_TEST:
+                TestSessionStateSaxMarshaller.marshal(loadTestSessionState(candidateEvent), xmlStream, indenting);
+                break;
+
+            default:
+                throw new QtiWorksLogicException("Unexpected switch case " + assessmentType);
+        }
+        final byte[] xmlBytes = xmlStream.toByteArray();
+        outputStreamer.stream("application/xml", xmlBytes.length, lastModifiedTime, new ByteArrayInputStream(xmlBytes));
+    }
+
+    private void storeTestSessionStateDelta(final CandidateEvent candidateEvent, final TestSessionStateDelta delta) {
+        final ByteArrayOutputStream deltaStream = new ByteArrayOutputStream();
+        final DataOutputStream deltaOutput = new DataOutputStream(deltaStream);
+        try {
+            deltaOutput.writeLong(delta.getBaseEventId());
+            deltaOutput.writeInt(delta.getDepth());
+            deltaOutput.write(delta.getDeltaData());
+            deltaOutput.flush();
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        storeStateData(candidateEvent, RecordType.STATE_DELTA, deltaStream.toByteArray());
+    }
+
+    /**
+     * Loads the {@link TestSessionStateDelta} recorded for the {@link CandidateEvent} having the
+     * given ID, returning null if a full checkpoint was recorded for this event instead.
+     */
+    private TestSessionStateDelta loadTestSessionStateDelta(final CandidateSession candidateSession, final long eventId) {
+        final byte[] deltaRecord = loadStateData(candidateSession, eventId, RecordType.STATE_DELTA);
+        if (deltaRecord==null) {
+            return null;
+        }
+        final DataInputStream deltaInput = new DataInputStream(new ByteArrayInputStream(deltaRecord));
+        try {
+            final long baseEventId = deltaInput.readLong();
+            final int depth = deltaInput.readInt();
+            final byte[] deltaData = new byte[deltaRecord.length - DELTA_STATE_FILE_PREFIX_LENGTH];
+            deltaInput.readFully(deltaData);
+            return new TestSessionStateDelta(baseEventId, depth, deltaData);
+        }
+        catch (final IOException e) {
+            throw new QtiWorksLogicException("Could not read state delta for CandidateEvent #" + eventId, e);
+        }
+    }
+
+    private File getSessionStateFile(final CandidateSession candidateSession, final long eventId, final RecordType recordType) {
         final AssessmentObjectType assessmentType = candidateSession.getDelivery().getAssessment().getAssessmentType();
         final String stateFileBaseName = assessmentType==AssessmentObjectType.ASSESSMENT_ITEM ? "itemSessionState" : "testSessionState";
         final File sessionFolder = filespaceManager.obtainCandidateSessionStateStore(candidateSession);
-        final String stateFileName = stateFileBaseName + candidateEvent.getId() + ".xml";
+        final String stateFileName = stateFileBaseName + eventId + getStateFileExtension(recordType);
         return new File(sessionFolder, stateFileName);
     }
 
-    //----------------------------------------------------
-    // Result file management
+    private static String getStateFileExtension(final RecordType recordType) {
+        switch (recordType) {
+            case XML_STATE:
+                return XML_STATE_FILE_EXTENSION;
 
-    private void storeAssessmentResultFile(final CandidateSession candidateSession, final QtiNode resultNode) {
-        final File resultFile = getAssessmentResultFile(candidateSession);
-        FileOutputStream resultStream = null;
-        try {
-            resultStream = new FileOutputStream(resultFile);
-            qtiSerializer.serializeJqtiObject(resultNode, resultStream);
+            case BINARY_STATE:
+                return BINARY_STATE_FILE_EXTENSION;
+
+            case STATE_DELTA:
+                return DELTA_STATE_FILE_EXTENSION;
+
+            case EVENT_INPUT:
+                return EVENT_INPUT_FILE_EXTENSION;
+
+            default:
+                throw new QtiWorksLogicException("Unexpected switch case " + recordType);
         }
-        catch (final Exception e) {
-            throw QtiWorksRuntimeException.unexpectedException(e);
+    }
+
+    /**
+     * Buffers up XML state in memory, appending it to the {@link CandidateSessionStateLog}
+     * once closed.
+     */
+    private final class StateLogRecordOutputStream extends ByteArrayOutputStream {
+
+        private final CandidateEvent candidateEvent;
+        private final RecordType recordType;
+        private boolean closed;
+
+        public StateLogRecordOutputStream(final CandidateEvent candidateEvent, final RecordType recordType) {
+            this.candidateEvent = candidateEvent;
+            this.recordType = recordType;
+            this.closed = false;
         }
-        finally {
-            ServiceUtilities.ensureClose(resultStream);
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                candidateSessionStateLog.appendRecord(candidateEvent, recordType, toByteArray());
+            }
         }
     }
 
+    /**
+     * Encapsulates a {@link TestSessionState} delta stored for a particular {@link CandidateEvent}.
+     */
+    private static final class TestSessionStateDelta {
+
+        /** ID of the {@link CandidateEvent} that this delta is based on */
+        private final long baseEventId;
+
+        /** Number of deltas (including this one) since the last full checkpoint */
+        private final int depth;
+
+        /** Delta data, as generated by {@link TestSessionStateDeltaBinaryMarshaller} */
+        private final byte[] deltaData;
+
+        public TestSessionStateDelta(final long baseEventId, final int depth, final byte[] deltaData) {
+            this.baseEventId = baseEventId;
+            this.depth = depth;
+            this.deltaData = deltaData;
+        }
+
+        public long getBaseEventId() {
+            return baseEventId;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public byte[] getDeltaData() {
+            return deltaData;
+        }
+    }
+
+    /**
+     * Encapsulates the stored data needed to rebuild the {@link TestSessionState} for a
+     * particular {@link CandidateEvent}.
+     */
+    private static final class TestSessionStateChain {
+
+        /** ID of the {@link CandidateEvent} having the nearest full checkpoint */
+        private final long checkpointEventId;
+
+        /** {@link TestSessionStateDelta}s and {@link CandidateTestEventInput}s to apply to the checkpoint, in order */
+        private final List<Object> links;
+
+        public TestSessionStateChain(final long checkpointEventId, final List<Object> links) {
+            this.checkpointEventId = checkpointEventId;
+            this.links = links;
+        }
+
+        public long getCheckpointEventId() {
+            return checkpointEventId;
+        }
+
+        public List<Object> getLinks() {
+            return links;
+        }
+
+        /** @see TestSessionStateBase#getChainDepth() */
+        public int getDepth() {
+            return links.size();
+        }
+    }
+
+    //----------------------------------------------------
+    // Result file management
+
+    /**
+     * Returns the stored assessmentResult file for the given {@link CandidateSession}, first
+     * writing out any pending result. The file must exist.
+     */
     public File ensureAssessmentResultFile(final CandidateSession candidateSession) {
+        candidateSessionResultWriter.flush(candidateSession);
         final File resultFile = getAssessmentResultFile(candidateSession);
         if (!resultFile.exists()) {
             throw new QtiWorksLogicException("Expectation failed: assessmentResult file " + resultFile + " does not exist");
@@ -648,11 +1307,15 @@ public class CandidateDataService {
     }
 
     private File getAssessmentResultFile(final CandidateSession candidateSession) {
-        final File sessionFolder = filespaceManager.obtainCandidateSessionStateStore(candidateSession);
-        return new File(sessionFolder, "assessmentResult.xml");
+        return candidateSessionResultWriter.getAssessmentResultFile(candidateSession);
     }
 
+    /**
+     * Reads the stored assessmentResult XML for the given {@link CandidateSession}, first
+     * writing out any pending result. Returns null if no result has been stored.
+     */
     public String readAssessmentResultFile(final CandidateSession candidateSession) {
+        candidateSessionResultWriter.flush(candidateSession);
         final File resultFile = getAssessmentResultFile(candidateSession);
         if (!resultFile.exists()) {
             return null;
@@ -676,40 +1339,4 @@ public class CandidateDataService {
     public CandidateEvent getMostRecentEvent(final CandidateSession candidateSession)  {
         return candidateEventDao.getNewestEventInSession(candidateSession);
     }
-
-    private void recordOutcomeVariables(final CandidateSession candidateSession, final AbstractResult resultNode) {
-        candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
-        for (final ItemVariable itemVariable : resultNode.getItemVariables()) {
-            if (itemVariable instanceof OutcomeVariable
-                    || QtiConstants.VARIABLE_DURATION_IDENTIFIER.equals(itemVariable.getIdentifier())) {
-                final CandidateSessionOutcome outcome = new CandidateSessionOutcome();
-                outcome.setCandidateSession(candidateSession);
-                outcome.setOutcomeIdentifier(itemVariable.getIdentifier().toString());
-                outcome.setBaseType(itemVariable.getBaseType());
-                outcome.setCardinality(itemVariable.getCardinality());
-                outcome.setStringValue(stringifyQtiValue(itemVariable.getComputedValue()));
-                candidateSessionOutcomeDao.persist(outcome);
-            }
-        }
-    }
-
-    private String stringifyQtiValue(final Value value) {
-        if (qtiWorksDeploymentSettings.isEnableMathAssessExtension() && GlueValueBinder.isMathsContentRecord(value)) {
-            /* This is a special MathAssess "Maths Content" variable. In this case, we'll record
-             * just the ASCIIMath input form or the Maxima form, if either are available.
-             */
-            final RecordValue mathsValue = (RecordValue) value;
-            final SingleValue asciiMathInput = mathsValue.get(MathAssessConstants.FIELD_CANDIDATE_INPUT_IDENTIFIER);
-            if (asciiMathInput!=null) {
-                return "ASCIIMath[" + asciiMathInput.toQtiString() + "]";
-            }
-            final SingleValue maximaForm = mathsValue.get(MathAssessConstants.FIELD_MAXIMA_IDENTIFIER);
-            if (maximaForm!=null) {
-                return "Maxima[" + maximaForm.toQtiString() + "]";
-            }
-        }
-        /* Just convert to QTI string in the usual way */
-        return value.toQtiString();
-    }
-
 }
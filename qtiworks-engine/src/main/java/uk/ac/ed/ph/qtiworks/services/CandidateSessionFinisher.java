@@ -87,6 +87,9 @@ public class CandidateSessionFinisher {
     @Resource
     private RequestTimestampContext requestTimestampContext;
 
+    @Resource
+    private CandidateSessionResultWriter candidateSessionResultWriter;
+
     //-------------------------------------------------
 
     public void finishCandidateSession(final CandidateSession candidateSession, final AssessmentResult assessmentResult) {
@@ -98,6 +101,9 @@ public class CandidateSessionFinisher {
         candidateSession.setLisScore(null);
         candidateSessionDao.update(candidateSession);
 
+        /* Make sure final result has been written out */
+        candidateSessionResultWriter.flush(candidateSession);
+
         /* Finally schedule LTI result return (if appropriate and sane) */
         maybeScheduleLtiOutcomes(candidateSession, assessmentResult);
     }
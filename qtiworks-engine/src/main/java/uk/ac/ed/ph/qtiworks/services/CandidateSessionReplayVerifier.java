@@ -0,0 +1,138 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateEventDao;
+import uk.ac.ed.ph.qtiworks.services.domain.CandidateSessionReplayReport;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Checks event-sourced test sessions by replaying the recorded inputs of each
+ * {@link CandidateEvent} and comparing the results with the full state checkpoints
+ * stored alongside them.
+ * <p>
+ * Events are replayed against the currently selected {@link AssessmentPackage}, even if they
+ * were recorded against a different one, so this can also be used to check whether new content
+ * reproduces existing sessions.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see CandidateTestEventInput
+ *
+ * @author David McKain
+ */
+@Service
+@Transactional(readOnly=true, propagation=Propagation.REQUIRED)
+public class CandidateSessionReplayVerifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateSessionReplayVerifier.class);
+
+    @Resource
+    private CandidateDataService candidateDataService;
+
+    @Resource
+    private CandidateEventDao candidateEventDao;
+
+    public CandidateSessionReplayReport verifyCandidateSession(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        final List<CandidateEvent> candidateEvents = candidateEventDao.getForSession(candidateSession);
+        final List<Long> mismatchedEventIds = new ArrayList<Long>();
+        final List<Long> failedEventIds = new ArrayList<Long>();
+        int replayedEventCount = 0;
+        int verifiedCheckpointCount = 0;
+
+        if (candidateSession.getDelivery().getAssessment().getAssessmentType()==AssessmentObjectType.ASSESSMENT_TEST) {
+            TestSessionState replayedState = null;
+            for (final CandidateEvent candidateEvent : candidateEvents) {
+                final CandidateTestEventInput eventInput = candidateDataService.loadTestEventInput(candidateEvent);
+                if (eventInput==null) {
+                    /* Inputs not recorded for this event, so resynchronise with the stored state */
+                    replayedState = candidateDataService.rebuildTestSessionState(candidateEvent);
+                    continue;
+                }
+                if (replayedState==null) {
+                    /* Lost track after a failed replay, so wait for the next checkpoint */
+                    if (eventInput.getDepth()==0) {
+                        replayedState = candidateDataService.loadTestSessionStateCheckpoint(candidateEvent);
+                    }
+                    continue;
+                }
+
+                /* Replay event */
+                try {
+                    replayedState = candidateDataService.replayTestEventWithSelectedPackage(candidateSession, replayedState, eventInput);
+                    ++replayedEventCount;
+                }
+                catch (final RuntimeException e) {
+                    logger.warn("Failed to replay CandidateEvent #" + candidateEvent.getId(), e);
+                    failedEventIds.add(candidateEvent.getId());
+                    replayedState = null;
+                    continue;
+                }
+
+                /* Compare with checkpoint (if stored), then resynchronise with it */
+                if (eventInput.getDepth()==0) {
+                    final TestSessionState checkpointState = candidateDataService.loadTestSessionStateCheckpoint(candidateEvent);
+                    if (checkpointState.equals(replayedState)) {
+                        ++verifiedCheckpointCount;
+                    }
+                    else {
+                        logger.warn("Replayed state for CandidateEvent #{} does not match its stored checkpoint", candidateEvent.getId());
+                        mismatchedEventIds.add(candidateEvent.getId());
+                    }
+                    replayedState = checkpointState;
+                }
+            }
+        }
+        return new CandidateSessionReplayReport(candidateSession.getId().longValue(), candidateEvents.size(),
+                replayedEventCount, verifiedCheckpointCount, mismatchedEventIds, failedEventIds);
+    }
+}
@@ -0,0 +1,552 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.mathassess.GlueValueBinder;
+import uk.ac.ed.ph.qtiworks.mathassess.MathAssessConstants;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
+
+import uk.ac.ed.ph.jqtiplus.QtiConstants;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.result.AbstractResult;
+import uk.ac.ed.ph.jqtiplus.node.result.AssessmentResult;
+import uk.ac.ed.ph.jqtiplus.node.result.ItemVariable;
+import uk.ac.ed.ph.jqtiplus.node.result.OutcomeVariable;
+import uk.ac.ed.ph.jqtiplus.serialization.QtiSerializer;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Records the {@link AssessmentResult} computed after each candidate action, storing it as
+ * <code>assessmentResult.xml</code> in the {@link CandidateSession} state store and replacing
+ * the {@link CandidateSessionOutcome}s recorded for the session.
+ * <p>
+ * These writes are normally performed in the background by a small bounded pool of threads,
+ * so that candidates don't have to wait for them. Only the most recent pending result is kept
+ * for each {@link CandidateSession}, so results that are superseded before they are written
+ * are never written at all. Callers that need the recorded data to be up to date (e.g. when
+ * finishing or terminating a session, or when generating reports) must call
+ * {@link #flush(CandidateSession)} or {@link #flush(Delivery)} first, which write out any
+ * pending result synchronously. Callers that delete recorded data must call
+ * {@link #discard(CandidateSession)} or {@link #discard(Delivery)} first.
+ * <p>
+ * If the background queue fills up then callers perform the write themselves.
+ * <p>
+ * If a background write fails then the result is kept, and is retried synchronously by the
+ * next {@link #recordResult(CandidateSession, AssessmentResult, AbstractResult)} or flush for
+ * the session, so that a persistent failure is reported to the caller rather than just being
+ * logged.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see QtiWorksDeploymentSettings#getResultWriterThreads()
+ *
+ * @author David McKain
+ */
+@Service
+public class CandidateSessionResultWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateSessionResultWriter.class);
+
+    /** Name of the file within the {@link CandidateSession} state store holding the latest result */
+    public static final String ASSESSMENT_RESULT_FILE_NAME = "assessmentResult.xml";
+
+    /** Maximum number of background writes that may be queued up */
+    private static final int MAX_QUEUED_WRITES = 1000;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private FilespaceManager filespaceManager;
+
+    @Resource
+    private QtiSerializer qtiSerializer;
+
+    @Resource
+    private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
+
+    @Resource
+    private PlatformTransactionManager jpaTransactionManager;
+
+    private final ConcurrentMap<Long, ResultSlot> resultSlotMap;
+    private TransactionTemplate transactionTemplate;
+    private ThreadPoolExecutor writerExecutor;
+
+    public CandidateSessionResultWriter() {
+        this.resultSlotMap = new ConcurrentHashMap<Long, ResultSlot>();
+    }
+
+    @PostConstruct
+    public void init() {
+        this.transactionTemplate = new TransactionTemplate(jpaTransactionManager);
+        final int writerThreads = qtiWorksDeploymentSettings.getResultWriterThreads();
+        if (writerThreads > 0) {
+            final AtomicInteger threadCounter = new AtomicInteger();
+            this.writerExecutor = new ThreadPoolExecutor(writerThreads, writerThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(MAX_QUEUED_WRITES),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "CandidateSessionResultWriter-" + threadCounter.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    },
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            logger.info("Candidate assessment results will be written in the background using {} thread(s)", writerThreads);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (writerExecutor!=null) {
+            writerExecutor.shutdown();
+            try {
+                writerExecutor.awaitTermination(30, TimeUnit.SECONDS);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        /* Write out anything that didn't get done */
+        for (final ResultSlot resultSlot : new ArrayList<ResultSlot>(resultSlotMap.values())) {
+            try {
+                writePendingResult(resultSlot);
+            }
+            catch (final RuntimeException e) {
+                logger.error("Failed to write pending result for CandidateSession #" + resultSlot.getCandidateSessionId()
+                        + " during shutdown", e);
+            }
+        }
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Records the given {@link AssessmentResult} for the given {@link CandidateSession},
+     * superseding any result that has not yet been written out. The outcomes recorded
+     * in the database are taken from the given result node, which should be part of the
+     * {@link AssessmentResult}.
+     * <p>
+     * The result is written synchronously if background writing has been disabled, the
+     * {@link CandidateSession} has been terminated, or the previous write for the session
+     * failed. Any failure to write synchronously is passed up to the caller.
+     */
+    public void recordResult(final CandidateSession candidateSession, final AssessmentResult assessmentResult,
+            final AbstractResult outcomeResultNode) {
+        Assert.notNull(candidateSession, "candidateSession");
+        Assert.notNull(assessmentResult, "assessmentResult");
+        Assert.notNull(outcomeResultNode, "outcomeResultNode");
+        final PendingResult pendingResult = new PendingResult(candidateSession, assessmentResult, outcomeResultNode);
+        final ResultSlot resultSlot = obtainResultSlot(candidateSession, pendingResult);
+        if (writerExecutor==null || candidateSession.isTerminated() || resultSlot.hasFailedWrite()) {
+            /* Write result now, replacing anything that was pending */
+            writePendingResult(resultSlot);
+            return;
+        }
+        if (resultSlot.scheduleWrite()) {
+            writerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writePendingResult(resultSlot);
+                    }
+                    catch (final RuntimeException e) {
+                        logger.error("Failed to write pending result for CandidateSession #" + resultSlot.getCandidateSessionId()
+                                + ". This will be retried on the next request or flush for this session", e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Synchronously writes out any pending result for the given {@link CandidateSession},
+     * waiting for any write in progress to complete.
+     *
+     * @throws RuntimeException if the result could not be written, in which case it remains
+     *   pending
+     */
+    public void flush(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        final ResultSlot resultSlot = resultSlotMap.get(candidateSession.getId());
+        if (resultSlot!=null) {
+            writePendingResult(resultSlot);
+        }
+    }
+
+    /**
+     * Synchronously writes out any pending results for {@link CandidateSession}s on the
+     * given {@link Delivery}.
+     */
+    public void flush(final Delivery delivery) {
+        Assert.notNull(delivery, "delivery");
+        for (final ResultSlot resultSlot : getResultSlots(delivery)) {
+            writePendingResult(resultSlot);
+        }
+    }
+
+    /**
+     * Discards any pending result for the given {@link CandidateSession}, waiting for any
+     * write in progress to complete. This should be called before deleting the recorded result
+     * data for the session.
+     */
+    public void discard(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        final ResultSlot resultSlot = resultSlotMap.get(candidateSession.getId());
+        if (resultSlot!=null) {
+            discardPendingResult(resultSlot);
+        }
+    }
+
+    /**
+     * Discards any pending results for {@link CandidateSession}s on the given {@link Delivery}.
+     */
+    public void discard(final Delivery delivery) {
+        Assert.notNull(delivery, "delivery");
+        for (final ResultSlot resultSlot : getResultSlots(delivery)) {
+            discardPendingResult(resultSlot);
+        }
+    }
+
+    /**
+     * Returns the time (in ms since the epoch) at which the most recent result for the given
+     * {@link CandidateSession} was recorded, including any result that has not yet been
+     * written out. Returns 0 if no result has been recorded.
+     */
+    public long getLastRecordedTime(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        final ResultSlot resultSlot = resultSlotMap.get(candidateSession.getId());
+        if (resultSlot!=null) {
+            final long pendingRecordedTime = resultSlot.getPendingRecordedTime();
+            if (pendingRecordedTime!=0L) {
+                return pendingRecordedTime;
+            }
+        }
+        /* (File.lastModified() returns 0 if the file doesn't exist) */
+        return getAssessmentResultFile(candidateSession).lastModified();
+    }
+
+    public File getAssessmentResultFile(final CandidateSession candidateSession) {
+        final File sessionFolder = filespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        return new File(sessionFolder, ASSESSMENT_RESULT_FILE_NAME);
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Sets the given {@link PendingResult} on the {@link ResultSlot} for the given {@link CandidateSession},
+     * creating the slot if required.
+     */
+    private ResultSlot obtainResultSlot(final CandidateSession candidateSession, final PendingResult pendingResult) {
+        final Long xid = candidateSession.getId();
+        while (true) {
+            ResultSlot resultSlot = resultSlotMap.get(xid);
+            if (resultSlot==null) {
+                final ResultSlot newResultSlot = new ResultSlot(xid.longValue(), candidateSession.getDelivery().getId().longValue());
+                resultSlot = resultSlotMap.putIfAbsent(xid, newResultSlot);
+                if (resultSlot==null) {
+                    resultSlot = newResultSlot;
+                }
+            }
+            if (resultSlot.setPendingResult(pendingResult)) {
+                return resultSlot;
+            }
+            /* Slot was retired just before we used it, so try again */
+        }
+    }
+
+    private List<ResultSlot> getResultSlots(final Delivery delivery) {
+        final long did = delivery.getId().longValue();
+        final List<ResultSlot> result = new ArrayList<ResultSlot>();
+        for (final Entry<Long, ResultSlot> entry : resultSlotMap.entrySet()) {
+            if (entry.getValue().getDeliveryId()==did) {
+                result.add(entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    private void writePendingResult(final ResultSlot resultSlot) {
+        synchronized (resultSlot.getWriteLock()) {
+            final PendingResult pendingResult = resultSlot.takePendingResult();
+            if (pendingResult!=null) {
+                try {
+                    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+                        @Override
+                        protected void doInTransactionWithoutResult(final TransactionStatus status) {
+                            writeResult(pendingResult);
+                        }
+                    });
+                }
+                catch (final RuntimeException e) {
+                    /* Keep result (unless superseded) so that the write gets retried */
+                    resultSlot.restoreFailedResult(pendingResult);
+                    throw e;
+                }
+                resultSlot.clearFailedWrite();
+            }
+            maybeRetireResultSlot(resultSlot);
+        }
+    }
+
+    private void discardPendingResult(final ResultSlot resultSlot) {
+        synchronized (resultSlot.getWriteLock()) {
+            resultSlot.takePendingResult();
+            maybeRetireResultSlot(resultSlot);
+        }
+    }
+
+    private void maybeRetireResultSlot(final ResultSlot resultSlot) {
+        if (resultSlot.retireIfIdle()) {
+            resultSlotMap.remove(Long.valueOf(resultSlot.getCandidateSessionId()), resultSlot);
+        }
+    }
+
+    private void writeResult(final PendingResult pendingResult) {
+        final CandidateSession candidateSession = pendingResult.getCandidateSession();
+
+        /* First record full result XML to filesystem */
+        final File resultFile = getAssessmentResultFile(candidateSession);
+        FileOutputStream resultStream = null;
+        try {
+            resultStream = new FileOutputStream(resultFile);
+            qtiSerializer.serializeJqtiObject(pendingResult.getAssessmentResult(), resultStream);
+        }
+        catch (final Exception e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(resultStream);
+        }
+
+        /* Then record outcome variables to DB */
+        candidateSessionOutcomeDao.deleteForCandidateSession(candidateSession);
+        for (final ItemVariable itemVariable : pendingResult.getOutcomeResultNode().getItemVariables()) {
+            if (itemVariable instanceof OutcomeVariable
+                    || QtiConstants.VARIABLE_DURATION_IDENTIFIER.equals(itemVariable.getIdentifier())) {
+                final CandidateSessionOutcome outcome = new CandidateSessionOutcome();
+                outcome.setCandidateSession(candidateSession);
+                outcome.setOutcomeIdentifier(itemVariable.getIdentifier().toString());
+                outcome.setBaseType(itemVariable.getBaseType());
+                outcome.setCardinality(itemVariable.getCardinality());
+                outcome.setStringValue(stringifyQtiValue(itemVariable.getComputedValue()));
+                candidateSessionOutcomeDao.persist(outcome);
+            }
+        }
+    }
+
+    private String stringifyQtiValue(final Value value) {
+        if (qtiWorksDeploymentSettings.isEnableMathAssessExtension() && GlueValueBinder.isMathsContentRecord(value)) {
+            /* This is a special MathAssess "Maths Content" variable. In this case, we'll record
+             * just the ASCIIMath input form or the Maxima form, if either are available.
+             */
+            final RecordValue mathsValue = (RecordValue) value;
+            final SingleValue asciiMathInput = mathsValue.get(MathAssessConstants.FIELD_CANDIDATE_INPUT_IDENTIFIER);
+            if (asciiMathInput!=null) {
+                return "ASCIIMath[" + asciiMathInput.toQtiString() + "]";
+            }
+            final SingleValue maximaForm = mathsValue.get(MathAssessConstants.FIELD_MAXIMA_IDENTIFIER);
+            if (maximaForm!=null) {
+                return "Maxima[" + maximaForm.toQtiString() + "]";
+            }
+        }
+        /* Just convert to QTI string in the usual way */
+        return value.toQtiString();
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Result waiting to be written out
+     */
+    private static final class PendingResult {
+
+        private final CandidateSession candidateSession;
+        private final AssessmentResult assessmentResult;
+        private final AbstractResult outcomeResultNode;
+        private final long recordedTime;
+
+        public PendingResult(final CandidateSession candidateSession, final AssessmentResult assessmentResult,
+                final AbstractResult outcomeResultNode) {
+            this.candidateSession = candidateSession;
+            this.assessmentResult = assessmentResult;
+            this.outcomeResultNode = outcomeResultNode;
+            this.recordedTime = System.currentTimeMillis();
+        }
+
+        public CandidateSession getCandidateSession() {
+            return candidateSession;
+        }
+
+        public AssessmentResult getAssessmentResult() {
+            return assessmentResult;
+        }
+
+        public AbstractResult getOutcomeResultNode() {
+            return outcomeResultNode;
+        }
+
+        public long getRecordedTime() {
+            return recordedTime;
+        }
+    }
+
+    /**
+     * Holds the pending result for a particular {@link CandidateSession}. Writes for the
+     * session are serialized by synchronizing on the {@link #getWriteLock()}.
+     * <p>
+     * Slots are retired (and removed from the map) once they are idle. A retired slot
+     * refuses new results, so callers must then obtain a fresh slot.
+     */
+    private static final class ResultSlot {
+
+        private final long candidateSessionId;
+        private final long deliveryId;
+        private final Object writeLock;
+
+        /* The following are guarded by this */
+        private PendingResult pendingResult;
+        private boolean writeScheduled;
+        private boolean writeFailed;
+        private boolean retired;
+
+        public ResultSlot(final long candidateSessionId, final long deliveryId) {
+            this.candidateSessionId = candidateSessionId;
+            this.deliveryId = deliveryId;
+            this.writeLock = new Object();
+        }
+
+        public long getCandidateSessionId() {
+            return candidateSessionId;
+        }
+
+        public long getDeliveryId() {
+            return deliveryId;
+        }
+
+        public Object getWriteLock() {
+            return writeLock;
+        }
+
+        public synchronized boolean setPendingResult(final PendingResult pendingResult) {
+            if (retired) {
+                return false;
+            }
+            this.pendingResult = pendingResult;
+            return true;
+        }
+
+        /**
+         * Marks that a background write has been scheduled, returning false if one
+         * was already scheduled (and will pick up the latest pending result).
+         */
+        public synchronized boolean scheduleWrite() {
+            if (writeScheduled) {
+                return false;
+            }
+            writeScheduled = true;
+            return true;
+        }
+
+        /**
+         * Puts back a result whose write failed, unless it has since been superseded by a
+         * newer one, and marks that the write failed.
+         */
+        public synchronized void restoreFailedResult(final PendingResult failedResult) {
+            if (pendingResult==null) {
+                pendingResult = failedResult;
+            }
+            writeFailed = true;
+        }
+
+        public synchronized void clearFailedWrite() {
+            writeFailed = false;
+        }
+
+        public synchronized boolean hasFailedWrite() {
+            return writeFailed;
+        }
+
+        public synchronized long getPendingRecordedTime() {
+            return pendingResult!=null ? pendingResult.getRecordedTime() : 0L;
+        }
+
+        public synchronized PendingResult takePendingResult() {
+            final PendingResult result = pendingResult;
+            pendingResult = null;
+            writeScheduled = false;
+            return result;
+        }
+
+        public synchronized boolean retireIfIdle() {
+            if (pendingResult==null && !writeScheduled) {
+                retired = true;
+            }
+            return retired;
+        }
+    }
+}
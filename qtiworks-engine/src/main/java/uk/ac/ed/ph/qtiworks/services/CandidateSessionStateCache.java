@@ -0,0 +1,326 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bounded in-memory cache of the most recently recorded {@link ItemSessionState} or
+ * {@link TestSessionState} for each active {@link CandidateSession}. This saves having to
+ * read and parse the stored state from disk on each candidate action and rendering.
+ * <p>
+ * Each entry is keyed on the {@link CandidateSession} ID and records the ID of the
+ * {@link CandidateEvent} that the state corresponds to, so a cached state is only used if it
+ * corresponds to the requested event. The disk copy of the state is always written first and
+ * remains the definitive version. Test entries also record how far the state is from the last
+ * full checkpoint, so the next event's state can be stored without looking at the disk copy.
+ * <p>
+ * States are held in the compact binary format provided by JQTI+ and unmarshalled on each
+ * access, so callers always get their own copy and are free to modify it.
+ * <p>
+ * The underlying cache is concurrent, so candidates working on different sessions don't
+ * contend with each other here. Entries are evicted when the cache is full, roughly in order
+ * of least recent use.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see QtiWorksDeploymentSettings#getStateCacheSize()
+ *
+ * @author David McKain
+ */
+@Service
+public class CandidateSessionStateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateSessionStateCache.class);
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    /** Cached states, keyed on {@link CandidateSession} ID */
+    private Cache<Long, CachedSessionState> cache;
+    private int cacheMaxSize;
+    private boolean enabled;
+
+    /**
+     * (Hits and misses are counted here rather than by the cache, as an entry for the wrong
+     * {@link CandidateEvent} counts as a miss.)
+     */
+    private final AtomicLong cacheMissCount;
+    private final AtomicLong cacheHitCount;
+
+    public CandidateSessionStateCache() {
+        this.cacheMissCount = new AtomicLong();
+        this.cacheHitCount = new AtomicLong();
+    }
+
+    @PostConstruct
+    public void init() {
+        cacheMaxSize = Math.max(0, qtiWorksDeploymentSettings.getStateCacheSize());
+        enabled = cacheMaxSize > 0;
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .recordStats()
+                .build();
+        logger.info("Candidate session state cache size is {}", cacheMaxSize);
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Caches the given {@link ItemSessionState}, which should correspond to the given
+     * {@link CandidateEvent}. Nothing is cached if the {@link CandidateSession} has been terminated.
+     */
+    public void cacheItemSessionState(final CandidateEvent candidateEvent, final ItemSessionState itemSessionState) {
+        Assert.notNull(itemSessionState, "itemSessionState");
+        if (enabled) {
+            cacheStateData(candidateEvent, 0, ItemSessionStateBinaryMarshaller.marshal(itemSessionState));
+        }
+    }
+
+    /**
+     * Returns a copy of the cached {@link ItemSessionState} for the given {@link CandidateEvent},
+     * or null if this is not currently cached.
+     */
+    public ItemSessionState getItemSessionState(final CandidateEvent candidateEvent) {
+        final CachedSessionState cachedSessionState = getCachedSessionState(candidateEvent);
+        return cachedSessionState!=null ? ItemSessionStateBinaryMarshaller.unmarshal(cachedSessionState.getStateData()) : null;
+    }
+
+    /**
+     * Caches the given {@link TestSessionState}, which should correspond to the given
+     * {@link CandidateEvent}. Nothing is cached if the {@link CandidateSession} has been terminated.
+     *
+     * @param chainDepth number of deltas or event inputs stored since the last full checkpoint
+     *
+     * @see TestSessionStateBase#getChainDepth()
+     */
+    public void cacheTestSessionState(final CandidateEvent candidateEvent, final TestSessionState testSessionState,
+            final int chainDepth) {
+        Assert.notNull(testSessionState, "testSessionState");
+        if (enabled) {
+            cacheStateData(candidateEvent, chainDepth, TestSessionStateBinaryMarshaller.marshal(testSessionState));
+        }
+    }
+
+    /**
+     * Caches the state held in the given {@link TestSessionStateBase}.
+     * Nothing is cached if the {@link CandidateSession} has been terminated.
+     */
+    public void cacheTestSessionStateBase(final TestSessionStateBase testSessionStateBase) {
+        Assert.notNull(testSessionStateBase, "testSessionStateBase");
+        if (enabled) {
+            cacheStateData(testSessionStateBase.getCandidateEvent(), testSessionStateBase.getChainDepth(),
+                    testSessionStateBase.getStateData());
+        }
+    }
+
+    /**
+     * Returns a copy of the cached {@link TestSessionState} for the given {@link CandidateEvent},
+     * or null if this is not currently cached.
+     */
+    public TestSessionState getTestSessionState(final CandidateEvent candidateEvent) {
+        final CachedSessionState cachedSessionState = getCachedSessionState(candidateEvent);
+        return cachedSessionState!=null ? TestSessionStateBinaryMarshaller.unmarshal(cachedSessionState.getStateData()) : null;
+    }
+
+    /**
+     * Returns the cached {@link TestSessionState} for the given {@link CandidateEvent} as a
+     * {@link TestSessionStateBase}, or null if this is not currently cached.
+     */
+    public TestSessionStateBase getTestSessionStateBase(final CandidateEvent candidateEvent) {
+        final CachedSessionState cachedSessionState = getCachedSessionState(candidateEvent);
+        return cachedSessionState!=null
+                ? new TestSessionStateBase(candidateEvent, cachedSessionState.getChainDepth(), cachedSessionState.getStateData())
+                : null;
+    }
+
+    /**
+     * Removes any cached state for the given {@link CandidateSession}. This should be called
+     * when the session is terminated, exploded or deleted.
+     */
+    public void evict(final CandidateSession candidateSession) {
+        Assert.notNull(candidateSession, "candidateSession");
+        final Long xid = candidateSession.getId();
+        if (cache.asMap().remove(xid)!=null) {
+            logger.debug("Evicted cached state for CandidateSession #{}", xid);
+        }
+    }
+
+    /**
+     * Removes any cached state for {@link CandidateSession}s on the given {@link Delivery}.
+     */
+    public void evict(final Delivery delivery) {
+        Assert.notNull(delivery, "delivery");
+        final long did = delivery.getId().longValue();
+        final Iterator<CachedSessionState> iterator = cache.asMap().values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getDeliveryId()==did) {
+                iterator.remove();
+            }
+        }
+        logger.debug("Evicted cached state for CandidateSessions on Delivery #{}", did);
+    }
+
+    //-------------------------------------------------
+
+    private void cacheStateData(final CandidateEvent candidateEvent, final int chainDepth, final byte[] stateData) {
+        final CandidateSession candidateSession = candidateEvent.getCandidateSession();
+        if (candidateSession.isTerminated()) {
+            /* Terminated sessions are no longer active, so don't waste space on them */
+            evict(candidateSession);
+            return;
+        }
+        final CachedSessionState cachedSessionState = new CachedSessionState(candidateEvent.getId().longValue(),
+                candidateSession.getDelivery().getId().longValue(), chainDepth, stateData);
+        final Long xid = candidateSession.getId();
+        final ConcurrentMap<Long, CachedSessionState> cacheMap = cache.asMap();
+        while (true) {
+            final CachedSessionState existingState = cacheMap.putIfAbsent(xid, cachedSessionState);
+            if (existingState==null) {
+                return;
+            }
+            /* (Don't replace state for a more recent event, which may happen if older states are being inspected) */
+            if (existingState.getEventId() > cachedSessionState.getEventId()) {
+                return;
+            }
+            if (cacheMap.replace(xid, existingState, cachedSessionState)) {
+                return;
+            }
+            /* (Entry changed underneath us, so try again) */
+        }
+    }
+
+    private CachedSessionState getCachedSessionState(final CandidateEvent candidateEvent) {
+        Assert.notNull(candidateEvent, "candidateEvent");
+        if (!enabled) {
+            return null;
+        }
+        final Long xid = candidateEvent.getCandidateSession().getId();
+        final long xeid = candidateEvent.getId().longValue();
+        final CachedSessionState cachedSessionState = cache.getIfPresent(xid);
+        if (cachedSessionState!=null && cachedSessionState.getEventId()==xeid) {
+            logger.debug("Cache HIT for CandidateSession #{} at event #{}", xid, xeid);
+            cacheHitCount.incrementAndGet();
+            return cachedSessionState;
+        }
+        logger.debug("Cache MISS for CandidateSession #{} at event #{}", xid, xeid);
+        cacheMissCount.incrementAndGet();
+        return null;
+    }
+
+    //--------------------------------------------------------------------------
+    // Reporting
+
+    public long getCacheUsage() {
+        return cache.size();
+    }
+
+    public int getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public long getCacheMissCount() {
+        return cacheMissCount.get();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+
+    public long getCachePurgeCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+
+    //--------------------------------------------------------------------------
+
+    private static final class CachedSessionState {
+
+        private final long eventId;
+        private final long deliveryId;
+        private final int chainDepth;
+        private final byte[] stateData;
+
+        public CachedSessionState(final long eventId, final long deliveryId, final int chainDepth, final byte[] stateData) {
+            this.eventId = eventId;
+            this.deliveryId = deliveryId;
+            this.chainDepth = chainDepth;
+            this.stateData = stateData;
+        }
+
+        public long getEventId() {
+            return eventId;
+        }
+
+        public long getDeliveryId() {
+            return deliveryId;
+        }
+
+        public int getChainDepth() {
+            return chainDepth;
+        }
+
+        public byte[] getStateData() {
+            return stateData;
+        }
+    }
+}
@@ -0,0 +1,646 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.utils.LruHashMap;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Append-only log of the state data recorded for a {@link CandidateSession}. This may be used
+ * instead of storing the state for each {@link CandidateEvent} in its own file, which results
+ * in huge numbers of small files on busy systems.
+ * <p>
+ * Each {@link CandidateSession} has a single log file within its state store. Each record in
+ * this file consists of:
+ * <ul>
+ *   <li>the length of the rest of the record (int)</li>
+ *   <li>the ID of the {@link CandidateEvent} the record corresponds to (long)</li>
+ *   <li>the {@link RecordType} code (byte)</li>
+ *   <li>flags, currently just {@link #COMPRESSED_FLAG} (byte)</li>
+ *   <li>the length of the uncompressed data (int)</li>
+ *   <li>the CRC32 checksum of the stored data (int)</li>
+ *   <li>the stored data, which may have been compressed</li>
+ * </ul>
+ * Records are never modified once written. Any incomplete record found at the end of a log
+ * (e.g. after a crash) is discarded before the next record is appended. Complete records of
+ * an unknown type are skipped over using their length. A log containing a record that cannot
+ * be skipped over is left alone, and further appends to it will fail.
+ * <p>
+ * An index of the records in each log is built on first access, and the indexes for the
+ * most recently used logs are kept in memory. All access to a log is serialised using a
+ * lock chosen by its file, rather than by its index, as an index may be evicted and rebuilt
+ * while it is still in use. Appended records are forced out to disk in batches, with
+ * {@link #syncPendingRecords()} being called periodically to force out any stragglers.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see QtiWorksDeploymentSettings#isStateLogStorage()
+ *
+ * @author David McKain
+ */
+@Service
+public class CandidateSessionStateLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandidateSessionStateLog.class);
+
+    /** Name of the log file stored within each {@link CandidateSession} state store */
+    public static final String LOG_FILE_NAME = "sessionState.log";
+
+    /** Length of the record header that follows the length prefix */
+    private static final int RECORD_HEADER_LENGTH = 18;
+
+    /** Flag set on records whose data has been compressed */
+    private static final int COMPRESSED_FLAG = 0x01;
+
+    /** Data shorter than this is never worth compressing */
+    private static final int MIN_COMPRESSIBLE_LENGTH = 256;
+
+    /** Maximum number of log indexes to keep in memory */
+    private static final int MAX_INDEXED_LOGS = 1000;
+
+    /** Number of locks used to serialise access to logs */
+    private static final int LOG_LOCK_STRIPES = 256;
+
+    /**
+     * Enumerates the different types of record stored in a log. Each has a fixed code that
+     * is written into the log, so these must never be changed.
+     */
+    public static enum RecordType {
+
+        XML_STATE(1),
+        BINARY_STATE(2),
+        STATE_DELTA(3),
+        EVENT_INPUT(4),
+
+        ;
+
+        private final byte code;
+
+        private RecordType(final int code) {
+            this.code = (byte) code;
+        }
+
+        public byte getCode() {
+            return code;
+        }
+
+        public static RecordType fromCode(final int code) {
+            for (final RecordType recordType : values()) {
+                if (recordType.code==code) {
+                    return recordType;
+                }
+            }
+            return null;
+        }
+    }
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private FilespaceManager filespaceManager;
+
+    private final int maxIndexedLogs;
+    private final LruHashMap<Long, SessionStateLogIndex> indexCache;
+    private final Striped<Lock> logLocks;
+    private final Set<File> unsyncedLogFiles;
+    private int unsyncedRecordCount;
+
+    public CandidateSessionStateLog() {
+        this(MAX_INDEXED_LOGS);
+    }
+
+    /** (Used for testing, to make indexes get evicted more readily) */
+    CandidateSessionStateLog(final int maxIndexedLogs) {
+        this.maxIndexedLogs = maxIndexedLogs;
+        this.indexCache = new LruHashMap<Long, SessionStateLogIndex>();
+        this.logLocks = Striped.lock(LOG_LOCK_STRIPES);
+        this.unsyncedLogFiles = new LinkedHashSet<File>();
+        this.unsyncedRecordCount = 0;
+    }
+
+    @PostConstruct
+    public void init() {
+        indexCache.setMaxSize(maxIndexedLogs);
+        if (qtiWorksDeploymentSettings.isStateLogStorage()) {
+            logger.info("Candidate session state will be appended to per-session logs, synced in batches of {}",
+                    qtiWorksDeploymentSettings.getStateLogSyncBatchSize());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        syncPendingRecords();
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Appends a record of the given {@link RecordType} containing the given data to the log
+     * for the {@link CandidateSession} owning the given {@link CandidateEvent}, creating the
+     * log if required.
+     */
+    public void appendRecord(final CandidateEvent candidateEvent, final RecordType recordType, final byte[] data) {
+        Assert.notNull(candidateEvent, "candidateEvent");
+        Assert.notNull(recordType, "recordType");
+        Assert.notNull(data, "data");
+        final long eventId = candidateEvent.getId().longValue();
+
+        /* Compress data if requested and worthwhile */
+        byte[] storedData = data;
+        int flags = 0;
+        if (qtiWorksDeploymentSettings.isStateLogCompressing() && data.length >= MIN_COMPRESSIBLE_LENGTH) {
+            final byte[] compressedData = compress(data);
+            if (compressedData!=null) {
+                storedData = compressedData;
+                flags |= COMPRESSED_FLAG;
+            }
+        }
+        final int checksum = computeChecksum(storedData);
+
+        /* Build up record */
+        final ByteBuffer recordBuffer = ByteBuffer.allocate(4 + RECORD_HEADER_LENGTH + storedData.length);
+        recordBuffer.putInt(RECORD_HEADER_LENGTH + storedData.length);
+        recordBuffer.putLong(eventId);
+        recordBuffer.put(recordType.getCode());
+        recordBuffer.put((byte) flags);
+        recordBuffer.putInt(data.length);
+        recordBuffer.putInt(checksum);
+        recordBuffer.put(storedData);
+
+        /* Then append to log */
+        final SessionStateLogIndex index = obtainIndex(candidateEvent.getCandidateSession(), true);
+        final Lock logLock = logLocks.get(index.getLogFile());
+        logLock.lock();
+        try {
+            try {
+                /* (Any complete records appended via another index will be picked up here, so
+                 * anything left after the indexed length is an incomplete record) */
+                index.update();
+                final File logFile = index.getLogFile();
+                if (index.getCorruptRecordOffset() >= 0L) {
+                    throw new QtiWorksLogicException("Refusing to append to state log " + logFile
+                            + " as it contains a corrupt record at offset " + index.getCorruptRecordOffset());
+                }
+                final RandomAccessFile logAccess = new RandomAccessFile(logFile, "rw");
+                try {
+                    final long recordOffset = index.getIndexedLength();
+                    if (logAccess.length() > recordOffset) {
+                        logger.warn("Discarding {} trailing bytes from incomplete record at end of state log {}",
+                                Long.valueOf(logAccess.length() - recordOffset), logFile);
+                        logAccess.setLength(recordOffset);
+                    }
+                    logAccess.seek(recordOffset);
+                    logAccess.write(recordBuffer.array());
+                    index.addRecordPointer(recordType, eventId,
+                            new RecordPointer(recordOffset + 4 + RECORD_HEADER_LENGTH, storedData.length, data.length, flags, checksum));
+                    index.setIndexedLength(recordOffset + recordBuffer.capacity());
+                }
+                finally {
+                    logAccess.close();
+                }
+            }
+            catch (final IOException e) {
+                throw QtiWorksRuntimeException.unexpectedException(e);
+            }
+        }
+        finally {
+            logLock.unlock();
+        }
+        recordUnsyncedAppend(index.getLogFile());
+    }
+
+    /**
+     * Reads back the (uncompressed) data in the most recent record of the given {@link RecordType}
+     * appended for the {@link CandidateEvent} having the given ID, returning null if the log
+     * for the given {@link CandidateSession} has no such record or does not exist.
+     */
+    public byte[] readRecord(final CandidateSession candidateSession, final long eventId, final RecordType recordType) {
+        Assert.notNull(recordType, "recordType");
+        final SessionStateLogIndex index = obtainIndex(candidateSession, false);
+        if (index==null) {
+            return null;
+        }
+        final Lock logLock = logLocks.get(index.getLogFile());
+        logLock.lock();
+        try {
+            index.update();
+            final RecordPointer recordPointer = index.getRecordPointer(recordType, eventId);
+            if (recordPointer==null) {
+                return null;
+            }
+            return readRecordData(index.getLogFile(), recordPointer);
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        finally {
+            logLock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether the log for the given {@link CandidateSession} contains any record of the
+     * given {@link RecordType} for the {@link CandidateEvent} having the given ID. This does not
+     * read the record itself.
+     */
+    public boolean hasRecord(final CandidateSession candidateSession, final long eventId, final RecordType recordType) {
+        Assert.notNull(recordType, "recordType");
+        final SessionStateLogIndex index = obtainIndex(candidateSession, false);
+        if (index==null) {
+            return false;
+        }
+        final Lock logLock = logLocks.get(index.getLogFile());
+        logLock.lock();
+        try {
+            index.update();
+            return index.getRecordPointer(recordType, eventId)!=null;
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        finally {
+            logLock.unlock();
+        }
+    }
+
+    /**
+     * Forces any records that have been appended since the last sync out to disk.
+     * This is called automatically once enough records have been appended, and should
+     * also be called periodically.
+     *
+     * @see QtiWorksDeploymentSettings#getStateLogSyncBatchSize()
+     */
+    public void syncPendingRecords() {
+        final List<File> logFiles;
+        synchronized (unsyncedLogFiles) {
+            if (unsyncedLogFiles.isEmpty()) {
+                return;
+            }
+            logFiles = new ArrayList<File>(unsyncedLogFiles);
+            unsyncedLogFiles.clear();
+            unsyncedRecordCount = 0;
+        }
+        for (final File logFile : logFiles) {
+            /* (Log may have been deleted since it was written to) */
+            if (logFile.exists()) {
+                try {
+                    final RandomAccessFile logAccess = new RandomAccessFile(logFile, "rw");
+                    try {
+                        logAccess.getChannel().force(true);
+                    }
+                    finally {
+                        logAccess.close();
+                    }
+                }
+                catch (final IOException e) {
+                    throw QtiWorksRuntimeException.unexpectedException(e);
+                }
+            }
+        }
+        logger.trace("Synced {} state log(s)", logFiles.size());
+    }
+
+    //-------------------------------------------------
+
+    private void recordUnsyncedAppend(final File logFile) {
+        final boolean syncRequired;
+        synchronized (unsyncedLogFiles) {
+            unsyncedLogFiles.add(logFile);
+            unsyncedRecordCount++;
+            syncRequired = unsyncedRecordCount >= qtiWorksDeploymentSettings.getStateLogSyncBatchSize();
+        }
+        if (syncRequired) {
+            syncPendingRecords();
+        }
+    }
+
+    private SessionStateLogIndex obtainIndex(final CandidateSession candidateSession, final boolean create) {
+        Assert.notNull(candidateSession, "candidateSession");
+        final File logFile = new File(filespaceManager.obtainCandidateSessionStateStore(candidateSession), LOG_FILE_NAME);
+        final Long xid = candidateSession.getId();
+        synchronized (indexCache) {
+            SessionStateLogIndex index = indexCache.get(xid);
+            if (index==null || !index.getLogFile().equals(logFile)) {
+                if (!create && !logFile.exists()) {
+                    return null;
+                }
+                index = new SessionStateLogIndex(logFile);
+                indexCache.put(xid, index);
+            }
+            return index;
+        }
+    }
+
+    private static byte[] readRecordData(final File logFile, final RecordPointer recordPointer) throws IOException {
+        final byte[] storedData = new byte[recordPointer.getStoredLength()];
+        final RandomAccessFile logAccess = new RandomAccessFile(logFile, "r");
+        try {
+            logAccess.seek(recordPointer.getDataOffset());
+            logAccess.readFully(storedData);
+        }
+        finally {
+            logAccess.close();
+        }
+        if (computeChecksum(storedData)!=recordPointer.getChecksum()) {
+            throw new QtiWorksLogicException("Checksum mismatch in state log " + logFile
+                    + " for record at offset " + recordPointer.getDataOffset());
+        }
+        if ((recordPointer.getFlags() & COMPRESSED_FLAG)==0) {
+            return storedData;
+        }
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(storedData);
+            final byte[] data = new byte[recordPointer.getDataLength()];
+            int inflatedLength = 0;
+            while (inflatedLength < data.length && !inflater.finished()) {
+                final int count = inflater.inflate(data, inflatedLength, data.length - inflatedLength);
+                if (count==0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflatedLength += count;
+            }
+            if (inflatedLength!=data.length) {
+                throw new QtiWorksLogicException("Compressed record at offset " + recordPointer.getDataOffset()
+                        + " in state log " + logFile + " is truncated");
+            }
+            return data;
+        }
+        catch (final DataFormatException e) {
+            throw new QtiWorksLogicException("Could not decompress record at offset " + recordPointer.getDataOffset()
+                    + " in state log " + logFile, e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Compresses the given data, returning null if this did not make it any smaller.
+     */
+    private static byte[] compress(final byte[] data) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final byte[] buffer = new byte[data.length];
+            int compressedLength = 0;
+            while (!deflater.finished() && compressedLength < buffer.length) {
+                compressedLength += deflater.deflate(buffer, compressedLength, buffer.length - compressedLength);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            final byte[] result = new byte[compressedLength];
+            System.arraycopy(buffer, 0, result, 0, compressedLength);
+            return result;
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static int computeChecksum(final byte[] storedData) {
+        final CRC32 crc32 = new CRC32();
+        crc32.update(storedData);
+        return (int) crc32.getValue();
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Location of a record within a log
+     */
+    private static final class RecordPointer {
+
+        /** Offset of the stored record data within the log */
+        private final long dataOffset;
+
+        /** Length of the stored (possibly compressed) data */
+        private final int storedLength;
+
+        /** Length of the uncompressed data */
+        private final int dataLength;
+
+        private final int flags;
+        private final int checksum;
+
+        public RecordPointer(final long dataOffset, final int storedLength, final int dataLength,
+                final int flags, final int checksum) {
+            this.dataOffset = dataOffset;
+            this.storedLength = storedLength;
+            this.dataLength = dataLength;
+            this.flags = flags;
+            this.checksum = checksum;
+        }
+
+        public long getDataOffset() {
+            return dataOffset;
+        }
+
+        public int getStoredLength() {
+            return storedLength;
+        }
+
+        public int getDataLength() {
+            return dataLength;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getChecksum() {
+            return checksum;
+        }
+    }
+
+    /**
+     * In-memory index of the records in a log, keyed on {@link RecordType} and {@link CandidateEvent} ID.
+     * <p>
+     * Callers must hold the lock for the log file before use. (There may briefly be more than
+     * one index for the same log if one is evicted while still in use.)
+     */
+    private static final class SessionStateLogIndex {
+
+        private final File logFile;
+        private final Map<RecordType, Map<Long, RecordPointer>> recordPointerMap;
+
+        /** Length of the log covered by this index, which is also where the next record will be appended */
+        private long indexedLength;
+
+        /** Offset of a corrupt record that stopped indexing, or -1 if none has been found */
+        private long corruptRecordOffset;
+
+        public SessionStateLogIndex(final File logFile) {
+            this.logFile = logFile;
+            this.recordPointerMap = new EnumMap<RecordType, Map<Long, RecordPointer>>(RecordType.class);
+            this.indexedLength = 0L;
+            this.corruptRecordOffset = -1L;
+            for (final RecordType recordType : RecordType.values()) {
+                recordPointerMap.put(recordType, new HashMap<Long, RecordPointer>());
+            }
+        }
+
+        public File getLogFile() {
+            return logFile;
+        }
+
+        public long getIndexedLength() {
+            return indexedLength;
+        }
+
+        public void setIndexedLength(final long indexedLength) {
+            this.indexedLength = indexedLength;
+        }
+
+        public long getCorruptRecordOffset() {
+            return corruptRecordOffset;
+        }
+
+        public RecordPointer getRecordPointer(final RecordType recordType, final long eventId) {
+            return recordPointerMap.get(recordType).get(Long.valueOf(eventId));
+        }
+
+        public void addRecordPointer(final RecordType recordType, final long eventId, final RecordPointer recordPointer) {
+            recordPointerMap.get(recordType).put(Long.valueOf(eventId), recordPointer);
+        }
+
+        /**
+         * Brings this index up to date by indexing any complete records that have been
+         * appended to the log since it was last indexed. If the log has shrunk (e.g. because
+         * it has been deleted) then the index is rebuilt from scratch.
+         */
+        public void update() throws IOException {
+            final long logLength = logFile.length();
+            if (logLength < indexedLength) {
+                for (final Map<Long, RecordPointer> recordPointers : recordPointerMap.values()) {
+                    recordPointers.clear();
+                }
+                indexedLength = 0L;
+                corruptRecordOffset = -1L;
+            }
+            if (logLength > indexedLength && corruptRecordOffset < 0L) {
+                indexRecords(logLength);
+            }
+        }
+
+        private void indexRecords(final long logLength) throws IOException {
+            final byte[] headerBytes = new byte[4 + RECORD_HEADER_LENGTH];
+            final ByteBuffer header = ByteBuffer.wrap(headerBytes);
+            final RandomAccessFile logAccess = new RandomAccessFile(logFile, "r");
+            try {
+                long position = indexedLength;
+                while (position + headerBytes.length <= logLength) {
+                    logAccess.seek(position);
+                    logAccess.readFully(headerBytes);
+                    header.rewind();
+                    final int recordLength = header.getInt();
+                    final long eventId = header.getLong();
+                    final RecordType recordType = RecordType.fromCode(header.get());
+                    final int flags = header.get();
+                    final int dataLength = header.getInt();
+                    final int checksum = header.getInt();
+                    final long recordEnd = position + 4 + (long) recordLength;
+                    if (recordLength < RECORD_HEADER_LENGTH) {
+                        /* Can't tell where the next record starts, so stop here */
+                        markCorrupt(position);
+                        break;
+                    }
+                    if (recordEnd > logLength) {
+                        /* Only a plausible record can have been torn by a crash while being appended.
+                         * (This will be discarded on next append.) */
+                        if (recordType==null || dataLength < 0) {
+                            markCorrupt(position);
+                        }
+                        break;
+                    }
+                    if (recordType==null) {
+                        logger.warn("Skipping record with unknown type at offset {} in state log {}",
+                                Long.valueOf(position), logFile);
+                        position = recordEnd;
+                        continue;
+                    }
+                    addRecordPointer(recordType, eventId, new RecordPointer(position + headerBytes.length,
+                            recordLength - RECORD_HEADER_LENGTH, dataLength, flags, checksum));
+                    position = recordEnd;
+                }
+                indexedLength = position;
+            }
+            finally {
+                logAccess.close();
+            }
+        }
+
+        private void markCorrupt(final long position) {
+            logger.error("Corrupt record at offset {} in state log {}. Later records will be ignored and the log will not be appended to",
+                    Long.valueOf(position), logFile);
+            corruptRecordOffset = position;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateTestEventType;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionOperation;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryMarshallerCore;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.BinaryUnmarshallingException;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionOperationBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData.ResponseDataType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Records the inputs of a test {@link CandidateEvent}, i.e. everything that is needed to
+ * recreate the resulting state by replaying the event on the state of the previous event.
+ * These are the {@link TestSessionOperation}s actually performed by the {@link TestSessionController}
+ * while handling the event, together with the random seed it used and the {@link AssessmentPackage}
+ * it was running.
+ * <p>
+ * Like state deltas, these form a chain back to the last full checkpoint. The inputs for
+ * the event on which a checkpoint is taken are recorded too (with a depth of 0), which lets
+ * us check that replaying gives the right results.
+ *
+ * @see CandidateTestEventReplayer
+ * @see CandidateSessionReplayVerifier
+ *
+ * @author David McKain
+ */
+public final class CandidateTestEventInput {
+
+    /** Version of the marshalled form generated by {@link #marshal(FilespaceManager)} */
+    private static final int FORMAT_VERSION = 3;
+
+    /**
+     * Fixed codes for {@link CandidateTestEventType}. (We don't use ordinals or names here
+     * as recorded inputs must stay readable if the enumeration is ever changed.)
+     */
+    private static final CandidateTestEventType[] testEventTypeCodes = {
+        CandidateTestEventType.ENTER_TEST,
+        CandidateTestEventType.SELECT_MENU,
+        CandidateTestEventType.END_TEST_PART,
+        CandidateTestEventType.ADVANCE_TEST_PART,
+        CandidateTestEventType.EXIT_TEST,
+        CandidateTestEventType.SELECT_ITEM,
+        CandidateTestEventType.FINISH_ITEM,
+        CandidateTestEventType.FINISH_FINAL_ITEM,
+        CandidateTestEventType.ITEM_EVENT,
+        CandidateTestEventType.REVIEW_TEST_PART,
+        CandidateTestEventType.REVIEW_ITEM,
+        CandidateTestEventType.SOLUTION_ITEM
+    };
+
+    /** ID of the {@link CandidateEvent} whose state this event is applied to */
+    private final long baseEventId;
+
+    /** Number of events (including this one) since the last full checkpoint, or 0 if this event has a checkpoint */
+    private final int depth;
+
+    /** ID of the {@link AssessmentPackage} that was being run when this event happened */
+    private final long assessmentPackageId;
+
+    /** Type of event. This is for information only, as replaying uses the recorded operations. */
+    private final CandidateTestEventType testEventType;
+
+    /** Random seed used by the {@link TestSessionController} for this event */
+    private final long randomSeed;
+
+    /** Operations performed by the {@link TestSessionController} for this event, in order */
+    private final List<TestSessionOperation> operations;
+
+    public CandidateTestEventInput(final long baseEventId, final int depth, final long assessmentPackageId,
+            final CandidateTestEventType testEventType, final long randomSeed,
+            final List<TestSessionOperation> operations) {
+        Assert.notNull(testEventType, "testEventType");
+        Assert.notNull(operations, "operations");
+        this.baseEventId = baseEventId;
+        this.depth = depth;
+        this.assessmentPackageId = assessmentPackageId;
+        this.testEventType = testEventType;
+        this.randomSeed = randomSeed;
+        this.operations = Collections.unmodifiableList(new ArrayList<TestSessionOperation>(operations));
+    }
+
+    public long getBaseEventId() {
+        return baseEventId;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getAssessmentPackageId() {
+        return assessmentPackageId;
+    }
+
+    public CandidateTestEventType getTestEventType() {
+        return testEventType;
+    }
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    public List<TestSessionOperation> getOperations() {
+        return operations;
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Marshals these inputs using the conventions of {@link BinaryMarshallerCore}. The locations
+     * of any uploaded files are recorded relative to the filesystem base managed by the given
+     * {@link FilespaceManager}, so that they can still be found if this is moved.
+     */
+    public byte[] marshal(final FilespaceManager filespaceManager) {
+        Assert.notNull(filespaceManager, "filespaceManager");
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(byteStream);
+        try {
+            BinaryMarshallerCore.writeUnsignedInt(output, FORMAT_VERSION);
+            BinaryMarshallerCore.writeSignedLong(output, baseEventId);
+            BinaryMarshallerCore.writeUnsignedInt(output, depth);
+            BinaryMarshallerCore.writeSignedLong(output, assessmentPackageId);
+            BinaryMarshallerCore.writeUnsignedInt(output, encodeTestEventType(testEventType));
+            BinaryMarshallerCore.writeSignedLong(output, randomSeed);
+            TestSessionOperationBinaryMarshaller.writeOperations(output, mapUploadedFiles(operations, filespaceManager, true));
+            output.flush();
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    public static CandidateTestEventInput unmarshal(final byte[] data, final FilespaceManager filespaceManager) {
+        Assert.notNull(filespaceManager, "filespaceManager");
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            final int formatVersion = BinaryMarshallerCore.readUnsignedInt(input);
+            if (formatVersion!=FORMAT_VERSION) {
+                throw new QtiWorksLogicException("Unsupported event input format version " + formatVersion);
+            }
+            final long baseEventId = BinaryMarshallerCore.readSignedLong(input);
+            final int depth = BinaryMarshallerCore.readUnsignedInt(input);
+            final long assessmentPackageId = BinaryMarshallerCore.readSignedLong(input);
+            final CandidateTestEventType testEventType = decodeTestEventType(BinaryMarshallerCore.readUnsignedInt(input));
+            final long randomSeed = BinaryMarshallerCore.readSignedLong(input);
+            final List<TestSessionOperation> operations = TestSessionOperationBinaryMarshaller.readOperations(input);
+            return new CandidateTestEventInput(baseEventId, depth, assessmentPackageId, testEventType,
+                    randomSeed, mapUploadedFiles(operations, filespaceManager, false));
+        }
+        catch (final IOException e) {
+            throw new QtiWorksLogicException("Could not read event input data", e);
+        }
+        catch (final BinaryUnmarshallingException e) {
+            throw new QtiWorksLogicException("Could not read event input data", e);
+        }
+    }
+
+    private static int encodeTestEventType(final CandidateTestEventType testEventType) {
+        for (int i=0; i<testEventTypeCodes.length; i++) {
+            if (testEventTypeCodes[i]==testEventType) {
+                return i;
+            }
+        }
+        throw new QtiWorksLogicException("Unexpected CandidateTestEventType " + testEventType);
+    }
+
+    private static CandidateTestEventType decodeTestEventType(final int code) {
+        if (code>=testEventTypeCodes.length) {
+            throw new QtiWorksLogicException("Bad test event type code " + code);
+        }
+        return testEventTypeCodes[code];
+    }
+
+    /**
+     * Converts the locations of any uploaded files within the given {@link TestSessionOperation}s
+     * to or from paths relative to the filesystem base. Files outside the filesystem base are
+     * left as they are.
+     */
+    private static List<TestSessionOperation> mapUploadedFiles(final List<TestSessionOperation> operations,
+            final FilespaceManager filespaceManager, final boolean relativise) {
+        final List<TestSessionOperation> result = new ArrayList<TestSessionOperation>(operations.size());
+        for (final TestSessionOperation operation : operations) {
+            final Map<Identifier, ResponseData> responseMap = operation.getResponseMap();
+            boolean hasFileResponse = false;
+            for (final ResponseData responseData : responseMap.values()) {
+                hasFileResponse |= responseData.getType()==ResponseDataType.FILE;
+            }
+            if (!hasFileResponse) {
+                result.add(operation);
+                continue;
+            }
+            final Map<Identifier, ResponseData> mappedResponseMap = new LinkedHashMap<Identifier, ResponseData>();
+            for (final Entry<Identifier, ResponseData> entry : responseMap.entrySet()) {
+                ResponseData responseData = entry.getValue();
+                if (responseData.getType()==ResponseDataType.FILE) {
+                    final FileResponseData fileResponseData = (FileResponseData) responseData;
+                    final File file = fileResponseData.getFile();
+                    File mappedFile = file;
+                    if (relativise) {
+                        final String relativeUri = filespaceManager.getFilesystemRelativeUri(file);
+                        if (relativeUri!=null) {
+                            mappedFile = new File(relativeUri);
+                        }
+                    }
+                    else if (!file.isAbsolute()) {
+                        mappedFile = filespaceManager.resolveFilesystemRelativeUri(file.getPath().replace(File.separatorChar, '/'));
+                    }
+                    responseData = new FileResponseData(mappedFile, fileResponseData.getContentType(), fileResponseData.getFileName());
+                }
+                mappedResponseMap.put(entry.getKey(), responseData);
+            }
+            result.add(new TestSessionOperation(operation.getOperationType(), operation.getTimestamp(),
+                    operation.getItemKey(), operation.getCandidateComment(), mappedResponseMap));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -0,0 +1,72 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionController;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionOperation;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+
+/**
+ * Replays a {@link CandidateTestEventInput} through a {@link TestSessionController} by performing
+ * the {@link TestSessionOperation}s that were recorded when the event originally happened,
+ * using the same random seed.
+ * <p>
+ * This does not check which {@link AssessmentPackage} the {@link TestSessionController} is
+ * running. That is the responsibility of the caller.
+ *
+ * @see TestSessionController#startRecordingOperations()
+ *
+ * @author David McKain
+ */
+public final class CandidateTestEventReplayer {
+
+    /**
+     * Replays the given {@link CandidateTestEventInput} on the {@link TestSessionState} of the given
+     * {@link TestSessionController}, which will be updated in place.
+     *
+     * @throws uk.ac.ed.ph.jqtiplus.exception.QtiCandidateStateException if one of the recorded
+     *   operations is not permitted on the given state
+     */
+    public static void replay(final TestSessionController testSessionController, final CandidateTestEventInput eventInput) {
+        Assert.notNull(testSessionController, "testSessionController");
+        Assert.notNull(eventInput, "eventInput");
+        testSessionController.setRandomSeed(Long.valueOf(eventInput.getRandomSeed()));
+        for (final TestSessionOperation operation : eventInput.getOperations()) {
+            operation.replay(testSessionController);
+        }
+    }
+}
@@ -132,6 +132,12 @@ public class DataDeletionService {
     @Resource
     private CandidateSessionDao candidateSessionDao;
 
+    @Resource
+    private CandidateSessionStateCache candidateSessionStateCache;
+
+    @Resource
+    private CandidateSessionResultWriter candidateSessionResultWriter;
+
     @Resource
     private CandidateSessionOutcomeDao candidateSessionOutcomeDao;
 
@@ -176,6 +182,8 @@ public class DataDeletionService {
         if (!filespaceManager.deleteCandidateSessionStore(candidateSession)) {
             logger.error("Failed to delete stored session data for CandidateSession {}", candidateSession.getId());
         }
+        candidateSessionStateCache.evict(candidateSession);
+        candidateSessionResultWriter.discard(candidateSession);
 
         /* Delete entities, taking care to do things in the right order.
          * This does not use cascading as it's rather slow.
@@ -216,6 +224,8 @@ public class DataDeletionService {
                 logger.error("Failed to delete stored session data for Delivery {}", delivery.getId());
             }
         }
+        candidateSessionStateCache.evict(delivery);
+        candidateSessionResultWriter.discard(delivery);
 
         /* Delete entities, taking care to do things in the right order.
          * This does not use cascading as it was *very* slow here.
@@ -38,6 +38,7 @@ import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
 import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.Assessment;
 import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateFileSubmission;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
@@ -47,7 +48,16 @@ import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import java.io.File;
 import java.net.URI;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -60,6 +70,15 @@ import org.springframework.stereotype.Service;
  * Service to manage the creation and deletion of filespaces/sandboxes
  * for storing things like uploaded {@link AssessmentPackage}s and submitted files.
  * <p>
+ * Data for each {@link CandidateSession} (state store and uploaded files) lives under a
+ * folder for its {@link Delivery}. In the original "legacy" layout, this is then keyed on the
+ * candidate's business key. If a shard depth has been configured then the session folder is
+ * instead placed under a fixed number of hashed prefix folders computed from the session ID,
+ * which keeps directory sizes down when a {@link Delivery} has very many sessions. Data still
+ * in the legacy layout continues to be found until it has been moved by
+ * {@link #migrateCandidateSessionDirectories(long)}. You should therefore not change the shard
+ * depth once sharded data has been created.
+ * <p>
  * This is NO authorisation at this level.
  *
  * @author David McKain
@@ -69,6 +88,15 @@ public final class FilespaceManager {
 
     private static final Logger logger = LoggerFactory.getLogger(FilespaceManager.class);
 
+    /** Maximum supported shard depth */
+    public static final int MAX_SHARD_DEPTH = 4;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final Pattern ASSESSMENT_DIRECTORY_PATTERN = Pattern.compile("assessment\\d+");
+    private static final Pattern DELIVERY_DIRECTORY_PATTERN = Pattern.compile("delivery\\d+");
+    private static final Pattern SESSION_DIRECTORY_PATTERN = Pattern.compile("session(\\d+)");
+
     @Resource
     private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
 
@@ -76,6 +104,7 @@ public final class FilespaceManager {
     private RequestTimestampContext requestTimestampContext;
 
     private String filesystemBaseUri;
+    private int shardDepth;
 
     @PostConstruct
     public void init() {
@@ -86,6 +115,18 @@ public final class FilespaceManager {
         }
         this.filesystemBaseUri = filesystemBaseDirectory.toURI().toString().replaceFirst("/$", "");
         logger.info("Filesystem base for client data is {}", filesystemBaseString);
+
+        this.shardDepth = qtiWorksDeploymentSettings.getFilestoreShardDepth();
+        if (shardDepth < 0 || shardDepth > MAX_SHARD_DEPTH) {
+            throw new QtiWorksRuntimeException("Filestore shard depth " + shardDepth + " must be between 0 and " + MAX_SHARD_DEPTH);
+        }
+        if (shardDepth > 0) {
+            logger.info("Candidate session data will be stored using {} level(s) of hashed folders", shardDepth);
+        }
+    }
+
+    public boolean isSharded() {
+        return shardDepth > 0;
     }
 
     public File createTempFile() {
@@ -108,6 +149,7 @@ public final class FilespaceManager {
         if (assessmentPackage.getSandboxPath()==null) {
             throw new IllegalStateException("Built-in AssessmentPackages may not be deleted");
         }
+        deleteAssessmentPackageSnapshot(assessmentPackage);
         return deleteAssessmentPackageSandbox(new File(assessmentPackage.getSandboxPath()));
     }
 
@@ -125,6 +167,26 @@ public final class FilespaceManager {
         return recursivelyDeleteDirectory(getAssessmentPackageSandboxBaseUri());
     }
 
+    /**
+     * Returns the {@link File} used to hold the compiled snapshot of the given {@link AssessmentPackage},
+     * which sits alongside its sandbox. Returns null for built-in {@link AssessmentPackage}s, which
+     * have no sandbox.
+     */
+    public File getAssessmentPackageSnapshotFile(final AssessmentPackage assessmentPackage) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        final String sandboxPath = assessmentPackage.getSandboxPath();
+        if (sandboxPath==null) {
+            return null;
+        }
+        final File sandboxDirectory = new File(sandboxPath);
+        return new File(sandboxDirectory.getParentFile(), sandboxDirectory.getName() + ".snapshot");
+    }
+
+    public boolean deleteAssessmentPackageSnapshot(final AssessmentPackage assessmentPackage) {
+        final File snapshotFile = getAssessmentPackageSnapshotFile(assessmentPackage);
+        return snapshotFile==null || !snapshotFile.exists() || snapshotFile.delete();
+    }
+
     private String getAssessmentPackageSandboxBaseUri(final User owner) {
         Assert.notNull(owner, "owner");
         return getAssessmentPackageSandboxBaseUri()
@@ -144,6 +206,29 @@ public final class FilespaceManager {
         return new File(candidateResponseFolder, createUniqueRequestComponent());
     }
 
+    /**
+     * Returns the location of the given {@link File} as a URI relative to the filesystem base,
+     * which can be recorded anywhere that should keep working if the filesystem base is moved.
+     * Returns null if the file is not within the filesystem base.
+     *
+     * @see #resolveFilesystemRelativeUri(String)
+     */
+    public String getFilesystemRelativeUri(final File file) {
+        Assert.notNull(file, "file");
+        final String fileUri = file.getAbsoluteFile().toURI().toString();
+        final String filesystemBasePrefix = filesystemBaseUri + "/";
+        return fileUri.startsWith(filesystemBasePrefix) ? fileUri.substring(filesystemBasePrefix.length()) : null;
+    }
+
+    /**
+     * Resolves a URI generated by {@link #getFilesystemRelativeUri(File)} against the current
+     * filesystem base.
+     */
+    public File resolveFilesystemRelativeUri(final String relativeUri) {
+        Assert.notNull(relativeUri, "relativeUri");
+        return fileUriToFile(filesystemBaseUri + "/" + relativeUri);
+    }
+
     public boolean deleteCandidateUploads(final Delivery delivery) {
         Assert.notNull(delivery, "delivery");
         Assert.notNull(delivery.getAssessment(), "delivery.assessment");
@@ -152,7 +237,7 @@ public final class FilespaceManager {
 
     public boolean deleteCandidateUploads(final CandidateSession candidateSession) {
         Assert.notNull(candidateSession, "candidateSession");
-        return recursivelyDeleteDirectory(getCandidateSessionUploadBaseUri(candidateSession));
+        return deleteCandidateSessionDirectories(getCandidateSessionUploadBaseUri(candidateSession.getDelivery()), candidateSession);
     }
 
     public boolean deleteAllCandidateUploads() {
@@ -172,12 +257,7 @@ public final class FilespaceManager {
     }
 
     private String getCandidateSessionUploadBaseUri(final CandidateSession candidateSession) {
-        final User candidate = candidateSession.getCandidate();
-        final Delivery delivery = candidateSession.getDelivery();
-
-        return getCandidateSessionUploadBaseUri(delivery)
-                + "/" + candidate.getBusinessKey()
-                + "/session" + candidateSession.getId();
+        return resolveCandidateSessionUri(getCandidateSessionUploadBaseUri(candidateSession.getDelivery()), candidateSession);
     }
 
     //-------------------------------------------------
@@ -194,7 +274,7 @@ public final class FilespaceManager {
 
     public boolean deleteCandidateSessionStore(final CandidateSession candidateSession) {
         Assert.notNull(candidateSession, "candidateSession");
-        return recursivelyDeleteDirectory(getCandidateSessionStoreUri(candidateSession));
+        return deleteCandidateSessionDirectories(getCandidateSessionStoreBaseUri(candidateSession.getDelivery()), candidateSession);
     }
 
     public boolean deleteAllCandidateSessionData() {
@@ -214,12 +294,205 @@ public final class FilespaceManager {
     }
 
     private final String getCandidateSessionStoreUri(final CandidateSession candidateSession) {
+        return resolveCandidateSessionUri(getCandidateSessionStoreBaseUri(candidateSession.getDelivery()), candidateSession);
+    }
+
+    //-------------------------------------------------
+    // Candidate session folder layout
+
+    /**
+     * Returns the URI of the folder for the given {@link CandidateSession} within the given
+     * {@link Delivery} folder. When sharding, this returns the legacy folder if the session's
+     * data has not yet been migrated.
+     */
+    private String resolveCandidateSessionUri(final String deliveryBaseUri, final CandidateSession candidateSession) {
+        final String legacyUri = getLegacyCandidateSessionUri(deliveryBaseUri, candidateSession);
+        if (shardDepth==0) {
+            return legacyUri;
+        }
+        final String shardedUri = getShardedCandidateSessionUri(deliveryBaseUri, candidateSession.getId().longValue());
+        if (!fileUriToFile(shardedUri).isDirectory() && fileUriToFile(legacyUri).isDirectory()) {
+            /* Not migrated yet */
+            return legacyUri;
+        }
+        return shardedUri;
+    }
+
+    private boolean deleteCandidateSessionDirectories(final String deliveryBaseUri, final CandidateSession candidateSession) {
+        boolean result = recursivelyDeleteDirectory(getLegacyCandidateSessionUri(deliveryBaseUri, candidateSession));
+        if (shardDepth > 0) {
+            result &= recursivelyDeleteDirectory(getShardedCandidateSessionUri(deliveryBaseUri, candidateSession.getId().longValue()));
+        }
+        return result;
+    }
+
+    private String getLegacyCandidateSessionUri(final String deliveryBaseUri, final CandidateSession candidateSession) {
         final User candidate = candidateSession.getCandidate();
-        final Delivery delivery = candidateSession.getDelivery();
-        final String folderUri = getCandidateSessionStoreBaseUri(delivery)
+        return deliveryBaseUri
                 + "/" + candidate.getBusinessKey()
                 + "/session" + candidateSession.getId();
-        return folderUri;
+    }
+
+    private String getShardedCandidateSessionUri(final String deliveryBaseUri, final long candidateSessionId) {
+        return deliveryBaseUri
+                + createShardPath(candidateSessionId)
+                + "/session" + candidateSessionId;
+    }
+
+    /**
+     * Creates the hashed prefix folder path for the given {@link CandidateSession} ID, which
+     * has one 2 hex digit folder for each level of sharding. (The ID is hashed so that sessions
+     * created around the same time end up spread evenly across folders.)
+     */
+    private String createShardPath(final long candidateSessionId) {
+        long hash = candidateSessionId * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        final StringBuilder pathBuilder = new StringBuilder(3 * shardDepth);
+        for (int i=0; i<shardDepth; i++) {
+            final int bucket = (int) (hash >>> (8 * i)) & 0xff;
+            pathBuilder.append('/')
+                .append(HEX_DIGITS[bucket >>> 4])
+                .append(HEX_DIGITS[bucket & 0xf]);
+        }
+        return pathBuilder.toString();
+    }
+
+    /**
+     * Moves any {@link CandidateSession} state store folders not in the currently configured
+     * sharded layout into the right place. This is safe to run while
+     * QTIWorks is running, but folders containing files modified within the given
+     * time are skipped as they are probably still in use. (These can be moved by
+     * running this again later.)
+     * <p>
+     * Sharding must be enabled to use this.
+     * <p>
+     * Uploaded files are NOT moved, as their locations are recorded in the
+     * {@link CandidateFileSubmission}s that refer to them. (Only new uploads use the sharded
+     * layout.)
+     * <p>
+     * If a session already has a folder in the sharded layout then the contents of its old folder
+     * are moved into it, except for any files whose names clash. These are left where they are
+     * and the folder is reported as not moved, so will need sorted out by hand.
+     *
+     * @param minIdleTime minimum time (in ms) since a folder was last modified for it
+     *   to be moved.
+     *
+     * @return the number of folders moved completely
+     */
+    public int migrateCandidateSessionDirectories(final long minIdleTime) {
+        if (shardDepth==0) {
+            throw new QtiWorksLogicException("Filestore sharding has not been enabled");
+        }
+        final long idleThreshold = System.currentTimeMillis() - minIdleTime;
+        final int[] counts = new int[3]; /* [moved, skipped, left incomplete] */
+        final File baseDirectory = fileUriToFile(getCandidateSessionStoreBaseUri());
+        for (final File assessmentDirectory : listMatchingDirectories(baseDirectory, ASSESSMENT_DIRECTORY_PATTERN)) {
+            for (final File deliveryDirectory : listMatchingDirectories(assessmentDirectory, DELIVERY_DIRECTORY_PATTERN)) {
+                migrateCandidateSessionDirectories(deliveryDirectory, deliveryDirectory, idleThreshold, counts);
+            }
+        }
+        if (counts[1] > 0) {
+            logger.info("Skipped {} candidate session folder(s) that are still in use", Integer.valueOf(counts[1]));
+        }
+        if (counts[2] > 0) {
+            logger.warn("Could not completely move {} candidate session folder(s) as some of their files already exist"
+                    + " in the sharded layout. These files have been left in place", Integer.valueOf(counts[2]));
+        }
+        return counts[0];
+    }
+
+    private void migrateCandidateSessionDirectories(final File deliveryDirectory, final File directory,
+            final long idleThreshold, final int[] counts) {
+        final File[] childFiles = directory.listFiles();
+        if (childFiles==null) {
+            return;
+        }
+        for (final File childFile : childFiles) {
+            if (!childFile.isDirectory()) {
+                continue;
+            }
+            final Matcher sessionMatcher = SESSION_DIRECTORY_PATTERN.matcher(childFile.getName());
+            if (!sessionMatcher.matches()) {
+                /* Descend into user or shard folder */
+                migrateCandidateSessionDirectories(deliveryDirectory, childFile, idleThreshold, counts);
+                continue;
+            }
+            final long candidateSessionId = Long.parseLong(sessionMatcher.group(1));
+            final File targetDirectory = fileUriToFile(getShardedCandidateSessionUri(deliveryDirectory.toURI().toString().replaceFirst("/$", ""),
+                    candidateSessionId));
+            if (targetDirectory.equals(childFile)) {
+                continue;
+            }
+            if (getLastModified(childFile) > idleThreshold) {
+                ++counts[1];
+                continue;
+            }
+            if (moveDirectory(childFile, targetDirectory)) {
+                ++counts[0];
+            }
+            else {
+                ++counts[2];
+            }
+        }
+    }
+
+    /**
+     * Moves the given source directory to the given target, merging its contents into the
+     * target if this already exists.
+     *
+     * @return true if everything was moved, false if some files were left in the source
+     *   directory because the target already had files with the same names.
+     */
+    private boolean moveDirectory(final File sourceDirectory, final File targetDirectory) {
+        logger.debug("Moving {} to {}", sourceDirectory, targetDirectory);
+        ServiceUtilities.ensureDirectoryCreated(targetDirectory.getParentFile());
+        if (!targetDirectory.exists() && sourceDirectory.renameTo(targetDirectory)) {
+            return true;
+        }
+        /* Target already exists (or rename failed), so move contents across one at a time */
+        ServiceUtilities.ensureDirectoryCreated(targetDirectory);
+        boolean clashed = false;
+        for (final File sourceFile : sourceDirectory.listFiles()) {
+            final File targetFile = new File(targetDirectory, sourceFile.getName());
+            if (targetFile.exists()) {
+                logger.warn("Not moving {} as {} already exists", sourceFile, targetFile);
+                clashed = true;
+            }
+            else if (!sourceFile.renameTo(targetFile)) {
+                throw new QtiWorksRuntimeException("Could not move " + sourceFile + " to " + targetFile);
+            }
+        }
+        if (clashed) {
+            return false;
+        }
+        if (!sourceDirectory.delete()) {
+            throw new QtiWorksRuntimeException("Could not delete " + sourceDirectory + " after moving its contents");
+        }
+        return true;
+    }
+
+    private static long getLastModified(final File directory) {
+        long result = directory.lastModified();
+        final File[] childFiles = directory.listFiles();
+        if (childFiles!=null) {
+            for (final File childFile : childFiles) {
+                result = Math.max(result, childFile.isDirectory() ? getLastModified(childFile) : childFile.lastModified());
+            }
+        }
+        return result;
+    }
+
+    private static List<File> listMatchingDirectories(final File directory, final Pattern namePattern) {
+        final List<File> result = new ArrayList<File>();
+        final File[] childFiles = directory.listFiles();
+        if (childFiles!=null) {
+            for (final File childFile : childFiles) {
+                if (childFile.isDirectory() && namePattern.matcher(childFile.getName()).matches()) {
+                    result.add(childFile);
+                }
+            }
+        }
+        return result;
     }
 
     //-------------------------------------------------
@@ -240,33 +513,108 @@ public final class FilespaceManager {
 
     /**
      * Prunes empty subdirectories within the QTIWorks file store.
+     * <p>
+     * The subtrees below each {@link Delivery} folder (i.e. the user or shard folders) and each
+     * user's assessment folder are pruned in parallel.
+     *
+     * @see QtiWorksDeploymentSettings#getFilestorePurgeThreads()
      *
      * @return the total number of empty subdirectories deleted
      */
     public int purgeEmptyStoreDirectories() {
-        int deletedCount;
-        deletedCount = purgeStoreDirectoryIfEmpty(fileUriToFile(getCandidateSessionStoreBaseUri()));
-        deletedCount += purgeStoreDirectoryIfEmpty(fileUriToFile(getCandidateUploadBaseUri()));
-        deletedCount += purgeStoreDirectoryIfEmpty(fileUriToFile(getAssessmentPackageSandboxBaseUri()));
-        return deletedCount;
+        final int purgeThreads = Math.max(1, qtiWorksDeploymentSettings.getFilestorePurgeThreads());
+        final ExecutorService purgeExecutor = Executors.newFixedThreadPool(purgeThreads);
+        try {
+            int deletedCount;
+            deletedCount = purgeStoreTree(purgeExecutor, fileUriToFile(getCandidateSessionStoreBaseUri()), 3);
+            deletedCount += purgeStoreTree(purgeExecutor, fileUriToFile(getCandidateUploadBaseUri()), 3);
+            deletedCount += purgeStoreTree(purgeExecutor, fileUriToFile(getAssessmentPackageSandboxBaseUri()), 1);
+            return deletedCount;
+        }
+        finally {
+            purgeExecutor.shutdownNow();
+        }
     }
 
-    private int purgeStoreDirectoryIfEmpty(final File directory) {
-        if (!directory.exists()) {
-            logger.warn("Store directory {} does not exist", directory);
+    /**
+     * Prunes empty subdirectories below the given base directory, purging each subtree
+     * rooted at the given depth in parallel, then pruning the directories above them.
+     */
+    private int purgeStoreTree(final ExecutorService purgeExecutor, final File baseDirectory, final int parallelDepth) {
+        if (!baseDirectory.exists()) {
+            logger.warn("Store directory {} does not exist", baseDirectory);
             return 0;
         }
-        /* Perform depth first search */
+        final List<File> subtreeDirectories = new ArrayList<File>();
+        collectDirectoriesAtDepth(baseDirectory, parallelDepth, subtreeDirectories);
+        final List<Future<Integer>> purgeResults = new ArrayList<Future<Integer>>(subtreeDirectories.size());
+        for (final File subtreeDirectory : subtreeDirectories) {
+            purgeResults.add(purgeExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return Integer.valueOf(purgeStoreDirectoryIfEmpty(subtreeDirectory, Integer.MAX_VALUE));
+                }
+            }));
+        }
         int deletedCount = 0;
+        try {
+            for (final Future<Integer> purgeResult : purgeResults) {
+                deletedCount += purgeResult.get().intValue();
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+        catch (final ExecutionException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+
+        /* Finally prune what's left above the subtrees */
+        deletedCount += purgeStoreDirectoryIfEmpty(baseDirectory, parallelDepth - 1);
+        return deletedCount;
+    }
+
+    private static void collectDirectoriesAtDepth(final File directory, final int depth, final List<File> resultBuilder) {
         final File[] childFiles = directory.listFiles();
+        if (childFiles==null) {
+            return;
+        }
         for (final File childFile : childFiles) {
             if (childFile.isDirectory()) {
-                deletedCount += purgeStoreDirectoryIfEmpty(childFile);
+                if (depth==1) {
+                    resultBuilder.add(childFile);
+                }
+                else {
+                    collectDirectoriesAtDepth(childFile, depth - 1, resultBuilder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the given directory if it is empty, after first doing the same for its
+     * subdirectories down to the given depth.
+     */
+    private int purgeStoreDirectoryIfEmpty(final File directory, final int maxDepth) {
+        final File[] childFiles = directory.listFiles();
+        if (childFiles==null) {
+            /* (Directory has been removed by something else) */
+            return 0;
+        }
+        /* Perform depth first search */
+        int deletedCount = 0;
+        if (maxDepth > 0) {
+            for (final File childFile : childFiles) {
+                if (childFile.isDirectory()) {
+                    deletedCount += purgeStoreDirectoryIfEmpty(childFile, maxDepth - 1);
+                }
             }
         }
 
         /* Then delete this directory if it is (now) empty */
-        if (directory.listFiles().length == 0) {
+        final File[] remainingFiles = directory.listFiles();
+        if (remainingFiles!=null && remainingFiles.length == 0) {
             logger.debug("Deleting empty store directory {}", directory);
             if (directory.delete()) {
                 ++deletedCount;
@@ -0,0 +1,221 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksProperties;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+
+import uk.ac.ed.ph.jqtiplus.JqtiPlus;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Stores compiled snapshots of the {@link ItemProcessingMap}s and {@link TestProcessingMap}s
+ * created for uploaded {@link AssessmentPackage}s, so that these can be recreated without
+ * reading and resolving the underlying XML.
+ * <p>
+ * Each snapshot is keyed on the content hash of the package, together with the
+ * JQTI+ and QTIWorks versions. Snapshots that don't match this key, or which can't be read
+ * for any reason, are discarded so that the caller can rebuild them.
+ * <p>
+ * Built-in {@link AssessmentPackage}s don't have a sandbox so are never snapshotted.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see FilespaceManager#getAssessmentPackageSnapshotFile(AssessmentPackage)
+ * @see QtiWorksDeploymentSettings#isProcessingSnapshots()
+ *
+ * @author David McKain
+ */
+@Service
+public class ProcessingMapSnapshotStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessingMapSnapshotStore.class);
+
+    /** Change this if the layout of snapshot files changes */
+    private static final int SNAPSHOT_FORMAT_VERSION = 2;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private QtiWorksProperties qtiWorksProperties;
+
+    @Resource
+    private FilespaceManager filespaceManager;
+
+    /**
+     * Loads the snapshot of the processing map of the given type for the given {@link AssessmentPackage},
+     * returning null if snapshots are disabled or there is no up to date snapshot available.
+     * Stale or unreadable snapshots are deleted.
+     *
+     * @param contentHash content hash of the package, as computed by
+     *   {@link AssessmentPackageFileService#computeContentHash(AssessmentPackage)}
+     */
+    public <E> E loadSnapshot(final AssessmentPackage assessmentPackage, final String contentHash, final Class<E> processingMapClass) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        Assert.notNull(processingMapClass, "processingMapClass");
+        final File snapshotFile = getSnapshotFile(assessmentPackage, contentHash);
+        if (snapshotFile==null || !snapshotFile.isFile()) {
+            return null;
+        }
+        final Long apid = assessmentPackage.getId();
+        ObjectInputStream objectInputStream = null;
+        try {
+            final String snapshotKey = computeSnapshotKey(assessmentPackage, contentHash);
+            objectInputStream = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(snapshotFile))));
+            if (!snapshotKey.equals(objectInputStream.readUTF())) {
+                logger.debug("Snapshot for package #{} is stale", apid);
+            }
+            else {
+                final Object processingMap = objectInputStream.readObject();
+                if (processingMapClass.isInstance(processingMap)) {
+                    logger.debug("Loaded snapshot for package #{}", apid);
+                    return processingMapClass.cast(processingMap);
+                }
+                logger.warn("Snapshot for package #{} does not contain the expected {}", apid, processingMapClass.getSimpleName());
+            }
+        }
+        catch (final Exception e) {
+            /* (This covers corrupt or truncated files, as well as changes to the serialized classes) */
+            logger.warn("Failed to read snapshot for package #{}. It will be rebuilt", apid, e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(objectInputStream);
+        }
+        deleteSnapshot(assessmentPackage);
+        return null;
+    }
+
+    /**
+     * Stores a snapshot of the given processing map for the given {@link AssessmentPackage}, if
+     * snapshots are enabled. Failures are logged but otherwise ignored, as snapshots are only an
+     * optimisation.
+     *
+     * @param contentHash content hash of the package, as computed by
+     *   {@link AssessmentPackageFileService#computeContentHash(AssessmentPackage)}
+     */
+    public void storeSnapshot(final AssessmentPackage assessmentPackage, final String contentHash, final Object processingMap) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        Assert.notNull(processingMap, "processingMap");
+        final File snapshotFile = getSnapshotFile(assessmentPackage, contentHash);
+        if (snapshotFile==null) {
+            return;
+        }
+        final Long apid = assessmentPackage.getId();
+
+        /* Write to a temporary file first, then move into place, so that readers never see a partial snapshot */
+        final File tempFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        ObjectOutputStream objectOutputStream = null;
+        boolean succeeded = false;
+        try {
+            final String snapshotKey = computeSnapshotKey(assessmentPackage, contentHash);
+            objectOutputStream = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile))));
+            objectOutputStream.writeUTF(snapshotKey);
+            objectOutputStream.writeObject(processingMap);
+            objectOutputStream.close();
+            objectOutputStream = null;
+            if ((snapshotFile.exists() && !snapshotFile.delete()) || !tempFile.renameTo(snapshotFile)) {
+                logger.warn("Failed to move snapshot for package #{} into place at {}", apid, snapshotFile);
+            }
+            else {
+                logger.debug("Stored snapshot for package #{}", apid);
+                succeeded = true;
+            }
+        }
+        catch (final Exception e) {
+            logger.warn("Failed to store snapshot for package #{}", apid, e);
+        }
+        finally {
+            ServiceUtilities.ensureClose(objectOutputStream);
+            if (!succeeded && tempFile.exists() && !tempFile.delete()) {
+                logger.warn("Failed to delete temporary snapshot file {}", tempFile);
+            }
+        }
+    }
+
+    public void deleteSnapshot(final AssessmentPackage assessmentPackage) {
+        Assert.notNull(assessmentPackage, "assessmentPackage");
+        if (!filespaceManager.deleteAssessmentPackageSnapshot(assessmentPackage)) {
+            logger.warn("Failed to delete snapshot for package #{}", assessmentPackage.getId());
+        }
+    }
+
+    //-------------------------------------------------
+
+    private File getSnapshotFile(final AssessmentPackage assessmentPackage, final String contentHash) {
+        if (!qtiWorksDeploymentSettings.isProcessingSnapshots() || contentHash==null) {
+            return null;
+        }
+        return filespaceManager.getAssessmentPackageSnapshotFile(assessmentPackage);
+    }
+
+    /**
+     * Computes the key for the snapshot of the given {@link AssessmentPackage}. This combines
+     * the content hash of the package with the versions of the code that generated the snapshot
+     * and the package details that affect its processing map.
+     */
+    private String computeSnapshotKey(final AssessmentPackage assessmentPackage, final String contentHash) {
+        return Hashing.sha256().newHasher()
+                .putInt(SNAPSHOT_FORMAT_VERSION)
+                .putString(JqtiPlus.TOOL_VERSION, Charsets.UTF_8)
+                .putString(String.valueOf(qtiWorksProperties.getQtiWorksVersion()), Charsets.UTF_8)
+                .putString(assessmentPackage.getAssessmentType().name(), Charsets.UTF_8)
+                .putString(assessmentPackage.getAssessmentHref(), Charsets.UTF_8)
+                .putBoolean(assessmentPackage.isValid())
+                .putString(contentHash, Charsets.UTF_8)
+                .hash().toString();
+    }
+}
@@ -0,0 +1,285 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.services.dao.DeliveryDao;
+import uk.ac.ed.ph.qtiworks.services.domain.ProcessingMapWarmUpStatus;
+
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Pre-populates the processing map cache in {@link AssessmentObjectManagementService} with the
+ * {@link AssessmentPackage}s used by open {@link Delivery}s, so that the first candidates
+ * after a restart don't have to wait for them to be read in.
+ * <p>
+ * Deliveries are warmed up in order of most recent candidate launch, followed by deliveries
+ * that have never been launched. The work is done on a bounded pool of background threads.
+ * Packages not started within the configured time budget are skipped, as are any remaining
+ * once the cache is {@link #CACHE_FILL_FRACTION} full. (This leaves room for packages still
+ * being loaded, so that we don't evict the packages we warmed up first, which are the ones
+ * most likely to be needed.)
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @see QtiWorksDeploymentSettings#getWarmUpThreads()
+ * @see QtiWorksDeploymentSettings#getWarmUpTimeBudget()
+ *
+ * @author David McKain
+ */
+@Service
+@Transactional(readOnly=true, propagation=Propagation.REQUIRED)
+public class ProcessingMapWarmUpService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessingMapWarmUpService.class);
+
+    /** Fraction of the processing map cache that warming up will fill */
+    public static final double CACHE_FILL_FRACTION = 0.75;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
+    @Resource
+    private AssessmentObjectManagementService assessmentObjectManagementService;
+
+    @Resource
+    private AssessmentDataService assessmentDataService;
+
+    @Resource
+    private DeliveryDao deliveryDao;
+
+    /** Details of the current (or most recent) warm-up, or null if nothing has been done yet */
+    private WarmUpRun currentRun;
+
+    /**
+     * Starts warming up the processing map cache in the background, unless this is already
+     * happening. Returns the status of the resulting (or currently running) warm-up.
+     */
+    public synchronized ProcessingMapWarmUpStatus startWarmUp() {
+        if (currentRun!=null && currentRun.isRunning()) {
+            logger.debug("Processing map warm-up is already running");
+            return currentRun.getStatus();
+        }
+        final Collection<AssessmentPackage> assessmentPackages = findWarmUpPackages();
+        final int threadCount = Math.max(1, qtiWorksDeploymentSettings.getWarmUpThreads());
+        final long timeBudget = qtiWorksDeploymentSettings.getWarmUpTimeBudget() * 1000L;
+        logger.info("Warming up processing maps for {} assessment package(s) using {} thread(s)",
+                assessmentPackages.size(), threadCount);
+
+        final long maxCacheWeight = (long) (assessmentObjectManagementService.getCacheMaxWeight() * CACHE_FILL_FRACTION);
+        currentRun = new WarmUpRun(assessmentPackages.size(), timeBudget > 0 ? System.currentTimeMillis() + timeBudget : Long.MAX_VALUE,
+                maxCacheWeight);
+        if (assessmentPackages.isEmpty()) {
+            currentRun.finish();
+        }
+        else {
+            final WarmUpRun warmUpRun = currentRun;
+            final ExecutorService executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "ProcessingMapWarmUp-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+            for (final AssessmentPackage assessmentPackage : assessmentPackages) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        warmUpRun.warmUp(assessmentPackage);
+                    }
+                });
+            }
+            executor.shutdown();
+            warmUpRun.setExecutor(executor);
+        }
+        return currentRun.getStatus();
+    }
+
+    /**
+     * Returns the status of the current (or most recent) warm-up, or null if no warm-up
+     * has been started.
+     */
+    public synchronized ProcessingMapWarmUpStatus getStatus() {
+        return currentRun!=null ? currentRun.getStatus() : null;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (currentRun!=null) {
+            currentRun.cancel();
+        }
+    }
+
+    /**
+     * Finds the selected {@link AssessmentPackage}s for all open {@link Delivery}s, ordered by
+     * most recent candidate launch.
+     */
+    private Collection<AssessmentPackage> findWarmUpPackages() {
+        final Map<Long, Delivery> openDeliveryMap = new LinkedHashMap<Long, Delivery>();
+        for (final Delivery delivery : deliveryDao.getOpen()) {
+            openDeliveryMap.put(delivery.getId(), delivery);
+        }
+        final Map<Long, AssessmentPackage> result = new LinkedHashMap<Long, AssessmentPackage>();
+        for (final Long did : deliveryDao.getOpenIdsByLatestLaunch()) {
+            final Delivery delivery = openDeliveryMap.remove(did);
+            if (delivery!=null) {
+                addWarmUpPackage(result, delivery);
+            }
+        }
+        for (final Delivery delivery : openDeliveryMap.values()) {
+            addWarmUpPackage(result, delivery);
+        }
+        return result.values();
+    }
+
+    private void addWarmUpPackage(final Map<Long, AssessmentPackage> assessmentPackageMap, final Delivery delivery) {
+        if (delivery.getAssessment()==null) {
+            /* (Delivery has not been set up yet) */
+            return;
+        }
+        final AssessmentPackage assessmentPackage = assessmentDataService.ensureSelectedAssessmentPackage(delivery);
+        if (!assessmentPackageMap.containsKey(assessmentPackage.getId())) {
+            assessmentPackageMap.put(assessmentPackage.getId(), assessmentPackage);
+        }
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Tracks the progress of a single warm-up.
+     */
+    private final class WarmUpRun {
+
+        private final int packageCount;
+        private final long deadline;
+        private final long maxCacheWeight;
+        private final Date startTime;
+        private final AtomicInteger loadedCount;
+        private final AtomicInteger failedCount;
+        private final AtomicInteger skippedCount;
+        private volatile Date endTime;
+        private volatile ExecutorService executor;
+
+        public WarmUpRun(final int packageCount, final long deadline, final long maxCacheWeight) {
+            this.packageCount = packageCount;
+            this.deadline = deadline;
+            this.maxCacheWeight = maxCacheWeight;
+            this.startTime = new Date();
+            this.loadedCount = new AtomicInteger();
+            this.failedCount = new AtomicInteger();
+            this.skippedCount = new AtomicInteger();
+        }
+
+        public void setExecutor(final ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        public boolean isRunning() {
+            return endTime==null;
+        }
+
+        public void warmUp(final AssessmentPackage assessmentPackage) {
+            try {
+                if (System.currentTimeMillis() > deadline
+                        || assessmentObjectManagementService.getCacheWeight() >= maxCacheWeight) {
+                    skippedCount.incrementAndGet();
+                    return;
+                }
+                final Object processingMap = assessmentPackage.getAssessmentType()==AssessmentObjectType.ASSESSMENT_ITEM
+                        ? assessmentObjectManagementService.getItemProcessingMap(assessmentPackage)
+                        : assessmentObjectManagementService.getTestProcessingMap(assessmentPackage);
+                if (processingMap!=null) {
+                    loadedCount.incrementAndGet();
+                }
+                else {
+                    failedCount.incrementAndGet();
+                }
+            }
+            catch (final RuntimeException e) {
+                logger.warn("Unexpected Exception warming up package #" + assessmentPackage.getId(), e);
+                failedCount.incrementAndGet();
+            }
+            finally {
+                if (loadedCount.get() + failedCount.get() + skippedCount.get()==packageCount) {
+                    finish();
+                }
+            }
+        }
+
+        public void cancel() {
+            final ExecutorService runExecutor = executor;
+            if (runExecutor!=null) {
+                runExecutor.shutdownNow();
+            }
+            finish();
+        }
+
+        public synchronized void finish() {
+            if (endTime==null) {
+                endTime = new Date();
+                logger.info("Processing map warm-up finished in {}ms: {} loaded, {} failed, {} skipped",
+                        new Object[] { endTime.getTime() - startTime.getTime(), loadedCount.get(), failedCount.get(), skippedCount.get() });
+            }
+        }
+
+        public ProcessingMapWarmUpStatus getStatus() {
+            return new ProcessingMapWarmUpStatus(isRunning(), startTime, endTime, packageCount,
+                    loadedCount.get(), failedCount.get(), skippedCount.get());
+        }
+    }
+}
@@ -34,9 +34,12 @@
 package uk.ac.ed.ph.qtiworks.services;
 
 import uk.ac.ed.ph.qtiworks.config.QtiWorksProfiles;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
 import uk.ac.ed.ph.qtiworks.domain.DomainConstants;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.Pair;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReaderException;
 
 import javax.annotation.Resource;
 
@@ -70,6 +73,18 @@ public class ScheduledService {
     @Resource
     private LtiOutcomeService ltiOutcomeService;
 
+    @Resource
+    private CandidateSessionStateLog candidateSessionStateLog;
+
+    @Resource
+    private ProcessingMapWarmUpService processingMapWarmUpService;
+
+    @Resource
+    private QtiXmlReader qtiXmlReader;
+
+    @Resource
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+
     //-------------------------------------------------
 
     /**
@@ -80,6 +95,34 @@ public class ScheduledService {
         maintenanceJobService.runMaintenanceJobs();
     }
 
+    /**
+     * Compile and cache all QTI schemas once, shortly after startup
+     */
+    @Scheduled(fixedDelay=Long.MAX_VALUE, initialDelay=DomainConstants.ONE_SECOND)
+    public void preloadSchemas() {
+        if (qtiWorksDeploymentSettings.isPreloadSchemas()) {
+            final long beforeTimestamp = System.currentTimeMillis();
+            try {
+                final int schemaCount = qtiXmlReader.preloadSchemas();
+                logger.info("Preloaded {} schema(s) in {}ms", schemaCount, System.currentTimeMillis() - beforeTimestamp);
+            }
+            catch (final XmlResourceReaderException e) {
+                /* (Schemas will be compiled again when first needed, so this isn't fatal here) */
+                logger.warn("Failed to preload schemas", e);
+            }
+        }
+    }
+
+    /**
+     * Warm up the processing map cache once, shortly after startup
+     */
+    @Scheduled(fixedDelay=Long.MAX_VALUE, initialDelay=10*DomainConstants.ONE_SECOND)
+    public void warmUpProcessingMaps() {
+        if (qtiWorksDeploymentSettings.isWarmUpOnStartup()) {
+            processingMapWarmUpService.startWarmUp();
+        }
+    }
+
     /**
      * Send any queued LTI outcomes back to the relevant Tool Consumers.
      */
@@ -97,4 +140,12 @@ public class ScheduledService {
         logger.debug("sendNextQueuedLtiOutcomes() completed in {}ms with {} failure(s) out of {} send(s)", duration,
                  failureCount, sendCount);
     }
+
+    /**
+     * Force any outstanding candidate session state log records out to disk.
+     */
+    @Scheduled(fixedDelay=DomainConstants.ONE_SECOND, initialDelay=DomainConstants.ONE_SECOND)
+    public void syncCandidateSessionStateLogs() {
+        candidateSessionStateLog.syncPendingRecords();
+    }
 }
@@ -234,7 +234,8 @@ public final class ServiceUtilities {
      */
     public static File ensureDirectoryCreated(final File directory) {
         if (!directory.isDirectory()) {
-            if (!directory.mkdirs()) {
+            /* (Another thread may have created the directory in the meantime) */
+            if (!directory.mkdirs() && !directory.isDirectory()) {
                 throw new QtiWorksRuntimeException("Could not create directory " + directory);
             }
         }
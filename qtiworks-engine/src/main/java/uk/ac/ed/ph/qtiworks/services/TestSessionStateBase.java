@@ -0,0 +1,107 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+
+/**
+ * The {@link TestSessionState} recorded for a {@link CandidateEvent}, captured before a
+ * candidate action changes it. This is passed back when recording the event resulting from
+ * the action, so that the new state can be stored as a delta (or as the inputs of the event)
+ * without having to load the previous state again.
+ * <p>
+ * The state is held in the compact binary format provided by JQTI+, so each call to
+ * {@link #createTestSessionState()} returns a new copy.
+ *
+ * @see CandidateDataService#loadTestSessionStateBase(CandidateEvent)
+ *
+ * @author David McKain
+ */
+public final class TestSessionStateBase {
+
+    private final CandidateEvent candidateEvent;
+    private final int chainDepth;
+    private final byte[] stateData;
+
+    TestSessionStateBase(final CandidateEvent candidateEvent, final int chainDepth, final byte[] stateData) {
+        Assert.notNull(candidateEvent, "candidateEvent");
+        Assert.notNull(stateData, "stateData");
+        this.candidateEvent = candidateEvent;
+        this.chainDepth = chainDepth;
+        this.stateData = stateData;
+    }
+
+    /** Returns the {@link CandidateEvent} that this state was recorded for */
+    public CandidateEvent getCandidateEvent() {
+        return candidateEvent;
+    }
+
+    /**
+     * Returns the number of deltas or event inputs that were stored for this event and its
+     * predecessors since the last full checkpoint. This is 0 if a full checkpoint was stored
+     * for this event.
+     */
+    public int getChainDepth() {
+        return chainDepth;
+    }
+
+    /**
+     * Returns a new copy of the {@link TestSessionState}, which the caller is free to modify.
+     * The copy will be marked as clean, as unmarshalling it will otherwise have marked it as dirty.
+     *
+     * @see TestSessionState#isResultDirty()
+     */
+    public TestSessionState createTestSessionState() {
+        final TestSessionState result = TestSessionStateBinaryMarshaller.unmarshal(stateData);
+        result.clearResultDirty();
+        return result;
+    }
+
+    byte[] getStateData() {
+        return stateData;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(candidateEventId=" + candidateEvent.getId()
+                + ",chainDepth=" + chainDepth
+                + ",stateDataLength=" + stateData.length
+                + ")";
+    }
+}
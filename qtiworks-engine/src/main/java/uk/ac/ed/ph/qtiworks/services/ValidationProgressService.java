@@ -0,0 +1,152 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.User;
+import uk.ac.ed.ph.qtiworks.services.domain.ValidationProgress;
+
+import uk.ac.ed.ph.jqtiplus.validation.ItemValidationResult;
+import uk.ac.ed.ph.jqtiplus.validation.ValidationProgressListener;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps track of the progress of any assessment package validation that each user
+ * is currently waiting on, so that this can be shown to them while they wait.
+ * <p>
+ * Only the validation currently running for each user is kept, so nothing is held once
+ * validation has finished.
+ * <p>
+ * This is NO authorisation at this level.
+ *
+ * @author David McKain
+ */
+@Service
+public class ValidationProgressService {
+
+    @Resource
+    private IdentityService identityService;
+
+    /** Validation currently running for each user, keyed on user ID */
+    private final ConcurrentMap<Long, ProgressTracker> progressTrackerMap;
+
+    public ValidationProgressService() {
+        this.progressTrackerMap = new ConcurrentHashMap<Long, ProgressTracker>();
+    }
+
+    /**
+     * Starts tracking a validation run for the current user, returning a
+     * {@link ValidationProgressListener} that should be passed to the validator.
+     * Callers must call {@link #endTracking(ValidationProgressListener)} once validation
+     * has finished, successfully or otherwise.
+     */
+    public ValidationProgressListener startTracking() {
+        final ProgressTracker progressTracker = new ProgressTracker();
+        final Long userId = getCurrentUserId();
+        if (userId!=null) {
+            progressTrackerMap.put(userId, progressTracker);
+        }
+        return progressTracker;
+    }
+
+    /**
+     * Stops tracking the given validation run, which should have been returned by
+     * {@link #startTracking()}.
+     */
+    public void endTracking(final ValidationProgressListener progressListener) {
+        final Long userId = getCurrentUserId();
+        if (userId!=null) {
+            progressTrackerMap.remove(userId, progressListener);
+        }
+    }
+
+    /**
+     * Returns the progress of the validation currently running for the current user,
+     * or null if there is no such validation.
+     */
+    public ValidationProgress getCurrentUserProgress() {
+        final Long userId = getCurrentUserId();
+        final ProgressTracker progressTracker = userId!=null ? progressTrackerMap.get(userId) : null;
+        return progressTracker!=null ? progressTracker.getProgress() : null;
+    }
+
+    private Long getCurrentUserId() {
+        final User user = identityService.getCurrentThreadUser();
+        return user!=null ? user.getId() : null;
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Records progress reported by the validator, which may validate items using multiple threads.
+     */
+    private static final class ProgressTracker implements ValidationProgressListener {
+
+        private final Date startTime;
+        private final AtomicInteger validatedItemCount;
+        private final AtomicInteger invalidItemCount;
+        private volatile int itemCount;
+
+        public ProgressTracker() {
+            this.startTime = new Date();
+            this.validatedItemCount = new AtomicInteger();
+            this.invalidItemCount = new AtomicInteger();
+        }
+
+        @Override
+        public void onValidationStarted(final int itemCount) {
+            this.itemCount = itemCount;
+        }
+
+        @Override
+        public void onItemValidated(final ItemValidationResult itemValidationResult, final int validatedCount, final int count) {
+            if (itemValidationResult.hasModelValidationErrors()
+                    || !itemValidationResult.getResolvedAssessmentObject().getRootNodeLookup().wasSuccessful()) {
+                invalidItemCount.incrementAndGet();
+            }
+            validatedItemCount.incrementAndGet();
+        }
+
+        public ValidationProgress getProgress() {
+            return new ValidationProgress(startTime, itemCount, validatedItemCount.get(), invalidItemCount.get());
+        }
+    }
+}
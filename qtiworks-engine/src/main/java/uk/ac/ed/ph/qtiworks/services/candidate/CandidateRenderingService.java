@@ -575,15 +575,11 @@ public class CandidateRenderingService extends CandidateServiceBase {
         /* Get most recent event */
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
 
-        /* Generate result Object from current state */
-        final File sessionStateFile = candidateDataService.ensureSessionStateFile(mostRecentEvent);
-
         /* Record action */
         candidateAuditLogger.logAction(candidateSession, "ACCESS_STATE");
 
-        /* Stream result file */
-        final Date lastModifiedTime = mostRecentEvent.getTimestamp();
-        ServiceUtilities.streamFile(sessionStateFile, "application/xml", lastModifiedTime, outputStreamer);
+        /* Stream state as XML (converting from binary storage if required) */
+        candidateDataService.streamSessionStateXml(mostRecentEvent, outputStreamer);
     }
 
     //----------------------------------------------------
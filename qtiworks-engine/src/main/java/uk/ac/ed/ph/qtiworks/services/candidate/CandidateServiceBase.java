@@ -37,6 +37,8 @@ import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
 import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
 import uk.ac.ed.ph.qtiworks.services.CandidateAuditLogger;
 import uk.ac.ed.ph.qtiworks.services.CandidateDataService;
+import uk.ac.ed.ph.qtiworks.services.CandidateSessionResultWriter;
+import uk.ac.ed.ph.qtiworks.services.CandidateSessionStateCache;
 import uk.ac.ed.ph.qtiworks.services.RequestTimestampContext;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionDao;
 
@@ -73,6 +75,12 @@ public abstract class CandidateServiceBase {
     @Resource
     protected CandidateSessionDao candidateSessionDao;
 
+    @Resource
+    protected CandidateSessionStateCache candidateSessionStateCache;
+
+    @Resource
+    protected CandidateSessionResultWriter candidateSessionResultWriter;
+
     @Resource
     protected RequestTimestampContext requestTimestampContext;
 
@@ -120,6 +128,9 @@ public abstract class CandidateServiceBase {
         candidateSession.setTerminationTime(currentTimestamp);
         candidateAuditLogger.logExplosion(candidateSession);
         candidateSessionDao.update(candidateSession);
+        candidateDataService.checkpointMostRecentTestSessionState(candidateSession);
+        candidateSessionStateCache.evict(candidateSession);
+        candidateSessionResultWriter.flush(candidateSession);
         return candidateSession;
     }
 }
@@ -45,6 +45,7 @@ import uk.ac.ed.ph.qtiworks.domain.entities.ResponseLegality;
 import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.services.CandidateSessionFinisher;
 import uk.ac.ed.ph.qtiworks.services.IdentityService;
+import uk.ac.ed.ph.qtiworks.services.TestSessionStateBase;
 import uk.ac.ed.ph.qtiworks.services.dao.CandidateResponseDao;
 import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionLaunchService;
 
@@ -157,7 +158,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
 
         /* Record and log event */
         final CandidateEvent candidateEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                CandidateTestEventType.ENTER_TEST, testSessionState, notificationRecorder);
+                null, CandidateTestEventType.ENTER_TEST, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateEvent);
 
         /* Record current result state */
@@ -186,7 +187,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
 
         /* FIXME: Next wodge of code has some cut & paste! */
@@ -297,7 +299,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
 
         /* Record resulting event */
         final CandidateEvent candidateEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                CandidateTestEventType.ITEM_EVENT, candidateItemEventType, testSessionState, notificationRecorder);
+                stateBase, CandidateTestEventType.ITEM_EVENT, candidateItemEventType, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateEvent);
 
         /* Persist CandidateResponse entities */
@@ -326,8 +328,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
-        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
 
         try {
             /* Perform action */
@@ -343,11 +345,11 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         }
 
         /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        candidateDataService.computeAndRecordTestAssessmentResultIfChanged(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                CandidateTestEventType.SELECT_MENU, testSessionState, notificationRecorder);
+                stateBase, CandidateTestEventType.SELECT_MENU, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateEvent);
 
         return candidateSession;
@@ -362,8 +364,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
-        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
 
         try {
             /* Perform action */
@@ -379,11 +381,11 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         }
 
         /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        candidateDataService.computeAndRecordTestAssessmentResultIfChanged(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                CandidateTestEventType.SELECT_ITEM, null, itemKey, testSessionState, notificationRecorder);
+                stateBase, CandidateTestEventType.SELECT_ITEM, null, itemKey, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateTestEvent);
 
         return candidateSession;
@@ -397,8 +399,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
-        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
 
         /* Make sure caller may do this */
         assertSessionNotTerminated(candidateSession);
@@ -431,7 +433,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Record and log event */
         final CandidateTestEventType eventType = nextItemNode!=null ? CandidateTestEventType.FINISH_ITEM : CandidateTestEventType.FINISH_FINAL_ITEM;
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                eventType, null, testSessionState, notificationRecorder);
+                stateBase, eventType, null, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateTestEvent);
 
         return candidateSession;
@@ -445,8 +447,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
-        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
 
         /* Make sure caller may do this */
         assertSessionNotTerminated(candidateSession);
@@ -478,7 +480,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                CandidateTestEventType.END_TEST_PART, testSessionState, notificationRecorder);
+                stateBase, CandidateTestEventType.END_TEST_PART, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateTestEvent);
 
         return candidateSession;
@@ -495,7 +497,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
 
         /* Make sure caller may do this */
@@ -507,7 +510,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                CandidateTestEventType.REVIEW_TEST_PART, null, null, testSessionState, notificationRecorder);
+                stateBase, CandidateTestEventType.REVIEW_TEST_PART, null, null, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateTestEvent);
 
         return candidateSession;
@@ -522,8 +525,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
-        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
 
         /* Make sure caller may do this */
         assertSessionNotTerminated(candidateSession);
@@ -542,11 +545,11 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         }
 
         /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        candidateDataService.computeAndRecordTestAssessmentResultIfChanged(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                CandidateTestEventType.REVIEW_ITEM, null, itemKey, testSessionState, notificationRecorder);
+                stateBase, CandidateTestEventType.REVIEW_ITEM, null, itemKey, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateTestEvent);
 
         return candidateSession;
@@ -564,8 +567,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
-        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
 
         /* Make sure caller may do this */
         assertSessionNotTerminated(candidateSession);
@@ -584,11 +587,11 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         }
 
         /* Record current result state */
-        candidateDataService.computeAndRecordTestAssessmentResult(candidateSession, testSessionController);
+        candidateDataService.computeAndRecordTestAssessmentResultIfChanged(candidateSession, testSessionController);
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                CandidateTestEventType.SOLUTION_ITEM, null, itemKey, testSessionState, notificationRecorder);
+                stateBase, CandidateTestEventType.SOLUTION_ITEM, null, itemKey, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateTestEvent);
 
         return candidateSession;
@@ -605,7 +608,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
         final TestSessionState testSessionState = testSessionController.getTestSessionState();
 
         /* Perform action */
@@ -649,7 +653,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                eventType, testSessionState, notificationRecorder);
+                stateBase, eventType, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateTestEvent);
 
         return candidateSession;
@@ -666,8 +670,8 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
         /* Get current JQTI state and create JQTI controller */
         final NotificationRecorder notificationRecorder = new NotificationRecorder(NotificationLevel.INFO);
         final CandidateEvent mostRecentEvent = assertSessionEntered(candidateSession);
-        final TestSessionController testSessionController = candidateDataService.createTestSessionController(mostRecentEvent, notificationRecorder);
-        final TestSessionState testSessionState = testSessionController.getTestSessionState();
+        final TestSessionStateBase stateBase = candidateDataService.loadTestSessionStateBase(mostRecentEvent);
+        final TestSessionController testSessionController = candidateDataService.createTestSessionController(stateBase, notificationRecorder);
 
         /* Perform action */
         final Date currentTimestamp = requestTimestampContext.getCurrentRequestTimestamp();
@@ -691,7 +695,7 @@ public class CandidateTestDeliveryService extends CandidateServiceBase {
 
         /* Record and log event */
         final CandidateEvent candidateTestEvent = candidateDataService.recordCandidateTestEvent(candidateSession,
-                CandidateTestEventType.EXIT_TEST, testSessionState, notificationRecorder);
+                stateBase, CandidateTestEventType.EXIT_TEST, testSessionController, notificationRecorder);
         candidateAuditLogger.logCandidateEvent(candidateTestEvent);
 
         return candidateSession;
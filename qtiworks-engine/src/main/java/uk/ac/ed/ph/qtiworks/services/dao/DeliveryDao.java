@@ -34,6 +34,7 @@
 package uk.ac.ed.ph.qtiworks.services.dao;
 
 import uk.ac.ed.ph.qtiworks.domain.entities.Assessment;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
 import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
 import uk.ac.ed.ph.qtiworks.domain.entities.DeliverySettings;
 import uk.ac.ed.ph.qtiworks.domain.entities.DeliveryType;
@@ -113,4 +114,22 @@ public class DeliveryDao extends GenericDao<Delivery> {
         query.setParameter("creationTime", creationTime);
         return query.getResultList();
     }
+
+    /**
+     * Returns all open {@link Delivery}s, fetching their {@link Assessment}s and selected
+     * {@link AssessmentPackage}s at the same time.
+     */
+    public List<Delivery> getOpen() {
+        final TypedQuery<Delivery> query = em.createNamedQuery("Delivery.getOpen", Delivery.class);
+        return query.getResultList();
+    }
+
+    /**
+     * Returns the IDs of the open {@link Delivery}s that have been launched at least once,
+     * ordered by the time of their most recent launch (latest first).
+     */
+    public List<Long> getOpenIdsByLatestLaunch() {
+        final TypedQuery<Long> query = em.createNamedQuery("Delivery.getOpenIdsByLatestLaunch", Long.class);
+        return query.getResultList();
+    }
 }
@@ -0,0 +1,129 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services.domain;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the usage statistics for one of the in-memory caches used by QTIWorks.
+ *
+ * @author David McKain
+ */
+public final class CacheStatistics implements Serializable {
+
+    private static final long serialVersionUID = -3185736407391283207L;
+
+    private final String cacheName;
+    private final long size;
+    private final long capacity;
+    private final long hitCount;
+    private final long missCount;
+    private final long loadCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+
+    public CacheStatistics(final String cacheName, final long size, final long capacity,
+            final long hitCount, final long missCount, final long loadCount, final long totalLoadTime,
+            final long evictionCount) {
+        this.cacheName = cacheName;
+        this.size = size;
+        this.capacity = capacity;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadCount = loadCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    /** Number of entries currently in the cache */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Maximum capacity of the cache, in units specific to the cache (e.g. KB or number of entries),
+     * or -1 if unbounded.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /** Fraction of requests that were hits, or 1.0 if there have been no requests */
+    public double getHitRate() {
+        final long requestCount = hitCount + missCount;
+        return requestCount > 0 ? (double) hitCount / requestCount : 1.0;
+    }
+
+    /** Number of entries loaded into the cache following a miss, or -1 if not recorded */
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    /** Total time spent loading entries into the cache (ms), or -1 if not recorded */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /** Mean time taken to load each entry into the cache (ms), or -1 if not recorded */
+    public double getAverageLoadTime() {
+        if (loadCount < 0 || totalLoadTime < 0) {
+            return -1.0;
+        }
+        return loadCount > 0 ? (double) totalLoadTime / loadCount : 0.0;
+    }
+
+    /** Number of entries evicted to keep the cache within its capacity, or -1 if not recorded */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -0,0 +1,110 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services.domain;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports the outcome of replaying the {@link CandidateEvent}s in a {@link CandidateSession}
+ * and comparing the results with the stored state checkpoints.
+ *
+ * @author David McKain
+ */
+public final class CandidateSessionReplayReport implements Serializable {
+
+    private static final long serialVersionUID = -3164620733214861580L;
+
+    private final long candidateSessionId;
+    private final int eventCount;
+    private final int replayedEventCount;
+    private final int verifiedCheckpointCount;
+    private final List<Long> mismatchedEventIds;
+    private final List<Long> failedEventIds;
+
+    public CandidateSessionReplayReport(final long candidateSessionId, final int eventCount,
+            final int replayedEventCount, final int verifiedCheckpointCount,
+            final List<Long> mismatchedEventIds, final List<Long> failedEventIds) {
+        this.candidateSessionId = candidateSessionId;
+        this.eventCount = eventCount;
+        this.replayedEventCount = replayedEventCount;
+        this.verifiedCheckpointCount = verifiedCheckpointCount;
+        this.mismatchedEventIds = Collections.unmodifiableList(mismatchedEventIds);
+        this.failedEventIds = Collections.unmodifiableList(failedEventIds);
+    }
+
+    public long getCandidateSessionId() {
+        return candidateSessionId;
+    }
+
+    /** Total number of {@link CandidateEvent}s in the session */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /** Number of {@link CandidateEvent}s that were replayed */
+    public int getReplayedEventCount() {
+        return replayedEventCount;
+    }
+
+    /** Number of replayed {@link CandidateEvent}s whose results matched their stored checkpoints */
+    public int getVerifiedCheckpointCount() {
+        return verifiedCheckpointCount;
+    }
+
+    /** IDs of replayed {@link CandidateEvent}s whose results did not match their stored checkpoints */
+    public List<Long> getMismatchedEventIds() {
+        return mismatchedEventIds;
+    }
+
+    /** IDs of {@link CandidateEvent}s that could not be replayed */
+    public List<Long> getFailedEventIds() {
+        return failedEventIds;
+    }
+
+    public boolean isSuccessful() {
+        return mismatchedEventIds.isEmpty() && failedEventIds.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
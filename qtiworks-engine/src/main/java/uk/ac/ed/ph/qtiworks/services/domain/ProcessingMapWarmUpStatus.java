@@ -0,0 +1,105 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services.domain;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Snapshot of the progress of the most recent warm-up of the processing map cache.
+ *
+ * @author David McKain
+ */
+public final class ProcessingMapWarmUpStatus implements Serializable {
+
+    private static final long serialVersionUID = 2530367941736549158L;
+
+    private final boolean running;
+    private final Date startTime;
+    private final Date endTime;
+    private final int packageCount;
+    private final int loadedCount;
+    private final int failedCount;
+    private final int skippedCount;
+
+    public ProcessingMapWarmUpStatus(final boolean running, final Date startTime, final Date endTime,
+            final int packageCount, final int loadedCount, final int failedCount, final int skippedCount) {
+        this.running = running;
+        this.startTime = ObjectUtilities.safeClone(startTime);
+        this.endTime = ObjectUtilities.safeClone(endTime);
+        this.packageCount = packageCount;
+        this.loadedCount = loadedCount;
+        this.failedCount = failedCount;
+        this.skippedCount = skippedCount;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public Date getStartTime() {
+        return ObjectUtilities.safeClone(startTime);
+    }
+
+    public Date getEndTime() {
+        return ObjectUtilities.safeClone(endTime);
+    }
+
+    /** Number of packages selected for warming up */
+    public int getPackageCount() {
+        return packageCount;
+    }
+
+    /** Number of packages whose processing maps have been loaded */
+    public int getLoadedCount() {
+        return loadedCount;
+    }
+
+    /** Number of packages whose processing maps could not be created */
+    public int getFailedCount() {
+        return failedCount;
+    }
+
+    /** Number of packages skipped because the time budget ran out */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -0,0 +1,90 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services.domain;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Snapshot of the progress of the validation of an assessment package containing a test
+ * that a user is currently waiting on.
+ *
+ * @author David McKain
+ */
+public final class ValidationProgress implements Serializable {
+
+    private static final long serialVersionUID = -3204598727371953214L;
+
+    private final Date startTime;
+    private final int itemCount;
+    private final int validatedItemCount;
+    private final int invalidItemCount;
+
+    public ValidationProgress(final Date startTime, final int itemCount,
+            final int validatedItemCount, final int invalidItemCount) {
+        this.startTime = ObjectUtilities.safeClone(startTime);
+        this.itemCount = itemCount;
+        this.validatedItemCount = validatedItemCount;
+        this.invalidItemCount = invalidItemCount;
+    }
+
+    public Date getStartTime() {
+        return ObjectUtilities.safeClone(startTime);
+    }
+
+    /**
+     * Number of distinct items to be validated. This is zero while the test and its items
+     * are still being read in.
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    /** Number of items that have been validated so far */
+    public int getValidatedItemCount() {
+        return validatedItemCount;
+    }
+
+    /** Number of items validated so far that were found to have errors */
+    public int getInvalidItemCount() {
+        return invalidItemCount;
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -33,14 +33,9 @@
  */
 package uk.ac.ed.ph.qtiworks.utils;
 
-import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParserPool;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
-
-import org.xml.sax.XMLReader;
 
 /**
  * Some generic XML-related utilities.
@@ -49,27 +44,12 @@ import org.xml.sax.XMLReader;
  */
 public final class XmlUtilities {
 
+    /**
+     * Creates a new (or previously idle) NS-aware {@link DocumentBuilder} from the shared
+     * {@link XmlParserPool}. This doesn't need to be returned to the pool afterwards.
+     */
     public static final DocumentBuilder createNsAwareDocumentBuilder() {
-        try {
-            final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            documentBuilderFactory.setNamespaceAware(true);
-            return documentBuilderFactory.newDocumentBuilder();
-        }
-        catch (final ParserConfigurationException e) {
-            throw new QtiWorksRuntimeException("Could not create NS-aware DocumentBuilder. Check deployment/runtime ClassPath", e);
-        }
-    }
-
-    public static final XMLReader createNsAwareSaxReader(final boolean validating) {
-        try {
-            final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
-            parserFactory.setNamespaceAware(true);
-            parserFactory.setValidating(validating);
-            return parserFactory.newSAXParser().getXMLReader();
-        }
-        catch (final Exception e) {
-            throw new QtiWorksRuntimeException("Could not create NS-aware SAXParser with validating=" + validating + ". Check deployment/runtime ClassPath", e);
-        }
+        return XmlParserPool.getNsAwareInstance().borrowDocumentBuilder();
     }
 
 }
@@ -45,6 +45,7 @@ import uk.ac.ed.ph.qtiworks.domain.entities.User;
 import uk.ac.ed.ph.qtiworks.services.AssessmentDataService;
 import uk.ac.ed.ph.qtiworks.services.AssessmentManagementService;
 import uk.ac.ed.ph.qtiworks.services.IdentityService;
+import uk.ac.ed.ph.qtiworks.services.ValidationProgressService;
 import uk.ac.ed.ph.qtiworks.services.candidate.CandidateException;
 import uk.ac.ed.ph.qtiworks.services.domain.AssessmentAndPackage;
 import uk.ac.ed.ph.qtiworks.services.domain.AssessmentLtiOutcomesSettingsTemplate;
@@ -56,6 +57,7 @@ import uk.ac.ed.ph.qtiworks.services.domain.IllegalManagementOperationException;
 import uk.ac.ed.ph.qtiworks.services.domain.ItemDeliverySettingsTemplate;
 import uk.ac.ed.ph.qtiworks.services.domain.PrivilegeException;
 import uk.ac.ed.ph.qtiworks.services.domain.TestDeliverySettingsTemplate;
+import uk.ac.ed.ph.qtiworks.services.domain.ValidationProgress;
 import uk.ac.ed.ph.qtiworks.web.GlobalRouter;
 import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionLaunchService;
 import uk.ac.ed.ph.qtiworks.web.candidate.CandidateSessionTicket;
@@ -70,6 +72,9 @@ import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 import javax.validation.Valid;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindException;
@@ -107,6 +112,9 @@ public class InstructorAssessmentManagementController {
     @Resource
     private IdentityService identityService;
 
+    @Resource
+    private ValidationProgressService validationProgressService;
+
     //------------------------------------------------------
 
     @ModelAttribute
@@ -222,6 +230,17 @@ public class InstructorAssessmentManagementController {
         return instructorRouter.buildInstructorRedirect("/assessments");
     }
 
+    /**
+     * Returns (as JSON) the progress of any validation that the current user is waiting on,
+     * which is polled while uploading or replacing an assessment package.
+     */
+    @RequestMapping(value="/validation/progress", method=RequestMethod.GET)
+    public ResponseEntity<ValidationProgress> showValidationProgress() {
+        final HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setCacheControl("private, no-cache, no-store, max-age=0, must-revalidate");
+        return new ResponseEntity<ValidationProgress>(validationProgressService.getCurrentUserProgress(), responseHeaders, HttpStatus.OK);
+    }
+
     /** TODO: For performance, we should cache the validation result */
     @RequestMapping(value="/assessment/{aid}/validate", method=RequestMethod.GET)
     public String validateAssessment(final @PathVariable long aid, final Model model)
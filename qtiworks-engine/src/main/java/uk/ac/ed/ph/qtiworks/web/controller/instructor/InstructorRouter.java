@@ -87,6 +87,7 @@ public class InstructorRouter {
         primaryRouting.put("listTestDeliverySettings", buildWebUrl("/deliverysettings/test"));
         primaryRouting.put("createItemDeliverySettings", buildWebUrl("/deliverysettings/item/create"));
         primaryRouting.put("createTestDeliverySettings", buildWebUrl("/deliverysettings/test/create"));
+        primaryRouting.put("validationProgress", buildWebUrl("/validation/progress"));
         return primaryRouting;
     }
 
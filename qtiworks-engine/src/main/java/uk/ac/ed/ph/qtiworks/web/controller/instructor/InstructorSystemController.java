@@ -0,0 +1,120 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.web.controller.instructor;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.User;
+import uk.ac.ed.ph.qtiworks.services.CacheStatisticsService;
+import uk.ac.ed.ph.qtiworks.services.IdentityService;
+import uk.ac.ed.ph.qtiworks.services.ProcessingMapWarmUpService;
+import uk.ac.ed.ph.qtiworks.services.domain.CacheStatistics;
+import uk.ac.ed.ph.qtiworks.services.domain.Privilege;
+import uk.ac.ed.ph.qtiworks.services.domain.PrivilegeException;
+import uk.ac.ed.ph.qtiworks.services.domain.ProcessingMapWarmUpStatus;
+
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Controller providing system administration functions, returning JSON.
+ * These are only available to system administrators.
+ *
+ * @author David McKain
+ */
+@Controller
+public class InstructorSystemController {
+
+    @Resource
+    private IdentityService identityService;
+
+    @Resource
+    private ProcessingMapWarmUpService processingMapWarmUpService;
+
+    @Resource
+    private CacheStatisticsService cacheStatisticsService;
+
+    //------------------------------------------------------
+
+    /**
+     * Shows the status of the current (or most recent) processing map warm-up
+     */
+    @RequestMapping(value="/system/warmup", method=RequestMethod.GET)
+    public ResponseEntity<ProcessingMapWarmUpStatus> showWarmUpStatus()
+            throws PrivilegeException {
+        ensureSysAdmin();
+        return createJsonResponse(processingMapWarmUpService.getStatus());
+    }
+
+    /**
+     * Starts warming up the processing map cache (unless already running)
+     */
+    @RequestMapping(value="/system/warmup", method=RequestMethod.POST)
+    public ResponseEntity<ProcessingMapWarmUpStatus> startWarmUp()
+            throws PrivilegeException {
+        ensureSysAdmin();
+        return createJsonResponse(processingMapWarmUpService.startWarmUp());
+    }
+
+    /**
+     * Shows usage statistics for the in-memory caches
+     */
+    @RequestMapping(value="/system/caches", method=RequestMethod.GET)
+    public ResponseEntity<List<CacheStatistics>> showCacheStatistics()
+            throws PrivilegeException {
+        ensureSysAdmin();
+        return createJsonResponse(cacheStatisticsService.getAllCacheStatistics());
+    }
+
+    //------------------------------------------------------
+
+    private void ensureSysAdmin() throws PrivilegeException {
+        final User caller = identityService.assertCurrentThreadUser();
+        if (!caller.isSysAdmin()) {
+            throw new PrivilegeException(caller, Privilege.MANAGE_SYSTEM);
+        }
+    }
+
+    private <E> ResponseEntity<E> createJsonResponse(final E body) {
+        final HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setCacheControl("private, no-cache, no-store, max-age=0, must-revalidate");
+        return new ResponseEntity<E>(body, responseHeaders, HttpStatus.OK);
+    }
+}
@@ -21,7 +21,8 @@ Input document: doesn't matter
   <xsl:import href="author-view-common.xsl"/>
 
   <!-- State of test being rendered -->
-  <xsl:param name="testSessionState" as="element(qw:testSessionState)"/>
+  <xsl:param name="testSessionStateDocument" as="document-node(element(qw:testSessionState))"/>
+  <xsl:variable name="testSessionState" select="$testSessionStateDocument/qw:testSessionState" as="element(qw:testSessionState)"/>
 
   <xsl:function name="qw:formatNodeType" as="xs:string">
     <xsl:param name="testPlanNode" as="element(qw:node)"/>
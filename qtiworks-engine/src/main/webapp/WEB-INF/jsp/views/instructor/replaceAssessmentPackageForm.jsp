@@ -54,6 +54,7 @@ primaryRouting (action -> URL)
   </c:if>
 
   <form:form method="post" acceptCharset="UTF-8" enctype="multipart/form-data" commandName="uploadAssessmentPackageCommand"
+    cssClass="showValidationProgress" data-progress-url="${utils:escapeLink(primaryRouting['validationProgress'])}"
     onsubmit="return ${nonTerminatedCandidateRoleSessionCount}==0 || confirm('Are you sure? The will terminate ${nonTerminatedCandidateRoleSessionCount} running candidate session(s).')">
 
     <%-- Show any form validation errors discovered --%>
@@ -95,6 +96,7 @@ primaryRouting (action -> URL)
         <label for="submit">Hit "Replace Assessment Package Content"</label>
         <br/>
         <input id="submit" name="submit" type="submit" value="Replace Assessment Package Content"/>
+        <div class="validationProgress"></div>
       </div>
     </fieldset>
   </form:form>
@@ -33,6 +33,28 @@ $(document).ready(function() {
         setupToggler($(this));
     });
 
+    /* Form progressive enhancement - poll for validation progress while uploading an assessment package */
+    $('form.showValidationProgress').submit(function(event) {
+        var progressUrl = $(this).attr('data-progress-url');
+        var progressQuery = $(this).find('.validationProgress');
+        if (event.isDefaultPrevented() || !progressUrl) {
+            return;
+        }
+        progressQuery.text('Uploading and validating\u2026');
+        function poll() {
+            $.getJSON(progressUrl, function(progress) {
+                if (progress && progress.itemCount > 0) {
+                    progressQuery.text('Validated ' + progress.validatedItemCount + ' of ' + progress.itemCount + ' items'
+                        + (progress.invalidItemCount > 0 ? ' (' + progress.invalidItemCount + ' with errors)' : '')
+                        + '\u2026');
+                }
+            }).always(function() {
+                setTimeout(poll, 1000);
+            });
+        }
+        setTimeout(poll, 1000);
+    });
+
     /* Form progressive enhancement - show target page (which should be XML) in a dialog box */
     $('.showXmlInDialog').submit(function() {
         /* Extract details from this <form> element */
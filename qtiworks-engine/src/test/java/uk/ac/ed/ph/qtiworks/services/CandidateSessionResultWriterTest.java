@@ -0,0 +1,241 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSessionOutcome;
+import uk.ac.ed.ph.qtiworks.services.dao.CandidateSessionOutcomeDao;
+import uk.ac.ed.ph.qtiworks.testutils.ServiceTestUtilities;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.node.result.AssessmentResult;
+import uk.ac.ed.ph.jqtiplus.node.result.OutcomeVariable;
+import uk.ac.ed.ph.jqtiplus.node.result.TestResult;
+import uk.ac.ed.ph.jqtiplus.serialization.QtiSerializer;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+/**
+ * Tests the {@link CandidateSessionResultWriter} class, concentrating on what happens
+ * when results can't be written.
+ *
+ * @author David McKain
+ */
+public class CandidateSessionResultWriterTest {
+
+    private File filesystemBase;
+    private FailingCandidateSessionOutcomeDao candidateSessionOutcomeDao;
+    private CandidateSessionResultWriter candidateSessionResultWriter;
+    private CandidateSession candidateSession;
+
+    @Before
+    public void setup() {
+        filesystemBase = ServiceTestUtilities.createTemporaryDirectory();
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = ServiceTestUtilities.createDeploymentSettings(filesystemBase);
+        ServiceTestUtilities.injectField(qtiWorksDeploymentSettings, "resultWriterThreads", Integer.valueOf(1));
+        candidateSessionOutcomeDao = new FailingCandidateSessionOutcomeDao();
+
+        candidateSessionResultWriter = new CandidateSessionResultWriter();
+        ServiceTestUtilities.injectField(candidateSessionResultWriter, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        ServiceTestUtilities.injectField(candidateSessionResultWriter, "filespaceManager",
+                ServiceTestUtilities.createFilespaceManager(qtiWorksDeploymentSettings));
+        ServiceTestUtilities.injectField(candidateSessionResultWriter, "qtiSerializer", new QtiSerializer(new JqtiExtensionManager()));
+        ServiceTestUtilities.injectField(candidateSessionResultWriter, "candidateSessionOutcomeDao", candidateSessionOutcomeDao);
+        ServiceTestUtilities.injectField(candidateSessionResultWriter, "jpaTransactionManager", new DummyTransactionManager());
+        candidateSessionResultWriter.init();
+
+        candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+    }
+
+    @After
+    public void teardown() {
+        candidateSessionOutcomeDao.setFailing(false);
+        candidateSessionResultWriter.destroy();
+        ServiceUtilities.recursivelyDelete(filesystemBase);
+    }
+
+    @Test
+    public void testBackgroundWrite() {
+        recordResult(1.0);
+        candidateSessionResultWriter.flush(candidateSession);
+        Assert.assertEquals(1, candidateSessionOutcomeDao.getPersistCount());
+        Assert.assertTrue(candidateSessionResultWriter.getAssessmentResultFile(candidateSession).isFile());
+    }
+
+    @Test
+    public void testFailedBackgroundWriteRetriedOnFlush() throws Exception {
+        candidateSessionOutcomeDao.setFailing(true);
+        recordResult(1.0);
+        candidateSessionOutcomeDao.awaitFailure();
+
+        /* Result should still be pending, and written out on flush once things are working again */
+        candidateSessionOutcomeDao.setFailing(false);
+        Assert.assertEquals(0, candidateSessionOutcomeDao.getPersistCount());
+        candidateSessionResultWriter.flush(candidateSession);
+        Assert.assertEquals(1, candidateSessionOutcomeDao.getPersistCount());
+    }
+
+    @Test
+    public void testPersistentFailureIsSurfaced() throws Exception {
+        candidateSessionOutcomeDao.setFailing(true);
+        recordResult(1.0);
+        candidateSessionOutcomeDao.awaitFailure();
+
+        /* Flush should report the failure */
+        try {
+            candidateSessionResultWriter.flush(candidateSession);
+            Assert.fail("Expected flush to fail");
+        }
+        catch (final QtiWorksRuntimeException e) {
+            /* Expected */
+        }
+
+        /* Next result should be written synchronously, so the caller sees the failure too */
+        try {
+            recordResult(2.0);
+            Assert.fail("Expected recordResult to fail");
+        }
+        catch (final QtiWorksRuntimeException e) {
+            /* Expected */
+        }
+
+        /* Once working again, the latest result should be written out */
+        candidateSessionOutcomeDao.setFailing(false);
+        recordResult(3.0);
+        Assert.assertEquals(1, candidateSessionOutcomeDao.getPersistCount());
+        Assert.assertEquals("3.0", candidateSessionOutcomeDao.getLastOutcome().getStringValue());
+
+        /* ...after which background writing resumes */
+        recordResult(4.0);
+        candidateSessionResultWriter.flush(candidateSession);
+        Assert.assertEquals(2, candidateSessionOutcomeDao.getPersistCount());
+        Assert.assertEquals("4.0", candidateSessionOutcomeDao.getLastOutcome().getStringValue());
+    }
+
+    //-------------------------------------------------
+
+    private void recordResult(final double score) {
+        final AssessmentResult assessmentResult = new AssessmentResult();
+        final TestResult testResult = new TestResult(assessmentResult);
+        testResult.setIdentifier("TEST");
+        final OutcomeVariable outcomeVariable = new OutcomeVariable(testResult, null, new FloatValue(score));
+        outcomeVariable.setIdentifier(Identifier.parseString("SCORE"));
+        outcomeVariable.setCardinality(Cardinality.SINGLE);
+        outcomeVariable.setBaseType(BaseType.FLOAT);
+        testResult.getItemVariables().add(outcomeVariable);
+        assessmentResult.setTestResult(testResult);
+        candidateSessionResultWriter.recordResult(candidateSession, assessmentResult, testResult);
+    }
+
+    /**
+     * Fake DAO that doesn't touch the database, and can be made to fail.
+     */
+    private static final class FailingCandidateSessionOutcomeDao extends CandidateSessionOutcomeDao {
+
+        private final CountDownLatch failureLatch = new CountDownLatch(1);
+        private volatile boolean failing;
+        private volatile int persistCount;
+        private volatile CandidateSessionOutcome lastOutcome;
+
+        public void setFailing(final boolean failing) {
+            this.failing = failing;
+        }
+
+        public void awaitFailure() throws InterruptedException {
+            Assert.assertTrue(failureLatch.await(10, TimeUnit.SECONDS));
+        }
+
+        public int getPersistCount() {
+            return persistCount;
+        }
+
+        public CandidateSessionOutcome getLastOutcome() {
+            return lastOutcome;
+        }
+
+        @Override
+        public int deleteForCandidateSession(final CandidateSession candidateSession) {
+            if (failing) {
+                failureLatch.countDown();
+                throw new QtiWorksRuntimeException("Simulated database failure");
+            }
+            return 0;
+        }
+
+        @Override
+        public CandidateSessionOutcome persist(final CandidateSessionOutcome entity) {
+            lastOutcome = entity;
+            persistCount++;
+            return entity;
+        }
+    }
+
+    /**
+     * Transaction manager that does nothing.
+     */
+    private static final class DummyTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(final TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(final TransactionStatus status) {
+            /* Nothing to do */
+        }
+
+        @Override
+        public void rollback(final TransactionStatus status) {
+            /* Nothing to do */
+        }
+    }
+}
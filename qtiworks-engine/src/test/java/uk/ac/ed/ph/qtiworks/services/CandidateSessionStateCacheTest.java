@@ -0,0 +1,188 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.testutils.ServiceTestUtilities;
+
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link CandidateSessionStateCache} class
+ *
+ * @author David McKain
+ */
+public class CandidateSessionStateCacheTest {
+
+    private static final int CACHE_SIZE = 10;
+
+    private CandidateSessionStateCache candidateSessionStateCache;
+    private ExecutorService executorService;
+
+    @Before
+    public void before() {
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = ServiceTestUtilities.createDeploymentSettings(new File("."));
+        ServiceTestUtilities.injectField(qtiWorksDeploymentSettings, "stateCacheSize", Integer.valueOf(CACHE_SIZE));
+        candidateSessionStateCache = new CandidateSessionStateCache();
+        ServiceTestUtilities.injectField(candidateSessionStateCache, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        candidateSessionStateCache.init();
+        executorService = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void after() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void testCacheAndGet() {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 1L, 1L);
+        final CandidateEvent candidateEvent = ServiceTestUtilities.createCandidateEvent(candidateSession, 1L);
+        Assert.assertNull(candidateSessionStateCache.getItemSessionState(candidateEvent));
+
+        candidateSessionStateCache.cacheItemSessionState(candidateEvent, createItemSessionState(1));
+        Assert.assertEquals(1, candidateSessionStateCache.getItemSessionState(candidateEvent).getNumAttempts());
+        Assert.assertNull(candidateSessionStateCache.getItemSessionState(ServiceTestUtilities.createCandidateEvent(candidateSession, 2L)));
+        Assert.assertEquals(1L, candidateSessionStateCache.getCacheHitCount());
+        Assert.assertEquals(2L, candidateSessionStateCache.getCacheMissCount());
+        Assert.assertEquals(1L, candidateSessionStateCache.getCacheUsage());
+        Assert.assertEquals(CACHE_SIZE, candidateSessionStateCache.getCacheMaxSize());
+    }
+
+    @Test
+    public void testOlderStateNotCached() {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 1L, 1L);
+        final CandidateEvent olderEvent = ServiceTestUtilities.createCandidateEvent(candidateSession, 1L);
+        final CandidateEvent newerEvent = ServiceTestUtilities.createCandidateEvent(candidateSession, 2L);
+        candidateSessionStateCache.cacheItemSessionState(newerEvent, createItemSessionState(2));
+        candidateSessionStateCache.cacheItemSessionState(olderEvent, createItemSessionState(1));
+
+        Assert.assertNull(candidateSessionStateCache.getItemSessionState(olderEvent));
+        Assert.assertEquals(2, candidateSessionStateCache.getItemSessionState(newerEvent).getNumAttempts());
+    }
+
+    @Test
+    public void testTerminatedSessionEvicted() {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 1L, 1L);
+        candidateSessionStateCache.cacheItemSessionState(ServiceTestUtilities.createCandidateEvent(candidateSession, 1L),
+                createItemSessionState(1));
+        candidateSession.setTerminationTime(new Date());
+        final CandidateEvent finalEvent = ServiceTestUtilities.createCandidateEvent(candidateSession, 2L);
+        candidateSessionStateCache.cacheItemSessionState(finalEvent, createItemSessionState(2));
+
+        Assert.assertNull(candidateSessionStateCache.getItemSessionState(finalEvent));
+        Assert.assertEquals(0L, candidateSessionStateCache.getCacheUsage());
+    }
+
+    @Test
+    public void testEvictDelivery() {
+        final CandidateSession session1 = ServiceTestUtilities.createCandidateSession(1L, 1L, 1L);
+        final CandidateSession session2 = ServiceTestUtilities.createCandidateSession(1L, 1L, 2L);
+        final CandidateSession session3 = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        for (final CandidateSession candidateSession : new CandidateSession[] { session1, session2, session3 }) {
+            candidateSessionStateCache.cacheItemSessionState(ServiceTestUtilities.createCandidateEvent(candidateSession, 1L),
+                    createItemSessionState(1));
+        }
+        candidateSessionStateCache.evict(session1.getDelivery());
+
+        Assert.assertNull(candidateSessionStateCache.getItemSessionState(ServiceTestUtilities.createCandidateEvent(session1, 1L)));
+        Assert.assertNull(candidateSessionStateCache.getItemSessionState(ServiceTestUtilities.createCandidateEvent(session2, 1L)));
+        Assert.assertNotNull(candidateSessionStateCache.getItemSessionState(ServiceTestUtilities.createCandidateEvent(session3, 1L)));
+    }
+
+    @Test
+    public void testBounded() {
+        for (long i=1; i<=3*CACHE_SIZE; i++) {
+            final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 1L, i);
+            candidateSessionStateCache.cacheItemSessionState(ServiceTestUtilities.createCandidateEvent(candidateSession, 1L),
+                    createItemSessionState(1));
+        }
+        Assert.assertTrue(candidateSessionStateCache.getCacheUsage() <= CACHE_SIZE);
+        Assert.assertEquals(3*CACHE_SIZE - candidateSessionStateCache.getCacheUsage(), candidateSessionStateCache.getCachePurgeCount());
+    }
+
+    @Test
+    public void testConcurrentSessionsKeepMostRecentState() throws Exception {
+        final int sessionCount = 4;
+        final int eventCount = 200;
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (long i=1; i<=sessionCount; i++) {
+            final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 1L, i);
+            for (int j=0; j<2; j++) {
+                /* (Two threads per session, racing to cache the same sequence of events) */
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (int eventId=1; eventId<=eventCount; eventId++) {
+                            candidateSessionStateCache.cacheItemSessionState(ServiceTestUtilities.createCandidateEvent(candidateSession, eventId),
+                                    createItemSessionState(eventId));
+                        }
+                        return null;
+                    }
+                }));
+            }
+        }
+        for (final Future<Void> future : futures) {
+            future.get();
+        }
+        for (long i=1; i<=sessionCount; i++) {
+            final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 1L, i);
+            final ItemSessionState itemSessionState = candidateSessionStateCache.getItemSessionState(ServiceTestUtilities.createCandidateEvent(candidateSession, eventCount));
+            Assert.assertNotNull(itemSessionState);
+            Assert.assertEquals(eventCount, itemSessionState.getNumAttempts());
+        }
+    }
+
+    private static ItemSessionState createItemSessionState(final int numAttempts) {
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        itemSessionState.setNumAttempts(numAttempts);
+        return itemSessionState;
+    }
+}
@@ -0,0 +1,307 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksLogicException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.services.CandidateSessionStateLog.RecordType;
+import uk.ac.ed.ph.qtiworks.testutils.ServiceTestUtilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link CandidateSessionStateLog} class
+ *
+ * @author David McKain
+ */
+public class CandidateSessionStateLogTest {
+
+    private File filesystemBase;
+    private QtiWorksDeploymentSettings qtiWorksDeploymentSettings;
+    private FilespaceManager filespaceManager;
+
+    @Before
+    public void setup() {
+        filesystemBase = ServiceTestUtilities.createTemporaryDirectory();
+        qtiWorksDeploymentSettings = ServiceTestUtilities.createDeploymentSettings(filesystemBase);
+        ServiceTestUtilities.injectField(qtiWorksDeploymentSettings, "stateLogStorage", Boolean.TRUE);
+        ServiceTestUtilities.injectField(qtiWorksDeploymentSettings, "stateLogSyncBatchSize", Integer.valueOf(16));
+        filespaceManager = ServiceTestUtilities.createFilespaceManager(qtiWorksDeploymentSettings);
+    }
+
+    @After
+    public void teardown() {
+        ServiceUtilities.recursivelyDelete(filesystemBase);
+    }
+
+    @Test
+    public void testAppendAndRead() {
+        runAppendAndRead(false);
+    }
+
+    @Test
+    public void testAppendAndReadCompressed() {
+        runAppendAndRead(true);
+    }
+
+    private void runAppendAndRead(final boolean compressing) {
+        ServiceTestUtilities.injectField(qtiWorksDeploymentSettings, "stateLogCompressing", Boolean.valueOf(compressing));
+        final CandidateSessionStateLog stateLog = createStateLog(10);
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+
+        final byte[] smallData = createData(1, 10);
+        final byte[] largeData = createData(2, 10000);
+        stateLog.appendRecord(ServiceTestUtilities.createCandidateEvent(candidateSession, 100L), RecordType.BINARY_STATE, smallData);
+        stateLog.appendRecord(ServiceTestUtilities.createCandidateEvent(candidateSession, 101L), RecordType.BINARY_STATE, largeData);
+
+        Assert.assertArrayEquals(smallData, stateLog.readRecord(candidateSession, 100L, RecordType.BINARY_STATE));
+        Assert.assertArrayEquals(largeData, stateLog.readRecord(candidateSession, 101L, RecordType.BINARY_STATE));
+        Assert.assertTrue(stateLog.hasRecord(candidateSession, 101L, RecordType.BINARY_STATE));
+        Assert.assertFalse(stateLog.hasRecord(candidateSession, 102L, RecordType.BINARY_STATE));
+        Assert.assertNull(stateLog.readRecord(candidateSession, 102L, RecordType.BINARY_STATE));
+
+        /* Compressible data should take up less room in the log only if compression is on */
+        final long logLength = getLogFile(candidateSession).length();
+        Assert.assertEquals(compressing, logLength < largeData.length);
+
+        /* Check a fresh log (with no existing index) reads the same data */
+        final CandidateSessionStateLog freshStateLog = createStateLog(10);
+        Assert.assertArrayEquals(largeData, freshStateLog.readRecord(candidateSession, 101L, RecordType.BINARY_STATE));
+    }
+
+    @Test
+    public void testMissingLog() {
+        final CandidateSessionStateLog stateLog = createStateLog(10);
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        Assert.assertNull(stateLog.readRecord(candidateSession, 100L, RecordType.BINARY_STATE));
+        Assert.assertFalse(stateLog.hasRecord(candidateSession, 100L, RecordType.BINARY_STATE));
+    }
+
+    @Test
+    public void testTornTailRecovery() throws IOException {
+        final CandidateSessionStateLog stateLog = createStateLog(10);
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final byte[] firstData = createData(1, 100);
+        final byte[] secondData = createData(2, 100);
+        stateLog.appendRecord(ServiceTestUtilities.createCandidateEvent(candidateSession, 100L), RecordType.BINARY_STATE, firstData);
+
+        /* Simulate a crash part way through writing a record */
+        final File logFile = getLogFile(candidateSession);
+        final FileOutputStream logStream = new FileOutputStream(logFile, true);
+        try {
+            logStream.write(new byte[] { 0, 0, 1, 0, 0, 0, 0 });
+        }
+        finally {
+            logStream.close();
+        }
+
+        /* Torn record should be ignored by a fresh reader... */
+        final CandidateSessionStateLog freshStateLog = createStateLog(10);
+        Assert.assertArrayEquals(firstData, freshStateLog.readRecord(candidateSession, 100L, RecordType.BINARY_STATE));
+
+        /* ...and discarded on next append */
+        freshStateLog.appendRecord(ServiceTestUtilities.createCandidateEvent(candidateSession, 101L), RecordType.BINARY_STATE, secondData);
+        Assert.assertArrayEquals(firstData, createStateLog(10).readRecord(candidateSession, 100L, RecordType.BINARY_STATE));
+        Assert.assertArrayEquals(secondData, createStateLog(10).readRecord(candidateSession, 101L, RecordType.BINARY_STATE));
+
+        /* (Original log has a stale index, which should also pick up the new record) */
+        Assert.assertArrayEquals(secondData, stateLog.readRecord(candidateSession, 101L, RecordType.BINARY_STATE));
+    }
+
+    @Test
+    public void testUnknownRecordTypeSkipped() throws IOException {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final List<byte[]> datas = appendRecords(candidateSession, 3);
+
+        /* Corrupt the type of the middle record (records are 4 + 18 + 100 bytes long) */
+        final long middleRecordOffset = 122L;
+        overwriteLog(candidateSession, middleRecordOffset + 12, new byte[] { (byte) 0x7F });
+
+        /* Appending via a fresh log should skip the bad record and keep everything after it */
+        final CandidateSessionStateLog freshStateLog = createStateLog(10);
+        final byte[] newData = createData(9, 100);
+        freshStateLog.appendRecord(ServiceTestUtilities.createCandidateEvent(candidateSession, 200L), RecordType.BINARY_STATE, newData);
+
+        final CandidateSessionStateLog checkStateLog = createStateLog(10);
+        Assert.assertArrayEquals(datas.get(0), checkStateLog.readRecord(candidateSession, 100L, RecordType.BINARY_STATE));
+        Assert.assertNull(checkStateLog.readRecord(candidateSession, 101L, RecordType.BINARY_STATE));
+        Assert.assertArrayEquals(datas.get(2), checkStateLog.readRecord(candidateSession, 102L, RecordType.BINARY_STATE));
+        Assert.assertArrayEquals(newData, checkStateLog.readRecord(candidateSession, 200L, RecordType.BINARY_STATE));
+    }
+
+    @Test
+    public void testCorruptRecordLengthLeftAlone() throws IOException {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final List<byte[]> datas = appendRecords(candidateSession, 3);
+
+        /* Corrupt the length of the middle record so that it can't be skipped over */
+        overwriteLog(candidateSession, 122L, new byte[] { 0, 0, 0, 1 });
+        final long logLength = getLogFile(candidateSession).length();
+
+        /* Appending should fail, leaving the later records in the log intact */
+        final CandidateSessionStateLog freshStateLog = createStateLog(10);
+        try {
+            freshStateLog.appendRecord(ServiceTestUtilities.createCandidateEvent(candidateSession, 200L),
+                    RecordType.BINARY_STATE, createData(9, 100));
+            Assert.fail("Expected append to corrupt log to fail");
+        }
+        catch (final QtiWorksLogicException e) {
+            /* Expected */
+        }
+        Assert.assertEquals(logLength, getLogFile(candidateSession).length());
+        Assert.assertArrayEquals(datas.get(0), freshStateLog.readRecord(candidateSession, 100L, RecordType.BINARY_STATE));
+
+        /* Repairing the record makes everything readable again */
+        overwriteLog(candidateSession, 122L, new byte[] { 0, 0, 0, 118 });
+        final CandidateSessionStateLog checkStateLog = createStateLog(10);
+        Assert.assertArrayEquals(datas.get(2), checkStateLog.readRecord(candidateSession, 102L, RecordType.BINARY_STATE));
+    }
+
+    @Test
+    public void testConcurrentAppends() throws Exception {
+        /* Use a tiny index cache so that indexes get evicted while still in use */
+        final CandidateSessionStateLog stateLog = createStateLog(1);
+        final int sessionCount = 3;
+        final int threadsPerSession = 4;
+        final int appendsPerThread = 50;
+        final List<CandidateSession> candidateSessions = new ArrayList<CandidateSession>();
+        for (int i=0; i<sessionCount; i++) {
+            candidateSessions.add(ServiceTestUtilities.createCandidateSession(1L, 2L, 10L + i));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(sessionCount * threadsPerSession);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i=0; i<sessionCount; i++) {
+                final CandidateSession candidateSession = candidateSessions.get(i);
+                for (int j=0; j<threadsPerSession; j++) {
+                    final long firstEventId = 1000L * j;
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            for (int k=0; k<appendsPerThread; k++) {
+                                final long eventId = firstEventId + k;
+                                stateLog.appendRecord(ServiceTestUtilities.createCandidateEvent(candidateSession, eventId),
+                                        RecordType.BINARY_STATE, createData((int) eventId, 300 + k));
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        /* Check every record can be read back intact from a fresh log */
+        final CandidateSessionStateLog freshStateLog = createStateLog(10);
+        for (final CandidateSession candidateSession : candidateSessions) {
+            for (int j=0; j<threadsPerSession; j++) {
+                for (int k=0; k<appendsPerThread; k++) {
+                    final long eventId = 1000L * j + k;
+                    final byte[] expected = createData((int) eventId, 300 + k);
+                    final byte[] actual = freshStateLog.readRecord(candidateSession, eventId, RecordType.BINARY_STATE);
+                    Assert.assertTrue("Record " + eventId + " in session " + candidateSession.getId(),
+                            Arrays.equals(expected, actual));
+                }
+            }
+        }
+    }
+
+    //-------------------------------------------------
+
+    private CandidateSessionStateLog createStateLog(final int maxIndexedLogs) {
+        final CandidateSessionStateLog stateLog = new CandidateSessionStateLog(maxIndexedLogs);
+        ServiceTestUtilities.injectField(stateLog, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        ServiceTestUtilities.injectField(stateLog, "filespaceManager", filespaceManager);
+        stateLog.init();
+        return stateLog;
+    }
+
+    /** Appends records of 100 bytes for events 100, 101, ..., returning the data written */
+    private List<byte[]> appendRecords(final CandidateSession candidateSession, final int count) {
+        final CandidateSessionStateLog stateLog = createStateLog(10);
+        final List<byte[]> result = new ArrayList<byte[]>();
+        for (int i=0; i<count; i++) {
+            final byte[] data = createData(i, 100);
+            stateLog.appendRecord(ServiceTestUtilities.createCandidateEvent(candidateSession, 100L + i), RecordType.BINARY_STATE, data);
+            result.add(data);
+        }
+        return result;
+    }
+
+    private void overwriteLog(final CandidateSession candidateSession, final long offset, final byte[] bytes) throws IOException {
+        final RandomAccessFile logAccess = new RandomAccessFile(getLogFile(candidateSession), "rw");
+        try {
+            logAccess.seek(offset);
+            logAccess.write(bytes);
+        }
+        finally {
+            logAccess.close();
+        }
+    }
+
+    private File getLogFile(final CandidateSession candidateSession) {
+        return new File(filespaceManager.obtainCandidateSessionStateStore(candidateSession), CandidateSessionStateLog.LOG_FILE_NAME);
+    }
+
+    /** Creates fairly compressible test data, varying with the given seed */
+    private static byte[] createData(final int seed, final int length) {
+        final byte[] result = new byte[length];
+        for (int i=0; i<length; i++) {
+            result[i] = (byte) (seed + i / 16);
+        }
+        return result;
+    }
+}
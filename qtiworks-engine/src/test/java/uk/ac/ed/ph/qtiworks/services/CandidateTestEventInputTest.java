@@ -0,0 +1,142 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateTestEventType;
+import uk.ac.ed.ph.qtiworks.testutils.ServiceTestUtilities;
+
+import uk.ac.ed.ph.jqtiplus.running.TestSessionOperation;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionOperationType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests marshalling of {@link CandidateTestEventInput}
+ *
+ * @author David McKain
+ */
+public class CandidateTestEventInputTest {
+
+    private static final Identifier STRING_RESPONSE = Identifier.assumedLegal("RESPONSE");
+    private static final Identifier FILE_RESPONSE = Identifier.assumedLegal("UPLOAD");
+
+    private File filesystemBase;
+    private File movedFilesystemBase;
+
+    @Before
+    public void setup() {
+        filesystemBase = ServiceTestUtilities.createTemporaryDirectory();
+        movedFilesystemBase = ServiceTestUtilities.createTemporaryDirectory();
+    }
+
+    @After
+    public void teardown() {
+        ServiceUtilities.recursivelyDelete(filesystemBase);
+        ServiceUtilities.recursivelyDelete(movedFilesystemBase);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final FilespaceManager filespaceManager = createFilespaceManager(filesystemBase);
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final File uploadFile = filespaceManager.createCandidateUploadFile(candidateSession);
+        final File outsideFile = new File(movedFilesystemBase, "outside").getAbsoluteFile();
+
+        final Date timestamp = new Date(1234567890L);
+        final TestPlanNodeKey itemKey = new TestPlanNodeKey(Identifier.assumedLegal("i1"), 1, 2);
+        final Map<Identifier, ResponseData> responseMap = new LinkedHashMap<Identifier, ResponseData>();
+        responseMap.put(STRING_RESPONSE, new StringResponseData("ChoiceA", null, "ChoiceB"));
+        responseMap.put(FILE_RESPONSE, new FileResponseData(uploadFile, "text/plain", "answer.txt"));
+        final Map<Identifier, ResponseData> outsideResponseMap = new LinkedHashMap<Identifier, ResponseData>();
+        outsideResponseMap.put(FILE_RESPONSE, new FileResponseData(outsideFile, "text/plain", "outside.txt"));
+        final List<TestSessionOperation> operations = new ArrayList<TestSessionOperation>();
+        operations.add(new TestSessionOperation(TestSessionOperationType.SELECT_ITEM_NONLINEAR, timestamp, itemKey, null, null));
+        operations.add(new TestSessionOperation(TestSessionOperationType.HANDLE_RESPONSES_TO_CURRENT_ITEM, timestamp, null, null, responseMap));
+        operations.add(new TestSessionOperation(TestSessionOperationType.HANDLE_RESPONSES_TO_CURRENT_ITEM, timestamp, null, null, outsideResponseMap));
+        operations.add(new TestSessionOperation(TestSessionOperationType.SET_CANDIDATE_COMMENT_FOR_CURRENT_ITEM, timestamp, null, "Comment é", null));
+        final CandidateTestEventInput eventInput = new CandidateTestEventInput(100L, 3, 7L,
+                CandidateTestEventType.ITEM_EVENT, -42L, operations);
+        final byte[] data = eventInput.marshal(filespaceManager);
+
+        /* Unmarshal as if the whole filesystem base had been moved */
+        final CandidateTestEventInput result = CandidateTestEventInput.unmarshal(data, createFilespaceManager(movedFilesystemBase));
+        Assert.assertEquals(100L, result.getBaseEventId());
+        Assert.assertEquals(3, result.getDepth());
+        Assert.assertEquals(7L, result.getAssessmentPackageId());
+        Assert.assertEquals(CandidateTestEventType.ITEM_EVENT, result.getTestEventType());
+        Assert.assertEquals(-42L, result.getRandomSeed());
+        Assert.assertEquals(operations.size(), result.getOperations().size());
+
+        final TestSessionOperation selectOperation = result.getOperations().get(0);
+        Assert.assertEquals(TestSessionOperationType.SELECT_ITEM_NONLINEAR, selectOperation.getOperationType());
+        Assert.assertEquals(timestamp, selectOperation.getTimestamp());
+        Assert.assertEquals(itemKey, selectOperation.getItemKey());
+
+        final Map<Identifier, ResponseData> resultResponseMap = result.getOperations().get(1).getResponseMap();
+        Assert.assertEquals(responseMap.get(STRING_RESPONSE), resultResponseMap.get(STRING_RESPONSE));
+        final FileResponseData resultFileResponseData = (FileResponseData) resultResponseMap.get(FILE_RESPONSE);
+        final String relativePath = uploadFile.getAbsolutePath().substring(filesystemBase.getAbsolutePath().length());
+        Assert.assertEquals(new File(movedFilesystemBase.getAbsolutePath() + relativePath), resultFileResponseData.getFile());
+        Assert.assertEquals("text/plain", resultFileResponseData.getContentType());
+        Assert.assertEquals("answer.txt", resultFileResponseData.getFileName());
+
+        /* Files outside the filesystem base are left alone */
+        final FileResponseData resultOutsideResponseData = (FileResponseData) result.getOperations().get(2).getResponseMap().get(FILE_RESPONSE);
+        Assert.assertEquals(outsideFile, resultOutsideResponseData.getFile());
+
+        Assert.assertEquals("Comment é", result.getOperations().get(3).getCandidateComment());
+    }
+
+    private static FilespaceManager createFilespaceManager(final File filesystemBase) {
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = ServiceTestUtilities.createDeploymentSettings(filesystemBase);
+        return ServiceTestUtilities.createFilespaceManager(qtiWorksDeploymentSettings);
+    }
+}
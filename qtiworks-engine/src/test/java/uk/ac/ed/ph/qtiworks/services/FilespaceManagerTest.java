@@ -0,0 +1,229 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.testutils.ServiceTestUtilities;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link FilespaceManager} class, concentrating on the sharded
+ * candidate session folder layout.
+ *
+ * @author David McKain
+ */
+public class FilespaceManagerTest {
+
+    private static final int SHARD_DEPTH = 2;
+
+    /** Time in the past that migrated folders are marked as last being modified at */
+    private static final long IDLE_TIME = 60 * 60 * 1000L;
+
+    private File filesystemBase;
+    private FilespaceManager legacyFilespaceManager;
+    private FilespaceManager shardedFilespaceManager;
+
+    @Before
+    public void setup() {
+        filesystemBase = ServiceTestUtilities.createTemporaryDirectory();
+        legacyFilespaceManager = createFilespaceManager(0);
+        shardedFilespaceManager = createFilespaceManager(SHARD_DEPTH);
+    }
+
+    @After
+    public void teardown() {
+        ServiceUtilities.recursivelyDelete(filesystemBase);
+    }
+
+    @Test
+    public void testLegacyPath() {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final File stateStore = legacyFilespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        Assert.assertEquals("sessions/assessment1/delivery2/system/candidate/session3", getRelativePath(stateStore));
+        Assert.assertTrue(stateStore.isDirectory());
+    }
+
+    @Test
+    public void testShardedPath() {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final File stateStore = shardedFilespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        Assert.assertTrue(getRelativePath(stateStore).matches("sessions/assessment1/delivery2/[0-9a-f]{2}/[0-9a-f]{2}/session3"));
+        Assert.assertTrue(stateStore.isDirectory());
+
+        /* Check consecutive IDs don't all end up in the same shard */
+        final File nextStateStore = shardedFilespaceManager.obtainCandidateSessionStateStore(ServiceTestUtilities.createCandidateSession(1L, 2L, 4L));
+        Assert.assertFalse(stateStore.getParentFile().equals(nextStateStore.getParentFile()));
+    }
+
+    @Test
+    public void testLegacyFallback() throws IOException {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final File legacyStateStore = legacyFilespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        createFile(legacyStateStore, "state.xml");
+
+        /* Unmigrated data should still be found when sharded */
+        Assert.assertEquals(legacyStateStore, shardedFilespaceManager.obtainCandidateSessionStateStore(candidateSession));
+
+        /* Deleting should remove both layouts */
+        Assert.assertTrue(shardedFilespaceManager.deleteCandidateSessionStore(candidateSession));
+        Assert.assertFalse(legacyStateStore.exists());
+    }
+
+    @Test
+    public void testMigrate() throws IOException {
+        final CandidateSession session1 = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final CandidateSession session2 = ServiceTestUtilities.createCandidateSession(1L, 2L, 4L);
+        final File legacyStore1 = legacyFilespaceManager.obtainCandidateSessionStateStore(session1);
+        final File legacyStore2 = legacyFilespaceManager.obtainCandidateSessionStateStore(session2);
+        makeIdle(createFile(legacyStore1, "state.xml"));
+        makeIdle(createFile(legacyStore2, "state.xml"));
+
+        Assert.assertEquals(2, shardedFilespaceManager.migrateCandidateSessionDirectories(IDLE_TIME / 2));
+        Assert.assertFalse(legacyStore1.exists());
+        Assert.assertFalse(legacyStore2.exists());
+        final File shardedStore1 = shardedFilespaceManager.obtainCandidateSessionStateStore(session1);
+        Assert.assertFalse(shardedStore1.equals(legacyStore1));
+        Assert.assertTrue(new File(shardedStore1, "state.xml").isFile());
+
+        /* Running again should do nothing */
+        Assert.assertEquals(0, shardedFilespaceManager.migrateCandidateSessionDirectories(IDLE_TIME / 2));
+    }
+
+    @Test
+    public void testMigrateSkipsRecent() throws IOException {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final File legacyStateStore = legacyFilespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        createFile(legacyStateStore, "state.xml");
+
+        Assert.assertEquals(0, shardedFilespaceManager.migrateCandidateSessionDirectories(IDLE_TIME / 2));
+        Assert.assertEquals(legacyStateStore, shardedFilespaceManager.obtainCandidateSessionStateStore(candidateSession));
+    }
+
+    @Test
+    public void testMigrateIntoExisting() throws IOException {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final File shardedStateStore = shardedFilespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        createFile(shardedStateStore, "clash.xml");
+        final File legacyStateStore = legacyFilespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        makeIdle(createFile(legacyStateStore, "state.xml"));
+
+        Assert.assertEquals(1, shardedFilespaceManager.migrateCandidateSessionDirectories(IDLE_TIME / 2));
+        Assert.assertFalse(legacyStateStore.exists());
+        Assert.assertTrue(new File(shardedStateStore, "state.xml").isFile());
+        Assert.assertTrue(new File(shardedStateStore, "clash.xml").isFile());
+    }
+
+    @Test
+    public void testMigrateClashReportedAsNotMoved() throws IOException {
+        final CandidateSession candidateSession = ServiceTestUtilities.createCandidateSession(1L, 2L, 3L);
+        final File shardedStateStore = shardedFilespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        createFile(shardedStateStore, "clash.xml");
+        final File legacyStateStore = legacyFilespaceManager.obtainCandidateSessionStateStore(candidateSession);
+        makeIdle(createFile(legacyStateStore, "clash.xml"));
+        makeIdle(createFile(legacyStateStore, "state.xml"));
+
+        Assert.assertEquals(0, shardedFilespaceManager.migrateCandidateSessionDirectories(IDLE_TIME / 2));
+
+        /* Non-clashing files should be moved, with the clashing one left behind */
+        Assert.assertTrue(new File(shardedStateStore, "state.xml").isFile());
+        Assert.assertFalse(new File(legacyStateStore, "state.xml").exists());
+        Assert.assertTrue(new File(legacyStateStore, "clash.xml").isFile());
+    }
+
+    @Test
+    public void testPurgeEmptyStoreDirectories() throws IOException {
+        final File keptStateStore = shardedFilespaceManager.obtainCandidateSessionStateStore(ServiceTestUtilities.createCandidateSession(1L, 1L, 1L));
+        createFile(keptStateStore, "state.xml");
+        final File keptUploadFile = createFile(shardedFilespaceManager.createCandidateUploadFile(ServiceTestUtilities.createCandidateSession(1L, 1L, 1L)).getParentFile(), "upload");
+        final File[] emptyStateStores = new File[20];
+        for (int i=0; i<emptyStateStores.length; i++) {
+            emptyStateStores[i] = shardedFilespaceManager.obtainCandidateSessionStateStore(ServiceTestUtilities.createCandidateSession(1L + i % 3, 1L + i % 2, 2L + i));
+        }
+
+        final int deletedCount = shardedFilespaceManager.purgeEmptyStoreDirectories();
+        for (final File emptyStateStore : emptyStateStores) {
+            Assert.assertFalse(emptyStateStore.exists());
+        }
+        Assert.assertTrue(deletedCount >= emptyStateStores.length);
+        Assert.assertTrue(new File(keptStateStore, "state.xml").isFile());
+        Assert.assertTrue(keptUploadFile.isFile());
+
+        /* Running again should find nothing left to do */
+        Assert.assertEquals(0, shardedFilespaceManager.purgeEmptyStoreDirectories());
+    }
+
+    //-------------------------------------------------
+
+    private FilespaceManager createFilespaceManager(final int shardDepth) {
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = ServiceTestUtilities.createDeploymentSettings(filesystemBase);
+        ServiceTestUtilities.injectField(qtiWorksDeploymentSettings, "filestoreShardDepth", Integer.valueOf(shardDepth));
+        ServiceTestUtilities.injectField(qtiWorksDeploymentSettings, "filestorePurgeThreads", Integer.valueOf(3));
+        return ServiceTestUtilities.createFilespaceManager(qtiWorksDeploymentSettings);
+    }
+
+    private String getRelativePath(final File file) {
+        return filesystemBase.toURI().relativize(file.toURI()).getPath().replaceFirst("/$", "");
+    }
+
+    private static File createFile(final File directory, final String name) throws IOException {
+        final File file = new File(directory, name);
+        final FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(1);
+        }
+        finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    /**
+     * Marks the given file and its containing folder as last being modified
+     * {@link #IDLE_TIME} ago.
+     */
+    private static void makeIdle(final File file) {
+        final long idleTimestamp = System.currentTimeMillis() - IDLE_TIME;
+        Assert.assertTrue(file.setLastModified(idleTimestamp));
+        Assert.assertTrue(file.getParentFile().setLastModified(idleTimestamp));
+    }
+}
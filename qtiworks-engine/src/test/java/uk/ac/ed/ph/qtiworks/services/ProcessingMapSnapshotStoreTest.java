@@ -0,0 +1,187 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksProperties;
+import uk.ac.ed.ph.qtiworks.domain.entities.AssessmentPackage;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.testutils.ServiceTestUtilities;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.running.ItemProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionController;
+import uk.ac.ed.ph.jqtiplus.running.ItemSessionControllerSettings;
+import uk.ac.ed.ph.jqtiplus.running.TestPlanner;
+import uk.ac.ed.ph.jqtiplus.running.TestProcessingInitializer;
+import uk.ac.ed.ph.jqtiplus.state.ItemProcessingMap;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestProcessingMap;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests that processing maps built from some of the bundled samples survive being stored
+ * and reloaded by the {@link ProcessingMapSnapshotStore}, both before and after compaction.
+ *
+ * @author David McKain
+ */
+@RunWith(Parameterized.class)
+public class ProcessingMapSnapshotStoreTest {
+
+    private static final String CONTENT_HASH = "0123456789abcdef";
+
+    @Parameters
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {
+                { AssessmentObjectType.ASSESSMENT_ITEM, "ims/choice.xml", Boolean.FALSE },
+                { AssessmentObjectType.ASSESSMENT_ITEM, "ims/choice.xml", Boolean.TRUE },
+                { AssessmentObjectType.ASSESSMENT_ITEM, "ims/text_entry.xml", Boolean.FALSE },
+                { AssessmentObjectType.ASSESSMENT_ITEM, "ims/text_entry.xml", Boolean.TRUE },
+                { AssessmentObjectType.ASSESSMENT_TEST, "testimplementation/dave/test-testFeedback.xml", Boolean.FALSE },
+                { AssessmentObjectType.ASSESSMENT_TEST, "testimplementation/dave/test-testFeedback.xml", Boolean.TRUE },
+        });
+    }
+
+    private final AssessmentObjectType assessmentType;
+    private final String sampleHref;
+    private final boolean compact;
+
+    private File filesystemBase;
+    private JqtiExtensionManager jqtiExtensionManager;
+    private ProcessingMapSnapshotStore processingMapSnapshotStore;
+    private AssessmentPackage assessmentPackage;
+
+    public ProcessingMapSnapshotStoreTest(final AssessmentObjectType assessmentType, final String sampleHref, final Boolean compact) {
+        this.assessmentType = assessmentType;
+        this.sampleHref = sampleHref;
+        this.compact = compact.booleanValue();
+    }
+
+    @Before
+    public void setup() {
+        filesystemBase = ServiceTestUtilities.createTemporaryDirectory();
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = ServiceTestUtilities.createDeploymentSettings(filesystemBase);
+        ServiceTestUtilities.injectField(qtiWorksDeploymentSettings, "processingSnapshots", Boolean.TRUE);
+        final QtiWorksProperties qtiWorksProperties = new QtiWorksProperties();
+        qtiWorksProperties.setQtiWorksVersion("test");
+
+        processingMapSnapshotStore = new ProcessingMapSnapshotStore();
+        ServiceTestUtilities.injectField(processingMapSnapshotStore, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        ServiceTestUtilities.injectField(processingMapSnapshotStore, "qtiWorksProperties", qtiWorksProperties);
+        ServiceTestUtilities.injectField(processingMapSnapshotStore, "filespaceManager", ServiceTestUtilities.createFilespaceManager(qtiWorksDeploymentSettings));
+
+        assessmentPackage = new AssessmentPackage();
+        assessmentPackage.setId(Long.valueOf(1L));
+        assessmentPackage.setAssessmentType(assessmentType);
+        assessmentPackage.setAssessmentHref(sampleHref);
+        assessmentPackage.setSandboxPath(new File(filesystemBase, "sandbox").getPath());
+        assessmentPackage.setValid(true);
+
+        jqtiExtensionManager = new JqtiExtensionManager();
+        jqtiExtensionManager.init();
+    }
+
+    @After
+    public void teardown() {
+        jqtiExtensionManager.destroy();
+        ServiceUtilities.recursivelyDelete(filesystemBase);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(new QtiXmlReader(jqtiExtensionManager),
+                new ClassPathResourceLocator());
+        final URI sampleUri = QtiSampleAssessment.toClassPathUri(sampleHref);
+        if (assessmentType==AssessmentObjectType.ASSESSMENT_ITEM) {
+            final ResolvedAssessmentItem resolvedAssessmentItem = assessmentObjectXmlLoader.loadAndResolveAssessmentItem(sampleUri);
+            final ItemProcessingMap itemProcessingMap = new ItemProcessingInitializer(resolvedAssessmentItem, true).initialize();
+            if (compact) {
+                resolvedAssessmentItem.compact();
+            }
+            final ItemProcessingMap result = storeAndLoad(itemProcessingMap, ItemProcessingMap.class);
+            Assert.assertEquals(itemProcessingMap.getValidVariableIdentifierSet(), result.getValidVariableIdentifierSet());
+            Assert.assertEquals(itemProcessingMap.getInteractionByResponseIdentifierMap().keySet(), result.getInteractionByResponseIdentifierMap().keySet());
+
+            /* Make sure the reloaded map can actually be used to run the item */
+            final ItemSessionState itemSessionState = new ItemSessionState();
+            final ItemSessionController itemSessionController = new ItemSessionController(jqtiExtensionManager,
+                    new ItemSessionControllerSettings(), result, itemSessionState);
+            itemSessionController.initialize(new Date());
+            Assert.assertTrue(itemSessionState.isInitialized());
+        }
+        else {
+            final ResolvedAssessmentTest resolvedAssessmentTest = assessmentObjectXmlLoader.loadAndResolveAssessmentTest(sampleUri);
+            final TestProcessingMap testProcessingMap = new TestProcessingInitializer(resolvedAssessmentTest, true).initialize();
+            if (compact) {
+                resolvedAssessmentTest.compact();
+            }
+            final TestProcessingMap result = storeAndLoad(testProcessingMap, TestProcessingMap.class);
+            Assert.assertEquals(testProcessingMap.getItemProcessingMapMap().keySet(), result.getItemProcessingMapMap().keySet());
+            Assert.assertEquals(testProcessingMap.getAbstractPartList().size(), result.getAbstractPartList().size());
+
+            /* Make sure the reloaded map can actually be used to plan the test */
+            final TestPlan expectedTestPlan = new TestPlanner(testProcessingMap).generateTestPlan();
+            final TestPlan testPlan = new TestPlanner(result).generateTestPlan();
+            Assert.assertEquals(expectedTestPlan.getTestPlanNodeList().size(), testPlan.getTestPlanNodeList().size());
+        }
+    }
+
+    private <E> E storeAndLoad(final E processingMap, final Class<E> processingMapClass) {
+        processingMapSnapshotStore.storeSnapshot(assessmentPackage, CONTENT_HASH, processingMap);
+        Assert.assertTrue("Snapshot was not stored", new File(filesystemBase, "sandbox.snapshot").isFile());
+        final E result = processingMapSnapshotStore.loadSnapshot(assessmentPackage, CONTENT_HASH, processingMapClass);
+        Assert.assertNotNull("Snapshot could not be reloaded", result);
+        return result;
+    }
+}
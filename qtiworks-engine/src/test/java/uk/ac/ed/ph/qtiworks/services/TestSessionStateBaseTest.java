@@ -0,0 +1,87 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.services;
+
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+
+import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the {@link TestSessionStateBase} class
+ *
+ * @author David McKain
+ */
+public class TestSessionStateBaseTest {
+
+    @Test
+    public void testCreatedStateIsClean() {
+        final TestSessionState testSessionState = createDirtyTestSessionState();
+        Assert.assertTrue(testSessionState.isResultDirty());
+
+        final TestSessionStateBase stateBase = new TestSessionStateBase(new CandidateEvent(), 0,
+                TestSessionStateBinaryMarshaller.marshal(testSessionState));
+
+        /* Unmarshalling on its own marks the state as dirty, so check that this is cleared */
+        Assert.assertTrue(TestSessionStateBinaryMarshaller.unmarshal(stateBase.getStateData()).isResultDirty());
+        final TestSessionState createdState = stateBase.createTestSessionState();
+        Assert.assertFalse(createdState.isResultDirty());
+        Assert.assertEquals(testSessionState, createdState);
+    }
+
+    private static TestSessionState createDirtyTestSessionState() {
+        final TestPlanNodeKey itemKey = new TestPlanNodeKey(Identifier.parseString("ITEM"), 0, 1);
+        final TestPlanNode rootNode = TestPlanNode.createRoot();
+        rootNode.addChild(new TestPlanNode(TestNodeType.ASSESSMENT_ITEM_REF, itemKey, EffectiveItemSessionControl.createDefault()));
+        final TestSessionState result = new TestSessionState(new TestPlan(rootNode));
+
+        final ItemSessionState itemSessionState = new ItemSessionState();
+        itemSessionState.setNumAttempts(1);
+        itemSessionState.setOutcomeValue(Identifier.parseString("SCORE"), new FloatValue(1.0));
+        result.getItemSessionStates().put(itemKey, itemSessionState);
+        result.setOutcomeValue(Identifier.parseString("SCORE"), new FloatValue(1.0));
+        return result;
+    }
+}
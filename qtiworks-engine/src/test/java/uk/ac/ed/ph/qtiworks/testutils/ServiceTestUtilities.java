@@ -0,0 +1,148 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.testutils;
+
+import uk.ac.ed.ph.qtiworks.QtiWorksRuntimeException;
+import uk.ac.ed.ph.qtiworks.config.beans.QtiWorksDeploymentSettings;
+import uk.ac.ed.ph.qtiworks.domain.entities.Assessment;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateEvent;
+import uk.ac.ed.ph.qtiworks.domain.entities.CandidateSession;
+import uk.ac.ed.ph.qtiworks.domain.entities.Delivery;
+import uk.ac.ed.ph.qtiworks.domain.entities.SystemUser;
+import uk.ac.ed.ph.qtiworks.services.FilespaceManager;
+import uk.ac.ed.ph.qtiworks.services.RequestTimestampContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+
+/**
+ * Helpers for wiring up individual services by hand for testing, without
+ * needing the full Spring context (or a database).
+ *
+ * @author David McKain
+ */
+public final class ServiceTestUtilities {
+
+    /**
+     * Sets the (usually private and injected) field having the given name on the given target
+     * Object, searching up through its superclasses if required.
+     */
+    public static void injectField(final Object target, final String fieldName, final Object value) {
+        for (Class<?> targetClass = target.getClass(); targetClass!=null; targetClass = targetClass.getSuperclass()) {
+            try {
+                final Field field = targetClass.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            }
+            catch (final NoSuchFieldException e) {
+                /* Try superclass */
+            }
+            catch (final IllegalAccessException e) {
+                throw QtiWorksRuntimeException.unexpectedException(e);
+            }
+        }
+        throw new QtiWorksRuntimeException("No field " + fieldName + " found in " + target.getClass());
+    }
+
+    /**
+     * Creates a new empty temporary directory. The caller should delete this after use.
+     */
+    public static File createTemporaryDirectory() {
+        try {
+            final File directory = File.createTempFile("qtiworks-test", "");
+            if (!directory.delete() || !directory.mkdir()) {
+                throw new QtiWorksRuntimeException("Could not create temporary directory " + directory);
+            }
+            return directory;
+        }
+        catch (final IOException e) {
+            throw QtiWorksRuntimeException.unexpectedException(e);
+        }
+    }
+
+    /**
+     * Creates {@link QtiWorksDeploymentSettings} using the given filesystem base, with all
+     * other settings left unset. (Use {@link #injectField(Object, String, Object)} to set these
+     * as required.)
+     */
+    public static QtiWorksDeploymentSettings createDeploymentSettings(final File filesystemBase) {
+        final QtiWorksDeploymentSettings qtiWorksDeploymentSettings = new QtiWorksDeploymentSettings();
+        injectField(qtiWorksDeploymentSettings, "filesystemBase", filesystemBase.getPath());
+        return qtiWorksDeploymentSettings;
+    }
+
+    /**
+     * Creates and initialises a {@link FilespaceManager} using the given settings.
+     */
+    public static FilespaceManager createFilespaceManager(final QtiWorksDeploymentSettings qtiWorksDeploymentSettings) {
+        final FilespaceManager filespaceManager = new FilespaceManager();
+        injectField(filespaceManager, "qtiWorksDeploymentSettings", qtiWorksDeploymentSettings);
+        injectField(filespaceManager, "requestTimestampContext", new RequestTimestampContext());
+        filespaceManager.init();
+        return filespaceManager;
+    }
+
+    /**
+     * Creates an unsaved {@link CandidateSession} having the given IDs, with just enough
+     * of its surrounding entities filled in to locate its data in the filestore.
+     */
+    public static CandidateSession createCandidateSession(final long assessmentId, final long deliveryId,
+            final long candidateSessionId) {
+        final Assessment assessment = new Assessment();
+        assessment.setId(Long.valueOf(assessmentId));
+        final Delivery delivery = new Delivery();
+        delivery.setId(Long.valueOf(deliveryId));
+        delivery.setAssessment(assessment);
+        final SystemUser candidate = new SystemUser();
+        candidate.setLoginName("candidate");
+        final CandidateSession candidateSession = new CandidateSession();
+        candidateSession.setId(Long.valueOf(candidateSessionId));
+        candidateSession.setDelivery(delivery);
+        candidateSession.setCandidate(candidate);
+        return candidateSession;
+    }
+
+    /**
+     * Creates an unsaved {@link CandidateEvent} having the given ID within the given
+     * {@link CandidateSession}.
+     */
+    public static CandidateEvent createCandidateEvent(final CandidateSession candidateSession, final long eventId) {
+        final CandidateEvent candidateEvent = new CandidateEvent();
+        candidateEvent.setId(Long.valueOf(eventId));
+        candidateEvent.setCandidateSession(candidateSession);
+        return candidateEvent;
+    }
+}
@@ -41,6 +41,8 @@ import uk.ac.ed.ph.jqtiplus.node.expression.operator.CustomOperator;
 import uk.ac.ed.ph.jqtiplus.node.expression.operator.UnsupportedCustomOperator;
 import uk.ac.ed.ph.jqtiplus.node.item.interaction.CustomInteraction;
 import uk.ac.ed.ph.jqtiplus.node.item.interaction.UnsupportedCustomInteraction;
+import uk.ac.ed.ph.jqtiplus.resolution.AssessmentObjectResolver;
+import uk.ac.ed.ph.jqtiplus.validation.AssessmentObjectValidator;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -48,6 +50,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +59,9 @@ import org.slf4j.LoggerFactory;
  * Registry/manager for all JQTI extensions you choose to support.
  * <p>
  * Once created, all properties of this manager are unmodifiable and safe to use by multiple threads.
+ * (The exceptions are the optional {@link #setItemResolutionExecutor(ExecutorService)} and
+ * {@link #setItemValidationExecutor(ExecutorService)}, which should be set before this manager
+ * is first used.)
  *
  * @author David McKain
  */
@@ -65,6 +71,8 @@ public final class JqtiExtensionManager {
 
     private final List<JqtiExtensionPackage<?>> jqtiExtensionPackages;
     private final Map<String, ExtensionNamespaceInfo> extensionNamepaceInfoMap;
+    private volatile ExecutorService itemResolutionExecutor;
+    private volatile ExecutorService itemValidationExecutor;
 
     public JqtiExtensionManager(final JqtiExtensionPackage<?>... jqtiExtensionPackages) {
         this(Arrays.asList(jqtiExtensionPackages));
@@ -230,10 +238,55 @@ public final class JqtiExtensionManager {
 
     //---------------------------------------------------------------------
 
+    /**
+     * Returns the {@link ExecutorService} used by {@link AssessmentObjectResolver} to read and resolve
+     * the items within a test in parallel, or null if items are resolved one at a time.
+     */
+    public ExecutorService getItemResolutionExecutor() {
+        return itemResolutionExecutor;
+    }
+
+    /**
+     * Sets the {@link ExecutorService} to be used by {@link AssessmentObjectResolver} to read and
+     * resolve the items within a test in parallel. Set to null (the default) to resolve items one
+     * at a time. The results are the same either way.
+     * <p>
+     * The caller remains responsible for shutting down the {@link ExecutorService}. A fixed-size
+     * thread pool is a good choice here, as one task is submitted for each distinct item in a test.
+     */
+    public void setItemResolutionExecutor(final ExecutorService itemResolutionExecutor) {
+        this.itemResolutionExecutor = itemResolutionExecutor;
+    }
+
+    /**
+     * Returns the {@link ExecutorService} used by {@link AssessmentObjectValidator} to validate
+     * the items within a test in parallel, or null if items are validated one at a time.
+     */
+    public ExecutorService getItemValidationExecutor() {
+        return itemValidationExecutor;
+    }
+
+    /**
+     * Sets the {@link ExecutorService} to be used by {@link AssessmentObjectValidator} to validate
+     * the items within a test in parallel. Set to null (the default) to validate items one at a
+     * time. The results are the same either way.
+     * <p>
+     * The caller remains responsible for shutting down the {@link ExecutorService}. As with item
+     * resolution, one task is submitted for each distinct item in a test, so a fixed-size thread
+     * pool is a good choice here.
+     */
+    public void setItemValidationExecutor(final ExecutorService itemValidationExecutor) {
+        this.itemValidationExecutor = itemValidationExecutor;
+    }
+
+    //---------------------------------------------------------------------
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(extensionPackages=" + jqtiExtensionPackages
+                + ",itemResolutionExecutor=" + itemResolutionExecutor
+                + ",itemValidationExecutor=" + itemValidationExecutor
                 + ")";
     }
 
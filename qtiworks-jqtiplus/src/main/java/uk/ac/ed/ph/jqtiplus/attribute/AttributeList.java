@@ -69,12 +69,14 @@ import uk.ac.ed.ph.jqtiplus.attribute.value.UriAttribute;
 import uk.ac.ed.ph.jqtiplus.exception.QtiAttributeException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.CompactList;
 import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.validation.ValidationContext;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -85,6 +87,12 @@ import org.w3c.dom.Node;
 
 /**
  * Container for all attributes of one node.
+ * <p>
+ * Attributes are kept in the order they were added (which is the order used when serializing).
+ * Lookups by name go through a small open-addressed hash index over the same attributes,
+ * so they take constant time and don't allocate anything.
+ * <p>
+ * Containers belonging to read-only Nodes may be made smaller via {@link #compact()}.
  *
  * @author Jiri Kajaba
  */
@@ -92,16 +100,27 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
 
     private static final long serialVersionUID = 4537124098886951888L;
 
+    /** Minimum size of {@link #index}, which must be a power of 2 */
+    private static final int MINIMUM_INDEX_SIZE = 8;
+
     /** Owner (node) of these attributes. */
     private final QtiNode owner;
 
-    /** Children (attributes) of this container. */
-    private final List<Attribute<?>> attributes;
+    /** Children (attributes) of this container, in insertion order. (Replaced by {@link #compact()}) */
+    private List<Attribute<?>> attributes;
+
+    /**
+     * Open-addressed (linear probing) hash table containing the same Objects as
+     * {@link #attributes}, keyed on namespace URI and local name. Its size is always a
+     * power of 2 and it is always kept less than half full.
+     */
+    private Attribute<?>[] index;
 
     public AttributeList(final QtiNode owner) {
         Assert.notNull(owner);
         this.owner = owner;
         this.attributes = new ArrayList<Attribute<?>>();
+        this.index = new Attribute<?>[MINIMUM_INDEX_SIZE];
     }
 
     /**
@@ -131,12 +150,9 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
      *             with same name
      */
     public void add(final Attribute<?> attribute) {
-        for (final Attribute<?> child : attributes) {
-            if (child.getLocalName().equals(attribute.getLocalName()) && child.getNamespaceUri().equals(attribute.getNamespaceUri())) {
-                throw new QtiAttributeException("Duplicate attribute name: " + attribute.computeXPath());
-            }
-        }
+        checkNotDuplicate(attribute);
         attributes.add(attribute);
+        addToIndex(attribute);
     }
 
     /**
@@ -148,6 +164,7 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
         for (final Attribute<?> child : attributes) {
             if (child.getLocalName().equals(attribute.getLocalName())) {
                 attributes.remove(child);
+                rebuildIndex();
                 break;
             }
         }
@@ -163,7 +180,9 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
      *             with same name
      */
     public void add(final int index, final Attribute<?> attribute) {
+        checkNotDuplicate(attribute);
         attributes.add(index, attribute);
+        addToIndex(attribute);
     }
 
     /**
@@ -175,17 +194,22 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
      */
     public void load(final Element element, final LoadingContext context) {
         /* First clear existing attributes */
+        boolean foreignAttributesRemoved = false;
         for (int i = 0; i < attributes.size(); i++) {
             final Attribute<?> attribute = attributes.get(i);
             if (attribute instanceof ForeignAttribute) {
                 /* Foreign attribute, so remove to add in again */
                 attributes.remove(i);
+                foreignAttributesRemoved = true;
             }
             else {
                 /* Supported attribute, so clear for setting later */
                 attribute.setValue(null);
             }
         }
+        if (foreignAttributesRemoved) {
+            rebuildIndex();
+        }
 
         /* Set set values from element */
         for (int i = 0; i < element.getAttributes().getLength(); i++) {
@@ -205,6 +229,7 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
                     /* Foreign attribute, so create new */
                     attribute = new ForeignAttribute(owner, localName, namespaceUri);
                     attributes.add(attribute);
+                    addToIndex(attribute);
                 }
                 /* Load value into attribute */
                 final String attributeValue = attributeNode.getNodeValue();
@@ -225,11 +250,24 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
         attribute.setValue(value);
     }
 
+    /**
+     * Compacts this container for read-only use, replacing the underlying storage with an
+     * exactly-sized immutable array and shrinking the lookup index as far as possible.
+     * <p>
+     * Attributes may still have their values changed after this, but attempts to add or remove
+     * attributes will fail with an {@link UnsupportedOperationException}.
+     */
+    public void compact() {
+        attributes = CompactList.copyOf(attributes);
+        rebuildIndex(1);
+    }
+
     /**
      * Removed all attributes (children) from this container.
      */
     public void clear() {
         attributes.clear();
+        index = new Attribute<?>[MINIMUM_INDEX_SIZE];
     }
 
     /**
@@ -241,6 +279,10 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
      *         otherwise
      */
     public boolean contains(final String name) {
+        if (lookup(name, "")!=null) {
+            return true;
+        }
+        /* (Fall back to checking attributes in other namespaces) */
         for (final Attribute<?> attribute : attributes) {
             if (attribute.getLocalName().equals(name)) {
                 return true;
@@ -295,22 +337,96 @@ public final class AttributeList implements Serializable, Iterable<Attribute<?>>
     private Attribute<?> get(final String localName, final String namespaceUri, final boolean silent) {
         Assert.notNull(localName, "localName");
         Assert.notNull(namespaceUri, "namespaceUri");
-        for (final Attribute<?> attribute : attributes) {
-            if (attribute.getLocalName().equals(localName) && attribute.getNamespaceUri().equals(namespaceUri)) {
-                return attribute;
+        final Attribute<?> result = lookup(localName, namespaceUri);
+        if (result!=null || silent) {
+            return result;
+        }
+        throw new QtiAttributeException("Cannot find attribute with namespace '" + namespaceUri + "' and local name '" + localName
+                + "' in Node with XPath " + owner.computeXPath());
+    }
+
+    //-------------------------------------------------
+    // Index management
+
+    private static int hash(final String localName, final String namespaceUri) {
+        /* (String caches its hashCode, so this is cheap after the first call) */
+        final int h = localName.hashCode() * 31 + namespaceUri.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(final Attribute<?> attribute, final String localName, final String namespaceUri) {
+        final String attributeLocalName = attribute.getLocalName();
+        final String attributeNamespaceUri = attribute.getNamespaceUri();
+        return (attributeLocalName==localName || attributeLocalName.equals(localName))
+                && (attributeNamespaceUri==namespaceUri || attributeNamespaceUri.equals(namespaceUri));
+    }
+
+    private Attribute<?> lookup(final String localName, final String namespaceUri) {
+        final Attribute<?>[] table = index;
+        final int mask = table.length - 1;
+        for (int slot = hash(localName, namespaceUri) & mask; ; slot = (slot + 1) & mask) {
+            final Attribute<?> candidate = table[slot];
+            if (candidate==null) {
+                return null;
+            }
+            if (matches(candidate, localName, namespaceUri)) {
+                return candidate;
             }
         }
+    }
 
-        if (silent) {
-            return null;
+    private void checkNotDuplicate(final Attribute<?> attribute) {
+        if (lookup(attribute.getLocalName(), attribute.getNamespaceUri())!=null) {
+            throw new QtiAttributeException("Duplicate attribute name: " + attribute.computeXPath());
         }
-        throw new QtiAttributeException("Cannot find attribute with namespace '" + namespaceUri + "' and local name '" + localName
-                + "' in Node with XPath " + owner.computeXPath());
     }
 
+    /**
+     * Adds the given {@link Attribute} (which must already have been added to {@link #attributes})
+     * to the index, growing the index if it would otherwise become half full.
+     */
+    private void addToIndex(final Attribute<?> attribute) {
+        if (attributes.size() * 2 > index.length) {
+            rebuildIndex();
+        }
+        else {
+            insertIntoIndex(index, attribute);
+        }
+    }
+
+    private void rebuildIndex() {
+        rebuildIndex(MINIMUM_INDEX_SIZE);
+    }
+
+    private void rebuildIndex(final int minimumSize) {
+        int size = minimumSize;
+        while (size < attributes.size() * 2) {
+            size <<= 1;
+        }
+        final Attribute<?>[] newIndex = new Attribute<?>[size];
+        for (final Attribute<?> attribute : attributes) {
+            insertIntoIndex(newIndex, attribute);
+        }
+        index = newIndex;
+    }
+
+    private static void insertIntoIndex(final Attribute<?>[] table, final Attribute<?> attribute) {
+        final int mask = table.length - 1;
+        int slot = hash(attribute.getLocalName(), attribute.getNamespaceUri()) & mask;
+        while (table[slot]!=null) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = attribute;
+    }
+
+    //-------------------------------------------------
+
+    /**
+     * Returns a read-only {@link Iterator} over the attributes in this container, in insertion order.
+     */
     @Override
     public Iterator<Attribute<?>> iterator() {
-        return attributes.iterator();
+        return Collections.unmodifiableList(attributes).iterator();
     }
 
     public void validateBasic(final ValidationContext context) {
@@ -60,7 +60,7 @@ public final class ComplexReferenceIdentifierAttribute extends SingleAttribute<C
 
     @Override
     public ComplexReferenceIdentifier parseDomAttributeValue(final String domAttributeValue) {
-        return ComplexReferenceIdentifier.parseString(domAttributeValue);
+        return ComplexReferenceIdentifier.parseInterned(domAttributeValue);
     }
 
     @Override
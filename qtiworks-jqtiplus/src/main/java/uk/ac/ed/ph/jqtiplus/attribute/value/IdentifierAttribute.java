@@ -63,7 +63,7 @@ public final class IdentifierAttribute extends SingleAttribute<Identifier> {
 
     @Override
     public Identifier parseDomAttributeValue(final String domAttributeValue) {
-        return Identifier.parseString(domAttributeValue);
+        return Identifier.parseInterned(domAttributeValue);
     }
 
     @Override
@@ -79,7 +79,7 @@ public final class IdentifierMultipleAttribute extends MultipleAttribute<Identif
 
     @Override
     protected Identifier parseItemValue(final String value) {
-        return Identifier.parseString(value);
+        return Identifier.parseInterned(value);
     }
 
     @Override
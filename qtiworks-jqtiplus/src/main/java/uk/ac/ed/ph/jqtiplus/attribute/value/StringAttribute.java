@@ -34,6 +34,7 @@
 package uk.ac.ed.ph.jqtiplus.attribute.value;
 
 import uk.ac.ed.ph.jqtiplus.attribute.SingleAttribute;
+import uk.ac.ed.ph.jqtiplus.internal.util.InternPool;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 
 /**
@@ -59,7 +60,8 @@ public final class StringAttribute extends SingleAttribute<String> {
 
     @Override
     public String parseDomAttributeValue(final String domAttributeValue) {
-        return domAttributeValue;
+        /* (Short values such as class names tend to be repeated a lot, so we intern them) */
+        return InternPool.internString(domAttributeValue);
     }
 
     @Override
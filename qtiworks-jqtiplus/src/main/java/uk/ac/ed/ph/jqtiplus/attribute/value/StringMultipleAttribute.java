@@ -34,6 +34,7 @@
 package uk.ac.ed.ph.jqtiplus.attribute.value;
 
 import uk.ac.ed.ph.jqtiplus.attribute.MultipleAttribute;
+import uk.ac.ed.ph.jqtiplus.internal.util.InternPool;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 
 import java.util.List;
@@ -57,7 +58,7 @@ public final class StringMultipleAttribute extends MultipleAttribute<String> {
 
     @Override
     protected String parseItemValue(final String value) {
-        return value;
+        return InternPool.internString(value);
     }
 
     @Override
@@ -37,6 +37,7 @@ import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.exception.QtiIllegalChildException;
 import uk.ac.ed.ph.jqtiplus.exception.QtiModelException;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.CompactList;
 import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.node.content.basic.TextRun;
@@ -66,7 +67,7 @@ public abstract class AbstractNodeGroup<P extends QtiNode, C extends QtiNode> im
 
     protected final P parent;
     protected final String name;
-    protected final List<C> children;
+    protected List<C> children;
     protected final int minimum;
     protected final Integer maximum;
 
@@ -115,6 +116,11 @@ public abstract class AbstractNodeGroup<P extends QtiNode, C extends QtiNode> im
         return children;
     }
 
+    @Override
+    public void compact() {
+        children = CompactList.copyOf(children);
+    }
+
     @Override
     public int getMinimum() {
         return minimum;
@@ -36,6 +36,7 @@ package uk.ac.ed.ph.jqtiplus.group;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 
+import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -57,7 +58,8 @@ public abstract class ComplexNodeGroup<P extends QtiNode, C extends QtiNode> ext
     public ComplexNodeGroup(final P parent, final String name, final Set<String> supportedQtiClasses,
             final int minimum, final Integer maximum) {
         super(parent, name, minimum, maximum);
-        this.supportedQtiClasses = ObjectUtilities.unmodifiableSet(supportedQtiClasses);
+        /* (Take a copy here, as callers often pass in key set views, which aren't Serializable) */
+        this.supportedQtiClasses = ObjectUtilities.unmodifiableSet(new HashSet<String>(supportedQtiClasses));
     }
 
     @Override
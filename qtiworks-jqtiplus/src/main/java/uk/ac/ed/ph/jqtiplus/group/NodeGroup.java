@@ -152,6 +152,12 @@ public interface NodeGroup<P extends QtiNode, C extends QtiNode> extends Seriali
      */
     C create(String qtiClassName);
 
+    /**
+     * Compacts the storage of this group's children for read-only use, so that attempts to
+     * add or remove children afterwards will fail. (This does not descend into the children.)
+     */
+    void compact();
+
     /**
      * Validates this group, recursively descending into children.
      */
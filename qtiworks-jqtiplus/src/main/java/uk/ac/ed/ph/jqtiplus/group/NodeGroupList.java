@@ -119,6 +119,7 @@ import uk.ac.ed.ph.jqtiplus.group.test.TestPartGroup;
 import uk.ac.ed.ph.jqtiplus.group.test.TimeLimitsGroup;
 import uk.ac.ed.ph.jqtiplus.group.test.VariableMappingGroup;
 import uk.ac.ed.ph.jqtiplus.group.test.WeightGroup;
+import uk.ac.ed.ph.jqtiplus.internal.util.CompactList;
 import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
 import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.node.content.BodyElement;
@@ -227,8 +228,8 @@ public final class NodeGroupList implements Serializable, Iterable<NodeGroup<?,?
     /** Parent (node) of this container. */
     private final QtiNode parent;
 
-    /** Children (groups) of this container. */
-    private final List<NodeGroup<?,?>> groups;
+    /** Children (groups) of this container. (Replaced by {@link #compact()}) */
+    private List<NodeGroup<?,?>> groups;
 
     public NodeGroupList(final QtiNode parent) {
         this.parent = parent;
@@ -315,31 +316,62 @@ public final class NodeGroupList implements Serializable, Iterable<NodeGroup<?,?
      * @param context current {@link LoadingContext} callback
      */
     public void load(final Element element, final LoadingContext context) {
+        clearChildren();
+        final NodeList childNodes = element.getChildNodes();
+        for (int i=0; i<childNodes.getLength(); i++) {
+            loadChild(childNodes.item(i), context);
+        }
+    }
+
+    /**
+     * Removes all children from each group in this container, leaving the groups themselves
+     * in place.
+     */
+    public void clearChildren() {
         for (final NodeGroup<?,?> group : groups) {
             group.getChildren().clear();
         }
-        final NodeList childNodes = element.getChildNodes();
-        for (int i=0; i<childNodes.getLength(); i++) {
-            final Node childNode = childNodes.item(i);
-            boolean childLoaded = false;
-            for (final NodeGroup<?,?> group : groups) {
-                if (group.loadChildIfSupported(childNode, context)) {
-                    childLoaded = true;
-                    break;
-                }
-            }
-            if (!childLoaded) {
-                /* No NodeGroup supports this child */
-                if (childNode.getNodeType()==Node.TEXT_NODE && childNode.getNodeValue().trim().isEmpty()) {
-                    /* Whitespace node, so we'll ignore this */
-                }
-                else {
-                    /* Register error */
-                    final String childName = childNode.getNodeType()==Node.ELEMENT_NODE ? childNode.getLocalName() : "(text)";
-                    context.modelBuildingError(new QtiIllegalChildException(parent, childName), childNode);
-                }
+    }
+
+    /**
+     * Loads a single child from the given source DOM {@link Node}, passing it to the first group
+     * that supports it. This allows children to be loaded one at a time, e.g. when streaming.
+     * Unsupported children are registered as model building errors, except for whitespace.
+     *
+     * @param childNode source DOM {@link Node}, which should be an {@link Element} or text Node
+     * @param context current {@link LoadingContext} callback
+     */
+    public void loadChild(final Node childNode, final LoadingContext context) {
+        for (final NodeGroup<?,?> group : groups) {
+            if (group.loadChildIfSupported(childNode, context)) {
+                return;
             }
         }
+
+        /* No NodeGroup supports this child */
+        if (childNode.getNodeType()==Node.TEXT_NODE && childNode.getNodeValue().trim().isEmpty()) {
+            /* Whitespace node, so we'll ignore this */
+        }
+        else {
+            /* Register error */
+            final String childName = childNode.getNodeType()==Node.ELEMENT_NODE ? childNode.getLocalName() : "(text)";
+            context.modelBuildingError(new QtiIllegalChildException(parent, childName), childNode);
+        }
+    }
+
+    /**
+     * Compacts this container and each of its groups for read-only use, replacing the
+     * underlying storage with immutable Lists that take up as little memory as possible.
+     * (This does not descend into the children of each group.)
+     * <p>
+     * Attempts to add or remove groups or their children afterwards will fail with an
+     * {@link UnsupportedOperationException}.
+     */
+    public void compact() {
+        for (final NodeGroup<?,?> group : groups) {
+            group.compact();
+        }
+        groups = CompactList.copyOf(groups);
     }
 
     /**
@@ -0,0 +1,102 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.internal.util;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for running tasks in parallel where the results need to be the same as
+ * running them one at a time.
+ *
+ * @author David McKain
+ */
+public final class ConcurrencyUtilities {
+
+    /**
+     * Runs each of the given tasks using the given {@link ExecutorService}, returning their results
+     * in the same order as the tasks.
+     * <p>
+     * If any task fails, then the {@link RuntimeException} or {@link Error} thrown by the first such
+     * task (in task order) is rethrown, and any tasks still outstanding are cancelled. Checked
+     * Exceptions, and being interrupted while waiting, result in a {@link QtiLogicException}.
+     *
+     * @param executorService {@link ExecutorService} to run the tasks, which must not be null
+     * @param tasks tasks to run, which must not be null
+     * @param description short description of what the tasks are doing, used in any Exception
+     *   messages (e.g. "resolving assessmentItemRefs")
+     */
+    public static <E> List<E> invokeInOrder(final ExecutorService executorService,
+            final List<? extends Callable<E>> tasks, final String description) {
+        Assert.notNull(executorService, "executorService");
+        Assert.notNull(tasks, "tasks");
+        final List<Future<E>> futures = new ArrayList<Future<E>>(tasks.size());
+        try {
+            for (final Callable<E> task : tasks) {
+                futures.add(executorService.submit(task));
+            }
+            final List<E> result = new ArrayList<E>(tasks.size());
+            for (final Future<E> future : futures) {
+                result.add(future.get());
+            }
+            return result;
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QtiLogicException("Interrupted while " + description, e);
+        }
+        catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new QtiLogicException("Unexpected Exception while " + description, cause);
+        }
+        finally {
+            /* Cancel anything still outstanding if we have failed */
+            for (final Future<E> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.internal.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of canonical instances of immutable values, used to avoid keeping large
+ * numbers of equal copies of commonly used values (e.g. identifiers) when reading in data.
+ * <p>
+ * Values are keyed on something cheap to look up (typically their String form) so that
+ * callers can avoid parsing and creating a new value when one already exists. Once the pool
+ * is full, new values are simply not added, so callers get their own (non-canonical) value back.
+ * Nothing is ever evicted. So this should only be used for values where there's a reasonable
+ * chance of repetition, and where code never relies on instances being canonical.
+ * <p>
+ * An instance of this class may safely be used by multiple threads.
+ *
+ * @param <K> type of key
+ * @param <V> type of (immutable) value
+ *
+ * @author David McKain
+ */
+public final class InternPool<K, V> {
+
+    /** Default maximum number of values held in a pool */
+    public static final int DEFAULT_MAX_SIZE = 65536;
+
+    /** Longest String that will be interned via {@link #internString(String)} */
+    public static final int MAX_INTERNED_STRING_LENGTH = 64;
+
+    /** Shared pool of common (short) Strings, such as attribute values */
+    private static final InternPool<String, String> stringPool = new InternPool<String, String>(DEFAULT_MAX_SIZE);
+
+    /**
+     * Returns a canonical copy of the given String, if it is short enough to be worth interning
+     * and the shared String pool has space, otherwise returns the String as-is. Returns null
+     * for a null input.
+     */
+    public static String internString(final String value) {
+        if (value==null || value.length() > MAX_INTERNED_STRING_LENGTH) {
+            return value;
+        }
+        final String result = stringPool.get(value);
+        return result!=null ? result : stringPool.intern(value, value);
+    }
+
+    //--------------------------------------------------
+
+    private final int maxSize;
+    private final ConcurrentMap<K, V> valueMap;
+    private final AtomicInteger size;
+
+    public InternPool(final int maxSize) {
+        if (maxSize<=0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.valueMap = new ConcurrentHashMap<K, V>();
+        this.size = new AtomicInteger();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** Returns the (approximate) number of values currently in this pool */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Returns the canonical value having the given key, or null if there isn't one yet.
+     */
+    public V get(final K key) {
+        return valueMap.get(key);
+    }
+
+    /**
+     * Returns the canonical value having the given key, adding the given value to the pool
+     * if there isn't one yet and there is still space. If the pool is full then the given
+     * value is returned instead.
+     */
+    public V intern(final K key, final V value) {
+        Assert.notNull(key, "key");
+        Assert.notNull(value, "value");
+        final V existing = valueMap.get(key);
+        if (existing!=null) {
+            return existing;
+        }
+        if (size.get() >= maxSize) {
+            return value;
+        }
+        final V raced = valueMap.putIfAbsent(key, value);
+        if (raced!=null) {
+            return raced;
+        }
+        size.incrementAndGet();
+        return value;
+    }
+
+    /** Removes all values from this pool */
+    public void clear() {
+        valueMap.clear();
+        size.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(maxSize=" + maxSize
+                + ",size=" + size
+                + ")";
+    }
+}
@@ -163,6 +163,22 @@ public abstract class AbstractNode implements QtiNode {
         return nodeGroups;
     }
 
+    /**
+     * Compacts the storage of this Node's attributes and children for read-only use, which saves
+     * a fair amount of memory when large numbers of Nodes are kept around (e.g. in caches).
+     * This does not descend into the children themselves.
+     * <p>
+     * Attribute values may still be changed after this, but attempts to add or remove attributes
+     * or children will fail with an {@link UnsupportedOperationException}.
+     *
+     * @see AttributeList#compact()
+     * @see NodeGroupList#compact()
+     */
+    public void compact() {
+        attributes.compact();
+        nodeGroups.compact();
+    }
+
     /**
      * Provides a read-only iterates over all child Nodes.
      * <p>
@@ -188,6 +204,21 @@ public abstract class AbstractNode implements QtiNode {
         loadChildren(sourceElement, context);
     }
 
+    /**
+     * Loads this Node's source location and attributes from the given source {@link Element},
+     * clearing out any existing children but without loading any new ones. This is used when
+     * building a model directly from SAX events, where each child is subsequently loaded
+     * separately via {@link NodeGroupList#loadChild(org.w3c.dom.Node, LoadingContext)}.
+     * <p>
+     * This is only equivalent to {@link #load(Element, LoadingContext)} for Nodes that don't
+     * customise how their children are loaded, such as the {@link RootNode}s and itemBody.
+     */
+    public void loadWithoutChildren(final Element sourceElement, final LoadingContext context) {
+        this.sourceLocation = XmlResourceReader.extractLocationInformation(sourceElement);
+        loadAttributes(sourceElement, context);
+        nodeGroups.clearChildren();
+    }
+
     /**
      * Loads all attributes from given xml source.
      *
@@ -149,26 +149,40 @@ public enum RootNodeTypes {
      * @throws QtiLogicException if the resulting {@link RootNode} could not be instantiated
      */
     public static RootNode load(final Element sourceElement, final URI systemId, final LoadingContext context) {
-        final RootNode root = getInstance(sourceElement.getLocalName(), systemId);
+        final RootNode root = getInstance(sourceElement.getLocalName(), sourceElement.getNamespaceURI(), systemId);
+        root.load(sourceElement, context);
+        return root;
+    }
+
+    /**
+     * Creates an empty root node corresponding to an element with the given local name and
+     * namespace URI, checking namespaces.
+     *
+     * @param localName local name of the source element
+     * @param namespaceUri namespace URI of the source element
+     * @return new (unloaded) root node
+     * @throws IllegalArgumentException if the given local name does not correspond to a root Node,
+     *   or if the namespace is incorrect
+     * @throws QtiLogicException if the resulting {@link RootNode} could not be instantiated
+     */
+    public static RootNode getInstance(final String localName, final String namespaceUri, final URI systemId) {
+        final RootNode root = getInstance(localName, systemId);
 
         /* Check namespaces */
-        final String namespaceUri = sourceElement.getNamespaceURI();
         if (root instanceof AssessmentResult) {
             if (!QtiConstants.QTI_RESULT_21_NAMESPACE_URI.equals(namespaceUri)) {
                 throw new IllegalArgumentException("Element {" + namespaceUri
-                        + "}" + sourceElement.getLocalName()
+                        + "}" + localName
                         + " is not in the correct namespace " + QtiConstants.QTI_RESULT_21_NAMESPACE_URI);
             }
         }
         else {
             if (!QtiConstants.QTI_21_NAMESPACE_URI.equals(namespaceUri) && !QtiConstants.QTI_20_NAMESPACE_URI.equals(namespaceUri)) {
                 throw new IllegalArgumentException("Element {" + namespaceUri
-                        + "}" + sourceElement.getLocalName()
+                        + "}" + localName
                         + " is not in either the QTI 2.1 or 2.0 namespaces");
             }
         }
-
-        root.load(sourceElement, context);
         return root;
     }
 }
@@ -58,8 +58,11 @@ import uk.ac.ed.ph.jqtiplus.node.outcome.declaration.OutcomeDeclaration;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 import uk.ac.ed.ph.jqtiplus.value.BaseType;
 import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.xml.XMLConstants;
@@ -114,6 +117,12 @@ public class AssessmentItem extends AbstractNode implements AssessmentObject {
     /** System ID of this RootNode (optional) */
     private URI systemId;
 
+    /**
+     * Source locations of any presentation content that was skipped when this item was read in,
+     * or empty if this item was read in full.
+     */
+    private List<XmlSourceLocationInformation> skippedContentLocations;
+
     public AssessmentItem() {
         super(null, QTI_CLASS_NAME); // Item doesn't have any parent.
 
@@ -154,6 +163,8 @@ public class AssessmentItem extends AbstractNode implements AssessmentObject {
         durationResponseDeclaration.setIdentifier(QtiConstants.VARIABLE_DURATION_IDENTIFIER);
         durationResponseDeclaration.setCardinality(Cardinality.SINGLE);
         durationResponseDeclaration.setBaseType(BaseType.FLOAT);
+
+        skippedContentLocations = Collections.emptyList();
     }
 
     @Override
@@ -540,6 +551,33 @@ public class AssessmentItem extends AbstractNode implements AssessmentObject {
         getNodeGroups().getItemBodyGroup().setItemBody(itemBody);
     }
 
+    /**
+     * Returns whether some of the presentation content of this item (i.e. parts of the
+     * itemBody and any modalFeedback) was skipped when it was read in. Such items contain
+     * everything needed for template and response processing, but can't be validated,
+     * serialized or rendered until the skipped content has been loaded.
+     *
+     * @see #getSkippedContentLocations()
+     * @see uk.ac.ed.ph.jqtiplus.reading.QtiObjectReader#loadSkippedPresentationContent(AssessmentItem)
+     */
+    public boolean isPresentationContentSkipped() {
+        return !skippedContentLocations.isEmpty();
+    }
+
+    /**
+     * Returns the source locations of the presentation content that was skipped when this
+     * item was read in, which will be empty if this item was read in full.
+     */
+    public List<XmlSourceLocationInformation> getSkippedContentLocations() {
+        return skippedContentLocations;
+    }
+
+    public void setSkippedContentLocations(final List<XmlSourceLocationInformation> skippedContentLocations) {
+        this.skippedContentLocations = skippedContentLocations!=null && !skippedContentLocations.isEmpty()
+                ? Collections.unmodifiableList(new ArrayList<XmlSourceLocationInformation>(skippedContentLocations))
+                : Collections.<XmlSourceLocationInformation>emptyList();
+    }
+
     @Override
     public final String computeXPathComponent() {
         final String identifier = getIdentifier();
@@ -553,6 +591,7 @@ public class AssessmentItem extends AbstractNode implements AssessmentObject {
     public String toString() {
         return super.toString()
                 + "(systemId=" + systemId
+                + ",presentationContentSkipped=" + isPresentationContentSkipped()
                 + ")";
     }
 }
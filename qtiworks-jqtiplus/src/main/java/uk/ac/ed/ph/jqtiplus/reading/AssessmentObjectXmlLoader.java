@@ -41,6 +41,7 @@ import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
 import uk.ac.ed.ph.jqtiplus.validation.AssessmentObjectValidator;
 import uk.ac.ed.ph.jqtiplus.validation.ItemValidationResult;
 import uk.ac.ed.ph.jqtiplus.validation.TestValidationResult;
+import uk.ac.ed.ph.jqtiplus.validation.ValidationProgressListener;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
 import java.net.URI;
@@ -50,6 +51,10 @@ import java.net.URI;
  * and {@link AssessmentTest}s from XML using a {@link QtiXmlReader} for the low
  * level XML parsing and a {@link ResourceLocator} for locating and finding the
  * required XML resources.
+ * <p>
+ * The loader may be set to skip the presentation content of {@link AssessmentItem}s when
+ * loading and resolving, which is useful when only template and response processing is required.
+ * Validation always reads items in full.
  *
  * @see QtiXmlReader
  * @see ResourceLocator
@@ -60,10 +65,17 @@ public final class AssessmentObjectXmlLoader {
 
     private final QtiXmlReader qtiXmlReader;
     private final ResourceLocator inputResourceLocator;
+    private final boolean skippingPresentationContent;
 
     public AssessmentObjectXmlLoader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator) {
+        this(qtiXmlReader, inputResourceLocator, false);
+    }
+
+    public AssessmentObjectXmlLoader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator,
+            final boolean skippingPresentationContent) {
         this.qtiXmlReader = qtiXmlReader;
         this.inputResourceLocator = inputResourceLocator;
+        this.skippingPresentationContent = skippingPresentationContent;
     }
 
     public QtiXmlReader getQtiXmlReader() {
@@ -74,11 +86,15 @@ public final class AssessmentObjectXmlLoader {
         return inputResourceLocator;
     }
 
+    public boolean isSkippingPresentationContent() {
+        return skippingPresentationContent;
+    }
+
     //-------------------------------------------------------------------
     // AssessmentItem resolution & validation
 
     public ResolvedAssessmentItem loadAndResolveAssessmentItem(final URI systemId) {
-        final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, false);
+        final QtiObjectReader qtiObjectReader = createResolvingQtiObjectReader();
         final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader);
         return assessmentObjectResolver.resolveAssessmentItem(systemId);
     }
@@ -94,25 +110,38 @@ public final class AssessmentObjectXmlLoader {
     // AssessmentTest resolution & validation
 
     public ResolvedAssessmentTest loadAndResolveAssessmentTest(final URI systemId) {
-        final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, false);
+        final QtiObjectReader qtiObjectReader = createResolvingQtiObjectReader();
         final AssessmentObjectResolver assessmentObjectResolver = new AssessmentObjectResolver(qtiObjectReader);
         return assessmentObjectResolver.resolveAssessmentTest(systemId);
     }
 
     public TestValidationResult loadResolveAndValidateTest(final URI systemId) {
+        return loadResolveAndValidateTest(systemId, null);
+    }
+
+    /**
+     * Loads, resolves and validates the {@link AssessmentTest} at the given System ID, notifying
+     * the given (optional) {@link ValidationProgressListener} as each of its items is validated.
+     */
+    public TestValidationResult loadResolveAndValidateTest(final URI systemId, final ValidationProgressListener progressListener) {
         final QtiObjectReader qtiObjectReader = qtiXmlReader.createQtiObjectReader(inputResourceLocator, true);
         final ResolvedAssessmentTest resolvedAssessmentTest = new AssessmentObjectResolver(qtiObjectReader).resolveAssessmentTest(systemId);
         final AssessmentObjectValidator assessmentObjectValidator = new AssessmentObjectValidator(qtiObjectReader.getJqtiExtensionManager());
-        return assessmentObjectValidator.validateTest(resolvedAssessmentTest);
+        return assessmentObjectValidator.validateTest(resolvedAssessmentTest, progressListener);
     }
 
     //-------------------------------------------------------------------
 
+    private QtiObjectReader createResolvingQtiObjectReader() {
+        return qtiXmlReader.createQtiObjectReader(inputResourceLocator, false, true, skippingPresentationContent);
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(qtiXmlReader=" + qtiXmlReader
                 + ",inputResourceLocator=" + inputResourceLocator
+                + ",skippingPresentationContent=" + skippingPresentationContent
                 + ")";
     }
 }
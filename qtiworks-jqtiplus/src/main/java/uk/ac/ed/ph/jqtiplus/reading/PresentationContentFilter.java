@@ -0,0 +1,154 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.reading;
+
+import uk.ac.ed.ph.jqtiplus.node.content.ContentType;
+import uk.ac.ed.ph.jqtiplus.node.content.ItemBody;
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.node.item.ModalFeedback;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReader;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Filters the DOM {@link Element}s for the children of an {@link AssessmentItem} before they
+ * are loaded into the JQTI+ Object model, removing presentation content that isn't needed for
+ * template or response processing.
+ * <p>
+ * Each modalFeedback is skipped entirely. The itemBody is pruned so that only the interactions
+ * within it (and the elements containing them) remain, as the interactions are still needed
+ * when binding and validating responses. Everything else (text, XHTML, MathML etc.) is removed.
+ * <p>
+ * The source location of each skipped Element is recorded so that callers can tell that
+ * content has been skipped.
+ * <p>
+ * Usage: not thread safe, not reusable.
+ *
+ * @author David McKain
+ */
+final class PresentationContentFilter {
+
+    private final Set<String> interactionClassNames;
+    private final List<XmlSourceLocationInformation> skippedContentLocations;
+
+    public PresentationContentFilter() {
+        this.interactionClassNames = ContentType.getInteractionTypeQtiClassNames();
+        this.skippedContentLocations = new ArrayList<XmlSourceLocationInformation>();
+    }
+
+    /** Returns the source locations of each Element skipped so far */
+    public List<XmlSourceLocationInformation> getSkippedContentLocations() {
+        return skippedContentLocations;
+    }
+
+    /**
+     * Filters the given child {@link Element} of an assessmentItem, pruning its content if required.
+     *
+     * @return true if the resulting Element should be loaded, false if it should be skipped entirely
+     */
+    public boolean filterItemChild(final Element itemChildElement) {
+        final String localName = itemChildElement.getLocalName();
+        if (ModalFeedback.QTI_CLASS_NAME.equals(localName)) {
+            recordSkippedElement(itemChildElement);
+            return false;
+        }
+        else if (ItemBody.QTI_CLASS_NAME.equals(localName)) {
+            pruneNonInteractionContent(itemChildElement);
+        }
+        return true;
+    }
+
+    /**
+     * Filters the given child {@link Element} of an itemBody (or of an Element within it),
+     * pruning its content if required. This is used when the children of the itemBody are
+     * loaded one at a time. (Text Nodes within the itemBody should simply be skipped.)
+     *
+     * @return true if the resulting Element should be loaded, false if it should be skipped entirely
+     */
+    public boolean filterItemBodyChild(final Element element) {
+        if (isInteraction(element)) {
+            /* Keep interactions intact */
+            return true;
+        }
+        else if (containsInteraction(element)) {
+            pruneNonInteractionContent(element);
+            return true;
+        }
+        recordSkippedElement(element);
+        return false;
+    }
+
+    /**
+     * Removes all children of the given Element that neither are nor contain interactions.
+     */
+    private void pruneNonInteractionContent(final Element element) {
+        Node childNode = element.getFirstChild();
+        while (childNode!=null) {
+            final Node nextNode = childNode.getNextSibling();
+            if (childNode.getNodeType()!=Node.ELEMENT_NODE || !filterItemBodyChild((Element) childNode)) {
+                element.removeChild(childNode);
+            }
+            childNode = nextNode;
+        }
+    }
+
+    private boolean isInteraction(final Element element) {
+        return interactionClassNames.contains(element.getLocalName());
+    }
+
+    private boolean containsInteraction(final Element element) {
+        for (Node childNode = element.getFirstChild(); childNode!=null; childNode = childNode.getNextSibling()) {
+            if (childNode.getNodeType()==Node.ELEMENT_NODE
+                    && (isInteraction((Element) childNode) || containsInteraction((Element) childNode))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recordSkippedElement(final Element element) {
+        XmlSourceLocationInformation location = XmlResourceReader.extractLocationInformation(element);
+        if (location==null) {
+            /* (No location information was recorded, but we still need to record that something was skipped) */
+            location = new XmlSourceLocationInformation(null, null, -1, -1);
+        }
+        skippedContentLocations.add(location);
+    }
+}
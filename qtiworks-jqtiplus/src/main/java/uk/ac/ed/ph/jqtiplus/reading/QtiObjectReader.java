@@ -47,6 +47,9 @@ import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
 import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
 import uk.ac.ed.ph.jqtiplus.node.RootNode;
 import uk.ac.ed.ph.jqtiplus.node.RootNodeTypes;
+import uk.ac.ed.ph.jqtiplus.node.content.ItemBody;
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.node.item.ModalFeedback;
 import uk.ac.ed.ph.jqtiplus.provision.RootNodeProvider;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParseResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlReadResult;
@@ -70,7 +73,17 @@ import org.w3c.dom.Node;
  * Default implementation of {@link RootNodeProvider}, which uses a {@link QtiXmlReader} to
  * instantiate QTI {@link RootNode}s by parsing (and optionally schema-validating) XML.
  * <p>
+ * In streaming mode (the default), the JQTI+ Object model is built directly from the SAX
+ * events generated while parsing, so no DOM for the whole document is ever held in memory.
+ * Otherwise a full DOM is built first and the model is then built from that.
+ * <p>
+ * Readers may also be set to skip the presentation content of {@link AssessmentItem}s, which
+ * is useful for callers that only need what's required for template and response processing.
+ * Such content can be loaded later via {@link #loadSkippedPresentationContent(AssessmentItem)}
+ * if required.
+ * <p>
  * Instantiate this via {@link QtiXmlReader#createQtiObjectReader(ResourceLocator, boolean)}
+ * or {@link QtiXmlReader#createQtiObjectReader(ResourceLocator, boolean, boolean, boolean)}
  *
  * @author David McKain
  */
@@ -81,11 +94,16 @@ public final class QtiObjectReader implements RootNodeProvider {
     private final QtiXmlReader qtiXmlReader;
     private final ResourceLocator inputResourceLocator;
     private final boolean schemaValidating;
+    private final boolean streaming;
+    private final boolean skippingPresentationContent;
 
-    QtiObjectReader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator, final boolean schemaValidating) {
+    QtiObjectReader(final QtiXmlReader qtiXmlReader, final ResourceLocator inputResourceLocator, final boolean schemaValidating,
+            final boolean streaming, final boolean skippingPresentationContent) {
         this.qtiXmlReader = qtiXmlReader;
         this.inputResourceLocator = inputResourceLocator;
         this.schemaValidating = schemaValidating;
+        this.streaming = streaming;
+        this.skippingPresentationContent = skippingPresentationContent;
     }
 
     public QtiXmlReader getQtiXmlReader() {
@@ -100,6 +118,19 @@ public final class QtiObjectReader implements RootNodeProvider {
         return schemaValidating;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Returns whether this reader skips the presentation content of {@link AssessmentItem}s.
+     *
+     * @see AssessmentItem#isPresentationContentSkipped()
+     */
+    public boolean isSkippingPresentationContent() {
+        return skippingPresentationContent;
+    }
+
     //--------------------------------------------------------------------------
 
     @Override
@@ -155,41 +186,56 @@ public final class QtiObjectReader implements RootNodeProvider {
          */
         final ChainedResourceLocator resourceLocator = new ChainedResourceLocator(QtiXmlReader.JQTIPLUS_PARSER_RESOURCE_LOCATOR, inputResourceLocator);
 
-        /* Parse XML */
-        final XmlReadResult xmlReadResult = qtiXmlReader.read(resourceLocator, systemId, schemaValidating);
-        final XmlParseResult xmlParseResult = xmlReadResult.getXmlParseResult();
-        final Document document = xmlReadResult.getDocument();
-        if (document==null) {
-            /* Parsing failed */
-            throw new QtiXmlInterpretationException(XML_PARSE_FAILED, "XML parsing failed",
-                    requiredRootNodeClass, xmlParseResult);
-        }
-
-        /* Bail out if we're validating and the resulting XML was not valid */
-        if (schemaValidating && !xmlParseResult.isSchemaValid()) {
-            throw new QtiXmlInterpretationException(XML_SCHEMA_VALIDATION_FAILED, "XML schema validation was requested and the resulting XML was not valid",
-                   requiredRootNodeClass, xmlParseResult);
-        }
-
-        /* Build QTI Object Model */
+        /* Parse XML and build QTI Object Model */
         final List<QtiModelBuildingError> qtiModelBuildingErrors = new ArrayList<QtiModelBuildingError>();
         final LoadingContext loadingContext = new LoadingContextImpl(qtiModelBuildingErrors);
-        logger.trace("Instantiating JQTI Object hierarchy from root Element {}");
+        final XmlParseResult xmlParseResult;
         final RootNode rootNode;
-        final Element rootElement = document.getDocumentElement();
-        final String rootNamespaceUri = rootElement.getNamespaceURI();
-        try {
-            rootNode = RootNodeTypes.load(rootElement, systemId, loadingContext);
+        final String rootNamespaceUri;
+        final PresentationContentFilter presentationContentFilter = skippingPresentationContent ? new PresentationContentFilter() : null;
+        if (streaming) {
+            final StreamingRootNodeBuilder rootNodeBuilder = new StreamingRootNodeBuilder(systemId, loadingContext,
+                    presentationContentFilter);
+            logger.trace("Instantiating JQTI Object hierarchy directly from SAX events");
+            xmlParseResult = qtiXmlReader.read(resourceLocator, systemId, schemaValidating, rootNodeBuilder);
+            ensureParsedAndValid(xmlParseResult, requiredRootNodeClass);
+            rootNamespaceUri = rootNodeBuilder.getRootNamespaceUri();
+            if (rootNodeBuilder.isUnsupportedRootNode()) {
+                throw createUnsupportedRootNodeException(systemId, rootNamespaceUri, rootNodeBuilder.getRootLocalName(),
+                        requiredRootNodeClass, xmlParseResult, qtiModelBuildingErrors);
+            }
+            rootNode = rootNodeBuilder.getRootNode();
         }
-        catch (final IllegalArgumentException e) {
-            /* Unsupported root Node type */
-            logger.debug("QTI Object read of system ID {} yielded unsupported root Node {}", systemId, rootElement.getLocalName());
-            throw new QtiXmlInterpretationException(UNSUPPORTED_ROOT_NODE, "XML parse succeeded but had an unsupported root Node {"
-                    + rootNamespaceUri + "}:" + rootElement.getLocalName(),
-                    requiredRootNodeClass, xmlParseResult, null, qtiModelBuildingErrors);
+        else {
+            final XmlReadResult xmlReadResult = qtiXmlReader.read(resourceLocator, systemId, schemaValidating);
+            xmlParseResult = xmlReadResult.getXmlParseResult();
+            ensureParsedAndValid(xmlParseResult, requiredRootNodeClass);
+            final Document document = xmlReadResult.getDocument();
+            logger.trace("Instantiating JQTI Object hierarchy from root Element {}");
+            final Element rootElement = document.getDocumentElement();
+            rootNamespaceUri = rootElement.getNamespaceURI();
+            if (presentationContentFilter!=null && AssessmentItem.QTI_CLASS_NAME.equals(rootElement.getLocalName())) {
+                for (final Element childElement : getChildElements(rootElement)) {
+                    if (!presentationContentFilter.filterItemChild(childElement)) {
+                        rootElement.removeChild(childElement);
+                    }
+                }
+            }
+            try {
+                rootNode = RootNodeTypes.load(rootElement, systemId, loadingContext);
+            }
+            catch (final IllegalArgumentException e) {
+                throw createUnsupportedRootNodeException(systemId, rootNamespaceUri, rootElement.getLocalName(),
+                        requiredRootNodeClass, xmlParseResult, qtiModelBuildingErrors);
+            }
+            catch (final QtiParseException e) {
+                throw new QtiLogicException("All QtiParseExceptions should have been caught before this point!", e);
+            }
         }
-        catch (final QtiParseException e) {
-            throw new QtiLogicException("All QtiParseExceptions should have been caught before this point!", e);
+
+        /* Record any skipped content */
+        if (presentationContentFilter!=null && rootNode instanceof AssessmentItem) {
+            ((AssessmentItem) rootNode).setSkippedContentLocations(presentationContentFilter.getSkippedContentLocations());
         }
 
         /* Make sure we got the right type of Object */
@@ -215,6 +261,91 @@ public final class QtiObjectReader implements RootNodeProvider {
         return result;
     }
 
+    /**
+     * Loads the presentation content (i.e. the full itemBody and any modalFeedback) that was
+     * skipped when the given {@link AssessmentItem} was read in, by reading its XML again.
+     * This does nothing if no content was skipped.
+     * <p>
+     * This modifies the given {@link AssessmentItem}, so must not be called while the item is
+     * being used by other threads.
+     *
+     * @param item {@link AssessmentItem} to complete, which must have a System ID
+     *
+     * @throws XmlResourceNotFoundException if the XML resource for the item can no longer be
+     *             located using the current {@link #inputResourceLocator}
+     * @throws QtiXmlInterpretationException if the XML could no longer be parsed, or if the skipped
+     *             content generated any model building errors
+     */
+    public void loadSkippedPresentationContent(final AssessmentItem item)
+            throws XmlResourceNotFoundException, QtiXmlInterpretationException {
+        Assert.notNull(item, "item");
+        if (!item.isPresentationContentSkipped()) {
+            return;
+        }
+        final URI systemId = item.getSystemId();
+        Assert.notNull(systemId, "item.systemId");
+        logger.debug("Loading skipped presentation content for item at system ID {}", systemId);
+
+        /* Parse XML again */
+        final ChainedResourceLocator resourceLocator = new ChainedResourceLocator(QtiXmlReader.JQTIPLUS_PARSER_RESOURCE_LOCATOR, inputResourceLocator);
+        final XmlReadResult xmlReadResult = qtiXmlReader.read(resourceLocator, systemId, false);
+        final XmlParseResult xmlParseResult = xmlReadResult.getXmlParseResult();
+        ensureParsedAndValid(xmlParseResult, AssessmentItem.class);
+
+        /* Replace pruned itemBody and load modalFeedbacks */
+        final List<QtiModelBuildingError> qtiModelBuildingErrors = new ArrayList<QtiModelBuildingError>();
+        final LoadingContext loadingContext = new LoadingContextImpl(qtiModelBuildingErrors);
+        item.getNodeGroups().getItemBodyGroup().getChildren().clear();
+        item.getNodeGroups().getModalFeedbackGroup().getChildren().clear();
+        for (final Element childElement : getChildElements(xmlReadResult.getDocument().getDocumentElement())) {
+            final String localName = childElement.getLocalName();
+            if (ItemBody.QTI_CLASS_NAME.equals(localName) || ModalFeedback.QTI_CLASS_NAME.equals(localName)) {
+                item.getNodeGroups().loadChild(childElement, loadingContext);
+            }
+        }
+        if (!qtiModelBuildingErrors.isEmpty()) {
+            throw new QtiXmlInterpretationException(JQTI_MODEL_BUILD_FAILED, "Loading skipped presentation content generated "
+                    + qtiModelBuildingErrors.size() + " model building error(s)",
+                    AssessmentItem.class, xmlParseResult, item, qtiModelBuildingErrors);
+        }
+        item.setSkippedContentLocations(null);
+    }
+
+    private static List<Element> getChildElements(final Element element) {
+        final List<Element> result = new ArrayList<Element>();
+        for (Node childNode = element.getFirstChild(); childNode!=null; childNode = childNode.getNextSibling()) {
+            if (childNode.getNodeType()==Node.ELEMENT_NODE) {
+                result.add((Element) childNode);
+            }
+        }
+        return result;
+    }
+
+    private void ensureParsedAndValid(final XmlParseResult xmlParseResult, final Class<? extends RootNode> requiredRootNodeClass)
+            throws QtiXmlInterpretationException {
+        if (!xmlParseResult.isParsed()) {
+            /* Parsing failed */
+            throw new QtiXmlInterpretationException(XML_PARSE_FAILED, "XML parsing failed",
+                    requiredRootNodeClass, xmlParseResult);
+        }
+
+        /* Bail out if we're validating and the resulting XML was not valid */
+        if (schemaValidating && !xmlParseResult.isSchemaValid()) {
+            throw new QtiXmlInterpretationException(XML_SCHEMA_VALIDATION_FAILED, "XML schema validation was requested and the resulting XML was not valid",
+                   requiredRootNodeClass, xmlParseResult);
+        }
+    }
+
+    private QtiXmlInterpretationException createUnsupportedRootNodeException(final URI systemId,
+            final String rootNamespaceUri, final String rootLocalName,
+            final Class<? extends RootNode> requiredRootNodeClass, final XmlParseResult xmlParseResult,
+            final List<QtiModelBuildingError> qtiModelBuildingErrors) {
+        logger.debug("QTI Object read of system ID {} yielded unsupported root Node {}", systemId, rootLocalName);
+        return new QtiXmlInterpretationException(UNSUPPORTED_ROOT_NODE, "XML parse succeeded but had an unsupported root Node {"
+                + rootNamespaceUri + "}:" + rootLocalName,
+                requiredRootNodeClass, xmlParseResult, null, qtiModelBuildingErrors);
+    }
+
     /**
      * Implementation of {@link LoadingContext} that records any {@link QtiModelBuildingError}s
      * in an {@link ArrayList}.
@@ -246,6 +377,9 @@ public final class QtiObjectReader implements RootNodeProvider {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
                 + "(qtiXmlReader=" + qtiXmlReader
                 + ",inputResourceLocator=" + inputResourceLocator
+                + ",schemaValidating=" + schemaValidating
+                + ",streaming=" + streaming
+                + ",skippingPresentationContent=" + skippingPresentationContent
                 + ")";
     }
 }
@@ -37,7 +37,9 @@ import uk.ac.ed.ph.jqtiplus.ExtensionNamespaceInfo;
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.xmlutils.SchemaCache;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParseResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlReadResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceNotFoundException;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReader;
@@ -51,6 +53,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.xml.sax.ContentHandler;
+
 /**
  * Wraps around {@link XmlResourceReader} to provide unified reader for QTI (and
  * some related IMS) XML resources.
@@ -122,6 +126,21 @@ public final class QtiXmlReader {
         return xmlResourceReader.getSchemaCache();
     }
 
+    /**
+     * Compiles the QTI 2.0 and 2.1 schemas, as well as the schemas of any registered extensions,
+     * storing them in the {@link SchemaCache} for later use. This is useful to call when an
+     * application starts up. It does nothing if no {@link SchemaCache} has been set.
+     *
+     * @see XmlResourceReader#preloadSchemas()
+     *
+     * @return number of schemas preloaded
+     *
+     * @throws XmlResourceReaderException if any of the schemas could not be located or compiled
+     */
+    public int preloadSchemas() {
+        return xmlResourceReader.preloadSchemas();
+    }
+
     //--------------------------------------------------
 
     /**
@@ -145,13 +164,66 @@ public final class QtiXmlReader {
         return xmlResourceReader.read(systemId, inputResourceLocator, entityResourceLocator, performSchemaValidation);
     }
 
+    /**
+     * Variant of {@link #read(ResourceLocator, URI, boolean)} that passes the SAX events from the
+     * parse to the given {@link ContentHandler} instead of building a DOM.
+     *
+     * @see XmlResourceReader#read(URI, ResourceLocator, ResourceLocator, boolean, ContentHandler)
+     *
+     * @param inputResourceLocator {@link ResourceLocator} used to read in the QTI XML
+     * @param systemId System ID (URI) of the QTI XML resource to be read
+     * @param performSchemaValidation whether to perform schema validation
+     * @param contentHandler {@link ContentHandler} that will receive the SAX events from the parse
+     * @throws XmlResourceNotFoundException if the XML resource with the given System ID cannot be
+     *             located using the given {@link ResourceLocator}
+     * @throws XmlResourceReaderException if an unexpected Exception occurred parsing and/or validating the XML, or
+     *             if any of the required schemas could not be located.
+     */
+    public XmlParseResult read(final ResourceLocator inputResourceLocator, final URI systemId,
+            final boolean performSchemaValidation, final ContentHandler contentHandler)
+            throws XmlResourceNotFoundException {
+        Assert.notNull(inputResourceLocator, "inputResourceLocator");
+        Assert.notNull(systemId, "systemId");
+        final ResourceLocator entityResourceLocator = new ChainedResourceLocator(JQTIPLUS_PARSER_RESOURCE_LOCATOR, inputResourceLocator);
+        return xmlResourceReader.read(systemId, inputResourceLocator, entityResourceLocator, performSchemaValidation, contentHandler);
+    }
+
     /**
      * Creates a new {@link QtiObjectReader} from this reader and the given
-     * input {@link ResourceLocator}.
+     * input {@link ResourceLocator}. The resulting reader builds JQTI+ Object models
+     * directly from the incoming SAX events.
      */
     public QtiObjectReader createQtiObjectReader(final ResourceLocator inputResourceLocator, final boolean schemaValidating) {
+        return createQtiObjectReader(inputResourceLocator, schemaValidating, true);
+    }
+
+    /**
+     * Creates a new {@link QtiObjectReader} from this reader and the given
+     * input {@link ResourceLocator}.
+     *
+     * @param streaming true to build JQTI+ Object models directly from the incoming SAX events,
+     *   false to build a full DOM first and then build the model from that.
+     */
+    public QtiObjectReader createQtiObjectReader(final ResourceLocator inputResourceLocator, final boolean schemaValidating,
+            final boolean streaming) {
+        return createQtiObjectReader(inputResourceLocator, schemaValidating, streaming, false);
+    }
+
+    /**
+     * Creates a new {@link QtiObjectReader} from this reader and the given
+     * input {@link ResourceLocator}.
+     *
+     * @param streaming true to build JQTI+ Object models directly from the incoming SAX events,
+     *   false to build a full DOM first and then build the model from that.
+     * @param skippingPresentationContent true to skip the presentation content of
+     *   {@link AssessmentItem}s that isn't needed for template or response processing.
+     *
+     * @see AssessmentItem#isPresentationContentSkipped()
+     */
+    public QtiObjectReader createQtiObjectReader(final ResourceLocator inputResourceLocator, final boolean schemaValidating,
+            final boolean streaming, final boolean skippingPresentationContent) {
         Assert.notNull(inputResourceLocator, "inputResourceLocator");
-        return new QtiObjectReader(this, inputResourceLocator, schemaValidating);
+        return new QtiObjectReader(this, inputResourceLocator, schemaValidating, streaming, skippingPresentationContent);
     }
 
     //--------------------------------------------------
@@ -0,0 +1,283 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.reading;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.node.AbstractNode;
+import uk.ac.ed.ph.jqtiplus.node.LoadingContext;
+import uk.ac.ed.ph.jqtiplus.node.RootNode;
+import uk.ac.ed.ph.jqtiplus.node.RootNodeTypes;
+import uk.ac.ed.ph.jqtiplus.node.content.ItemBody;
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.xmlutils.SimpleDomBuilderHandler;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParserPool;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReader;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
+
+import java.net.URI;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Text;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX handler that builds a JQTI+ {@link RootNode} directly from the SAX events produced
+ * while reading QTI XML, without ever holding a DOM for the whole document.
+ * <p>
+ * The {@link RootNode} is created and has its attributes loaded as soon as the document
+ * element is seen. Each child of the document element is then collected into its own small
+ * DOM (filled with the usual {@link XmlSourceLocationInformation}, as done by
+ * {@link SimpleDomBuilderHandler}) and loaded into the model as soon as it is complete,
+ * after which its DOM is discarded.
+ * <p>
+ * The {@link ItemBody} of an {@link AssessmentItem} is usually much bigger than everything
+ * else, so this is handled in the same way one level further down: the {@link ItemBody} is
+ * created as soon as it is seen, and each of its children is then built as a separate DOM.
+ * So at most one child of the document element (or of the {@link ItemBody}) exists as a DOM
+ * at any time.
+ * <p>
+ * The resulting model is the same as would be built by
+ * {@link RootNodeTypes#load(Element, URI, LoadingContext)} from a full DOM, unless a
+ * {@link PresentationContentFilter} is used to skip presentation content within an
+ * {@link AssessmentItem}.
+ * <p>
+ * Usage: not thread safe, not reusable.
+ *
+ * @author David McKain
+ */
+final class StreamingRootNodeBuilder extends DefaultHandler {
+
+    private final URI systemId;
+    private final LoadingContext loadingContext;
+
+    /** Optional filter to apply to the children of any {@link AssessmentItem} before loading */
+    private final PresentationContentFilter presentationContentFilter;
+
+    /** Coalesces SAX character events directly within the document element or {@link ItemBody} */
+    private final StringBuilder textBuilder;
+
+    private Locator locator;
+    private int depth;
+    private String rootLocalName;
+    private String rootNamespaceUri;
+    private boolean unsupportedRootNode;
+    private AbstractNode rootNode;
+
+    /** Document used to hold the document element and any text Nodes directly within it */
+    private Document rootDocument;
+
+    /** {@link ItemBody} whose children are currently being streamed, if any */
+    private ItemBody itemBody;
+
+    /** Builds the DOM for the current child of the document element or {@link ItemBody} */
+    private SimpleDomBuilderHandler childBuilderHandler;
+    private Document childDocument;
+
+    /** Depth of the Element at the top of the current child DOM */
+    private int childDepth;
+
+    public StreamingRootNodeBuilder(final URI systemId, final LoadingContext loadingContext,
+            final PresentationContentFilter presentationContentFilter) {
+        this.systemId = systemId;
+        this.loadingContext = loadingContext;
+        this.presentationContentFilter = presentationContentFilter;
+        this.textBuilder = new StringBuilder();
+    }
+
+    /**
+     * Returns the {@link RootNode} that was built, or null if the document element did not
+     * correspond to a supported {@link RootNode}.
+     * <p>
+     * This is only complete if the parse succeeded.
+     */
+    public RootNode getRootNode() {
+        return (RootNode) rootNode;
+    }
+
+    /** Returns whether the document element was found not to correspond to a supported {@link RootNode} */
+    public boolean isUnsupportedRootNode() {
+        return unsupportedRootNode;
+    }
+
+    public String getRootLocalName() {
+        return rootLocalName;
+    }
+
+    public String getRootNamespaceUri() {
+        return rootNamespaceUri;
+    }
+
+    //-------------------------------------------------
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+        this.locator = locator;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+        depth++;
+        if (depth==1) {
+            startRootNode(uri, localName, qName, attributes);
+        }
+        else if (rootNode!=null) {
+            if (childBuilderHandler==null) {
+                addAnyCoalescedText();
+                if (depth==2 && rootNode instanceof AssessmentItem && ItemBody.QTI_CLASS_NAME.equals(localName)) {
+                    startItemBody(uri, localName, qName, attributes);
+                    return;
+                }
+                childDocument = XmlParserPool.getNsAwareInstance().newDocument();
+                childBuilderHandler = new SimpleDomBuilderHandler(childDocument);
+                childBuilderHandler.setDocumentLocator(locator);
+                childBuilderHandler.startDocument();
+                childDepth = depth;
+            }
+            childBuilderHandler.startElement(uri, localName, qName, attributes);
+        }
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+        if (rootNode!=null && depth>0) {
+            if (childBuilderHandler!=null) {
+                childBuilderHandler.characters(ch, start, length);
+            }
+            else {
+                textBuilder.append(ch, start, length);
+            }
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+        if (rootNode!=null) {
+            if (childBuilderHandler!=null) {
+                childBuilderHandler.endElement(uri, localName, qName);
+                if (depth==childDepth) {
+                    endChild();
+                }
+            }
+            else {
+                /* End of document element or ItemBody */
+                addAnyCoalescedText();
+                itemBody = null;
+            }
+        }
+        depth--;
+    }
+
+    //-------------------------------------------------
+
+    private void startRootNode(final String uri, final String localName, final String qName, final Attributes attributes) {
+        rootLocalName = localName;
+        rootNamespaceUri = uri.length()!=0 ? uri : null;
+        final RootNode result;
+        try {
+            result = RootNodeTypes.getInstance(localName, rootNamespaceUri, systemId);
+        }
+        catch (final IllegalArgumentException e) {
+            /* Unsupported root Node type, so we'll ignore the rest of the document */
+            unsupportedRootNode = true;
+            return;
+        }
+        if (!(result instanceof AbstractNode)) {
+            throw new QtiLogicException("Expected RootNode " + result + " to be an AbstractNode");
+        }
+
+        /* Build the document element (without children) and load the root Node from it */
+        rootDocument = XmlParserPool.getNsAwareInstance().newDocument();
+        final SimpleDomBuilderHandler rootBuilderHandler = new SimpleDomBuilderHandler(rootDocument);
+        rootBuilderHandler.setDocumentLocator(locator);
+        rootBuilderHandler.startDocument();
+        rootBuilderHandler.startElement(uri, localName, qName, attributes);
+        rootNode = (AbstractNode) result;
+        rootNode.loadWithoutChildren(rootDocument.getDocumentElement(), loadingContext);
+    }
+
+    /**
+     * Creates the {@link ItemBody} (without children) and adds it to the {@link AssessmentItem},
+     * as would be done by {@link uk.ac.ed.ph.jqtiplus.group.NodeGroupList#loadChild(org.w3c.dom.Node, LoadingContext)}.
+     */
+    private void startItemBody(final String uri, final String localName, final String qName, final Attributes attributes) {
+        final Document itemBodyDocument = XmlParserPool.getNsAwareInstance().newDocument();
+        final SimpleDomBuilderHandler itemBodyBuilderHandler = new SimpleDomBuilderHandler(itemBodyDocument);
+        itemBodyBuilderHandler.setDocumentLocator(locator);
+        itemBodyBuilderHandler.startDocument();
+        itemBodyBuilderHandler.startElement(uri, localName, qName, attributes);
+        final AssessmentItem assessmentItem = (AssessmentItem) rootNode;
+        itemBody = new ItemBody(assessmentItem);
+        itemBody.loadWithoutChildren(itemBodyDocument.getDocumentElement(), loadingContext);
+        assessmentItem.getNodeGroups().getItemBodyGroup().getChildren().add(itemBody);
+    }
+
+    /**
+     * Loads the child DOM that has just been completed (unless filtered out), then discards it.
+     */
+    private void endChild() {
+        childBuilderHandler.endDocument();
+        final Element childElement = childDocument.getDocumentElement();
+        if (itemBody!=null) {
+            if (presentationContentFilter==null || presentationContentFilter.filterItemBodyChild(childElement)) {
+                itemBody.getNodeGroups().loadChild(childElement, loadingContext);
+            }
+        }
+        else if (presentationContentFilter==null || !(rootNode instanceof AssessmentItem)
+                || presentationContentFilter.filterItemChild(childElement)) {
+            rootNode.getNodeGroups().loadChild(childElement, loadingContext);
+        }
+        childBuilderHandler = null;
+        childDocument = null;
+    }
+
+    private void addAnyCoalescedText() {
+        if (textBuilder.length()>0) {
+            /* (Text directly within the ItemBody counts as presentation content) */
+            if (itemBody==null || presentationContentFilter==null) {
+                final Text textNode = rootDocument.createTextNode(textBuilder.toString());
+                if (locator!=null) {
+                    final XmlSourceLocationInformation info = new XmlSourceLocationInformation(locator.getPublicId(), locator.getSystemId(),
+                            locator.getColumnNumber(), locator.getLineNumber());
+                    textNode.setUserData(XmlResourceReader.LOCATION_INFORMATION_NAME, info, null);
+                }
+                final AbstractNode parentNode = itemBody!=null ? itemBody : rootNode;
+                parentNode.getNodeGroups().loadChild(textNode, loadingContext);
+            }
+            textBuilder.setLength(0);
+        }
+    }
+}
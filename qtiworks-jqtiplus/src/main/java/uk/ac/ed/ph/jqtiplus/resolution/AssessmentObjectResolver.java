@@ -33,6 +33,8 @@
  */
 package uk.ac.ed.ph.jqtiplus.resolution;
 
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.internal.util.ConcurrencyUtilities;
 import uk.ac.ed.ph.jqtiplus.node.RootNode;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
@@ -43,9 +45,12 @@ import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +62,10 @@ import org.slf4j.LoggerFactory;
  * <p>
  * This provides a rich {@link ResolvedAssessmentItem} or {@link ResolvedAssessmentTest}
  * which is useful for the running/delivery of assessments.
+ * <p>
+ * If the {@link JqtiExtensionManager} has an item resolution {@link ExecutorService}, then
+ * the items referenced by a test are read and resolved in parallel. The resulting
+ * {@link ResolvedAssessmentTest} is the same as when resolving items one at a time.
  *
  * @author David McKain
  */
@@ -175,14 +184,51 @@ public final class AssessmentObjectResolver {
             }
 
             /* Resolve each unique item */
-            for (final URI itemSystemId : itemRefsBySystemIdMap.keySet()) {
-                resolvedAssessmentItemMap.put(itemSystemId, resolveAssessmentItem(itemSystemId, cachedResourceProvider));
+            final ExecutorService itemResolutionExecutor = getItemResolutionExecutor();
+            if (itemResolutionExecutor!=null && itemRefsBySystemIdMap.size() > 1) {
+                resolveAssessmentItemsInParallel(itemResolutionExecutor, itemRefsBySystemIdMap.keySet(),
+                        cachedResourceProvider, resolvedAssessmentItemMap);
+            }
+            else {
+                for (final URI itemSystemId : itemRefsBySystemIdMap.keySet()) {
+                    resolvedAssessmentItemMap.put(itemSystemId, resolveAssessmentItem(itemSystemId, cachedResourceProvider));
+                }
             }
         }
         return new ResolvedAssessmentTest(testLookup, assessmentItemRefs,
                 systemIdByItemRefMap, itemRefsBySystemIdMap, resolvedAssessmentItemMap);
     }
 
+    /**
+     * Resolves each of the given items using the given {@link ExecutorService}, adding the results
+     * to the given Map in the same order as the items. If any item fails unexpectedly, the
+     * {@link RuntimeException} for the first such item is rethrown.
+     */
+    private void resolveAssessmentItemsInParallel(final ExecutorService itemResolutionExecutor,
+            final Collection<URI> itemSystemIds, final CachedResourceProvider cachedResourceProvider,
+            final Map<URI, ResolvedAssessmentItem> resolvedAssessmentItemMap) {
+        final List<Callable<ResolvedAssessmentItem>> tasks = new ArrayList<Callable<ResolvedAssessmentItem>>(itemSystemIds.size());
+        for (final URI itemSystemId : itemSystemIds) {
+            tasks.add(new Callable<ResolvedAssessmentItem>() {
+                @Override
+                public ResolvedAssessmentItem call() {
+                    return resolveAssessmentItem(itemSystemId, cachedResourceProvider);
+                }
+            });
+        }
+        final List<ResolvedAssessmentItem> resolvedAssessmentItems = ConcurrencyUtilities.invokeInOrder(itemResolutionExecutor,
+                tasks, "resolving assessmentItemRefs");
+        int i = 0;
+        for (final URI itemSystemId : itemSystemIds) {
+            resolvedAssessmentItemMap.put(itemSystemId, resolvedAssessmentItems.get(i++));
+        }
+    }
+
+    private ExecutorService getItemResolutionExecutor() {
+        final JqtiExtensionManager jqtiExtensionManager = rootNodeProvider.getJqtiExtensionManager();
+        return jqtiExtensionManager!=null ? jqtiExtensionManager.getItemResolutionExecutor() : null;
+    }
+
     //-------------------------------------------------------------------
 
     private URI resolveUri(final RootNode baseObject, final URI href) {
@@ -42,8 +42,9 @@ import uk.ac.ed.ph.jqtiplus.provision.RootNodeHolder;
 import uk.ac.ed.ph.jqtiplus.provision.RootNodeProvider;
 
 import java.net.URI;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +52,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Helper class that caches the results of calls to {@link AssessmentObjectResolver} during
  * resolution so that we only need to build once.
+ * <p>
+ * This may be used by multiple threads when items are being resolved in parallel. In this case,
+ * the same resource may occasionally be built more than once, but only the first result is kept
+ * so all callers see the same {@link RootNodeLookup}.
  *
  * @author David McKain
  */
@@ -59,11 +64,11 @@ final class CachedResourceProvider {
     private static final Logger logger = LoggerFactory.getLogger(CachedResourceProvider.class);
 
     private final RootNodeProvider rootNodeProvider;
-    private final Map<URI, RootNodeLookup<?>> cacheData;
+    private final ConcurrentMap<URI, RootNodeLookup<?>> cacheData;
 
     public CachedResourceProvider(final RootNodeProvider rootNodeProvider) {
         this.rootNodeProvider = rootNodeProvider;
-        this.cacheData = new HashMap<URI, RootNodeLookup<?>>();
+        this.cacheData = new ConcurrentHashMap<URI, RootNodeLookup<?>>();
     }
 
     public RootNodeProvider getRootNodeProvider() {
@@ -94,7 +99,11 @@ final class CachedResourceProvider {
             catch (final ResourceNotFoundException e) {
                 frozenResult = new RootNodeLookup<E>(systemId, resultClass, e);
             }
-            cacheData.put(systemId, frozenResult);
+            final RootNodeLookup<E> existingResult = (RootNodeLookup<E>) cacheData.putIfAbsent(systemId, frozenResult);
+            if (existingResult!=null) {
+                /* Another thread got there first, so use its result */
+                frozenResult = existingResult;
+            }
             logger.debug("Resource cache miss for key {} stored {}", systemId, frozenResult);
         }
         return frozenResult;
@@ -81,6 +81,12 @@ public final class ResolvedAssessmentItem extends ResolvedAssessmentObject<Asses
         return resolvedResponseProcessingTemplateLookup;
     }
 
+    @Override
+    public void compact() {
+        compactTree(itemLookup);
+        compactTree(resolvedResponseProcessingTemplateLookup);
+    }
+
     /**
      * Returns the {@link VariableDeclaration}(s) having the given {@link Identifier}. This will
      * return 0 or 1 items in a valid item, but can return more if the same identifier has been
@@ -35,12 +35,17 @@ package uk.ac.ed.ph.jqtiplus.resolution;
 
 import uk.ac.ed.ph.jqtiplus.internal.util.DumpMode;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectDumperOptions;
+import uk.ac.ed.ph.jqtiplus.node.AbstractNode;
 import uk.ac.ed.ph.jqtiplus.node.AssessmentObject;
 import uk.ac.ed.ph.jqtiplus.node.AssessmentObjectType;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
 import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
+import uk.ac.ed.ph.jqtiplus.utils.TreeWalkNodeHandler;
 import uk.ac.ed.ph.jqtiplus.validation.AssessmentObjectValidator;
 
 import java.io.Serializable;
+import java.util.Collections;
 
 /**
  * Base class for the result of "resolving" an {@link AssessmentObject}.
@@ -67,4 +72,27 @@ public abstract class ResolvedAssessmentObject<E extends AssessmentObject> imple
     public RootNodeLookup<E> getRootNodeLookup() {
         return rootNodeLookup;
     }
+
+    /**
+     * Compacts the storage of all of the {@link QtiNode}s that have been successfully looked up
+     * here, making them read-only. This should only be done once everything that needs to modify
+     * the Nodes has finished, e.g. when caching the resolved object.
+     *
+     * @see AbstractNode#compact()
+     */
+    public abstract void compact();
+
+    protected static void compactTree(final RootNodeLookup<?> rootNodeLookup) {
+        if (rootNodeLookup!=null && rootNodeLookup.wasSuccessful()) {
+            QueryUtils.walkTree(new TreeWalkNodeHandler() {
+                @Override
+                public boolean handleNode(final QtiNode node) {
+                    if (node instanceof AbstractNode) {
+                        ((AbstractNode) node).compact();
+                    }
+                    return true;
+                }
+            }, Collections.singletonList(rootNodeLookup.extractAssumingSuccessful()));
+        }
+    }
 }
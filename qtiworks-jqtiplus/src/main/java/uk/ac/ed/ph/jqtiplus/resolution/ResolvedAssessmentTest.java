@@ -115,6 +115,14 @@ public final class ResolvedAssessmentTest extends ResolvedAssessmentObject<Asses
         return resolvedAssessmentItemBySystemIdMap;
     }
 
+    @Override
+    public void compact() {
+        compactTree(testLookup);
+        for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentItemBySystemIdMap.values()) {
+            resolvedAssessmentItem.compact();
+        }
+    }
+
     public ResolvedAssessmentItem getResolvedAssessmentItem(final AssessmentItemRef itemRef) {
         final URI systemId = systemIdByItemRefMap.get(itemRef);
         return systemId!=null ? resolvedAssessmentItemBySystemIdMap.get(systemId) : null;
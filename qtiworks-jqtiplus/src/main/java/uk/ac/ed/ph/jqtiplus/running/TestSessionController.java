@@ -80,6 +80,8 @@ import uk.ac.ed.ph.jqtiplus.value.Signature;
 import uk.ac.ed.ph.jqtiplus.value.Value;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -136,6 +138,9 @@ public final class TestSessionController extends TestProcessingController {
     /** NB: These are created lazily */
     private final Map<TestPlanNodeKey, ItemSessionController> itemSessionControllerMap;
 
+    /** Operations performed since {@link #startRecordingOperations()} was called, or null if not recording */
+    private List<TestSessionOperation> recordedOperations;
+
     public TestSessionController(final JqtiExtensionManager jqtiExtensionManager,
             final TestSessionControllerSettings testSessionControllerSettings,
             final TestProcessingMap testProcessingMap,
@@ -144,6 +149,7 @@ public final class TestSessionController extends TestProcessingController {
         this.testProcessingMap = testProcessingMap;
         this.testSessionState = testSessionState;
         this.itemSessionControllerMap = new HashMap<TestPlanNodeKey, ItemSessionController>();
+        this.recordedOperations = null;
     }
 
     //-------------------------------------------------------------------
@@ -154,6 +160,42 @@ public final class TestSessionController extends TestProcessingController {
         }
     }
 
+    //-------------------------------------------------------------------
+    // Operation recording
+
+    /**
+     * Starts recording each operation performed on this controller that changes the
+     * {@link TestSessionState}, discarding anything recorded previously. (Operations performed
+     * internally by other operations are not recorded separately.)
+     * <p>
+     * Replaying the recorded operations in order via {@link TestSessionOperation#replay(TestSessionController)}
+     * on a copy of the state as it was when recording started, using a controller for the same
+     * test having the same random seed, will recreate the current state.
+     *
+     * @see #getRecordedOperations()
+     */
+    public void startRecordingOperations() {
+        recordedOperations = new ArrayList<TestSessionOperation>();
+    }
+
+    /**
+     * Returns the operations that have been successfully performed since
+     * {@link #startRecordingOperations()} was called, or null if operations are not being recorded.
+     */
+    public List<TestSessionOperation> getRecordedOperations() {
+        return recordedOperations!=null ? Collections.unmodifiableList(new ArrayList<TestSessionOperation>(recordedOperations)) : null;
+    }
+
+    private void recordOperation(final TestSessionOperationType operationType, final Date timestamp) {
+        recordOperation(new TestSessionOperation(operationType, timestamp));
+    }
+
+    private void recordOperation(final TestSessionOperation operation) {
+        if (recordedOperations!=null) {
+            recordedOperations.add(operation);
+        }
+    }
+
     //-------------------------------------------------------------------
     // Initialization
 
@@ -216,6 +258,7 @@ public final class TestSessionController extends TestProcessingController {
 
         /* Mark test session as initialized */
         testSessionState.setInitialized(true);
+        recordOperation(TestSessionOperationType.INITIALIZE, timestamp);
     }
 
     //-------------------------------------------------------------------
@@ -252,6 +295,7 @@ public final class TestSessionController extends TestProcessingController {
         testSessionState.setCurrentTestPartKey(null);
         testSessionState.setCurrentItemKey(null);
         startControlObjectTimer(testSessionState, timestamp);
+        recordOperation(TestSessionOperationType.ENTER_TEST, timestamp);
 
         return testSessionState.getTestPlan().getTestPartNodes().size();
     }
@@ -270,6 +314,11 @@ public final class TestSessionController extends TestProcessingController {
      */
     public void touchDurations(final Date timestamp) {
         Assert.notNull(timestamp);
+        touchOpenDurations(timestamp);
+        recordOperation(TestSessionOperationType.TOUCH_DURATIONS, timestamp);
+    }
+
+    private void touchOpenDurations(final Date timestamp) {
         assertTestInitialized();
 
         logger.debug("Touching durations on test");
@@ -448,6 +497,7 @@ public final class TestSessionController extends TestProcessingController {
                     currentTestPartSessionState.setBranchRuleTarget(BranchRule.EXIT_TEST.toString());
                     markRemainingTestPartNodesAsJumped(currentTestPartNode);
                     testSessionState.setEndTime(timestamp);
+                    recordOperation(TestSessionOperationType.ENTER_NEXT_AVAILABLE_TEST_PART, timestamp);
                     return null;
                 }
                 else if (BranchRule.EXIT_TESTPART.equals(branchTargetIdentifier)) {
@@ -494,6 +544,7 @@ public final class TestSessionController extends TestProcessingController {
         if (nextAvailableTestPartNode==null) {
             logger.debug("No more testParts available, so ending test");
             testSessionState.setEndTime(timestamp);
+            recordOperation(TestSessionOperationType.ENTER_NEXT_AVAILABLE_TEST_PART, timestamp);
             return null;
         }
 
@@ -518,6 +569,7 @@ public final class TestSessionController extends TestProcessingController {
             enterNextEnterableItemOrEndTestPart(nextAvailableTestPartNode, timestamp);
         }
 
+        recordOperation(TestSessionOperationType.ENTER_NEXT_AVAILABLE_TEST_PART, timestamp);
         return nextAvailableTestPartNode;
     }
 
@@ -646,6 +698,11 @@ public final class TestSessionController extends TestProcessingController {
      */
     public void endCurrentTestPart(final Date timestamp) {
         Assert.notNull(timestamp, "timestamp");
+        endCurrentTestPartIfPermitted(timestamp);
+        recordOperation(TestSessionOperationType.END_CURRENT_TEST_PART, timestamp);
+    }
+
+    private void endCurrentTestPartIfPermitted(final Date timestamp) {
         if (!mayEndCurrentTestPart()) {
             throw new QtiCandidateStateException("Current test part cannot be ended");
         }
@@ -736,6 +793,7 @@ public final class TestSessionController extends TestProcessingController {
         assertTestNotExited();
 
         testSessionState.setExitTime(timestamp);
+        recordOperation(TestSessionOperationType.EXIT_TEST, timestamp);
         logger.debug("Exited test");
     }
 
@@ -780,6 +838,7 @@ public final class TestSessionController extends TestProcessingController {
         /* Then exit test */
         testSessionState.setExitTime(timestamp);
         endControlObjectTimer(testSessionState, timestamp);
+        recordOperation(TestSessionOperationType.EXIT_TEST_INCOMPLETE, timestamp);
         logger.debug("Exited incomplete test");
     }
 
@@ -889,15 +948,21 @@ public final class TestSessionController extends TestProcessingController {
                 }
             }
 
+            recordSelectItemNonlinear(timestamp, itemKey);
             return newItemRefNode;
         }
         else {
             /* Allow deselection */
             testSessionState.setCurrentItemKey(null);
+            recordSelectItemNonlinear(timestamp, null);
             return null;
         }
     }
 
+    private void recordSelectItemNonlinear(final Date timestamp, final TestPlanNodeKey itemKey) {
+        recordOperation(new TestSessionOperation(TestSessionOperationType.SELECT_ITEM_NONLINEAR, timestamp, itemKey, null, null));
+    }
+
     private TestPart assertNonlinearTestPart(final TestPlanNode currentTestPartNode) {
         final TestPart currentTestPart = expectTestPart(currentTestPartNode);
         if (currentTestPart.getNavigationMode()!=NavigationMode.NONLINEAR) {
@@ -1033,7 +1098,9 @@ public final class TestSessionController extends TestProcessingController {
         logger.debug("Finished item {}", currentItemKey);
 
         /* Select next item (if one is available) or end the testPart */
-        return enterNextEnterableItemOrEndTestPart(currentTestPartNode, timestamp);
+        final TestPlanNode nextItemRefNode = enterNextEnterableItemOrEndTestPart(currentTestPartNode, timestamp);
+        recordOperation(TestSessionOperationType.ADVANCE_ITEM_LINEAR, timestamp);
+        return nextItemRefNode;
     }
 
     /**
@@ -1067,7 +1134,7 @@ public final class TestSessionController extends TestProcessingController {
 
                     /* End current testPart */
                     testSessionState.setCurrentItemKey(null);
-                    endCurrentTestPart(timestamp);
+                    endCurrentTestPartIfPermitted(timestamp);
 
                     /* If we're actually doing EXIT_TEST on a multi-part test, then also exit current testPart, jump remaining testParts and end the test itself */
                     if (BranchRule.EXIT_TEST.equals(branchTargetIdentifier) && testSessionState.getTestPlan().getTestPartNodes().size() > 1) {
@@ -1143,7 +1210,7 @@ public final class TestSessionController extends TestProcessingController {
         else {
             /* No (more) items available, so end testPart */
             testSessionState.setCurrentItemKey(null);
-            endCurrentTestPart(timestamp);
+            endCurrentTestPartIfPermitted(timestamp);
             logger.debug("Linear navigation has reached end of testPart");
         }
         return nextItemRefNode;
@@ -1423,7 +1490,7 @@ public final class TestSessionController extends TestProcessingController {
 
         /* Touch durations on item, ancestor sections, test part and test */
         final TestPlanNode currentItemRefNode = expectItemRefNode(currentItemKey);
-        touchDurations(timestamp);
+        touchOpenDurations(timestamp);
 
         /* Bind responses */
         final ItemSessionController itemSessionController = getItemSessionController(currentItemRefNode);
@@ -1443,6 +1510,8 @@ public final class TestSessionController extends TestProcessingController {
             /* Run outcome processing */
             performOutcomeProcessing();
         }
+        recordOperation(new TestSessionOperation(TestSessionOperationType.HANDLE_RESPONSES_TO_CURRENT_ITEM,
+                timestamp, null, null, responseMap));
     }
 
     /**
@@ -1470,6 +1539,8 @@ public final class TestSessionController extends TestProcessingController {
 
         final ItemSessionController itemSessionController = getItemSessionController(currentItemRefNode);
         itemSessionController.setCandidateComment(timestamp, candidateComment);
+        recordOperation(new TestSessionOperation(TestSessionOperationType.SET_CANDIDATE_COMMENT_FOR_CURRENT_ITEM,
+                timestamp, null, candidateComment, null));
     }
 
     //-------------------------------------------------------------------
@@ -0,0 +1,179 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.running;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records a single operation performed on a {@link TestSessionController}, together with
+ * its arguments, so that it can be performed again later via {@link #replay(TestSessionController)}.
+ * <p>
+ * Replaying the operations recorded by a {@link TestSessionController} on a copy of the
+ * {@link TestSessionState} it started with (using the same random seed and test) will
+ * recreate the resulting {@link TestSessionState}.
+ *
+ * @see TestSessionController#startRecordingOperations()
+ *
+ * @author David McKain
+ */
+public final class TestSessionOperation {
+
+    private final TestSessionOperationType operationType;
+    private final Date timestamp;
+
+    /** Selected item ({@link TestSessionOperationType#SELECT_ITEM_NONLINEAR} only, may be null) */
+    private final TestPlanNodeKey itemKey;
+
+    /** Candidate comment ({@link TestSessionOperationType#SET_CANDIDATE_COMMENT_FOR_CURRENT_ITEM} only, may be null) */
+    private final String candidateComment;
+
+    /** Responses ({@link TestSessionOperationType#HANDLE_RESPONSES_TO_CURRENT_ITEM} only, empty otherwise) */
+    private final Map<Identifier, ResponseData> responseMap;
+
+    public TestSessionOperation(final TestSessionOperationType operationType, final Date timestamp,
+            final TestPlanNodeKey itemKey, final String candidateComment,
+            final Map<Identifier, ResponseData> responseMap) {
+        Assert.notNull(operationType, "operationType");
+        Assert.notNull(timestamp, "timestamp");
+        this.operationType = operationType;
+        this.timestamp = ObjectUtilities.safeClone(timestamp);
+        this.itemKey = itemKey;
+        this.candidateComment = candidateComment;
+        this.responseMap = responseMap!=null
+                ? Collections.unmodifiableMap(new LinkedHashMap<Identifier, ResponseData>(responseMap))
+                : Collections.<Identifier, ResponseData>emptyMap();
+    }
+
+    public TestSessionOperation(final TestSessionOperationType operationType, final Date timestamp) {
+        this(operationType, timestamp, null, null, null);
+    }
+
+    public TestSessionOperationType getOperationType() {
+        return operationType;
+    }
+
+    public Date getTimestamp() {
+        return ObjectUtilities.safeClone(timestamp);
+    }
+
+    public TestPlanNodeKey getItemKey() {
+        return itemKey;
+    }
+
+    public String getCandidateComment() {
+        return candidateComment;
+    }
+
+    public Map<Identifier, ResponseData> getResponseMap() {
+        return responseMap;
+    }
+
+    //----------------------------------------------------
+
+    /**
+     * Performs this operation again on the given {@link TestSessionController} by calling the
+     * corresponding method with the recorded arguments.
+     *
+     * @throws IllegalArgumentException if the given {@link TestSessionController} is null
+     * @throws uk.ac.ed.ph.jqtiplus.exception.QtiCandidateStateException if the operation
+     *   is not permitted in the current state, as per the corresponding method
+     */
+    public void replay(final TestSessionController testSessionController) {
+        Assert.notNull(testSessionController, "testSessionController");
+        switch (operationType) {
+            case INITIALIZE:
+                testSessionController.initialize(timestamp);
+                break;
+
+            case ENTER_TEST:
+                testSessionController.enterTest(timestamp);
+                break;
+
+            case TOUCH_DURATIONS:
+                testSessionController.touchDurations(timestamp);
+                break;
+
+            case ENTER_NEXT_AVAILABLE_TEST_PART:
+                testSessionController.enterNextAvailableTestPart(timestamp);
+                break;
+
+            case END_CURRENT_TEST_PART:
+                testSessionController.endCurrentTestPart(timestamp);
+                break;
+
+            case EXIT_TEST:
+                testSessionController.exitTest(timestamp);
+                break;
+
+            case EXIT_TEST_INCOMPLETE:
+                testSessionController.exitTestIncomplete(timestamp);
+                break;
+
+            case SELECT_ITEM_NONLINEAR:
+                testSessionController.selectItemNonlinear(timestamp, itemKey);
+                break;
+
+            case ADVANCE_ITEM_LINEAR:
+                testSessionController.advanceItemLinear(timestamp);
+                break;
+
+            case HANDLE_RESPONSES_TO_CURRENT_ITEM:
+                testSessionController.handleResponsesToCurrentItem(timestamp, responseMap);
+                break;
+
+            case SET_CANDIDATE_COMMENT_FOR_CURRENT_ITEM:
+                testSessionController.setCandidateCommentForCurrentItem(timestamp, candidateComment);
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected switch case " + operationType);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return ObjectUtilities.beanToString(this);
+    }
+}
@@ -0,0 +1,80 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.running;
+
+/**
+ * Enumerates the operations on a {@link TestSessionController} that change the
+ * {@link uk.ac.ed.ph.jqtiplus.state.TestSessionState}, as recorded in a {@link TestSessionOperation}.
+ * Each corresponds to the public method of the same name.
+ *
+ * @see TestSessionController#startRecordingOperations()
+ *
+ * @author David McKain
+ */
+public enum TestSessionOperationType {
+
+    /** {@link TestSessionController#initialize(java.util.Date)} */
+    INITIALIZE,
+
+    /** {@link TestSessionController#enterTest(java.util.Date)} */
+    ENTER_TEST,
+
+    /** {@link TestSessionController#touchDurations(java.util.Date)} */
+    TOUCH_DURATIONS,
+
+    /** {@link TestSessionController#enterNextAvailableTestPart(java.util.Date)} */
+    ENTER_NEXT_AVAILABLE_TEST_PART,
+
+    /** {@link TestSessionController#endCurrentTestPart(java.util.Date)} */
+    END_CURRENT_TEST_PART,
+
+    /** {@link TestSessionController#exitTest(java.util.Date)} */
+    EXIT_TEST,
+
+    /** {@link TestSessionController#exitTestIncomplete(java.util.Date)} */
+    EXIT_TEST_INCOMPLETE,
+
+    /** {@link TestSessionController#selectItemNonlinear(java.util.Date, uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey)} */
+    SELECT_ITEM_NONLINEAR,
+
+    /** {@link TestSessionController#advanceItemLinear(java.util.Date)} */
+    ADVANCE_ITEM_LINEAR,
+
+    /** {@link TestSessionController#handleResponsesToCurrentItem(java.util.Date, java.util.Map)} */
+    HANDLE_RESPONSES_TO_CURRENT_ITEM,
+
+    /** {@link TestSessionController#setCandidateCommentForCurrentItem(java.util.Date, String)} */
+    SET_CANDIDATE_COMMENT_FOR_CURRENT_ITEM,
+
+}
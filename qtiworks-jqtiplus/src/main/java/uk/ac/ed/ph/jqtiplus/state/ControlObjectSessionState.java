@@ -73,6 +73,14 @@ public abstract class ControlObjectSessionState implements Serializable {
      */
     protected Date durationIntervalStartTime;
 
+    /**
+     * Set whenever a value that would be reported in an assessmentResult changes, other than
+     * durations. This is not part of the persisted state, so is not marshalled or compared.
+     *
+     * @see #isResultDirty()
+     */
+    private transient boolean resultDirty;
+
     public void reset() {
         this.entryTime = null;
         this.endTime = null;
@@ -131,6 +139,41 @@ public abstract class ControlObjectSessionState implements Serializable {
 
     //----------------------------------------------------------------
 
+    /**
+     * Returns whether any value that would be reported in an assessmentResult has changed
+     * since this state was created or since {@link #clearResultDirty()} was last called.
+     * <p>
+     * Changes to durations alone do NOT make the state dirty, so callers wanting up to date
+     * durations should refresh results periodically themselves.
+     */
+    @ObjectDumperOptions(DumpMode.IGNORE)
+    public boolean isResultDirty() {
+        return resultDirty;
+    }
+
+    /**
+     * Marks this state as being clean. This is normally called once the state has been
+     * loaded, or once an assessmentResult has been computed from it.
+     */
+    public void clearResultDirty() {
+        this.resultDirty = false;
+    }
+
+    protected final void markResultDirty() {
+        this.resultDirty = true;
+    }
+
+    /**
+     * Helper to mark this state as dirty if the given values differ.
+     */
+    protected final void markResultDirtyIfChanged(final Object oldValue, final Object newValue) {
+        if (!ObjectUtilities.nullSafeEquals(oldValue, newValue)) {
+            this.resultDirty = true;
+        }
+    }
+
+    //----------------------------------------------------------------
+
     @ObjectDumperOptions(DumpMode.IGNORE)
     public final boolean isEntered() {
         return entryTime!=null;
@@ -177,6 +177,7 @@ public final class ItemSessionState extends AbstractPartSessionState implements
         this.suspendTime = null;
         this.candidateComment = null;
         resetBuiltinVariables();
+        markResultDirty();
     }
 
     public void resetBuiltinVariables() {
@@ -205,10 +206,10 @@ public final class ItemSessionState extends AbstractPartSessionState implements
     public void setShuffledInteractionChoiceOrder(final Identifier responseIdentifier, final List<Identifier> shuffleOrders) {
         Assert.notNull(responseIdentifier);
         if (shuffleOrders == null || shuffleOrders.isEmpty()) {
-            shuffledInteractionChoiceOrders.remove(responseIdentifier);
+            markResultDirtyIfChanged(shuffledInteractionChoiceOrders.remove(responseIdentifier), null);
         }
         else {
-            shuffledInteractionChoiceOrders.put(responseIdentifier, shuffleOrders);
+            markResultDirtyIfChanged(shuffledInteractionChoiceOrders.put(responseIdentifier, shuffleOrders), shuffleOrders);
         }
     }
 
@@ -233,6 +234,7 @@ public final class ItemSessionState extends AbstractPartSessionState implements
     }
 
     public void setSessionStatus(final SessionStatus sessionStatus) {
+        markResultDirtyIfChanged(this.sessionStatus, sessionStatus);
         this.sessionStatus = sessionStatus;
     }
 
@@ -309,6 +311,9 @@ public final class ItemSessionState extends AbstractPartSessionState implements
     }
 
     public void setNumAttempts(final int numAttempts) {
+        if (this.numAttempts!=numAttempts) {
+            markResultDirty();
+        }
         this.numAttempts = numAttempts;
     }
 
@@ -330,6 +335,7 @@ public final class ItemSessionState extends AbstractPartSessionState implements
                 && !QtiConstants.COMPLETION_STATUS_INCOMPLETE.equals(completionStatus)) {
             throw new IllegalArgumentException("Value " + completionStatus + " is not an acceptable completionStatus");
         }
+        markResultDirtyIfChanged(this.completionStatus, completionStatus);
         this.completionStatus = completionStatus;
     }
 
@@ -485,7 +491,7 @@ public final class ItemSessionState extends AbstractPartSessionState implements
     public void setTemplateValue(final Identifier identifier, final Value value) {
         Assert.notNull(identifier);
         Assert.notNull(value);
-        templateValues.put(identifier, value);
+        markResultDirtyIfChanged(templateValues.put(identifier, value), value);
     }
 
     public void setTemplateValue(final String identifierString, final Value value) {
@@ -622,7 +628,7 @@ public final class ItemSessionState extends AbstractPartSessionState implements
     public void setResponseValue(final Identifier identifier, final Value value) {
         Assert.notNull(identifier);
         Assert.notNull(value);
-        responseValues.put(identifier, value);
+        markResultDirtyIfChanged(responseValues.put(identifier, value), value);
     }
 
     public void setResponseValue(final ResponseDeclaration responseDeclaration, final Value value) {
@@ -660,7 +666,7 @@ public final class ItemSessionState extends AbstractPartSessionState implements
     public void setOutcomeValue(final Identifier identifier, final Value value) {
         Assert.notNull(identifier);
         Assert.notNull(value);
-        outcomeValues.put(identifier, value);
+        markResultDirtyIfChanged(outcomeValues.put(identifier, value), value);
     }
 
     public void setOutcomeValue(final OutcomeDeclaration outcomeDeclaration, final Value value) {
@@ -120,7 +120,38 @@ public final class TestSessionState extends ControlObjectSessionState implements
         this.initialized = false;
         this.currentTestPartKey = null;
         this.currentItemKey = null;
+        markResultDirty();
+    }
 
+    /**
+     * Returns whether any value that would be reported in an assessmentResult has changed,
+     * either for the test itself or for any of its items.
+     *
+     * @see ControlObjectSessionState#isResultDirty()
+     */
+    @Override
+    @ObjectDumperOptions(DumpMode.IGNORE)
+    public boolean isResultDirty() {
+        if (super.isResultDirty()) {
+            return true;
+        }
+        for (final ItemSessionState itemSessionState : itemSessionStates.values()) {
+            if (itemSessionState.isResultDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks this state and all of its item states as being clean.
+     */
+    @Override
+    public void clearResultDirty() {
+        super.clearResultDirty();
+        for (final ItemSessionState itemSessionState : itemSessionStates.values()) {
+            itemSessionState.clearResultDirty();
+        }
     }
 
     //----------------------------------------------------------------
@@ -205,7 +236,7 @@ public final class TestSessionState extends ControlObjectSessionState implements
     public void setOutcomeValue(final Identifier identifier, final Value value) {
         Assert.notNull(identifier);
         Assert.notNull(value);
-        outcomeValues.put(identifier, value);
+        markResultDirtyIfChanged(outcomeValues.put(identifier, value), value);
     }
 
     public void setOutcomeValue(final OutcomeDeclaration outcomeDeclaration, final Value value) {
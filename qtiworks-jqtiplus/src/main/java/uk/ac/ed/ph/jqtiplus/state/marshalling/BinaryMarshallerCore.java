@@ -0,0 +1,585 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
+import uk.ac.ed.ph.jqtiplus.state.AbstractPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ControlObjectSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.FileValue;
+import uk.ac.ed.ph.jqtiplus.value.FloatValue;
+import uk.ac.ed.ph.jqtiplus.value.IntegerValue;
+import uk.ac.ed.ph.jqtiplus.value.ListValue;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Core for the compact binary marshalling of JQTI+ state Objects. This is an alternative to
+ * the XML marshalling provided by {@link XmlMarshallerCore}, intended for applications that
+ * store state frequently and don't need it to be human readable.
+ * <p>
+ * Each marshalled Object starts with a short header containing {@link #MAGIC_BYTES}, the
+ * {@link #FORMAT_VERSION} and a record type byte. Integers are written as variable length
+ * (LEB128-style) quantities, with signed values zig-zag encoded. Strings and collections
+ * are length-prefixed.
+ * <p>
+ * The integer encoding methods are public so that applications can use the same conventions
+ * for any related data they store alongside marshalled state.
+ *
+ * @author David McKain
+ */
+public final class BinaryMarshallerCore {
+
+    /** Bytes found at the start of all binary marshalled state data */
+    public static final byte[] MAGIC_BYTES = { 'Q', 'W', 'S', 'B' };
+
+    /** Current version of the binary format. Bump this whenever the layout changes */
+    public static final int FORMAT_VERSION = 1;
+
+    static final int ITEM_SESSION_STATE_RECORD = 1;
+    static final int TEST_SESSION_STATE_RECORD = 2;
+    static final int TEST_PLAN_RECORD = 3;
+    static final int TEST_SESSION_STATE_DELTA_RECORD = 4;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Fixed codes for {@link Cardinality}. (We don't use ordinals here as we don't want the
+     * format to change if the enumeration is ever reordered.)
+     */
+    private static final Cardinality[] cardinalityCodes = {
+        Cardinality.SINGLE,
+        Cardinality.MULTIPLE,
+        Cardinality.ORDERED,
+        Cardinality.RECORD
+    };
+
+    /** Fixed codes for {@link BaseType} */
+    private static final BaseType[] baseTypeCodes = {
+        BaseType.IDENTIFIER,
+        BaseType.BOOLEAN,
+        BaseType.INTEGER,
+        BaseType.FLOAT,
+        BaseType.STRING,
+        BaseType.POINT,
+        BaseType.PAIR,
+        BaseType.DIRECTED_PAIR,
+        BaseType.DURATION,
+        BaseType.FILE,
+        BaseType.URI
+    };
+
+    /**
+     * Returns whether the given data starts with the header used for binary marshalled
+     * state, which is useful when reading data that might have been stored in either XML
+     * or binary form.
+     */
+    public static boolean isBinaryState(final byte[] data) {
+        if (data==null || data.length < MAGIC_BYTES.length) {
+            return false;
+        }
+        for (int i=0; i<MAGIC_BYTES.length; i++) {
+            if (data[i]!=MAGIC_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //----------------------------------------------
+    // Marshalling
+
+    static void writeHeader(final DataOutput output, final int recordType) throws IOException {
+        output.write(MAGIC_BYTES);
+        writeUnsignedInt(output, FORMAT_VERSION);
+        output.writeByte(recordType);
+    }
+
+    public static void writeUnsignedInt(final DataOutput output, final int value) throws IOException {
+        if (value < 0) {
+            throw new QtiLogicException("Expected non-negative value but got " + value);
+        }
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            output.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        output.writeByte(remaining);
+    }
+
+    static void writeSignedInt(final DataOutput output, final int value) throws IOException {
+        writeSignedLong(output, value);
+    }
+
+    public static void writeSignedLong(final DataOutput output, final long value) throws IOException {
+        long remaining = (value << 1) ^ (value >> 63);
+        while ((remaining & ~0x7FL) != 0L) {
+            output.writeByte((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        output.writeByte((int) remaining);
+    }
+
+    static void writeBoolean(final DataOutput output, final boolean value) throws IOException {
+        output.writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * Writes a nullable String as its UTF-8 length plus one (with 0 denoting null),
+     * followed by the UTF-8 bytes.
+     */
+    static void writeString(final DataOutput output, final String value) throws IOException {
+        if (value==null) {
+            writeUnsignedInt(output, 0);
+        }
+        else {
+            final byte[] bytes = value.getBytes(UTF8);
+            writeUnsignedInt(output, bytes.length + 1);
+            output.write(bytes);
+        }
+    }
+
+    static void writeDate(final DataOutput output, final Date date) throws IOException {
+        if (date==null) {
+            writeBoolean(output, false);
+        }
+        else {
+            writeBoolean(output, true);
+            writeSignedLong(output, date.getTime());
+        }
+    }
+
+    static void writeIdentifier(final DataOutput output, final Identifier identifier) throws IOException {
+        writeString(output, identifier.toString());
+    }
+
+    static void writeIdentifiers(final DataOutput output, final Collection<Identifier> identifiers) throws IOException {
+        writeUnsignedInt(output, identifiers.size());
+        for (final Identifier identifier : identifiers) {
+            writeIdentifier(output, identifier);
+        }
+    }
+
+    static void writeTestPlanNodeKey(final DataOutput output, final TestPlanNodeKey key) throws IOException {
+        if (key==null) {
+            writeBoolean(output, false);
+        }
+        else {
+            writeBoolean(output, true);
+            writeIdentifier(output, key.getIdentifier());
+            writeUnsignedInt(output, key.getAbstractPartGlobalIndex());
+            writeUnsignedInt(output, key.getInstanceNumber());
+        }
+    }
+
+    static void writeControlObjectSessionState(final DataOutput output, final ControlObjectSessionState controlObjectState) throws IOException {
+        writeDate(output, controlObjectState.getEntryTime());
+        writeDate(output, controlObjectState.getEndTime());
+        writeDate(output, controlObjectState.getExitTime());
+        writeDate(output, controlObjectState.getDurationIntervalStartTime());
+        writeSignedLong(output, controlObjectState.getDurationAccumulated());
+    }
+
+    static void writeAbstractPartSessionState(final DataOutput output, final AbstractPartSessionState abstractPartSessionState) throws IOException {
+        writeControlObjectSessionState(output, abstractPartSessionState);
+        writeBoolean(output, abstractPartSessionState.isPreConditionFailed());
+        writeBoolean(output, abstractPartSessionState.isJumpedByBranchRule());
+        writeString(output, abstractPartSessionState.getBranchRuleTarget());
+    }
+
+    static void writeValues(final DataOutput output, final Map<Identifier, Value> valueMap) throws IOException {
+        writeUnsignedInt(output, valueMap.size());
+        for (final Entry<Identifier, Value> entry : valueMap.entrySet()) {
+            writeIdentifier(output, entry.getKey());
+            writeValue(output, entry.getValue());
+        }
+    }
+
+    static void writeValue(final DataOutput output, final Value value) throws IOException {
+        if (value.isNull()) {
+            /* We use cardinality code 0 to indicate null */
+            writeUnsignedInt(output, 0);
+            return;
+        }
+        final Cardinality cardinality = value.getCardinality();
+        writeUnsignedInt(output, encodeCardinality(cardinality));
+        switch (cardinality) {
+            case SINGLE:
+                final SingleValue singleValue = (SingleValue) value;
+                writeUnsignedInt(output, encodeBaseType(singleValue.getBaseType()));
+                writeSingleValue(output, singleValue);
+                break;
+
+            case MULTIPLE:
+            case ORDERED:
+                final ListValue listValue = (ListValue) value;
+                writeUnsignedInt(output, encodeBaseType(listValue.getBaseType()));
+                writeUnsignedInt(output, listValue.size());
+                for (final SingleValue listItem : listValue) {
+                    writeSingleValue(output, listItem);
+                }
+                break;
+
+            case RECORD:
+                final RecordValue recordValue = (RecordValue) value;
+                writeUnsignedInt(output, recordValue.size());
+                for (final Entry<Identifier, SingleValue> entry : recordValue.entrySet()) {
+                    final SingleValue itemValue = entry.getValue();
+                    writeIdentifier(output, entry.getKey());
+                    writeUnsignedInt(output, encodeBaseType(itemValue.getBaseType()));
+                    writeSingleValue(output, itemValue);
+                }
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected logic branch: " + cardinality);
+        }
+    }
+
+    static void writeSingleValue(final DataOutput output, final SingleValue value) throws IOException {
+        switch (value.getBaseType()) {
+            case BOOLEAN:
+                writeBoolean(output, ((BooleanValue) value).booleanValue());
+                break;
+
+            case INTEGER:
+                writeSignedInt(output, ((IntegerValue) value).intValue());
+                break;
+
+            case FLOAT:
+                output.writeDouble(((FloatValue) value).doubleValue());
+                break;
+
+            case FILE:
+                final FileValue fileValue = (FileValue) value;
+                writeString(output, fileValue.getFile().getAbsolutePath());
+                writeString(output, fileValue.getContentType());
+                writeString(output, fileValue.getFileName());
+                break;
+
+            default:
+                writeString(output, value.toQtiString());
+                break;
+        }
+    }
+
+    private static int encodeCardinality(final Cardinality cardinality) {
+        for (int i=0; i<cardinalityCodes.length; i++) {
+            if (cardinalityCodes[i]==cardinality) {
+                return i + 1;
+            }
+        }
+        throw new QtiLogicException("Unexpected Cardinality " + cardinality);
+    }
+
+    private static int encodeBaseType(final BaseType baseType) {
+        for (int i=0; i<baseTypeCodes.length; i++) {
+            if (baseTypeCodes[i]==baseType) {
+                return i;
+            }
+        }
+        throw new QtiLogicException("Unexpected BaseType " + baseType);
+    }
+
+    //----------------------------------------------
+    // Unmarshalling
+
+    static void expectHeader(final DataInput input, final int expectedRecordType) throws IOException {
+        final byte[] magic = new byte[MAGIC_BYTES.length];
+        input.readFully(magic);
+        if (!isBinaryState(magic)) {
+            throw new BinaryUnmarshallingException("Data does not start with the expected binary state header");
+        }
+        final int version = readUnsignedInt(input);
+        if (version!=FORMAT_VERSION) {
+            throw new BinaryUnmarshallingException("Unsupported binary state format version " + version
+                    + " (expected " + FORMAT_VERSION + ")");
+        }
+        final int recordType = input.readUnsignedByte();
+        if (recordType!=expectedRecordType) {
+            throw new BinaryUnmarshallingException("Expected binary state record type " + expectedRecordType
+                    + " but got " + recordType);
+        }
+    }
+
+    public static int readUnsignedInt(final DataInput input) throws IOException {
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 28) {
+                throw new BinaryUnmarshallingException("Malformed variable length integer");
+            }
+            b = input.readUnsignedByte();
+            if (shift==28 && (b & 0x70) != 0) {
+                /* Only the low 4 bits of a 5th byte fit into an int */
+                throw new BinaryUnmarshallingException("Variable length integer is out of range");
+            }
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        if (result < 0) {
+            throw new BinaryUnmarshallingException("Expected non-negative variable length integer");
+        }
+        return result;
+    }
+
+    static int readSignedInt(final DataInput input) throws IOException {
+        final long result = readSignedLong(input);
+        if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+            throw new BinaryUnmarshallingException("Variable length integer " + result + " is out of range");
+        }
+        return (int) result;
+    }
+
+    public static long readSignedLong(final DataInput input) throws IOException {
+        long raw = 0L;
+        int shift = 0;
+        int b;
+        do {
+            if (shift > 63) {
+                throw new BinaryUnmarshallingException("Malformed variable length long");
+            }
+            b = input.readUnsignedByte();
+            if (shift==63 && (b & 0x7E) != 0) {
+                /* Only the low bit of a 10th byte fits into a long */
+                throw new BinaryUnmarshallingException("Variable length long is out of range");
+            }
+            raw |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (raw >>> 1) ^ -(raw & 1L);
+    }
+
+    static boolean readBoolean(final DataInput input) throws IOException {
+        final int b = input.readUnsignedByte();
+        if (b > 1) {
+            throw new BinaryUnmarshallingException("Bad boolean byte " + b);
+        }
+        return b==1;
+    }
+
+    static String readString(final DataInput input) throws IOException {
+        final int lengthPlusOne = readUnsignedInt(input);
+        if (lengthPlusOne==0) {
+            return null;
+        }
+        final byte[] bytes = new byte[lengthPlusOne - 1];
+        input.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    static String requireString(final DataInput input, final String description) throws IOException {
+        final String result = readString(input);
+        if (result==null) {
+            throw new BinaryUnmarshallingException("Expected non-null String for " + description);
+        }
+        return result;
+    }
+
+    static Date readDate(final DataInput input) throws IOException {
+        return readBoolean(input) ? new Date(readSignedLong(input)) : null;
+    }
+
+    static Identifier readIdentifier(final DataInput input) throws IOException {
+        final String identifierString = requireString(input, "Identifier");
+        try {
+            return Identifier.parseReusing(identifierString);
+        }
+        catch (final QtiParseException e) {
+            throw new BinaryUnmarshallingException("Value " + identifierString + " is not a valid QTI Identifier");
+        }
+    }
+
+    static List<Identifier> readIdentifiers(final DataInput input) throws IOException {
+        final int size = readUnsignedInt(input);
+        final List<Identifier> result = new ArrayList<Identifier>(size);
+        for (int i=0; i<size; i++) {
+            result.add(readIdentifier(input));
+        }
+        return result;
+    }
+
+    static TestPlanNodeKey readTestPlanNodeKey(final DataInput input) throws IOException {
+        if (!readBoolean(input)) {
+            return null;
+        }
+        final Identifier identifier = readIdentifier(input);
+        final int abstractPartGlobalIndex = readUnsignedInt(input);
+        final int instanceNumber = readUnsignedInt(input);
+        if (instanceNumber<=0) {
+            throw new BinaryUnmarshallingException("Expected instance number " + instanceNumber + " to be strictly positive");
+        }
+        return new TestPlanNodeKey(identifier, abstractPartGlobalIndex, instanceNumber);
+    }
+
+    static TestPlanNodeKey requireTestPlanNodeKey(final DataInput input) throws IOException {
+        final TestPlanNodeKey result = readTestPlanNodeKey(input);
+        if (result==null) {
+            throw new BinaryUnmarshallingException("Expected non-null " + TestPlanNodeKey.class.getSimpleName());
+        }
+        return result;
+    }
+
+    static void readControlObjectSessionState(final DataInput input, final ControlObjectSessionState target) throws IOException {
+        target.setEntryTime(readDate(input));
+        target.setEndTime(readDate(input));
+        target.setExitTime(readDate(input));
+        target.setDurationIntervalStartTime(readDate(input));
+        target.setDurationAccumulated(readSignedLong(input));
+    }
+
+    static void readAbstractPartSessionState(final DataInput input, final AbstractPartSessionState target) throws IOException {
+        readControlObjectSessionState(input, target);
+        target.setPreConditionFailed(readBoolean(input));
+        target.setJumpedByBranchRule(readBoolean(input));
+        target.setBranchRuleTarget(readString(input));
+    }
+
+    static Map<Identifier, Value> readValues(final DataInput input) throws IOException {
+        final int size = readUnsignedInt(input);
+        final Map<Identifier, Value> result = new LinkedHashMap<Identifier, Value>(size * 2);
+        for (int i=0; i<size; i++) {
+            final Identifier identifier = readIdentifier(input);
+            result.put(identifier, readValue(input));
+        }
+        return result;
+    }
+
+    static Value readValue(final DataInput input) throws IOException {
+        final int cardinalityCode = readUnsignedInt(input);
+        if (cardinalityCode==0) {
+            return NullValue.INSTANCE;
+        }
+        final Cardinality cardinality = decodeCardinality(cardinalityCode);
+        switch (cardinality) {
+            case SINGLE:
+                return readSingleValue(input, decodeBaseType(readUnsignedInt(input)));
+
+            case MULTIPLE:
+                return MultipleValue.createMultipleValue(readListValues(input));
+
+            case ORDERED:
+                return OrderedValue.createOrderedValue(readListValues(input));
+
+            case RECORD:
+                final int size = readUnsignedInt(input);
+                final Map<Identifier, SingleValue> recordBuilder = new HashMap<Identifier, SingleValue>(size * 2);
+                for (int i=0; i<size; i++) {
+                    final Identifier itemIdentifier = readIdentifier(input);
+                    final BaseType itemBaseType = decodeBaseType(readUnsignedInt(input));
+                    recordBuilder.put(itemIdentifier, readSingleValue(input, itemBaseType));
+                }
+                return RecordValue.createRecordValue(recordBuilder);
+
+            default:
+                throw new QtiLogicException("Unexpected logic branch " + cardinality);
+        }
+    }
+
+    private static List<SingleValue> readListValues(final DataInput input) throws IOException {
+        final BaseType baseType = decodeBaseType(readUnsignedInt(input));
+        final int size = readUnsignedInt(input);
+        final List<SingleValue> result = new ArrayList<SingleValue>(size);
+        for (int i=0; i<size; i++) {
+            result.add(readSingleValue(input, baseType));
+        }
+        return result;
+    }
+
+    static SingleValue readSingleValue(final DataInput input, final BaseType baseType) throws IOException {
+        switch (baseType) {
+            case BOOLEAN:
+                return BooleanValue.valueOf(readBoolean(input));
+
+            case INTEGER:
+                return new IntegerValue(readSignedInt(input));
+
+            case FLOAT:
+                return new FloatValue(input.readDouble());
+
+            case FILE:
+                final String absolutePath = requireString(input, "absolutePath");
+                final String contentType = requireString(input, "contentType");
+                final String fileName = requireString(input, "fileName");
+                return new FileValue(new File(absolutePath), contentType, fileName);
+
+            default:
+                final String singleValueString = requireString(input, "single value");
+                try {
+                    return baseType.parseSingleValue(singleValueString);
+                }
+                catch (final QtiParseException e) {
+                    throw new BinaryUnmarshallingException("Could not parse single value " + singleValueString + " of baseType " + baseType, e);
+                }
+        }
+    }
+
+    private static Cardinality decodeCardinality(final int code) {
+        if (code<1 || code>cardinalityCodes.length) {
+            throw new BinaryUnmarshallingException("Bad cardinality code " + code);
+        }
+        return cardinalityCodes[code - 1];
+    }
+
+    private static BaseType decodeBaseType(final int code) {
+        if (code<0 || code>=baseTypeCodes.length) {
+            throw new BinaryUnmarshallingException("Bad baseType code " + code);
+        }
+        return baseTypeCodes[code];
+    }
+}
@@ -0,0 +1,281 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Marshals an {@link ItemSessionState} to/from the compact binary format described
+ * in {@link BinaryMarshallerCore}.
+ *
+ * @see ItemSessionStateXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class ItemSessionStateBinaryMarshaller {
+
+    private static final int STRING_RESPONSE_DATA = 1;
+    private static final int FILE_RESPONSE_DATA = 2;
+
+    public static byte[] marshal(final ItemSessionState itemSessionState) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            marshal(itemSessionState, outputStream);
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException writing to byte array", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    public static void marshal(final ItemSessionState itemSessionState, final OutputStream outputStream)
+            throws IOException {
+        final DataOutputStream output = new DataOutputStream(outputStream);
+        BinaryMarshallerCore.writeHeader(output, BinaryMarshallerCore.ITEM_SESSION_STATE_RECORD);
+        writeItemSessionState(output, itemSessionState);
+        output.flush();
+    }
+
+    static void writeItemSessionState(final DataOutput output, final ItemSessionState itemSessionState) throws IOException {
+        BinaryMarshallerCore.writeAbstractPartSessionState(output, itemSessionState);
+        BinaryMarshallerCore.writeBoolean(output, itemSessionState.isInitialized());
+        BinaryMarshallerCore.writeBoolean(output, itemSessionState.isResponded());
+        BinaryMarshallerCore.writeDate(output, itemSessionState.getSuspendTime());
+        final SessionStatus sessionStatus = itemSessionState.getSessionStatus();
+        BinaryMarshallerCore.writeString(output, sessionStatus!=null ? sessionStatus.toQtiString() : null);
+
+        /* Implicit variables */
+        BinaryMarshallerCore.writeString(output, itemSessionState.getCompletionStatus());
+        BinaryMarshallerCore.writeSignedInt(output, itemSessionState.getNumAttempts());
+
+        /* Unbound and/or invalid responses */
+        BinaryMarshallerCore.writeIdentifiers(output, itemSessionState.getUnboundResponseIdentifiers());
+        BinaryMarshallerCore.writeIdentifiers(output, itemSessionState.getInvalidResponseIdentifiers());
+
+        /* Shuffled choice orders */
+        final Map<Identifier, List<Identifier>> shuffledInteractionChoiceOrders = itemSessionState.getShuffledInteractionChoiceOrders();
+        BinaryMarshallerCore.writeUnsignedInt(output, shuffledInteractionChoiceOrders.size());
+        for (final Entry<Identifier, List<Identifier>> entry : shuffledInteractionChoiceOrders.entrySet()) {
+            BinaryMarshallerCore.writeIdentifier(output, entry.getKey());
+            BinaryMarshallerCore.writeIdentifiers(output, entry.getValue());
+        }
+
+        /* Raw responses */
+        final Map<Identifier, ResponseData> rawResponseDataMap = itemSessionState.getRawResponseDataMap();
+        BinaryMarshallerCore.writeUnsignedInt(output, rawResponseDataMap.size());
+        for (final Entry<Identifier, ResponseData> entry : rawResponseDataMap.entrySet()) {
+            BinaryMarshallerCore.writeIdentifier(output, entry.getKey());
+            writeResponseData(output, entry.getValue());
+        }
+
+        /* Candidate comment */
+        BinaryMarshallerCore.writeString(output, itemSessionState.getCandidateComment());
+
+        /* Various values */
+        BinaryMarshallerCore.writeValues(output, itemSessionState.getUncommittedResponseValues());
+        BinaryMarshallerCore.writeValues(output, itemSessionState.getTemplateValues());
+        BinaryMarshallerCore.writeValues(output, itemSessionState.getResponseValues());
+        BinaryMarshallerCore.writeValues(output, itemSessionState.getOutcomeValues());
+        BinaryMarshallerCore.writeValues(output, itemSessionState.getOverriddenTemplateDefaultValues());
+        BinaryMarshallerCore.writeValues(output, itemSessionState.getOverriddenResponseDefaultValues());
+        BinaryMarshallerCore.writeValues(output, itemSessionState.getOverriddenOutcomeDefaultValues());
+        BinaryMarshallerCore.writeValues(output, itemSessionState.getOverriddenCorrectResponseValues());
+    }
+
+    /**
+     * Writes the given {@link ResponseData}. The paths of files are written as they are, so may be
+     * relative if the caller wants.
+     */
+    static void writeResponseData(final DataOutput output, final ResponseData responseData) throws IOException {
+        switch (responseData.getType()) {
+            case STRING:
+                final List<String> responseDatumList = ((StringResponseData) responseData).getResponseData();
+                output.writeByte(STRING_RESPONSE_DATA);
+                BinaryMarshallerCore.writeUnsignedInt(output, responseDatumList.size());
+                for (final String responseDatum : responseDatumList) {
+                    BinaryMarshallerCore.writeString(output, responseDatum);
+                }
+                break;
+
+            case FILE:
+                final FileResponseData fileResponseData = (FileResponseData) responseData;
+                output.writeByte(FILE_RESPONSE_DATA);
+                BinaryMarshallerCore.writeString(output, fileResponseData.getContentType());
+                BinaryMarshallerCore.writeString(output, fileResponseData.getFileName());
+                BinaryMarshallerCore.writeString(output, fileResponseData.getFile().getPath());
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected switch case " + responseData.getType());
+        }
+    }
+
+    //----------------------------------------------
+
+    public static ItemSessionState unmarshal(final byte[] data) {
+        try {
+            return unmarshal(new ByteArrayInputStream(data));
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException reading from byte array", e);
+        }
+    }
+
+    public static ItemSessionState unmarshal(final InputStream inputStream) throws IOException {
+        final DataInputStream input = new DataInputStream(inputStream);
+        try {
+            BinaryMarshallerCore.expectHeader(input, BinaryMarshallerCore.ITEM_SESSION_STATE_RECORD);
+            return readItemSessionState(input);
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    static ItemSessionState readItemSessionState(final DataInput input) throws IOException {
+        final ItemSessionState result = new ItemSessionState();
+        BinaryMarshallerCore.readAbstractPartSessionState(input, result);
+        result.setInitialized(BinaryMarshallerCore.readBoolean(input));
+        result.setResponded(BinaryMarshallerCore.readBoolean(input));
+        result.setSuspendTime(BinaryMarshallerCore.readDate(input));
+        final String sessionStatus = BinaryMarshallerCore.readString(input);
+        if (sessionStatus!=null) {
+            try {
+                result.setSessionStatus(SessionStatus.parseSessionStatus(sessionStatus));
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Unexpected value for sessionStatus: " + sessionStatus);
+            }
+        }
+
+        final String completionStatus = BinaryMarshallerCore.readString(input);
+        if (completionStatus!=null) {
+            try {
+                result.setCompletionStatus(completionStatus);
+            }
+            catch (final IllegalArgumentException e) {
+                throw new BinaryUnmarshallingException("Unexpected value for completionStatus: " + completionStatus);
+            }
+        }
+        result.setNumAttempts(BinaryMarshallerCore.readSignedInt(input));
+
+        result.setUnboundResponseIdentifiers(BinaryMarshallerCore.readIdentifiers(input));
+        result.setInvalidResponseIdentifiers(BinaryMarshallerCore.readIdentifiers(input));
+
+        final int shuffledOrderCount = BinaryMarshallerCore.readUnsignedInt(input);
+        for (int i=0; i<shuffledOrderCount; i++) {
+            final Identifier responseIdentifier = BinaryMarshallerCore.readIdentifier(input);
+            result.setShuffledInteractionChoiceOrder(responseIdentifier, BinaryMarshallerCore.readIdentifiers(input));
+        }
+
+        final int rawResponseCount = BinaryMarshallerCore.readUnsignedInt(input);
+        for (int i=0; i<rawResponseCount; i++) {
+            final Identifier identifier = BinaryMarshallerCore.readIdentifier(input);
+            result.setRawResponseData(identifier, readResponseData(input));
+        }
+
+        result.setCandidateComment(BinaryMarshallerCore.readString(input));
+
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setUncommittedResponseValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setTemplateValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setResponseValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setOutcomeValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setOverriddenTemplateDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setOverriddenResponseDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setOverriddenOutcomeDefaultValue(entry.getKey(), entry.getValue());
+        }
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setOverriddenCorrectResponseValue(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    static ResponseData readResponseData(final DataInput input) throws IOException {
+        final int responseDataType = input.readUnsignedByte();
+        switch (responseDataType) {
+            case STRING_RESPONSE_DATA:
+                final int size = BinaryMarshallerCore.readUnsignedInt(input);
+                final List<String> stringResponseBuilder = new ArrayList<String>(size);
+                for (int i=0; i<size; i++) {
+                    stringResponseBuilder.add(BinaryMarshallerCore.readString(input));
+                }
+                return new StringResponseData(stringResponseBuilder);
+
+            case FILE_RESPONSE_DATA:
+                final String contentType = BinaryMarshallerCore.requireString(input, "contentType");
+                final String fileName = BinaryMarshallerCore.requireString(input, "fileName");
+                final String filePath = BinaryMarshallerCore.requireString(input, "filePath");
+                return new FileResponseData(new File(filePath), contentType, fileName);
+
+            default:
+                throw new BinaryUnmarshallingException("Unexpected response data type " + responseDataType);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.StringUtilities;
+import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.SaxMarshallerCore.StateXmlReader;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Marshals an {@link ItemSessionState} to XML as a stream of SAX events, without building
+ * a DOM. The resulting XML is the same as that produced by {@link ItemSessionStateXmlMarshaller}.
+ *
+ * @see ItemSessionStateXmlMarshaller
+ * @see ItemSessionStateStaxUnmarshaller
+ *
+ * @author David McKain
+ */
+public final class ItemSessionStateSaxMarshaller {
+
+    /**
+     * Marshals the given {@link ItemSessionState} as a complete XML document, sending the resulting
+     * SAX events to the given {@link ContentHandler}.
+     */
+    public static void marshal(final ItemSessionState itemSessionState, final ContentHandler handler)
+            throws SAXException {
+        SaxMarshallerCore.startDocument(handler);
+        appendItemSessionState(handler, itemSessionState);
+        SaxMarshallerCore.endDocument(handler);
+    }
+
+    /**
+     * Serializes the given {@link ItemSessionState} to the given {@link OutputStream}
+     * without indentation. The stream is not closed afterwards.
+     */
+    public static void marshal(final ItemSessionState itemSessionState, final OutputStream outputStream) {
+        marshal(itemSessionState, outputStream, false);
+    }
+
+    /**
+     * Serializes the given {@link ItemSessionState} to the given {@link OutputStream}.
+     * The stream is not closed afterwards.
+     */
+    public static void marshal(final ItemSessionState itemSessionState, final OutputStream outputStream,
+            final boolean indenting) {
+        SaxMarshallerCore.serialize(createStateXmlReader(itemSessionState), outputStream, indenting);
+    }
+
+    /**
+     * Creates a {@link SAXSource} that will generate the XML for the given {@link ItemSessionState}
+     * when parsed. This is useful for passing state into XSLT without building a DOM.
+     * The resulting {@link SAXSource} should only be used once.
+     */
+    public static SAXSource createSaxSource(final ItemSessionState itemSessionState) {
+        return createStateXmlReader(itemSessionState).createSaxSource();
+    }
+
+    private static StateXmlReader createStateXmlReader(final ItemSessionState itemSessionState) {
+        Assert.notNull(itemSessionState, "itemSessionState");
+        return new StateXmlReader() {
+            @Override
+            void marshal(final ContentHandler handler) throws SAXException {
+                ItemSessionStateSaxMarshaller.marshal(itemSessionState, handler);
+            }
+        };
+    }
+
+    //----------------------------------------------
+
+    static void appendItemSessionState(final ContentHandler handler, final ItemSessionState itemSessionState)
+            throws SAXException {
+        final AttributesImpl attributes = new AttributesImpl();
+        SaxMarshallerCore.addAbstractPartSessionStateAttributes(attributes, itemSessionState);
+        SaxMarshallerCore.addAttribute(attributes, "initialized", StringUtilities.toTrueFalse(itemSessionState.isInitialized()));
+        SaxMarshallerCore.addAttribute(attributes, "responded", StringUtilities.toTrueFalse(itemSessionState.isResponded()));
+        SaxMarshallerCore.maybeAddDateAttribute(attributes, "suspendTime", itemSessionState.getSuspendTime());
+        final SessionStatus sessionStatus = itemSessionState.getSessionStatus();
+        if (sessionStatus!=null) {
+            SaxMarshallerCore.addAttribute(attributes, "sessionStatus", sessionStatus.toQtiString());
+        }
+
+        /* Add implicit variables */
+        SaxMarshallerCore.maybeAddStringAttribute(attributes, "completionStatus", itemSessionState.getCompletionStatus());
+        SaxMarshallerCore.addAttribute(attributes, "numAttempts", Integer.toString(itemSessionState.getNumAttempts()));
+
+        /* Show any unbound and/or invalid responses (as attribute) */
+        SaxMarshallerCore.maybeAddIdentifierListAttribute(attributes, "unboundResponseIdentifiers", itemSessionState.getUnboundResponseIdentifiers());
+        SaxMarshallerCore.maybeAddIdentifierListAttribute(attributes, "invalidResponseIdentifiers", itemSessionState.getInvalidResponseIdentifiers());
+        SaxMarshallerCore.startElement(handler, "itemSessionState", attributes);
+
+        /* Output shuffled choice orders */
+        for (final Entry<Identifier, List<Identifier>> entry : itemSessionState.getShuffledInteractionChoiceOrders().entrySet()) {
+            final AttributesImpl orderAttributes = new AttributesImpl();
+            SaxMarshallerCore.addAttribute(orderAttributes, "responseIdentifier", entry.getKey().toString());
+            SaxMarshallerCore.addAttribute(orderAttributes, "choiceSequence", StringUtilities.join(entry.getValue(), " "));
+            SaxMarshallerCore.appendEmptyElement(handler, "shuffledInteractionChoiceOrder", orderAttributes);
+        }
+
+        /* Output raw responses (as elements) */
+        for (final Entry<Identifier, ResponseData> entry : itemSessionState.getRawResponseDataMap().entrySet()) {
+            final AttributesImpl responseInputAttributes = new AttributesImpl();
+            SaxMarshallerCore.addAttribute(responseInputAttributes, "identifier", entry.getKey().toString());
+            SaxMarshallerCore.startElement(handler, "responseInput", responseInputAttributes);
+            appendResponseData(handler, entry.getValue());
+            SaxMarshallerCore.endElement(handler, "responseInput");
+        }
+
+        /* Output candidate comment */
+        SaxMarshallerCore.maybeAppendTextElement(handler, "candidateComment", itemSessionState.getCandidateComment());
+
+        /* Do various values */
+        SaxMarshallerCore.appendValues(handler, "uncommittedResponseValue", itemSessionState.getUncommittedResponseValues());
+        SaxMarshallerCore.appendValues(handler, "templateVariable", itemSessionState.getTemplateValues());
+        SaxMarshallerCore.appendValues(handler, "responseVariable", itemSessionState.getResponseValues());
+        SaxMarshallerCore.appendValues(handler, "outcomeVariable", itemSessionState.getOutcomeValues());
+        SaxMarshallerCore.appendValues(handler, "overriddenTemplateDefault", itemSessionState.getOverriddenTemplateDefaultValues());
+        SaxMarshallerCore.appendValues(handler, "overriddenResponseDefault", itemSessionState.getOverriddenResponseDefaultValues());
+        SaxMarshallerCore.appendValues(handler, "overriddenOutcomeDefault", itemSessionState.getOverriddenOutcomeDefaultValues());
+        SaxMarshallerCore.appendValues(handler, "overriddenCorrectResponse", itemSessionState.getOverriddenCorrectResponseValues());
+
+        SaxMarshallerCore.endElement(handler, "itemSessionState");
+    }
+
+    private static void appendResponseData(final ContentHandler handler, final ResponseData responseData)
+            throws SAXException {
+        switch (responseData.getType()) {
+            case STRING:
+                final StringResponseData stringResponseData = (StringResponseData) responseData;
+                for (final String responseDatum : stringResponseData.getResponseData()) {
+                    SaxMarshallerCore.maybeAppendTextElement(handler, "string", responseDatum);
+                }
+                break;
+
+            case FILE:
+                final FileResponseData fileResponseData = (FileResponseData) responseData;
+                final AttributesImpl fileAttributes = new AttributesImpl();
+                SaxMarshallerCore.addAttribute(fileAttributes, "contentType", fileResponseData.getContentType());
+                SaxMarshallerCore.addAttribute(fileAttributes, "fileName", fileResponseData.getFileName());
+                SaxMarshallerCore.addAttribute(fileAttributes, "absoluteFilePath", fileResponseData.getFile().getAbsolutePath());
+                SaxMarshallerCore.appendEmptyElement(handler, "file", fileAttributes);
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected switch case " + responseData.getType());
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Unmarshals an {@link ItemSessionState} from the XML produced by {@link ItemSessionStateXmlMarshaller}
+ * using StAX, without building a DOM.
+ *
+ * @see ItemSessionStateXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class ItemSessionStateStaxUnmarshaller {
+
+    public static ItemSessionState unmarshal(final String xmlString) {
+        XMLStreamReader reader = null;
+        try {
+            reader = StaxUnmarshallerCore.createXmlStreamReader(new StringReader(xmlString));
+            return unmarshal(reader);
+        }
+        catch (final XMLStreamException e) {
+            throw new XmlUnmarshallingException("XML parsing failed", e);
+        }
+        finally {
+            if (reader!=null) {
+                StaxUnmarshallerCore.closeQuietly(reader);
+            }
+        }
+    }
+
+    public static ItemSessionState unmarshal(final InputStream inputStream) {
+        XMLStreamReader reader = null;
+        try {
+            reader = StaxUnmarshallerCore.createXmlStreamReader(inputStream);
+            return unmarshal(reader);
+        }
+        catch (final XMLStreamException e) {
+            throw new XmlUnmarshallingException("XML parsing failed", e);
+        }
+        finally {
+            if (reader!=null) {
+                StaxUnmarshallerCore.closeQuietly(reader);
+            }
+        }
+    }
+
+    /**
+     * Unmarshals an {@link ItemSessionState} from the given {@link XMLStreamReader}, which should
+     * either be positioned at the start of the document or at the <code>itemSessionState</code>
+     * element. The reader is left positioned at the end of this element.
+     */
+    public static ItemSessionState unmarshal(final XMLStreamReader reader) throws XMLStreamException {
+        StaxUnmarshallerCore.moveToThisElement(reader, "itemSessionState");
+        return readItemSessionState(reader);
+    }
+
+    static ItemSessionState readItemSessionState(final XMLStreamReader reader) throws XMLStreamException {
+        final ItemSessionState result = new ItemSessionState();
+
+        StaxUnmarshallerCore.parseAbstractPartSessionStateAttributes(result, reader);
+        result.setInitialized(StaxUnmarshallerCore.parseOptionalBooleanAttribute(reader, "initialized", false));
+        result.setResponded(StaxUnmarshallerCore.parseOptionalBooleanAttribute(reader, "responded", false));
+        result.setSuspendTime(StaxUnmarshallerCore.parseOptionalDateAttribute(reader, "suspendTime"));
+        result.setUnboundResponseIdentifiers(StaxUnmarshallerCore.parseOptionalIdentifierAttributeList(reader, "unboundResponseIdentifiers"));
+        result.setInvalidResponseIdentifiers(StaxUnmarshallerCore.parseOptionalIdentifierAttributeList(reader, "invalidResponseIdentifiers"));
+        result.setNumAttempts(StaxUnmarshallerCore.parseOptionalIntegerAttribute(reader, "numAttempts", 0));
+
+        final String completionStatus = StaxUnmarshallerCore.parseOptionalStringAttribute(reader, "completionStatus");
+        if (completionStatus!=null) {
+            try {
+                result.setCompletionStatus(completionStatus);
+            }
+            catch (final IllegalArgumentException e) {
+                throw new XmlUnmarshallingException("Unexpected value for completionStatus: " + completionStatus);
+            }
+        }
+
+        final String sessionStatusAttr = StaxUnmarshallerCore.parseOptionalStringAttribute(reader, "sessionStatus");
+        if (sessionStatusAttr!=null) {
+            try {
+                result.setSessionStatus(SessionStatus.parseSessionStatus(sessionStatusAttr));
+            }
+            catch (final IllegalArgumentException e) {
+                throw new XmlUnmarshallingException("Unexpected value for sessionStatus: " + sessionStatusAttr);
+            }
+        }
+
+        while (StaxUnmarshallerCore.nextChildElement(reader)) {
+            final String elementName = reader.getLocalName();
+            if (elementName.equals("responseInput")) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                readResponseInput(reader, result, identifier);
+            }
+            else if (elementName.equals("candidateComment")) {
+                result.setCandidateComment(StaxUnmarshallerCore.expectTextContent(reader));
+            }
+            else if (elementName.equals("shuffledInteractionChoiceOrder")) {
+                final Identifier responseIdentifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "responseIdentifier");
+                final List<Identifier> choiceIdentifiers = StaxUnmarshallerCore.parseOptionalIdentifierAttributeList(reader, "choiceSequence");
+                StaxUnmarshallerCore.expectNoChildElements(reader);
+                result.setShuffledInteractionChoiceOrder(responseIdentifier, choiceIdentifiers);
+            }
+            else if (elementName.equals("uncommittedResponseValue")) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                final Value value = StaxUnmarshallerCore.parseValue(reader);
+                result.setUncommittedResponseValue(identifier, value);
+            }
+            else if (elementName.equals("templateVariable")) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                final Value value = StaxUnmarshallerCore.parseValue(reader);
+                result.setTemplateValue(identifier, value);
+            }
+            else if (elementName.equals("responseVariable")) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                final Value value = StaxUnmarshallerCore.parseValue(reader);
+                result.setResponseValue(identifier, value);
+            }
+            else if (elementName.equals("outcomeVariable")) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                final Value value = StaxUnmarshallerCore.parseValue(reader);
+                result.setOutcomeValue(identifier, value);
+            }
+            else if (elementName.equals("overriddenTemplateDefault")) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                final Value value = StaxUnmarshallerCore.parseValue(reader);
+                result.setOverriddenTemplateDefaultValue(identifier, value);
+            }
+            else if (elementName.equals("overriddenResponseDefault")) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                final Value value = StaxUnmarshallerCore.parseValue(reader);
+                result.setOverriddenResponseDefaultValue(identifier, value);
+            }
+            else if (elementName.equals("overriddenOutcomeDefault")) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                final Value value = StaxUnmarshallerCore.parseValue(reader);
+                result.setOverriddenOutcomeDefaultValue(identifier, value);
+            }
+            else if (elementName.equals("overriddenCorrectResponse")) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                final Value value = StaxUnmarshallerCore.parseValue(reader);
+                result.setOverriddenCorrectResponseValue(identifier, value);
+            }
+            else {
+                throw new XmlUnmarshallingException("Unexpected element " + elementName);
+            }
+        }
+        return result;
+    }
+
+    private static void readResponseInput(final XMLStreamReader reader, final ItemSessionState target,
+            final Identifier identifier) throws XMLStreamException {
+        /* Should contain either 1 <file> or 1 or more <string> */
+        final List<String> stringResponseBuilder = new ArrayList<String>();
+        FileResponseData fileResponseData = null;
+        while (StaxUnmarshallerCore.nextChildElement(reader)) {
+            final String elementName = reader.getLocalName();
+            if ("file".equals(elementName) && fileResponseData==null && stringResponseBuilder.isEmpty()) {
+                final String contentType = StaxUnmarshallerCore.requireAttribute(reader, "contentType");
+                final String fileName = StaxUnmarshallerCore.requireAttribute(reader, "fileName");
+                final String absoluteFilePath = StaxUnmarshallerCore.requireAttribute(reader, "absoluteFilePath");
+                StaxUnmarshallerCore.expectNoChildElements(reader);
+                fileResponseData = new FileResponseData(new File(absoluteFilePath), contentType, fileName);
+            }
+            else if ("string".equals(elementName) && fileResponseData==null) {
+                stringResponseBuilder.add(StaxUnmarshallerCore.expectTextContent(reader));
+            }
+            else {
+                throw new XmlUnmarshallingException("Expected 1 <file> or multiple <string> children");
+            }
+        }
+        if (fileResponseData!=null) {
+            target.setRawResponseData(identifier, fileResponseData);
+        }
+        else {
+            target.setRawResponseData(identifier, new StringResponseData(stringResponseBuilder));
+        }
+    }
+}
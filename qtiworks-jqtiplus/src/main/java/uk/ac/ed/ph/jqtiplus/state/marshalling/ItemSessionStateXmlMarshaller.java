@@ -51,8 +51,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 
-import javax.xml.parsers.DocumentBuilder;
-
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -66,8 +64,7 @@ import org.xml.sax.InputSource;
 public final class ItemSessionStateXmlMarshaller {
 
     public static Document marshal(final ItemSessionState itemSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
+        final Document document = XmlMarshallerCore.createNsAwareDocument();
         appendItemSessionState(document, itemSessionState);
         return document;
     }
@@ -148,10 +145,9 @@ public final class ItemSessionStateXmlMarshaller {
     //----------------------------------------------
 
     public static ItemSessionState unmarshal(final String xmlString) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
         Document document;
         try {
-            document = documentBuilder.parse(new InputSource(new StringReader(xmlString)));
+            document = XmlMarshallerCore.parseNsAwareDocument(new InputSource(new StringReader(xmlString)));
         }
         catch (final Exception e) {
             throw new XmlUnmarshallingException("XML parsing failed", e);
@@ -283,7 +279,7 @@ public final class ItemSessionStateXmlMarshaller {
         final List<Identifier> result = new ArrayList<Identifier>(identifierArray.length);
         for (final String identifierString : identifierArray) {
             try {
-                result.add(Identifier.parseString(identifierString));
+                result.add(Identifier.parseReusing(identifierString));
             }
             catch (final QtiParseException e) {
                 throw new XmlUnmarshallingException("Item '"
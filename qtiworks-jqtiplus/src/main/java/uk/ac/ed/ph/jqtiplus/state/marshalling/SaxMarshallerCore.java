@@ -0,0 +1,383 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.util.StringUtilities;
+import uk.ac.ed.ph.jqtiplus.state.AbstractPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ControlObjectSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.FileValue;
+import uk.ac.ed.ph.jqtiplus.value.ListValue;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
+
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Core for the streaming (SAX) marshalling of JQTI+ state Objects, which generates the same
+ * XML as {@link XmlMarshallerCore} without building an intermediate DOM.
+ * <p>
+ * The resulting SAX events may be serialized directly (e.g. to a file), or fed into an XSLT
+ * pipeline via a {@link SAXSource}.
+ *
+ * @see XmlMarshallerCore
+ *
+ * @author David McKain
+ */
+final class SaxMarshallerCore {
+
+    private static final String CDATA_TYPE = "CDATA";
+
+    //----------------------------------------------
+    // Document handling
+
+    static void startDocument(final ContentHandler handler) throws SAXException {
+        handler.startDocument();
+        handler.startPrefixMapping("", XmlMarshallerCore.QTIWORKS_NAMESPACE);
+    }
+
+    static void endDocument(final ContentHandler handler) throws SAXException {
+        handler.endPrefixMapping("");
+        handler.endDocument();
+    }
+
+    /**
+     * Serializes the XML generated by the given {@link StateXmlReader} to the given
+     * {@link OutputStream}, which is not closed afterwards.
+     */
+    static void serialize(final StateXmlReader stateXmlReader, final OutputStream outputStream, final boolean indenting) {
+        final XsltSerializationOptions xsltSerializationOptions = new XsltSerializationOptions();
+        xsltSerializationOptions.setIndenting(indenting);
+        xsltSerializationOptions.setIncludingXMLDeclaration(false);
+        final TransformerHandler serializerHandler = XsltStylesheetManager.createSerializerHandler(xsltSerializationOptions);
+        serializerHandler.setResult(new StreamResult(outputStream));
+        try {
+            stateXmlReader.marshal(serializerHandler);
+        }
+        catch (final SAXException e) {
+            throw new QtiLogicException("Unexpected Exception serializing state XML", e);
+        }
+    }
+
+    //----------------------------------------------
+    // Elements
+
+    static void startElement(final ContentHandler handler, final String localName, final AttributesImpl attributes)
+            throws SAXException {
+        handler.startElement(XmlMarshallerCore.QTIWORKS_NAMESPACE, localName, localName, attributes);
+    }
+
+    static void startElement(final ContentHandler handler, final String localName)
+            throws SAXException {
+        startElement(handler, localName, new AttributesImpl());
+    }
+
+    static void endElement(final ContentHandler handler, final String localName) throws SAXException {
+        handler.endElement(XmlMarshallerCore.QTIWORKS_NAMESPACE, localName, localName);
+    }
+
+    static void appendTextElement(final ContentHandler handler, final String localName, final AttributesImpl attributes,
+            final String content) throws SAXException {
+        startElement(handler, localName, attributes);
+        final char[] chars = content.toCharArray();
+        handler.characters(chars, 0, chars.length);
+        endElement(handler, localName);
+    }
+
+    static void maybeAppendTextElement(final ContentHandler handler, final String localName, final String content)
+            throws SAXException {
+        if (content!=null) {
+            appendTextElement(handler, localName, new AttributesImpl(), content);
+        }
+    }
+
+    static void appendEmptyElement(final ContentHandler handler, final String localName, final AttributesImpl attributes)
+            throws SAXException {
+        startElement(handler, localName, attributes);
+        endElement(handler, localName);
+    }
+
+    //----------------------------------------------
+    // Attributes
+
+    static void addAttribute(final AttributesImpl attributes, final String attributeName, final String value) {
+        attributes.addAttribute("", attributeName, attributeName, CDATA_TYPE, value);
+    }
+
+    static void maybeAddStringAttribute(final AttributesImpl attributes, final String attributeName, final String value) {
+        if (value!=null) {
+            addAttribute(attributes, attributeName, value);
+        }
+    }
+
+    static void maybeAddStringifiableAttribute(final AttributesImpl attributes, final String attributeName, final Object value) {
+        if (value!=null) {
+            addAttribute(attributes, attributeName, value.toString());
+        }
+    }
+
+    static void maybeAddIdentifierListAttribute(final AttributesImpl attributes, final String attributeName, final Collection<Identifier> values) {
+        if (!values.isEmpty()) {
+            addAttribute(attributes, attributeName, StringUtilities.join(values, " "));
+        }
+    }
+
+    static void maybeAddDateAttribute(final AttributesImpl attributes, final String attributeName, final Date date) {
+        if (date!=null) {
+            addAttribute(attributes, attributeName, XmlMarshallerCore.formatDate(date));
+        }
+    }
+
+    static void addAbstractPartSessionStateAttributes(final AttributesImpl attributes, final AbstractPartSessionState abstractPartSessionState) {
+        addControlObjectSessionStateAttributes(attributes, abstractPartSessionState);
+        addAttribute(attributes, "preConditionFailed", StringUtilities.toTrueFalse(abstractPartSessionState.isPreConditionFailed()));
+        addAttribute(attributes, "jumpedByBranchRule", StringUtilities.toTrueFalse(abstractPartSessionState.isJumpedByBranchRule()));
+        maybeAddStringAttribute(attributes, "branchRuleTarget", abstractPartSessionState.getBranchRuleTarget());
+    }
+
+    static void addControlObjectSessionStateAttributes(final AttributesImpl attributes, final ControlObjectSessionState controlObjectState) {
+        maybeAddDateAttribute(attributes, "entryTime", controlObjectState.getEntryTime());
+        maybeAddDateAttribute(attributes, "endTime", controlObjectState.getEndTime());
+        maybeAddDateAttribute(attributes, "exitTime", controlObjectState.getExitTime());
+        maybeAddDateAttribute(attributes, "durationIntervalStartTime", controlObjectState.getDurationIntervalStartTime());
+        addAttribute(attributes, "durationAccumulated", Long.toString(controlObjectState.getDurationAccumulated()));
+    }
+
+    //----------------------------------------------
+    // Values
+
+    static void appendValues(final ContentHandler handler, final String elementName, final Map<Identifier, Value> valueMap)
+            throws SAXException {
+        for (final Entry<Identifier, Value> entry : valueMap.entrySet()) {
+            final Identifier identifier = entry.getKey();
+            final Value value = entry.getValue();
+
+            final AttributesImpl attributes = new AttributesImpl();
+            addAttribute(attributes, "identifier", identifier.toString());
+            appendValueElement(handler, elementName, attributes, value);
+        }
+    }
+
+    static void appendValueElement(final ContentHandler handler, final String elementName, final AttributesImpl attributes,
+            final Value value) throws SAXException {
+        if (value.isNull()) {
+            /* Currently we'll indicate null by outputting no value */
+            appendEmptyElement(handler, elementName, attributes);
+            return;
+        }
+        final Cardinality cardinality = value.getCardinality();
+        final BaseType baseType = value.getBaseType(); /* (NB: may be null) */
+        addAttribute(attributes, "cardinality", cardinality.toQtiString());
+        if (baseType!=null) {
+            addAttribute(attributes, "baseType", baseType.toQtiString());
+        }
+        startElement(handler, elementName, attributes);
+        switch (cardinality) {
+            case SINGLE:
+                appendSingleValue(handler, (SingleValue) value);
+                break;
+
+            case MULTIPLE:
+            case ORDERED:
+                final ListValue listValue = (ListValue) value;
+                for (final SingleValue listItem : listValue) {
+                    appendSingleValue(handler, listItem);
+                }
+                break;
+
+            case RECORD:
+                final RecordValue recordValue = (RecordValue) value;
+                for (final Entry<Identifier, SingleValue> entry : recordValue.entrySet()) {
+                    final Identifier itemIdentifier = entry.getKey();
+                    final SingleValue itemValue = entry.getValue();
+                    final AttributesImpl fieldAttributes = new AttributesImpl();
+                    addAttribute(fieldAttributes, "baseType", itemValue.getBaseType().toQtiString());
+                    addAttribute(fieldAttributes, "fieldIdentifier", itemIdentifier.toString());
+                    startElement(handler, "value", fieldAttributes);
+                    appendSingleValue(handler, itemValue);
+                    endElement(handler, "value");
+                }
+                break;
+
+            default:
+                throw new QtiLogicException("Unexpected logic branch: " + cardinality);
+        }
+        endElement(handler, elementName);
+    }
+
+    static void appendSingleValue(final ContentHandler handler, final SingleValue value) throws SAXException {
+        final AttributesImpl attributes = new AttributesImpl();
+        if (value instanceof FileValue) {
+            final FileValue fileValue = (FileValue) value;
+            addAttribute(attributes, "absolutePath", fileValue.getFile().getAbsolutePath());
+            addAttribute(attributes, "contentType", fileValue.getContentType());
+            addAttribute(attributes, "fileName", fileValue.getFileName());
+            appendEmptyElement(handler, "value", attributes);
+        }
+        else {
+            appendTextElement(handler, "value", attributes, value.toQtiString());
+        }
+    }
+
+    //----------------------------------------------
+
+    /**
+     * Trivial {@link XMLReader} that "parses" by marshalling a state Object as SAX events to
+     * the registered {@link ContentHandler}. This allows state to be passed to JAXP APIs
+     * (e.g. as XSLT parameters) via a {@link SAXSource}.
+     */
+    abstract static class StateXmlReader implements XMLReader {
+
+        private final Map<String, Boolean> features;
+        private ContentHandler contentHandler;
+        private DTDHandler dtdHandler;
+        private EntityResolver entityResolver;
+        private ErrorHandler errorHandler;
+
+        StateXmlReader() {
+            this.features = new HashMap<String, Boolean>();
+            features.put("http://xml.org/sax/features/namespaces", Boolean.TRUE);
+            features.put("http://xml.org/sax/features/namespace-prefixes", Boolean.FALSE);
+        }
+
+        /** Generates a complete XML document for the underlying state Object */
+        abstract void marshal(ContentHandler handler) throws SAXException;
+
+        SAXSource createSaxSource() {
+            return new SAXSource(this, new InputSource());
+        }
+
+        @Override
+        public void parse(final InputSource input) throws SAXException {
+            if (contentHandler==null) {
+                throw new SAXException("No ContentHandler has been registered");
+            }
+            marshal(contentHandler);
+        }
+
+        @Override
+        public void parse(final String systemId) throws SAXException {
+            parse(new InputSource(systemId));
+        }
+
+        @Override
+        public boolean getFeature(final String name) throws SAXNotRecognizedException {
+            final Boolean value = features.get(name);
+            if (value==null) {
+                throw new SAXNotRecognizedException(name);
+            }
+            return value.booleanValue();
+        }
+
+        @Override
+        public void setFeature(final String name, final boolean value) {
+            features.put(name, Boolean.valueOf(value));
+        }
+
+        @Override
+        public Object getProperty(final String name) throws SAXNotRecognizedException {
+            throw new SAXNotRecognizedException(name);
+        }
+
+        @Override
+        public void setProperty(final String name, final Object value) throws SAXNotRecognizedException {
+            throw new SAXNotRecognizedException(name);
+        }
+
+        @Override
+        public ContentHandler getContentHandler() {
+            return contentHandler;
+        }
+
+        @Override
+        public void setContentHandler(final ContentHandler contentHandler) {
+            this.contentHandler = contentHandler;
+        }
+
+        @Override
+        public DTDHandler getDTDHandler() {
+            return dtdHandler;
+        }
+
+        @Override
+        public void setDTDHandler(final DTDHandler dtdHandler) {
+            this.dtdHandler = dtdHandler;
+        }
+
+        @Override
+        public EntityResolver getEntityResolver() {
+            return entityResolver;
+        }
+
+        @Override
+        public void setEntityResolver(final EntityResolver entityResolver) {
+            this.entityResolver = entityResolver;
+        }
+
+        @Override
+        public ErrorHandler getErrorHandler() {
+            return errorHandler;
+        }
+
+        @Override
+        public void setErrorHandler(final ErrorHandler errorHandler) {
+            this.errorHandler = errorHandler;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
+import uk.ac.ed.ph.jqtiplus.internal.util.StringUtilities;
+import uk.ac.ed.ph.jqtiplus.state.AbstractPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ControlObjectSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.BaseType;
+import uk.ac.ed.ph.jqtiplus.value.Cardinality;
+import uk.ac.ed.ph.jqtiplus.value.FileValue;
+import uk.ac.ed.ph.jqtiplus.value.MultipleValue;
+import uk.ac.ed.ph.jqtiplus.value.NullValue;
+import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
+import uk.ac.ed.ph.jqtiplus.value.RecordValue;
+import uk.ac.ed.ph.jqtiplus.value.SingleValue;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Core for the streaming (StAX) unmarshalling of the XML produced by {@link XmlMarshallerCore}.
+ * This builds the JQTI+ state Objects directly from the incoming XML, without creating
+ * an intermediate DOM.
+ * <p>
+ * The methods here that consume XML expect the {@link XMLStreamReader} to be positioned at
+ * the <code>START_ELEMENT</code> of the element being parsed, and leave it positioned at
+ * the corresponding <code>END_ELEMENT</code>.
+ *
+ * @see XmlMarshallerCore
+ *
+ * @author David McKain
+ */
+final class StaxUnmarshallerCore {
+
+    /** Shared factory. (This is safe to use concurrently once configured) */
+    private static final XMLInputFactory xmlInputFactory = createXmlInputFactory();
+
+    private static XMLInputFactory createXmlInputFactory() {
+        final XMLInputFactory result = XMLInputFactory.newInstance();
+        result.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        result.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        result.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        result.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return result;
+    }
+
+    static XMLStreamReader createXmlStreamReader(final InputStream inputStream) throws XMLStreamException {
+        return xmlInputFactory.createXMLStreamReader(inputStream);
+    }
+
+    static XMLStreamReader createXmlStreamReader(final Reader reader) throws XMLStreamException {
+        return xmlInputFactory.createXMLStreamReader(reader);
+    }
+
+    static void closeQuietly(final XMLStreamReader xmlStreamReader) {
+        try {
+            xmlStreamReader.close();
+        }
+        catch (final XMLStreamException e) {
+            /* (Nothing useful to do here) */
+        }
+    }
+
+    //----------------------------------------------
+    // Navigation
+
+    /**
+     * Moves the given reader to the next <code>START_ELEMENT</code> if it is not already
+     * positioned at one, and checks that it is the QTIWorks element having the given local name.
+     * This is used to handle readers passed in by callers, which may still be positioned at
+     * the start of the document.
+     */
+    static void moveToThisElement(final XMLStreamReader reader, final String localName) throws XMLStreamException {
+        while (reader.getEventType()!=XMLStreamConstants.START_ELEMENT) {
+            if (!reader.hasNext()) {
+                throw new XmlUnmarshallingException("Expected element " + localName + " but reached end of XML");
+            }
+            reader.next();
+        }
+        expectThisElement(reader, localName);
+    }
+
+    static void expectThisElement(final XMLStreamReader reader, final String localName) {
+        if (!(XmlMarshallerCore.QTIWORKS_NAMESPACE.equals(reader.getNamespaceURI())
+                && localName.equals(reader.getLocalName()))) {
+            throw new XmlUnmarshallingException("Expected element " + reader.getLocalName()
+                    + " in namespace " + reader.getNamespaceURI()
+                    + " to be " + localName + " in " + XmlMarshallerCore.QTIWORKS_NAMESPACE);
+        }
+    }
+
+    /**
+     * Advances to the next child element of the current element, skipping ignorable whitespace.
+     *
+     * @return true if positioned at the <code>START_ELEMENT</code> of the next child,
+     *   false if positioned at the <code>END_ELEMENT</code> of the current element.
+     */
+    static boolean nextChildElement(final XMLStreamReader reader) throws XMLStreamException {
+        while (true) {
+            final int eventType = reader.next();
+            switch (eventType) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (!XmlMarshallerCore.QTIWORKS_NAMESPACE.equals(reader.getNamespaceURI())) {
+                        throw new XmlUnmarshallingException("Expected element " + reader.getLocalName()
+                                + " to have namespace URI " + XmlMarshallerCore.QTIWORKS_NAMESPACE);
+                    }
+                    return true;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    return false;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (!reader.getText().trim().isEmpty()) {
+                        throw new XmlUnmarshallingException("Expected only element children but found text content");
+                    }
+                    break;
+
+                case XMLStreamConstants.COMMENT:
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    break;
+
+                default:
+                    throw new XmlUnmarshallingException("Unexpected XML event " + eventType);
+            }
+        }
+    }
+
+    static void expectNoChildElements(final XMLStreamReader reader) throws XMLStreamException {
+        final String localName = reader.getLocalName();
+        if (nextChildElement(reader)) {
+            throw new XmlUnmarshallingException("Unexpected child element " + reader.getLocalName() + " of " + localName);
+        }
+    }
+
+    static void expectValueElement(final XMLStreamReader reader, final String parentLocalName) {
+        if (!"value".equals(reader.getLocalName())) {
+            throw new XmlUnmarshallingException("Expected only <value> children of " + parentLocalName);
+        }
+    }
+
+    static String expectTextContent(final XMLStreamReader reader) throws XMLStreamException {
+        return reader.getElementText();
+    }
+
+    //----------------------------------------------
+    // Attributes
+
+    static String parseOptionalStringAttribute(final XMLStreamReader reader, final String attrName) {
+        return reader.getAttributeValue(null, attrName);
+    }
+
+    static String requireAttribute(final XMLStreamReader reader, final String attrName) {
+        final String attrValue = reader.getAttributeValue(null, attrName);
+        if (attrValue==null) {
+            throw new XmlUnmarshallingException("Attribute " + attrName + " of element " + reader.getLocalName() + " is required");
+        }
+        return attrValue;
+    }
+
+    static boolean parseOptionalBooleanAttribute(final XMLStreamReader reader, final String attrName, final boolean defaultValue) {
+        final String attrValue = reader.getAttributeValue(null, attrName);
+        if (attrValue==null) {
+            return defaultValue;
+        }
+        try {
+            return StringUtilities.fromTrueFalse(attrValue);
+        }
+        catch (final IllegalArgumentException e) {
+            throw new XmlUnmarshallingException("Could not parse boolean attribute value " + attrValue + " for " + attrName);
+        }
+    }
+
+    static int parseOptionalIntegerAttribute(final XMLStreamReader reader, final String attrName, final int defaultValue) {
+        final String attrValue = reader.getAttributeValue(null, attrName);
+        if (attrValue==null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(attrValue);
+        }
+        catch (final NumberFormatException e) {
+            throw new XmlUnmarshallingException("Could not parse integer attribute value " + attrValue + " for " + attrName);
+        }
+    }
+
+    static long parseOptionalLongAttribute(final XMLStreamReader reader, final String attrName, final long defaultValue) {
+        final String attrValue = reader.getAttributeValue(null, attrName);
+        if (attrValue==null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(attrValue);
+        }
+        catch (final NumberFormatException e) {
+            throw new XmlUnmarshallingException("Could not parse long attribute value " + attrValue + " for " + attrName);
+        }
+    }
+
+    static Date parseOptionalDateAttribute(final XMLStreamReader reader, final String attrName) {
+        final String attrValue = reader.getAttributeValue(null, attrName);
+        return attrValue!=null ? XmlMarshallerCore.parseDateAttributeValue(attrValue) : null;
+    }
+
+    static URI parseOptionalUriAttribute(final XMLStreamReader reader, final String attrName) {
+        final String attrValue = reader.getAttributeValue(null, attrName);
+        try {
+            return attrValue!=null ? new URI(attrValue) : null;
+        }
+        catch (final URISyntaxException e) {
+            throw new XmlUnmarshallingException("Could not parse URI attribute", e);
+        }
+    }
+
+    static TestPlanNodeKey requireTestPlanNodeKeyAttribute(final XMLStreamReader reader, final String attrName) {
+        return parseTestPlanNodeKey(requireAttribute(reader, attrName), attrName);
+    }
+
+    static TestPlanNodeKey parseOptionalTestPlanNodeKeyAttribute(final XMLStreamReader reader, final String attrName) {
+        final String attrValue = reader.getAttributeValue(null, attrName);
+        return attrValue!=null ? parseTestPlanNodeKey(attrValue, attrName) : null;
+    }
+
+    private static TestPlanNodeKey parseTestPlanNodeKey(final String stringValue, final String attrName) {
+        try {
+            return TestPlanNodeKey.fromString(stringValue);
+        }
+        catch (final IllegalArgumentException e) {
+            throw new XmlUnmarshallingException("Bad " + TestPlanNodeKey.class.getSimpleName()
+                    + " value '" + stringValue
+                    + "' in attribute " + attrName);
+        }
+    }
+
+    static Identifier parseIdentifierAttribute(final XMLStreamReader reader, final String identifierAttrName) {
+        final String identifierAttrValue = requireAttribute(reader, identifierAttrName);
+        try {
+            return Identifier.parseReusing(identifierAttrValue);
+        }
+        catch (final QtiParseException e) {
+            throw new XmlUnmarshallingException("Value "
+                    + identifierAttrValue + " of attribute "
+                    + identifierAttrName + " is not a valid QTI Identifier");
+        }
+    }
+
+    static List<Identifier> parseOptionalIdentifierAttributeList(final XMLStreamReader reader, final String identifierAttrListName) {
+        final String identifierListAttrValue = reader.getAttributeValue(null, identifierAttrListName);
+        if (identifierListAttrValue==null || identifierListAttrValue.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final String[] identifierArray = identifierListAttrValue.split("\\s+");
+        final List<Identifier> result = new ArrayList<Identifier>(identifierArray.length);
+        for (final String identifierString : identifierArray) {
+            try {
+                result.add(Identifier.parseReusing(identifierString));
+            }
+            catch (final QtiParseException e) {
+                throw new XmlUnmarshallingException("Item '"
+                        + identifierString + "' extracted from value '"
+                        + identifierListAttrValue + "' of list attribute "
+                        + identifierAttrListName + " is not a valid QTI Identifier");
+            }
+        }
+        return result;
+    }
+
+    static void parseAbstractPartSessionStateAttributes(final AbstractPartSessionState target, final XMLStreamReader reader) {
+        parseControlObjectSessionStateAttributes(target, reader);
+        target.setPreConditionFailed(parseOptionalBooleanAttribute(reader, "preConditionFailed", false));
+        target.setJumpedByBranchRule(parseOptionalBooleanAttribute(reader, "jumpedByBranchRule", false));
+        target.setBranchRuleTarget(parseOptionalStringAttribute(reader, "branchRuleTarget"));
+    }
+
+    static void parseControlObjectSessionStateAttributes(final ControlObjectSessionState target, final XMLStreamReader reader) {
+        target.setEntryTime(parseOptionalDateAttribute(reader, "entryTime"));
+        target.setEndTime(parseOptionalDateAttribute(reader, "endTime"));
+        target.setExitTime(parseOptionalDateAttribute(reader, "exitTime"));
+        target.setDurationIntervalStartTime(parseOptionalDateAttribute(reader, "durationIntervalStartTime"));
+        target.setDurationAccumulated(parseOptionalLongAttribute(reader, "durationAccumulated", 0L));
+    }
+
+    //----------------------------------------------
+    // Values
+
+    static Value parseValue(final XMLStreamReader reader) throws XMLStreamException {
+        final String cardinalityString = reader.getAttributeValue(null, "cardinality");
+        if (cardinalityString==null) {
+            /* This would correspond to null, which would also have no children */
+            expectNoChildElements(reader);
+            return NullValue.INSTANCE;
+        }
+        final Cardinality cardinality;
+        try {
+            cardinality = Cardinality.parseCardinality(cardinalityString);
+        }
+        catch (final IllegalArgumentException e) {
+            throw new XmlUnmarshallingException("Bad cardinality attribute " + cardinalityString);
+        }
+        switch (cardinality) {
+            case SINGLE:
+                return parseSingleValue(reader);
+
+            case MULTIPLE:
+                return MultipleValue.createMultipleValue(parseListValues(reader));
+
+            case ORDERED:
+                return OrderedValue.createOrderedValue(parseListValues(reader));
+
+            case RECORD:
+                return parseRecordValue(reader);
+
+            default:
+                throw new QtiLogicException("Unexpected logic branch " + cardinality);
+        }
+    }
+
+    static SingleValue parseSingleValue(final XMLStreamReader reader) throws XMLStreamException {
+        final String localName = reader.getLocalName();
+        final BaseType baseType = parseBaseTypeAttribute(reader);
+        if (!nextChildElement(reader)) {
+            throw new XmlUnmarshallingException("Expected precisely 1 <value> child of " + localName + " but got 0");
+        }
+        expectValueElement(reader, localName);
+        final SingleValue result;
+        if (baseType==BaseType.FILE) {
+            final File file = new File(requireAttribute(reader, "absolutePath"));
+            final String contentType = requireAttribute(reader, "contentType");
+            final String fileName = requireAttribute(reader, "fileName");
+            expectNoChildElements(reader);
+            result = new FileValue(file, contentType, fileName);
+        }
+        else {
+            result = parseSingleValueString(baseType, expectTextContent(reader));
+        }
+        if (nextChildElement(reader)) {
+            throw new XmlUnmarshallingException("Expected precisely 1 <value> child of " + localName + " but got more");
+        }
+        return result;
+    }
+
+    static List<SingleValue> parseListValues(final XMLStreamReader reader) throws XMLStreamException {
+        final String localName = reader.getLocalName();
+        final BaseType baseType = parseBaseTypeAttribute(reader);
+        final List<SingleValue> itemValues = new ArrayList<SingleValue>();
+        while (nextChildElement(reader)) {
+            expectValueElement(reader, localName);
+            itemValues.add(parseSingleValueString(baseType, expectTextContent(reader)));
+        }
+        return itemValues;
+    }
+
+    static Value parseRecordValue(final XMLStreamReader reader) throws XMLStreamException {
+        final String localName = reader.getLocalName();
+        final Map<Identifier, SingleValue> recordBuilder = new HashMap<Identifier, SingleValue>();
+        while (nextChildElement(reader)) {
+            expectValueElement(reader, localName);
+            final Identifier itemIdentifier = parseIdentifierAttribute(reader, "fieldIdentifier");
+            final SingleValue itemValue = parseSingleValue(reader);
+            recordBuilder.put(itemIdentifier, itemValue);
+        }
+        return RecordValue.createRecordValue(recordBuilder);
+    }
+
+    private static SingleValue parseSingleValueString(final BaseType baseType, final String singleValueString) {
+        try {
+            return baseType.parseSingleValue(singleValueString);
+        }
+        catch (final QtiParseException e) {
+            throw new XmlUnmarshallingException("Could not parse single value " + singleValueString + " of baseType " + baseType, e);
+        }
+    }
+
+    private static BaseType parseBaseTypeAttribute(final XMLStreamReader reader) {
+        final String baseTypeString = requireAttribute(reader, "baseType");
+        try {
+            return BaseType.parseBaseType(baseTypeString);
+        }
+        catch (final IllegalArgumentException e) {
+            throw new XmlUnmarshallingException("Bad baseType attribute " + baseTypeString);
+        }
+    }
+}
@@ -37,8 +37,6 @@ import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
 
 import java.io.StringReader;
 
-import javax.xml.parsers.DocumentBuilder;
-
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -52,8 +50,7 @@ import org.xml.sax.InputSource;
 public final class TestPartSessionStateXmlMarshaller {
 
     public static Document marshal(final TestPartSessionState testPartSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
+        final Document document = XmlMarshallerCore.createNsAwareDocument();
         appendTestPartSessionState(document, testPartSessionState);
         return document;
     }
@@ -66,10 +63,9 @@ public final class TestPartSessionStateXmlMarshaller {
     //----------------------------------------------
 
     public static TestPartSessionState unmarshal(final String xmlString) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
         Document document;
         try {
-            document = documentBuilder.parse(new InputSource(new StringReader(xmlString)));
+            document = XmlMarshallerCore.parseNsAwareDocument(new InputSource(new StringReader(xmlString)));
         }
         catch (final Exception e) {
             throw new XmlUnmarshallingException("XML parsing failed", e);
@@ -0,0 +1,218 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+
+/**
+ * Marshals a {@link TestPlan} to/from the compact binary format described
+ * in {@link BinaryMarshallerCore}.
+ *
+ * @see TestPlanXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class TestPlanBinaryMarshaller {
+
+    /** Fixed codes for {@link TestNodeType}, excluding {@link TestNodeType#ROOT} */
+    private static final TestNodeType[] testNodeTypeCodes = {
+        TestNodeType.TEST_PART,
+        TestNodeType.ASSESSMENT_SECTION,
+        TestNodeType.ASSESSMENT_ITEM_REF
+    };
+
+    /* Bit flags used to pack the boolean parts of EffectiveItemSessionControl */
+    private static final int SHOW_FEEDBACK_FLAG = 1;
+    private static final int ALLOW_REVIEW_FLAG = 2;
+    private static final int SHOW_SOLUTION_FLAG = 4;
+    private static final int ALLOW_COMMENT_FLAG = 8;
+    private static final int ALLOW_SKIPPING_FLAG = 16;
+    private static final int VALIDATE_RESPONSES_FLAG = 32;
+
+    public static byte[] marshal(final TestPlan testPlan) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            marshal(testPlan, outputStream);
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException writing to byte array", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    public static void marshal(final TestPlan testPlan, final OutputStream outputStream)
+            throws IOException {
+        final DataOutputStream output = new DataOutputStream(outputStream);
+        BinaryMarshallerCore.writeHeader(output, BinaryMarshallerCore.TEST_PLAN_RECORD);
+        writeTestPlan(output, testPlan);
+        output.flush();
+    }
+
+    static void writeTestPlan(final DataOutput output, final TestPlan testPlan) throws IOException {
+        writeTestPlanNodeChildren(output, testPlan.getTestPlanRootNode());
+    }
+
+    private static void writeTestPlanNodeChildren(final DataOutput output, final TestPlanNode parentNode) throws IOException {
+        final List<TestPlanNode> children = parentNode.getChildren();
+        BinaryMarshallerCore.writeUnsignedInt(output, children.size());
+        for (final TestPlanNode childNode : children) {
+            writeTestPlanNode(output, childNode);
+        }
+    }
+
+    private static void writeTestPlanNode(final DataOutput output, final TestPlanNode testPlanNode) throws IOException {
+        output.writeByte(encodeTestNodeType(testPlanNode.getTestNodeType()));
+        BinaryMarshallerCore.writeTestPlanNodeKey(output, testPlanNode.getKey());
+        final EffectiveItemSessionControl effectiveItemSessionControl = testPlanNode.getEffectiveItemSessionControl();
+        if (effectiveItemSessionControl!=null) {
+            BinaryMarshallerCore.writeBoolean(output, true);
+            BinaryMarshallerCore.writeSignedInt(output, effectiveItemSessionControl.getMaxAttempts());
+            int flags = 0;
+            flags |= effectiveItemSessionControl.isShowFeedback() ? SHOW_FEEDBACK_FLAG : 0;
+            flags |= effectiveItemSessionControl.isAllowReview() ? ALLOW_REVIEW_FLAG : 0;
+            flags |= effectiveItemSessionControl.isShowSolution() ? SHOW_SOLUTION_FLAG : 0;
+            flags |= effectiveItemSessionControl.isAllowComment() ? ALLOW_COMMENT_FLAG : 0;
+            flags |= effectiveItemSessionControl.isAllowSkipping() ? ALLOW_SKIPPING_FLAG : 0;
+            flags |= effectiveItemSessionControl.isValidateResponses() ? VALIDATE_RESPONSES_FLAG : 0;
+            output.writeByte(flags);
+        }
+        else {
+            BinaryMarshallerCore.writeBoolean(output, false);
+        }
+        BinaryMarshallerCore.writeString(output, testPlanNode.getSectionPartTitle());
+        final URI itemSystemId = testPlanNode.getItemSystemId();
+        BinaryMarshallerCore.writeString(output, itemSystemId!=null ? itemSystemId.toString() : null);
+
+        /* Descend into children */
+        writeTestPlanNodeChildren(output, testPlanNode);
+    }
+
+    private static int encodeTestNodeType(final TestNodeType testNodeType) {
+        for (int i=0; i<testNodeTypeCodes.length; i++) {
+            if (testNodeTypeCodes[i]==testNodeType) {
+                return i;
+            }
+        }
+        throw new QtiLogicException("Unexpected TestNodeType " + testNodeType);
+    }
+
+    //----------------------------------------------
+
+    public static TestPlan unmarshal(final byte[] data) {
+        try {
+            return unmarshal(new ByteArrayInputStream(data));
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException reading from byte array", e);
+        }
+    }
+
+    public static TestPlan unmarshal(final InputStream inputStream) throws IOException {
+        final DataInputStream input = new DataInputStream(inputStream);
+        try {
+            BinaryMarshallerCore.expectHeader(input, BinaryMarshallerCore.TEST_PLAN_RECORD);
+            return readTestPlan(input);
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    static TestPlan readTestPlan(final DataInput input) throws IOException {
+        final TestPlanNode rootNode = TestPlanNode.createRoot();
+        readTestPlanNodeChildren(input, rootNode);
+        return new TestPlan(rootNode);
+    }
+
+    private static void readTestPlanNodeChildren(final DataInput input, final TestPlanNode targetOwner) throws IOException {
+        final int childCount = BinaryMarshallerCore.readUnsignedInt(input);
+        for (int i=0; i<childCount; i++) {
+            final TestNodeType type = decodeTestNodeType(input.readUnsignedByte());
+            final TestPlanNodeKey key = BinaryMarshallerCore.requireTestPlanNodeKey(input);
+            EffectiveItemSessionControl effectiveItemSessionControl = null;
+            if (BinaryMarshallerCore.readBoolean(input)) {
+                final int maxAttempts = BinaryMarshallerCore.readSignedInt(input);
+                final int flags = input.readUnsignedByte();
+                effectiveItemSessionControl = new EffectiveItemSessionControl(maxAttempts,
+                        (flags & SHOW_FEEDBACK_FLAG)!=0,
+                        (flags & ALLOW_REVIEW_FLAG)!=0,
+                        (flags & SHOW_SOLUTION_FLAG)!=0,
+                        (flags & ALLOW_COMMENT_FLAG)!=0,
+                        (flags & ALLOW_SKIPPING_FLAG)!=0,
+                        (flags & VALIDATE_RESPONSES_FLAG)!=0);
+            }
+            final String sectionPartTitle = BinaryMarshallerCore.readString(input);
+            final String itemSystemIdString = BinaryMarshallerCore.readString(input);
+            URI itemSystemId = null;
+            if (itemSystemIdString!=null) {
+                try {
+                    itemSystemId = new URI(itemSystemIdString);
+                }
+                catch (final URISyntaxException e) {
+                    throw new BinaryUnmarshallingException("Could not parse itemSystemId URI", e);
+                }
+            }
+
+            final TestPlanNode childTestPlanNode = new TestPlanNode(type, key, effectiveItemSessionControl, sectionPartTitle, itemSystemId);
+            targetOwner.addChild(childTestPlanNode);
+            readTestPlanNodeChildren(input, childTestPlanNode);
+        }
+    }
+
+    private static TestNodeType decodeTestNodeType(final int code) {
+        if (code<0 || code>=testNodeTypeCodes.length) {
+            throw new BinaryUnmarshallingException("Bad TestNodeType code " + code);
+        }
+        return testNodeTypeCodes[code];
+    }
+}
@@ -0,0 +1,144 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.StringUtilities;
+import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.SaxMarshallerCore.StateXmlReader;
+
+import java.io.OutputStream;
+import java.net.URI;
+
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Marshals a {@link TestPlan} to XML as a stream of SAX events, without building
+ * a DOM. The resulting XML is the same as that produced by {@link TestPlanXmlMarshaller}.
+ *
+ * @see TestPlanXmlMarshaller
+ * @see TestPlanStaxUnmarshaller
+ *
+ * @author David McKain
+ */
+public final class TestPlanSaxMarshaller {
+
+    /**
+     * Marshals the given {@link TestPlan} as a complete XML document, sending the resulting
+     * SAX events to the given {@link ContentHandler}.
+     */
+    public static void marshal(final TestPlan testPlan, final ContentHandler handler)
+            throws SAXException {
+        SaxMarshallerCore.startDocument(handler);
+        appendTestPlan(handler, testPlan);
+        SaxMarshallerCore.endDocument(handler);
+    }
+
+    /**
+     * Serializes the given {@link TestPlan} to the given {@link OutputStream}
+     * without indentation. The stream is not closed afterwards.
+     */
+    public static void marshal(final TestPlan testPlan, final OutputStream outputStream) {
+        marshal(testPlan, outputStream, false);
+    }
+
+    /**
+     * Serializes the given {@link TestPlan} to the given {@link OutputStream}.
+     * The stream is not closed afterwards.
+     */
+    public static void marshal(final TestPlan testPlan, final OutputStream outputStream,
+            final boolean indenting) {
+        SaxMarshallerCore.serialize(createStateXmlReader(testPlan), outputStream, indenting);
+    }
+
+    /**
+     * Creates a {@link SAXSource} that will generate the XML for the given {@link TestPlan}
+     * when parsed. The resulting {@link SAXSource} should only be used once.
+     */
+    public static SAXSource createSaxSource(final TestPlan testPlan) {
+        return createStateXmlReader(testPlan).createSaxSource();
+    }
+
+    private static StateXmlReader createStateXmlReader(final TestPlan testPlan) {
+        Assert.notNull(testPlan, "testPlan");
+        return new StateXmlReader() {
+            @Override
+            void marshal(final ContentHandler handler) throws SAXException {
+                TestPlanSaxMarshaller.marshal(testPlan, handler);
+            }
+        };
+    }
+
+    //----------------------------------------------
+
+    static void appendTestPlan(final ContentHandler handler, final TestPlan testPlan) throws SAXException {
+        SaxMarshallerCore.startElement(handler, "testPlan");
+        for (final TestPlanNode testPlanNode : testPlan.getTestPlanRootNode().getChildren()) {
+            appendTestPlanNode(handler, testPlanNode);
+        }
+        SaxMarshallerCore.endElement(handler, "testPlan");
+    }
+
+    private static void appendTestPlanNode(final ContentHandler handler, final TestPlanNode testPlanNode) throws SAXException {
+        final AttributesImpl attributes = new AttributesImpl();
+        SaxMarshallerCore.addAttribute(attributes, "type", testPlanNode.getTestNodeType().toString());
+        SaxMarshallerCore.addAttribute(attributes, "key", testPlanNode.getKey().toString());
+        final EffectiveItemSessionControl effectiveItemSessionControl = testPlanNode.getEffectiveItemSessionControl();
+        if (effectiveItemSessionControl!=null) {
+            SaxMarshallerCore.addAttribute(attributes, "maxAttempts", Integer.toString(effectiveItemSessionControl.getMaxAttempts()));
+            SaxMarshallerCore.addAttribute(attributes, "showFeedback", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowFeedback()));
+            SaxMarshallerCore.addAttribute(attributes, "allowReview", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowReview()));
+            SaxMarshallerCore.addAttribute(attributes, "showSolution", StringUtilities.toTrueFalse(effectiveItemSessionControl.isShowSolution()));
+            SaxMarshallerCore.addAttribute(attributes, "allowComment", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowComment()));
+            SaxMarshallerCore.addAttribute(attributes, "allowSkipping", StringUtilities.toTrueFalse(effectiveItemSessionControl.isAllowSkipping()));
+            SaxMarshallerCore.addAttribute(attributes, "validateResponses", StringUtilities.toTrueFalse(effectiveItemSessionControl.isValidateResponses()));
+        }
+        SaxMarshallerCore.maybeAddStringAttribute(attributes, "sectionPartTitle", testPlanNode.getSectionPartTitle());
+        final URI itemSystemId = testPlanNode.getItemSystemId();
+        SaxMarshallerCore.maybeAddStringifiableAttribute(attributes, "itemSystemId", itemSystemId);
+        SaxMarshallerCore.startElement(handler, "node", attributes);
+
+        /* Descend into children */
+        for (final TestPlanNode childNode : testPlanNode.getChildren()) {
+            appendTestPlanNode(handler, childNode);
+        }
+        SaxMarshallerCore.endElement(handler, "node");
+    }
+}
@@ -0,0 +1,146 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.node.test.ItemSessionControl;
+import uk.ac.ed.ph.jqtiplus.state.EffectiveItemSessionControl;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URI;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Unmarshals a {@link TestPlan} from the XML produced by {@link TestPlanXmlMarshaller}
+ * using StAX, without building a DOM.
+ *
+ * @see TestPlanXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class TestPlanStaxUnmarshaller {
+
+    public static TestPlan unmarshal(final String xmlString) {
+        XMLStreamReader reader = null;
+        try {
+            reader = StaxUnmarshallerCore.createXmlStreamReader(new StringReader(xmlString));
+            return unmarshal(reader);
+        }
+        catch (final XMLStreamException e) {
+            throw new XmlUnmarshallingException("XML parsing failed", e);
+        }
+        finally {
+            if (reader!=null) {
+                StaxUnmarshallerCore.closeQuietly(reader);
+            }
+        }
+    }
+
+    public static TestPlan unmarshal(final InputStream inputStream) {
+        XMLStreamReader reader = null;
+        try {
+            reader = StaxUnmarshallerCore.createXmlStreamReader(inputStream);
+            return unmarshal(reader);
+        }
+        catch (final XMLStreamException e) {
+            throw new XmlUnmarshallingException("XML parsing failed", e);
+        }
+        finally {
+            if (reader!=null) {
+                StaxUnmarshallerCore.closeQuietly(reader);
+            }
+        }
+    }
+
+    /**
+     * Unmarshals a {@link TestPlan} from the given {@link XMLStreamReader}, which should either
+     * be positioned at the start of the document or at the <code>testPlan</code> element.
+     * The reader is left positioned at the end of this element.
+     */
+    public static TestPlan unmarshal(final XMLStreamReader reader) throws XMLStreamException {
+        StaxUnmarshallerCore.moveToThisElement(reader, "testPlan");
+        return readTestPlan(reader);
+    }
+
+    static TestPlan readTestPlan(final XMLStreamReader reader) throws XMLStreamException {
+        final TestPlanNode rootNode = TestPlanNode.createRoot();
+        readTestPlanNodeChildren(reader, rootNode);
+        return new TestPlan(rootNode);
+    }
+
+    private static void readTestPlanNodeChildren(final XMLStreamReader reader, final TestPlanNode targetOwner) throws XMLStreamException {
+        while (StaxUnmarshallerCore.nextChildElement(reader)) {
+            final String elementName = reader.getLocalName();
+            if (!elementName.equals("node")) {
+                throw new XmlUnmarshallingException("Unexpected element " + elementName);
+            }
+            final TestNodeType type = requireTestNodeTypeAttribute(reader, "type");
+            final TestPlanNodeKey key = StaxUnmarshallerCore.requireTestPlanNodeKeyAttribute(reader, "key");
+            final String sectionPartTitle = StaxUnmarshallerCore.parseOptionalStringAttribute(reader, "sectionPartTitle");
+            final URI itemSystemId = StaxUnmarshallerCore.parseOptionalUriAttribute(reader, "itemSystemId");
+
+            /* Parse EffectiveItemSessionControl attributes */
+            final int maxAttempts = StaxUnmarshallerCore.parseOptionalIntegerAttribute(reader, "maxAttempts", ItemSessionControl.MAX_ATTEMPTS_DEFAULT_VALUE);
+            final boolean showFeedback = StaxUnmarshallerCore.parseOptionalBooleanAttribute(reader, "showFeedback", ItemSessionControl.SHOW_FEEDBACK_DEFAULT_VALUE);
+            final boolean allowReview = StaxUnmarshallerCore.parseOptionalBooleanAttribute(reader, "allowReview", ItemSessionControl.ALLOW_REVIEW_DEFAULT_VALUE);
+            final boolean showSolution = StaxUnmarshallerCore.parseOptionalBooleanAttribute(reader, "showSolution", ItemSessionControl.SHOW_SOLUTION_DEFAULT_VALUE);
+            final boolean allowComment = StaxUnmarshallerCore.parseOptionalBooleanAttribute(reader, "allowComment", ItemSessionControl.ALLOW_COMMENT_DEFAULT_VALUE);
+            final boolean allowSkipping = StaxUnmarshallerCore.parseOptionalBooleanAttribute(reader, "allowSkipping", ItemSessionControl.ALLOW_SKIPPING_DEFAULT_VALUE);
+            final boolean validateResponses = StaxUnmarshallerCore.parseOptionalBooleanAttribute(reader, "validateResponses", ItemSessionControl.VALIDATE_RESPONSES_DEFAULT_VALUE);
+            final EffectiveItemSessionControl effectiveItemSessionControl = new EffectiveItemSessionControl(maxAttempts, showFeedback, allowReview, showSolution, allowComment, allowSkipping, validateResponses);
+
+            final TestPlanNode childTestPlanNode = new TestPlanNode(type, key, effectiveItemSessionControl, sectionPartTitle, itemSystemId);
+            targetOwner.addChild(childTestPlanNode);
+            readTestPlanNodeChildren(reader, childTestPlanNode);
+        }
+    }
+
+    private static TestNodeType requireTestNodeTypeAttribute(final XMLStreamReader reader, final String localName) {
+        final String stringValue = StaxUnmarshallerCore.requireAttribute(reader, localName);
+        try {
+            return TestNodeType.valueOf(stringValue);
+        }
+        catch (final IllegalArgumentException e) {
+            throw new XmlUnmarshallingException("Bad " + TestNodeType.class.getSimpleName()
+                    + " value '" + stringValue
+                    + "' in attribute " + localName);
+        }
+    }
+}
@@ -45,8 +45,6 @@ import java.io.StringReader;
 import java.net.URI;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -60,8 +58,7 @@ import org.xml.sax.InputSource;
 public final class TestPlanXmlMarshaller {
 
     public static Document marshal(final TestPlan testPlan) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
+        final Document document = XmlMarshallerCore.createNsAwareDocument();
         appendTestPlan(document, testPlan);
         return document;
     }
@@ -107,10 +104,9 @@ public final class TestPlanXmlMarshaller {
     //----------------------------------------------
 
     public static TestPlan unmarshal(final String xmlString) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
         Document document;
         try {
-            document = documentBuilder.parse(new InputSource(new StringReader(xmlString)));
+            document = XmlMarshallerCore.parseNsAwareDocument(new InputSource(new StringReader(xmlString)));
         }
         catch (final Exception e) {
             throw new XmlUnmarshallingException("XML parsing failed", e);
@@ -0,0 +1,151 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionOperation;
+import uk.ac.ed.ph.jqtiplus.running.TestSessionOperationType;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Marshals lists of {@link TestSessionOperation}s to/from the compact binary format described
+ * in {@link BinaryMarshallerCore}.
+ * <p>
+ * These are intended to be embedded within an application's own records, so no header is
+ * written. The paths of any uploaded files are written as they are, so applications should
+ * make these relative to somewhere sensible if the files might ever be moved.
+ *
+ * @author David McKain
+ */
+public final class TestSessionOperationBinaryMarshaller {
+
+    /**
+     * Fixed codes for {@link TestSessionOperationType}. (We don't use ordinals or names here as
+     * we don't want recorded operations to become unreadable if the enumeration is changed.)
+     */
+    private static final TestSessionOperationType[] operationTypeCodes = {
+        TestSessionOperationType.INITIALIZE,
+        TestSessionOperationType.ENTER_TEST,
+        TestSessionOperationType.TOUCH_DURATIONS,
+        TestSessionOperationType.ENTER_NEXT_AVAILABLE_TEST_PART,
+        TestSessionOperationType.END_CURRENT_TEST_PART,
+        TestSessionOperationType.EXIT_TEST,
+        TestSessionOperationType.EXIT_TEST_INCOMPLETE,
+        TestSessionOperationType.SELECT_ITEM_NONLINEAR,
+        TestSessionOperationType.ADVANCE_ITEM_LINEAR,
+        TestSessionOperationType.HANDLE_RESPONSES_TO_CURRENT_ITEM,
+        TestSessionOperationType.SET_CANDIDATE_COMMENT_FOR_CURRENT_ITEM
+    };
+
+    public static void writeOperations(final DataOutput output, final List<TestSessionOperation> operations)
+            throws IOException {
+        BinaryMarshallerCore.writeUnsignedInt(output, operations.size());
+        for (final TestSessionOperation operation : operations) {
+            writeOperation(output, operation);
+        }
+    }
+
+    private static void writeOperation(final DataOutput output, final TestSessionOperation operation)
+            throws IOException {
+        BinaryMarshallerCore.writeUnsignedInt(output, encodeOperationType(operation.getOperationType()));
+        BinaryMarshallerCore.writeSignedLong(output, operation.getTimestamp().getTime());
+        BinaryMarshallerCore.writeTestPlanNodeKey(output, operation.getItemKey());
+        BinaryMarshallerCore.writeString(output, operation.getCandidateComment());
+        final Map<Identifier, ResponseData> responseMap = operation.getResponseMap();
+        BinaryMarshallerCore.writeUnsignedInt(output, responseMap.size());
+        for (final Entry<Identifier, ResponseData> entry : responseMap.entrySet()) {
+            BinaryMarshallerCore.writeIdentifier(output, entry.getKey());
+            ItemSessionStateBinaryMarshaller.writeResponseData(output, entry.getValue());
+        }
+    }
+
+    private static int encodeOperationType(final TestSessionOperationType operationType) {
+        for (int i=0; i<operationTypeCodes.length; i++) {
+            if (operationTypeCodes[i]==operationType) {
+                return i;
+            }
+        }
+        throw new QtiLogicException("Unexpected TestSessionOperationType " + operationType);
+    }
+
+    //----------------------------------------------
+
+    public static List<TestSessionOperation> readOperations(final DataInput input) throws IOException {
+        try {
+            final int operationCount = BinaryMarshallerCore.readUnsignedInt(input);
+            final List<TestSessionOperation> result = new ArrayList<TestSessionOperation>(operationCount);
+            for (int i=0; i<operationCount; i++) {
+                result.add(readOperation(input));
+            }
+            return result;
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary operation data", e);
+        }
+    }
+
+    private static TestSessionOperation readOperation(final DataInput input) throws IOException {
+        final TestSessionOperationType operationType = decodeOperationType(BinaryMarshallerCore.readUnsignedInt(input));
+        final Date timestamp = new Date(BinaryMarshallerCore.readSignedLong(input));
+        final TestPlanNodeKey itemKey = BinaryMarshallerCore.readTestPlanNodeKey(input);
+        final String candidateComment = BinaryMarshallerCore.readString(input);
+        final int responseCount = BinaryMarshallerCore.readUnsignedInt(input);
+        final Map<Identifier, ResponseData> responseMap = new LinkedHashMap<Identifier, ResponseData>();
+        for (int i=0; i<responseCount; i++) {
+            final Identifier responseIdentifier = BinaryMarshallerCore.readIdentifier(input);
+            responseMap.put(responseIdentifier, ItemSessionStateBinaryMarshaller.readResponseData(input));
+        }
+        return new TestSessionOperation(operationType, timestamp, itemKey, candidateComment, responseMap);
+    }
+
+    private static TestSessionOperationType decodeOperationType(final int code) {
+        if (code>=operationTypeCodes.length) {
+            throw new BinaryUnmarshallingException("Bad operation type code " + code);
+        }
+        return operationTypeCodes[code];
+    }
+}
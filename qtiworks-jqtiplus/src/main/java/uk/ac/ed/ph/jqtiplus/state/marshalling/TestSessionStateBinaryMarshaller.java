@@ -0,0 +1,185 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.state.AssessmentSectionSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Marshals a {@link TestSessionState} to/from the compact binary format described
+ * in {@link BinaryMarshallerCore}.
+ *
+ * @see TestSessionStateXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class TestSessionStateBinaryMarshaller {
+
+    public static byte[] marshal(final TestSessionState testSessionState) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            marshal(testSessionState, outputStream);
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException writing to byte array", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    public static void marshal(final TestSessionState testSessionState, final OutputStream outputStream)
+            throws IOException {
+        final DataOutputStream output = new DataOutputStream(outputStream);
+        BinaryMarshallerCore.writeHeader(output, BinaryMarshallerCore.TEST_SESSION_STATE_RECORD);
+        writeTestSessionState(output, testSessionState);
+        output.flush();
+    }
+
+    static void writeTestSessionState(final DataOutput output, final TestSessionState testSessionState) throws IOException {
+        /* Do test plan first, as we need this to create the TestSessionState when unmarshalling */
+        TestPlanBinaryMarshaller.writeTestPlan(output, testSessionState.getTestPlan());
+
+        BinaryMarshallerCore.writeControlObjectSessionState(output, testSessionState);
+        BinaryMarshallerCore.writeBoolean(output, testSessionState.isInitialized());
+        BinaryMarshallerCore.writeTestPlanNodeKey(output, testSessionState.getCurrentTestPartKey());
+        BinaryMarshallerCore.writeTestPlanNodeKey(output, testSessionState.getCurrentItemKey());
+
+        /* Do outcome variables */
+        BinaryMarshallerCore.writeValues(output, testSessionState.getOutcomeValues());
+
+        /* Do states for each TestPart */
+        final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = testSessionState.getTestPartSessionStates();
+        BinaryMarshallerCore.writeUnsignedInt(output, testPartSessionStates.size());
+        for (final Entry<TestPlanNodeKey, TestPartSessionState> entry : testPartSessionStates.entrySet()) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(output, entry.getKey());
+            BinaryMarshallerCore.writeAbstractPartSessionState(output, entry.getValue());
+        }
+
+        /* Do states for each AssessmentSection */
+        final Map<TestPlanNodeKey, AssessmentSectionSessionState> assessmentSectionSessionStates = testSessionState.getAssessmentSectionSessionStates();
+        BinaryMarshallerCore.writeUnsignedInt(output, assessmentSectionSessionStates.size());
+        for (final Entry<TestPlanNodeKey, AssessmentSectionSessionState> entry : assessmentSectionSessionStates.entrySet()) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(output, entry.getKey());
+            BinaryMarshallerCore.writeAbstractPartSessionState(output, entry.getValue());
+        }
+
+        /* Do states for each item */
+        final Map<TestPlanNodeKey, ItemSessionState> itemSessionStates = testSessionState.getItemSessionStates();
+        BinaryMarshallerCore.writeUnsignedInt(output, itemSessionStates.size());
+        for (final Entry<TestPlanNodeKey, ItemSessionState> entry : itemSessionStates.entrySet()) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(output, entry.getKey());
+            ItemSessionStateBinaryMarshaller.writeItemSessionState(output, entry.getValue());
+        }
+    }
+
+    //----------------------------------------------
+
+    public static TestSessionState unmarshal(final byte[] data) {
+        try {
+            return unmarshal(new ByteArrayInputStream(data));
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException reading from byte array", e);
+        }
+    }
+
+    public static TestSessionState unmarshal(final InputStream inputStream) throws IOException {
+        final DataInputStream input = new DataInputStream(inputStream);
+        try {
+            BinaryMarshallerCore.expectHeader(input, BinaryMarshallerCore.TEST_SESSION_STATE_RECORD);
+            return readTestSessionState(input);
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+    }
+
+    static TestSessionState readTestSessionState(final DataInput input) throws IOException {
+        /* Create TestSessionState from TestPlan */
+        final TestPlan testPlan = TestPlanBinaryMarshaller.readTestPlan(input);
+        final TestSessionState result = new TestSessionState(testPlan);
+
+        /* Extract state properties */
+        BinaryMarshallerCore.readControlObjectSessionState(input, result);
+        result.setInitialized(BinaryMarshallerCore.readBoolean(input));
+        result.setCurrentTestPartKey(BinaryMarshallerCore.readTestPlanNodeKey(input));
+        result.setCurrentItemKey(BinaryMarshallerCore.readTestPlanNodeKey(input));
+
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setOutcomeValue(entry.getKey(), entry.getValue());
+        }
+
+        final int testPartCount = BinaryMarshallerCore.readUnsignedInt(input);
+        for (int i=0; i<testPartCount; i++) {
+            final TestPlanNodeKey key = BinaryMarshallerCore.requireTestPlanNodeKey(input);
+            final TestPartSessionState testPartSessionState = new TestPartSessionState();
+            BinaryMarshallerCore.readAbstractPartSessionState(input, testPartSessionState);
+            result.getTestPartSessionStates().put(key, testPartSessionState);
+        }
+
+        final int assessmentSectionCount = BinaryMarshallerCore.readUnsignedInt(input);
+        for (int i=0; i<assessmentSectionCount; i++) {
+            final TestPlanNodeKey key = BinaryMarshallerCore.requireTestPlanNodeKey(input);
+            final AssessmentSectionSessionState assessmentSectionSessionState = new AssessmentSectionSessionState();
+            BinaryMarshallerCore.readAbstractPartSessionState(input, assessmentSectionSessionState);
+            result.getAssessmentSectionSessionStates().put(key, assessmentSectionSessionState);
+        }
+
+        final int itemCount = BinaryMarshallerCore.readUnsignedInt(input);
+        for (int i=0; i<itemCount; i++) {
+            final TestPlanNodeKey key = BinaryMarshallerCore.requireTestPlanNodeKey(input);
+            result.getItemSessionStates().put(key, ItemSessionStateBinaryMarshaller.readItemSessionState(input));
+        }
+        return result;
+    }
+}
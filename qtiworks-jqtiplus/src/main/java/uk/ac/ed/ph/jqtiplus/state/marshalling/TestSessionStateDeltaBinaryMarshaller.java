@@ -0,0 +1,256 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.state.AssessmentSectionSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Marshals the differences between two {@link TestSessionState}s to/from the compact
+ * binary format described in {@link BinaryMarshallerCore}.
+ * <p>
+ * A delta always contains the (small) top level test state and outcome values, but only
+ * includes the testPart, assessmentSection and item states that have changed. This is
+ * useful for applications that record state after every candidate interaction, as most
+ * interactions only affect a single item.
+ *
+ * @see TestSessionStateBinaryMarshaller
+ *
+ * @author David McKain
+ */
+public final class TestSessionStateDeltaBinaryMarshaller {
+
+    /**
+     * Marshals the changes required to turn the given base {@link TestSessionState} into the
+     * given new {@link TestSessionState}.
+     */
+    public static byte[] marshalDelta(final TestSessionState baseState, final TestSessionState newState) {
+        Assert.notNull(baseState, "baseState");
+        Assert.notNull(newState, "newState");
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final DataOutputStream output = new DataOutputStream(outputStream);
+        try {
+            BinaryMarshallerCore.writeHeader(output, BinaryMarshallerCore.TEST_SESSION_STATE_DELTA_RECORD);
+            writeDelta(output, baseState, newState);
+            output.flush();
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException writing to byte array", e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static void writeDelta(final DataOutput output, final TestSessionState baseState,
+            final TestSessionState newState) throws IOException {
+        /* Only include the TestPlan if it has changed, which should be rare */
+        final TestPlan newTestPlan = newState.getTestPlan();
+        if (!newTestPlan.equals(baseState.getTestPlan())) {
+            BinaryMarshallerCore.writeBoolean(output, true);
+            TestPlanBinaryMarshaller.writeTestPlan(output, newTestPlan);
+        }
+        else {
+            BinaryMarshallerCore.writeBoolean(output, false);
+        }
+
+        /* Top level state is always included */
+        BinaryMarshallerCore.writeControlObjectSessionState(output, newState);
+        BinaryMarshallerCore.writeBoolean(output, newState.isInitialized());
+        BinaryMarshallerCore.writeTestPlanNodeKey(output, newState.getCurrentTestPartKey());
+        BinaryMarshallerCore.writeTestPlanNodeKey(output, newState.getCurrentItemKey());
+        BinaryMarshallerCore.writeValues(output, newState.getOutcomeValues());
+
+        /* Do changed testPart states */
+        final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = newState.getTestPartSessionStates();
+        final List<TestPlanNodeKey> changedTestPartKeys = findChangedKeys(baseState.getTestPartSessionStates(), testPartSessionStates);
+        BinaryMarshallerCore.writeUnsignedInt(output, changedTestPartKeys.size());
+        for (final TestPlanNodeKey key : changedTestPartKeys) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(output, key);
+            BinaryMarshallerCore.writeAbstractPartSessionState(output, testPartSessionStates.get(key));
+        }
+        writeRemovedKeys(output, baseState.getTestPartSessionStates(), testPartSessionStates);
+
+        /* Do changed assessmentSection states */
+        final Map<TestPlanNodeKey, AssessmentSectionSessionState> assessmentSectionSessionStates = newState.getAssessmentSectionSessionStates();
+        final List<TestPlanNodeKey> changedAssessmentSectionKeys = findChangedKeys(baseState.getAssessmentSectionSessionStates(), assessmentSectionSessionStates);
+        BinaryMarshallerCore.writeUnsignedInt(output, changedAssessmentSectionKeys.size());
+        for (final TestPlanNodeKey key : changedAssessmentSectionKeys) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(output, key);
+            BinaryMarshallerCore.writeAbstractPartSessionState(output, assessmentSectionSessionStates.get(key));
+        }
+        writeRemovedKeys(output, baseState.getAssessmentSectionSessionStates(), assessmentSectionSessionStates);
+
+        /* Do changed item states */
+        final Map<TestPlanNodeKey, ItemSessionState> itemSessionStates = newState.getItemSessionStates();
+        final List<TestPlanNodeKey> changedItemKeys = findChangedKeys(baseState.getItemSessionStates(), itemSessionStates);
+        BinaryMarshallerCore.writeUnsignedInt(output, changedItemKeys.size());
+        for (final TestPlanNodeKey key : changedItemKeys) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(output, key);
+            ItemSessionStateBinaryMarshaller.writeItemSessionState(output, itemSessionStates.get(key));
+        }
+        writeRemovedKeys(output, baseState.getItemSessionStates(), itemSessionStates);
+    }
+
+    private static <E> List<TestPlanNodeKey> findChangedKeys(final Map<TestPlanNodeKey, E> baseMap,
+            final Map<TestPlanNodeKey, E> newMap) {
+        final List<TestPlanNodeKey> result = new ArrayList<TestPlanNodeKey>();
+        for (final Entry<TestPlanNodeKey, E> entry : newMap.entrySet()) {
+            if (!entry.getValue().equals(baseMap.get(entry.getKey()))) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    private static <E> void writeRemovedKeys(final DataOutput output, final Map<TestPlanNodeKey, E> baseMap,
+            final Map<TestPlanNodeKey, E> newMap) throws IOException {
+        final List<TestPlanNodeKey> removedKeys = new ArrayList<TestPlanNodeKey>();
+        for (final TestPlanNodeKey key : baseMap.keySet()) {
+            if (!newMap.containsKey(key)) {
+                removedKeys.add(key);
+            }
+        }
+        BinaryMarshallerCore.writeUnsignedInt(output, removedKeys.size());
+        for (final TestPlanNodeKey key : removedKeys) {
+            BinaryMarshallerCore.writeTestPlanNodeKey(output, key);
+        }
+    }
+
+    //----------------------------------------------
+
+    /**
+     * Applies the given delta data to the given base {@link TestSessionState}, returning
+     * the resulting new {@link TestSessionState}.
+     * <p>
+     * NB: The result will share unchanged child states with the base state, so the base
+     * state should not be used once this has been called.
+     */
+    public static TestSessionState applyDelta(final TestSessionState baseState, final byte[] data) {
+        Assert.notNull(baseState, "baseState");
+        Assert.notNull(data, "data");
+        final DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            BinaryMarshallerCore.expectHeader(input, BinaryMarshallerCore.TEST_SESSION_STATE_DELTA_RECORD);
+            return readDelta(input, baseState);
+        }
+        catch (final EOFException e) {
+            throw new BinaryUnmarshallingException("Unexpected end of binary state data", e);
+        }
+        catch (final IOException e) {
+            throw new QtiLogicException("Unexpected IOException reading from byte array", e);
+        }
+    }
+
+    private static TestSessionState readDelta(final DataInput input, final TestSessionState baseState) throws IOException {
+        final TestPlan testPlan = BinaryMarshallerCore.readBoolean(input)
+                ? TestPlanBinaryMarshaller.readTestPlan(input)
+                : baseState.getTestPlan();
+        final TestSessionState result = new TestSessionState(testPlan);
+
+        /* Read top level state */
+        BinaryMarshallerCore.readControlObjectSessionState(input, result);
+        result.setInitialized(BinaryMarshallerCore.readBoolean(input));
+        result.setCurrentTestPartKey(BinaryMarshallerCore.readTestPlanNodeKey(input));
+        result.setCurrentItemKey(BinaryMarshallerCore.readTestPlanNodeKey(input));
+        for (final Entry<Identifier, Value> entry : BinaryMarshallerCore.readValues(input).entrySet()) {
+            result.setOutcomeValue(entry.getKey(), entry.getValue());
+        }
+
+        /* Merge testPart states. (We start from the base states to preserve their ordering) */
+        final Map<TestPlanNodeKey, TestPartSessionState> testPartSessionStates = result.getTestPartSessionStates();
+        testPartSessionStates.putAll(baseState.getTestPartSessionStates());
+        final int testPartCount = BinaryMarshallerCore.readUnsignedInt(input);
+        for (int i=0; i<testPartCount; i++) {
+            final TestPlanNodeKey key = BinaryMarshallerCore.requireTestPlanNodeKey(input);
+            final TestPartSessionState testPartSessionState = new TestPartSessionState();
+            BinaryMarshallerCore.readAbstractPartSessionState(input, testPartSessionState);
+            testPartSessionStates.put(key, testPartSessionState);
+        }
+        readRemovedKeys(input, testPartSessionStates);
+
+        /* Merge assessmentSection states */
+        final Map<TestPlanNodeKey, AssessmentSectionSessionState> assessmentSectionSessionStates = result.getAssessmentSectionSessionStates();
+        assessmentSectionSessionStates.putAll(baseState.getAssessmentSectionSessionStates());
+        final int assessmentSectionCount = BinaryMarshallerCore.readUnsignedInt(input);
+        for (int i=0; i<assessmentSectionCount; i++) {
+            final TestPlanNodeKey key = BinaryMarshallerCore.requireTestPlanNodeKey(input);
+            final AssessmentSectionSessionState assessmentSectionSessionState = new AssessmentSectionSessionState();
+            BinaryMarshallerCore.readAbstractPartSessionState(input, assessmentSectionSessionState);
+            assessmentSectionSessionStates.put(key, assessmentSectionSessionState);
+        }
+        readRemovedKeys(input, assessmentSectionSessionStates);
+
+        /* Merge item states */
+        final Map<TestPlanNodeKey, ItemSessionState> itemSessionStates = result.getItemSessionStates();
+        itemSessionStates.putAll(baseState.getItemSessionStates());
+        final int itemCount = BinaryMarshallerCore.readUnsignedInt(input);
+        for (int i=0; i<itemCount; i++) {
+            final TestPlanNodeKey key = BinaryMarshallerCore.requireTestPlanNodeKey(input);
+            itemSessionStates.put(key, ItemSessionStateBinaryMarshaller.readItemSessionState(input));
+        }
+        readRemovedKeys(input, itemSessionStates);
+        return result;
+    }
+
+    private static void readRemovedKeys(final DataInput input, final Map<TestPlanNodeKey, ?> targetMap) throws IOException {
+        final int removedCount = BinaryMarshallerCore.readUnsignedInt(input);
+        final Set<TestPlanNodeKey> removedKeys = new HashSet<TestPlanNodeKey>();
+        for (int i=0; i<removedCount; i++) {
+            removedKeys.add(BinaryMarshallerCore.requireTestPlanNodeKey(input));
+        }
+        targetMap.keySet().removeAll(removedKeys);
+    }
+}
@@ -0,0 +1,165 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.StringUtilities;
+import uk.ac.ed.ph.jqtiplus.state.AbstractPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.AssessmentSectionSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.SaxMarshallerCore.StateXmlReader;
+
+import java.io.OutputStream;
+import java.util.Map.Entry;
+
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Marshals a {@link TestSessionState} to XML as a stream of SAX events, without building
+ * a DOM. The resulting XML is the same as that produced by {@link TestSessionStateXmlMarshaller}.
+ *
+ * @see TestSessionStateXmlMarshaller
+ * @see TestSessionStateStaxUnmarshaller
+ *
+ * @author David McKain
+ */
+public final class TestSessionStateSaxMarshaller {
+
+    /**
+     * Marshals the given {@link TestSessionState} as a complete XML document, sending the resulting
+     * SAX events to the given {@link ContentHandler}.
+     */
+    public static void marshal(final TestSessionState testSessionState, final ContentHandler handler)
+            throws SAXException {
+        SaxMarshallerCore.startDocument(handler);
+        appendTestSessionState(handler, testSessionState);
+        SaxMarshallerCore.endDocument(handler);
+    }
+
+    /**
+     * Serializes the given {@link TestSessionState} to the given {@link OutputStream}
+     * without indentation. The stream is not closed afterwards.
+     */
+    public static void marshal(final TestSessionState testSessionState, final OutputStream outputStream) {
+        marshal(testSessionState, outputStream, false);
+    }
+
+    /**
+     * Serializes the given {@link TestSessionState} to the given {@link OutputStream}.
+     * The stream is not closed afterwards.
+     */
+    public static void marshal(final TestSessionState testSessionState, final OutputStream outputStream,
+            final boolean indenting) {
+        SaxMarshallerCore.serialize(createStateXmlReader(testSessionState), outputStream, indenting);
+    }
+
+    /**
+     * Creates a {@link SAXSource} that will generate the XML for the given {@link TestSessionState}
+     * when parsed. This is useful for passing state into XSLT without building a DOM.
+     * The resulting {@link SAXSource} should only be used once.
+     */
+    public static SAXSource createSaxSource(final TestSessionState testSessionState) {
+        return createStateXmlReader(testSessionState).createSaxSource();
+    }
+
+    private static StateXmlReader createStateXmlReader(final TestSessionState testSessionState) {
+        Assert.notNull(testSessionState, "testSessionState");
+        return new StateXmlReader() {
+            @Override
+            void marshal(final ContentHandler handler) throws SAXException {
+                TestSessionStateSaxMarshaller.marshal(testSessionState, handler);
+            }
+        };
+    }
+
+    //----------------------------------------------
+
+    static void appendTestSessionState(final ContentHandler handler, final TestSessionState testSessionState)
+            throws SAXException {
+        final AttributesImpl attributes = new AttributesImpl();
+        SaxMarshallerCore.addControlObjectSessionStateAttributes(attributes, testSessionState);
+        SaxMarshallerCore.addAttribute(attributes, "initialized", StringUtilities.toTrueFalse(testSessionState.isInitialized()));
+        SaxMarshallerCore.maybeAddStringifiableAttribute(attributes, "currentTestPartKey", testSessionState.getCurrentTestPartKey());
+        SaxMarshallerCore.maybeAddStringifiableAttribute(attributes, "currentItemKey", testSessionState.getCurrentItemKey());
+        SaxMarshallerCore.startElement(handler, "testSessionState", attributes);
+
+        /* Do test plan */
+        TestPlanSaxMarshaller.appendTestPlan(handler, testSessionState.getTestPlan());
+
+        /* Do outcome variables */
+        SaxMarshallerCore.appendValues(handler, "outcomeVariable", testSessionState.getOutcomeValues());
+
+        /* Do states for each TestPart */
+        for (final Entry<TestPlanNodeKey, TestPartSessionState> entry : testSessionState.getTestPartSessionStates().entrySet()) {
+            appendAbstractPartSessionState(handler, "testPart", "testPartSessionState", entry.getKey(), entry.getValue());
+        }
+
+        /* Do states for each AssessmentSection */
+        for (final Entry<TestPlanNodeKey, AssessmentSectionSessionState> entry : testSessionState.getAssessmentSectionSessionStates().entrySet()) {
+            appendAbstractPartSessionState(handler, "assessmentSection", "assessmentSectionSessionState", entry.getKey(), entry.getValue());
+        }
+
+        /* Do states for each item */
+        for (final Entry<TestPlanNodeKey, ItemSessionState> entry : testSessionState.getItemSessionStates().entrySet()) {
+            final AttributesImpl itemAttributes = new AttributesImpl();
+            SaxMarshallerCore.addAttribute(itemAttributes, "key", entry.getKey().toString());
+            SaxMarshallerCore.startElement(handler, "item", itemAttributes);
+            ItemSessionStateSaxMarshaller.appendItemSessionState(handler, entry.getValue());
+            SaxMarshallerCore.endElement(handler, "item");
+        }
+
+        SaxMarshallerCore.endElement(handler, "testSessionState");
+    }
+
+    private static void appendAbstractPartSessionState(final ContentHandler handler, final String wrapperElementName,
+            final String stateElementName, final TestPlanNodeKey key, final AbstractPartSessionState abstractPartSessionState)
+            throws SAXException {
+        final AttributesImpl wrapperAttributes = new AttributesImpl();
+        SaxMarshallerCore.addAttribute(wrapperAttributes, "key", key.toString());
+        SaxMarshallerCore.startElement(handler, wrapperElementName, wrapperAttributes);
+
+        final AttributesImpl stateAttributes = new AttributesImpl();
+        SaxMarshallerCore.addAbstractPartSessionStateAttributes(stateAttributes, abstractPartSessionState);
+        SaxMarshallerCore.appendEmptyElement(handler, stateElementName, stateAttributes);
+
+        SaxMarshallerCore.endElement(handler, wrapperElementName);
+    }
+}
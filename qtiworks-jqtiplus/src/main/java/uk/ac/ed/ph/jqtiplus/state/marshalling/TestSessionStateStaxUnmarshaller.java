@@ -0,0 +1,190 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import uk.ac.ed.ph.jqtiplus.state.AbstractPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.AssessmentSectionSessionState;
+import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
+import uk.ac.ed.ph.jqtiplus.state.TestPlan;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.value.Value;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Date;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Unmarshals a {@link TestSessionState} from the XML produced by {@link TestSessionStateXmlMarshaller}
+ * using StAX, without building a DOM.
+ *
+ * @see TestSessionStateXmlMarshaller
+ *
+ * @author David McKain
+ */
+public final class TestSessionStateStaxUnmarshaller {
+
+    public static TestSessionState unmarshal(final String xmlString) {
+        XMLStreamReader reader = null;
+        try {
+            reader = StaxUnmarshallerCore.createXmlStreamReader(new StringReader(xmlString));
+            return unmarshal(reader);
+        }
+        catch (final XMLStreamException e) {
+            throw new XmlUnmarshallingException("XML parsing failed", e);
+        }
+        finally {
+            if (reader!=null) {
+                StaxUnmarshallerCore.closeQuietly(reader);
+            }
+        }
+    }
+
+    public static TestSessionState unmarshal(final InputStream inputStream) {
+        XMLStreamReader reader = null;
+        try {
+            reader = StaxUnmarshallerCore.createXmlStreamReader(inputStream);
+            return unmarshal(reader);
+        }
+        catch (final XMLStreamException e) {
+            throw new XmlUnmarshallingException("XML parsing failed", e);
+        }
+        finally {
+            if (reader!=null) {
+                StaxUnmarshallerCore.closeQuietly(reader);
+            }
+        }
+    }
+
+    /**
+     * Unmarshals a {@link TestSessionState} from the given {@link XMLStreamReader}, which should
+     * either be positioned at the start of the document or at the <code>testSessionState</code>
+     * element. The reader is left positioned at the end of this element.
+     */
+    public static TestSessionState unmarshal(final XMLStreamReader reader) throws XMLStreamException {
+        StaxUnmarshallerCore.moveToThisElement(reader, "testSessionState");
+        return readTestSessionState(reader);
+    }
+
+    static TestSessionState readTestSessionState(final XMLStreamReader reader) throws XMLStreamException {
+        /* Extract state attributes now, as we'll have moved past them once we've read
+         * the <testPlan>, which we need to create the resulting TestSessionState.
+         */
+        final Date entryTime = StaxUnmarshallerCore.parseOptionalDateAttribute(reader, "entryTime");
+        final Date endTime = StaxUnmarshallerCore.parseOptionalDateAttribute(reader, "endTime");
+        final Date exitTime = StaxUnmarshallerCore.parseOptionalDateAttribute(reader, "exitTime");
+        final Date durationIntervalStartTime = StaxUnmarshallerCore.parseOptionalDateAttribute(reader, "durationIntervalStartTime");
+        final long durationAccumulated = StaxUnmarshallerCore.parseOptionalLongAttribute(reader, "durationAccumulated", 0L);
+        final boolean initialized = StaxUnmarshallerCore.parseOptionalBooleanAttribute(reader, "initialized", false);
+        final TestPlanNodeKey currentTestPartKey = StaxUnmarshallerCore.parseOptionalTestPlanNodeKeyAttribute(reader, "currentTestPartKey");
+        final TestPlanNodeKey currentItemKey = StaxUnmarshallerCore.parseOptionalTestPlanNodeKeyAttribute(reader, "currentItemKey");
+
+        /* Pull out the TestPlan, which should be the first element */
+        if (!StaxUnmarshallerCore.nextChildElement(reader) || !"testPlan".equals(reader.getLocalName())) {
+            throw new XmlUnmarshallingException("Expected first child of <testSessionState> to be <testPlan>");
+        }
+        final TestPlan testPlan = TestPlanStaxUnmarshaller.readTestPlan(reader);
+
+        /* Create TestSessionState from TestPlan */
+        final TestSessionState result = new TestSessionState(testPlan);
+        result.setEntryTime(entryTime);
+        result.setEndTime(endTime);
+        result.setExitTime(exitTime);
+        result.setDurationIntervalStartTime(durationIntervalStartTime);
+        result.setDurationAccumulated(durationAccumulated);
+        result.setInitialized(initialized);
+        result.setCurrentTestPartKey(currentTestPartKey);
+        result.setCurrentItemKey(currentItemKey);
+
+        /* Handle rest of children */
+        while (StaxUnmarshallerCore.nextChildElement(reader)) {
+            final String childElementName = reader.getLocalName();
+            if ("outcomeVariable".equals(childElementName)) {
+                final Identifier identifier = StaxUnmarshallerCore.parseIdentifierAttribute(reader, "identifier");
+                final Value value = StaxUnmarshallerCore.parseValue(reader);
+                result.setOutcomeValue(identifier, value);
+            }
+            else if ("testPart".equals(childElementName)) {
+                final TestPlanNodeKey key = StaxUnmarshallerCore.requireTestPlanNodeKeyAttribute(reader, "key");
+                final TestPartSessionState testPartSessionState = new TestPartSessionState();
+                readAbstractPartSessionStateChild(reader, childElementName, "testPartSessionState", testPartSessionState);
+                result.getTestPartSessionStates().put(key, testPartSessionState);
+            }
+            else if ("assessmentSection".equals(childElementName)) {
+                final TestPlanNodeKey key = StaxUnmarshallerCore.requireTestPlanNodeKeyAttribute(reader, "key");
+                final AssessmentSectionSessionState assessmentSectionSessionState = new AssessmentSectionSessionState();
+                readAbstractPartSessionStateChild(reader, childElementName, "assessmentSectionSessionState", assessmentSectionSessionState);
+                result.getAssessmentSectionSessionStates().put(key, assessmentSectionSessionState);
+            }
+            else if ("item".equals(childElementName)) {
+                final TestPlanNodeKey key = StaxUnmarshallerCore.requireTestPlanNodeKeyAttribute(reader, "key");
+                expectSingleChild(reader, childElementName);
+                StaxUnmarshallerCore.expectThisElement(reader, "itemSessionState");
+                final ItemSessionState itemSessionState = ItemSessionStateStaxUnmarshaller.readItemSessionState(reader);
+                expectNoMoreChildren(reader, childElementName);
+                result.getItemSessionStates().put(key, itemSessionState);
+            }
+            else {
+                throw new XmlUnmarshallingException("Unexpected element with localName " + childElementName);
+            }
+        }
+        return result;
+    }
+
+    private static void readAbstractPartSessionStateChild(final XMLStreamReader reader, final String wrapperElementName,
+            final String stateElementName, final AbstractPartSessionState target) throws XMLStreamException {
+        expectSingleChild(reader, wrapperElementName);
+        StaxUnmarshallerCore.expectThisElement(reader, stateElementName);
+        StaxUnmarshallerCore.parseAbstractPartSessionStateAttributes(target, reader);
+        StaxUnmarshallerCore.expectNoChildElements(reader);
+        expectNoMoreChildren(reader, wrapperElementName);
+    }
+
+    private static void expectSingleChild(final XMLStreamReader reader, final String wrapperElementName) throws XMLStreamException {
+        if (!StaxUnmarshallerCore.nextChildElement(reader)) {
+            throw new XmlUnmarshallingException("Expected exactly one child of <" + wrapperElementName + ">");
+        }
+    }
+
+    private static void expectNoMoreChildren(final XMLStreamReader reader, final String wrapperElementName) throws XMLStreamException {
+        if (StaxUnmarshallerCore.nextChildElement(reader)) {
+            throw new XmlUnmarshallingException("Expected exactly one child of <" + wrapperElementName + ">");
+        }
+    }
+}
@@ -48,8 +48,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import javax.xml.parsers.DocumentBuilder;
-
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -64,8 +62,7 @@ public final class TestSessionStateXmlMarshaller {
 
 
     public static Document marshal(final TestSessionState testSessionState) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
-        final Document document = documentBuilder.newDocument();
+        final Document document = XmlMarshallerCore.createNsAwareDocument();
         appendTestSessionState(document, testSessionState);
         return document;
     }
@@ -123,10 +120,9 @@ public final class TestSessionStateXmlMarshaller {
     //----------------------------------------------
 
     public static TestSessionState unmarshal(final String xmlString) {
-        final DocumentBuilder documentBuilder = XmlMarshallerCore.createNsAwareDocumentBuilder();
         Document document;
         try {
-            document = documentBuilder.parse(new InputSource(new StringReader(xmlString)));
+            document = XmlMarshallerCore.parseNsAwareDocument(new InputSource(new StringReader(xmlString)));
         }
         catch (final Exception e) {
             throw new XmlUnmarshallingException("XML parsing failed", e);
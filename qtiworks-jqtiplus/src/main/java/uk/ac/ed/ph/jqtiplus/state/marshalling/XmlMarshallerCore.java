@@ -50,8 +50,10 @@ import uk.ac.ed.ph.jqtiplus.value.OrderedValue;
 import uk.ac.ed.ph.jqtiplus.value.RecordValue;
 import uk.ac.ed.ph.jqtiplus.value.SingleValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParserPool;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
@@ -64,14 +66,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 /**
  * Core for the (horribly cheap and nasty) XML marshalling we do for serializing JQTI+ state
@@ -87,6 +87,18 @@ public final class XmlMarshallerCore {
 
     private static final String dateFormatString = "yyyy-MM-dd'T'HH:mm:ss.SSSZZZZ";
 
+    /** Cached {@link SimpleDateFormat}s. (These aren't thread-safe, so we keep one per thread.) */
+    private static final ThreadLocal<SimpleDateFormat> dateFormatThreadLocal = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            return new SimpleDateFormat(dateFormatString);
+        }
+    };
+
+    static String formatDate(final Date date) {
+        return dateFormatThreadLocal.get().format(date);
+    }
+
     //----------------------------------------------
     // Marshalling to XML
 
@@ -125,7 +137,7 @@ public final class XmlMarshallerCore {
 
     static void maybeAddDateAttribute(final Element element, final String attributeName, final Date date) {
         if (date!=null) {
-            element.setAttribute(attributeName, new SimpleDateFormat(dateFormatString).format(date));
+            element.setAttribute(attributeName, formatDate(date));
         }
     }
 
@@ -314,18 +326,19 @@ public final class XmlMarshallerCore {
     }
 
     static Date parseOptionalDateAttribute(final Element element, final String attrName) {
-        if (element.hasAttribute(attrName)) {
-            final String attrValue = element.getAttribute(attrName);
-            if (!attrValue.isEmpty()) {
-                try {
-                    return new SimpleDateFormat(dateFormatString).parse(attrValue);
-                }
-                catch (final ParseException e) {
-                    throw new XmlUnmarshallingException("Could not parse Date attribute", e);
-                }
-            }
+        return element.hasAttribute(attrName) ? parseDateAttributeValue(element.getAttribute(attrName)) : null;
+    }
+
+    static Date parseDateAttributeValue(final String attrValue) {
+        if (attrValue.isEmpty()) {
+            return null;
+        }
+        try {
+            return dateFormatThreadLocal.get().parse(attrValue);
+        }
+        catch (final ParseException e) {
+            throw new XmlUnmarshallingException("Could not parse Date attribute", e);
         }
-        return null;
     }
 
     static URI parseOptionalUriAttribute(final Element element, final String attrName) {
@@ -481,7 +494,7 @@ public final class XmlMarshallerCore {
     static Identifier parseIdentifierAttribute(final Element element, final String identifierAttrName) {
         final String identifierAttrValue = requireAttribute(element, identifierAttrName);
         try {
-            return Identifier.parseString(identifierAttrValue);
+            return Identifier.parseReusing(identifierAttrValue);
         }
         catch (final QtiParseException e) {
             throw new XmlUnmarshallingException("Value "
@@ -490,14 +503,11 @@ public final class XmlMarshallerCore {
         }
     }
 
-    static final DocumentBuilder createNsAwareDocumentBuilder() {
-        try {
-            final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            documentBuilderFactory.setNamespaceAware(true);
-            return documentBuilderFactory.newDocumentBuilder();
-        }
-        catch (final ParserConfigurationException e) {
-            throw new QtiLogicException("Could not create NS Aware DocumentBuilder. Check deployment/runtime ClassPath", e);
-        }
+    static final Document createNsAwareDocument() {
+        return XmlParserPool.getNsAwareInstance().newDocument();
+    }
+
+    static final Document parseNsAwareDocument(final InputSource inputSource) throws SAXException, IOException {
+        return XmlParserPool.getNsAwareInstance().parse(inputSource);
     }
 }
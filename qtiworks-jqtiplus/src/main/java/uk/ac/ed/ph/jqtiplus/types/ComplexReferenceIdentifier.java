@@ -35,6 +35,7 @@ package uk.ac.ed.ph.jqtiplus.types;
 
 import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.InternPool;
 import uk.ac.ed.ph.jqtiplus.node.expression.general.LookupExpression;
 
 import java.io.Serializable;
@@ -52,6 +53,9 @@ public final class ComplexReferenceIdentifier implements Serializable, Comparabl
 
     private static final long serialVersionUID = 1842878881636384148L;
 
+    /** Pool of canonical instances, keyed on their String values */
+    private static final InternPool<String, ComplexReferenceIdentifier> internPool = new InternPool<String, ComplexReferenceIdentifier>(InternPool.DEFAULT_MAX_SIZE);
+
     private final String value;
     private final boolean dotted;
 
@@ -67,13 +71,35 @@ public final class ComplexReferenceIdentifier implements Serializable, Comparabl
         return new ComplexReferenceIdentifier(value);
     }
 
+    /**
+     * Parses the given Identifier String as per {@link #parseString(String)}, but returns a shared
+     * canonical instance where possible. This is used when reading in attributes from QTI XML,
+     * where the same identifiers crop up over and over again, and must NOT be used for data that
+     * may come from candidates.
+     *
+     * @throws QtiParseException if value is not a valid identifier
+     */
+    public static ComplexReferenceIdentifier parseInterned(final String value) {
+        Assert.notNull(value);
+        final ComplexReferenceIdentifier existing = internPool.get(value);
+        if (existing!=null) {
+            return existing;
+        }
+        return internPool.intern(value, parseString(value));
+    }
+
     /**
      * Creates an {@link ComplexReferenceIdentifier} from the given String, without checking its syntax.
      * This should ONLY be used for identifiers that are known to be valid, such as the ones
      * defined in the QTI specification.
+     * <p>
+     * This returns an existing interned instance where possible, but never adds to the pool
+     * used by {@link #parseInterned(String)}, as the value hasn't been checked.
      */
     public static ComplexReferenceIdentifier assumedLegal(final String value) {
-        return new ComplexReferenceIdentifier(value);
+        Assert.notNull(value);
+        final ComplexReferenceIdentifier existing = internPool.get(value);
+        return existing!=null ? existing : new ComplexReferenceIdentifier(value);
     }
 
     private ComplexReferenceIdentifier(final String value) {
@@ -98,6 +124,9 @@ public final class ComplexReferenceIdentifier implements Serializable, Comparabl
 
     @Override
     public boolean equals(final Object obj) {
+        if (obj==this) {
+            return true;
+        }
         if (!(obj instanceof ComplexReferenceIdentifier)) {
             return false;
         }
@@ -105,6 +134,12 @@ public final class ComplexReferenceIdentifier implements Serializable, Comparabl
         return value.equals(other.value);
     }
 
+    /** Replaces deserialized instances with existing interned ones, where possible */
+    private Object readResolve() {
+        final ComplexReferenceIdentifier existing = internPool.get(value);
+        return existing!=null ? existing : this;
+    }
+
     @Override
     public int compareTo(final ComplexReferenceIdentifier other) {
         return value.compareTo(other.value);
@@ -35,6 +35,7 @@ package uk.ac.ed.ph.jqtiplus.types;
 
 import uk.ac.ed.ph.jqtiplus.exception.QtiParseException;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.InternPool;
 
 import java.io.Serializable;
 
@@ -54,6 +55,9 @@ public final class Identifier implements Serializable, Comparable<Identifier> {
 
     private static final long serialVersionUID = 1842878881636384148L;
 
+    /** Pool of canonical instances, keyed on their String values */
+    private static final InternPool<String, Identifier> internPool = new InternPool<String, Identifier>(InternPool.DEFAULT_MAX_SIZE);
+
     private final String value;
 
     /**
@@ -68,13 +72,52 @@ public final class Identifier implements Serializable, Comparable<Identifier> {
         return new Identifier(value);
     }
 
+    /**
+     * Parses the given Identifier String as per {@link #parseString(String)}, but returns a shared
+     * canonical instance where possible, adding to the pool of these if required. This is used
+     * when reading in attributes from QTI XML, where the same identifiers crop up over and over
+     * again.
+     * <p>
+     * This must NOT be used for data that may come from candidates (e.g. responses or state data),
+     * as that would let the pool fill up with values that are never seen again. Use
+     * {@link #parseReusing(String)} instead.
+     *
+     * @throws QtiParseException if value is not a valid identifier
+     */
+    public static Identifier parseInterned(final String value) {
+        Assert.notNull(value);
+        final Identifier existing = internPool.get(value);
+        if (existing!=null) {
+            return existing;
+        }
+        return internPool.intern(value, parseString(value));
+    }
+
+    /**
+     * Parses the given Identifier String as per {@link #parseString(String)}, but returns an
+     * existing instance interned by {@link #parseInterned(String)} if there is one. This never
+     * adds to the pool, so is safe to use for response values and state data.
+     *
+     * @throws QtiParseException if value is not a valid identifier
+     */
+    public static Identifier parseReusing(final String value) {
+        Assert.notNull(value);
+        final Identifier existing = internPool.get(value);
+        return existing!=null ? existing : parseString(value);
+    }
+
     /**
      * Creates an {@link Identifier} from the given String, without checking its syntax.
      * This should ONLY be used for identifiers that are known to be valid, such as the ones
      * defined in the QTI specification.
+     * <p>
+     * This returns an existing interned instance where possible, but never adds to the pool
+     * used by {@link #parseInterned(String)}, as the value hasn't been checked.
      */
     public static Identifier assumedLegal(final String value) {
-        return new Identifier(value);
+        Assert.notNull(value);
+        final Identifier existing = internPool.get(value);
+        return existing!=null ? existing : new Identifier(value);
     }
 
     private Identifier(final String value) {
@@ -93,6 +136,9 @@ public final class Identifier implements Serializable, Comparable<Identifier> {
 
     @Override
     public boolean equals(final Object obj) {
+        if (obj==this) {
+            return true;
+        }
         if (!(obj instanceof Identifier)) {
             return false;
         }
@@ -100,6 +146,12 @@ public final class Identifier implements Serializable, Comparable<Identifier> {
         return value.equals(other.value);
     }
 
+    /** Replaces deserialized instances with existing interned ones, where possible */
+    private Object readResolve() {
+        final Identifier existing = internPool.get(value);
+        return existing!=null ? existing : this;
+    }
+
     @Override
     public int compareTo(final Identifier other) {
         return value.compareTo(other.value);
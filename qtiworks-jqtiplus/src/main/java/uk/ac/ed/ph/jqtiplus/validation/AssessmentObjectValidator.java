@@ -35,6 +35,7 @@ package uk.ac.ed.ph.jqtiplus.validation;
 
 import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
 import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+import uk.ac.ed.ph.jqtiplus.internal.util.ConcurrencyUtilities;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.item.response.processing.ResponseProcessing;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentItemRef;
@@ -48,8 +49,13 @@ import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
 import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +65,10 @@ import org.slf4j.LoggerFactory;
  * <p>
  * You won't normally want to use this on its own. See {@link AssessmentObjectXmlLoader} for a more
  * end-to-end solution.
+ * <p>
+ * If the {@link JqtiExtensionManager} has an item validation {@link ExecutorService}, then
+ * the items referenced by a test are validated in parallel. The resulting
+ * {@link TestValidationResult} is the same as when validating items one at a time.
  *
  * @see AssessmentObjectXmlLoader
  *
@@ -79,6 +89,10 @@ public final class AssessmentObjectValidator {
         logger.debug("Validating {}", resolvedAssessmentItem);
         final ItemValidationResult result = new ItemValidationResult(resolvedAssessmentItem);
         final AssessmentItem item = resolvedAssessmentItem.getItemLookup().extractIfSuccessful();
+        if (item!=null && item.isPresentationContentSkipped()) {
+            throw new IllegalArgumentException("Item at System ID " + item.getSystemId()
+                    + " was read without its presentation content so cannot be validated");
+        }
         if (item!=null) {
             final RootNodeLookup<ResponseProcessing> resolvedResponseProcessingTemplate = resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup();
             if (resolvedResponseProcessingTemplate!=null && !resolvedResponseProcessingTemplate.wasSuccessful()) {
@@ -97,15 +111,32 @@ public final class AssessmentObjectValidator {
     }
 
     public TestValidationResult validateTest(final ResolvedAssessmentTest resolvedAssessmentTest) {
+        return validateTest(resolvedAssessmentTest, null);
+    }
+
+    /**
+     * Validates the given {@link ResolvedAssessmentTest}, notifying the given (optional)
+     * {@link ValidationProgressListener} as each item is validated.
+     * <p>
+     * Item results are always merged in the order in which the items appear in the test,
+     * even if they were validated in parallel.
+     */
+    public TestValidationResult validateTest(final ResolvedAssessmentTest resolvedAssessmentTest,
+            final ValidationProgressListener progressListener) {
         Assert.notNull(resolvedAssessmentTest);
         logger.debug("Validating {}", resolvedAssessmentTest);
         final TestValidationResult result = new TestValidationResult(resolvedAssessmentTest);
         final AssessmentTest test = resolvedAssessmentTest.getTestLookup().extractIfSuccessful();
         if (test!=null) {
             /* Validate each unique item first */
-            for (final Entry<URI, ResolvedAssessmentItem> entry : resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().entrySet()) {
-                final URI itemSystemId = entry.getKey();
-                final ResolvedAssessmentItem resolvedAssessmentItem = entry.getValue();
+            final Map<URI, ResolvedAssessmentItem> resolvedAssessmentItemMap = resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap();
+            final List<ItemValidationResult> itemValidationResults = validateItems(resolvedAssessmentItemMap.values(), progressListener);
+
+            /* Then merge item results in order */
+            int itemIndex = 0;
+            for (final URI itemSystemId : resolvedAssessmentItemMap.keySet()) {
+                final ItemValidationResult itemValidationResult = itemValidationResults.get(itemIndex++);
+                final ResolvedAssessmentItem resolvedAssessmentItem = itemValidationResult.getResolvedAssessmentItem();
 
                 /* Create sensible message for referring to this item in case we need to record any errors below */
                 final StringBuilder itemReferenceBuilder = new StringBuilder("Referenced item at System ID ")
@@ -125,7 +156,6 @@ public final class AssessmentObjectValidator {
                 }
                 final String itemReferenceDescription = itemReferenceBuilder.toString();
 
-                final ItemValidationResult itemValidationResult = validateItem(resolvedAssessmentItem);
                 result.addItemValidationResult(itemValidationResult);
                 if (resolvedAssessmentItem.getItemLookup().wasSuccessful()) {
                     if (itemValidationResult.hasModelValidationErrors()) {
@@ -158,6 +188,61 @@ public final class AssessmentObjectValidator {
         return result;
     }
 
+    /**
+     * Validates each of the given items, in parallel if we have been configured to do so,
+     * returning the results in the same order as the items.
+     */
+    private List<ItemValidationResult> validateItems(final Collection<ResolvedAssessmentItem> resolvedAssessmentItems,
+            final ValidationProgressListener progressListener) {
+        final int itemCount = resolvedAssessmentItems.size();
+        final AtomicInteger validatedItemCount = new AtomicInteger();
+        if (progressListener!=null) {
+            progressListener.onValidationStarted(itemCount);
+        }
+        final List<ItemValidationResult> result = new ArrayList<ItemValidationResult>(itemCount);
+        final ExecutorService itemValidationExecutor = jqtiExtensionManager!=null ? jqtiExtensionManager.getItemValidationExecutor() : null;
+        if (itemValidationExecutor!=null && itemCount > 1) {
+            validateItemsInParallel(itemValidationExecutor, resolvedAssessmentItems, progressListener, validatedItemCount, result);
+        }
+        else {
+            for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentItems) {
+                result.add(validateItem(resolvedAssessmentItem, progressListener, validatedItemCount, itemCount));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Validates each of the given items using the given {@link ExecutorService}, adding the results
+     * to the given List in the same order as the items. If any item fails unexpectedly, the
+     * {@link RuntimeException} for the first such item is rethrown.
+     */
+    private void validateItemsInParallel(final ExecutorService itemValidationExecutor,
+            final Collection<ResolvedAssessmentItem> resolvedAssessmentItems, final ValidationProgressListener progressListener,
+            final AtomicInteger validatedItemCount, final List<ItemValidationResult> result) {
+        final int itemCount = resolvedAssessmentItems.size();
+        final List<Callable<ItemValidationResult>> tasks = new ArrayList<Callable<ItemValidationResult>>(itemCount);
+        for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentItems) {
+            tasks.add(new Callable<ItemValidationResult>() {
+                @Override
+                public ItemValidationResult call() {
+                    return validateItem(resolvedAssessmentItem, progressListener, validatedItemCount, itemCount);
+                }
+            });
+        }
+        result.addAll(ConcurrencyUtilities.invokeInOrder(itemValidationExecutor, tasks, "validating test items"));
+    }
+
+    private ItemValidationResult validateItem(final ResolvedAssessmentItem resolvedAssessmentItem,
+            final ValidationProgressListener progressListener, final AtomicInteger validatedItemCount, final int itemCount) {
+        final ItemValidationResult result = validateItem(resolvedAssessmentItem);
+        final int count = validatedItemCount.incrementAndGet();
+        if (progressListener!=null) {
+            progressListener.onItemValidated(result, count, itemCount);
+        }
+        return result;
+    }
+
     //-------------------------------------------------------------------
 
     @Override
@@ -0,0 +1,69 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.validation;
+
+import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+
+/**
+ * Callback interface for finding out how far {@link AssessmentObjectValidator} has got when
+ * validating the items within an {@link AssessmentTest}.
+ * <p>
+ * If items are being validated in parallel, then {@link #onItemValidated(ItemValidationResult, int, int)}
+ * will be called by multiple threads, and not necessarily in the order the items appear in the test.
+ * Implementations must therefore be safe for use by multiple threads.
+ *
+ * @see AssessmentObjectValidator#validateTest(ResolvedAssessmentTest, ValidationProgressListener)
+ *
+ * @author David McKain
+ */
+public interface ValidationProgressListener {
+
+    /**
+     * Called before any items are validated.
+     *
+     * @param itemCount number of distinct items that will be validated
+     */
+    void onValidationStarted(int itemCount);
+
+    /**
+     * Called once each item has been validated.
+     *
+     * @param itemValidationResult result of validating this item
+     * @param validatedItemCount number of items that have been validated so far, including this one
+     * @param itemCount total number of distinct items being validated
+     */
+    void onItemValidated(ItemValidationResult itemValidationResult, int validatedItemCount, int itemCount);
+
+}
@@ -68,8 +68,8 @@ public abstract class AbstractPairValue extends SingleValue {
      * @throws QtiParseException if either value is not a valid identifier
      */
     public AbstractPairValue(final String sourceValue, final String destValue) {
-        this.sourceValue = Identifier.parseString(sourceValue);
-        this.destValue = Identifier.parseString(destValue);
+        this.sourceValue = Identifier.parseReusing(sourceValue);
+        this.destValue = Identifier.parseReusing(destValue);
     }
 
     /**
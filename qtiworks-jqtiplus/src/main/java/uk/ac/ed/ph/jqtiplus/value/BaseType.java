@@ -73,7 +73,7 @@ public enum BaseType implements Stringifiable {
 
         @Override
         public SingleValue parseSingleValue(final String string) {
-            return new IdentifierValue(Identifier.parseString(string.trim()));
+            return new IdentifierValue(Identifier.parseReusing(string.trim()));
         }
     },
 
@@ -0,0 +1,169 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.xmlutils;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.validation.Schema;
+
+/**
+ * Thread-safe implementation of {@link SchemaCache} that never blocks readers of schemas
+ * that have already been compiled, and ensures that each schema is compiled only once for
+ * each key.
+ * <p>
+ * The {@link XmlResourceReader} recognises this implementation and uses
+ * {@link #getSchema(String, Callable)} without taking any locks, so that the (slow) compilation
+ * of one schema doesn't hold up validation against any others. Threads wanting a schema that
+ * is currently being compiled wait for that compilation to finish rather than starting their own.
+ * <p>
+ * If compilation fails then nothing is cached, so the next request for the same key will try again.
+ * <p>
+ * An instance of this class may safely be used by multiple threads.
+ *
+ * @author David McKain
+ */
+public final class ConcurrentSchemaCache implements SchemaCache {
+
+    private final ConcurrentMap<String, FutureTask<Schema>> cacheData;
+
+    public ConcurrentSchemaCache() {
+        this.cacheData = new ConcurrentHashMap<String, FutureTask<Schema>>();
+    }
+
+    /**
+     * Returns the {@link Schema} having the given key, if it has already been compiled,
+     * otherwise null. This never blocks.
+     */
+    @Override
+    public Schema getSchema(final String key) {
+        final FutureTask<Schema> task = cacheData.get(key);
+        if (task==null || !task.isDone()) {
+            return null;
+        }
+        return awaitSchema(key, task);
+    }
+
+    @Override
+    public void putSchema(final String key, final Schema schema) {
+        Assert.notNull(schema, "schema");
+        final FutureTask<Schema> task = new FutureTask<Schema>(new Callable<Schema>() {
+            @Override
+            public Schema call() {
+                return schema;
+            }
+        });
+        task.run();
+        cacheData.put(key, task);
+    }
+
+    /**
+     * Returns the {@link Schema} having the given key, using the given {@link Callable} to compile
+     * it if required. The {@link Callable} is called at most once for each key, unless it fails.
+     * If another thread is already compiling the same schema then this waits for it to finish.
+     *
+     * @param key key for the required {@link Schema}
+     * @param schemaCompiler {@link Callable} that will compile the required {@link Schema} if needed
+     *
+     * @throws XmlResourceReaderException if the {@link Schema} could not be compiled. Any
+     *   {@link RuntimeException} thrown by the schemaCompiler is rethrown as-is.
+     */
+    public Schema getSchema(final String key, final Callable<Schema> schemaCompiler) {
+        Assert.notNull(key, "key");
+        Assert.notNull(schemaCompiler, "schemaCompiler");
+        FutureTask<Schema> task = cacheData.get(key);
+        if (task==null) {
+            final FutureTask<Schema> newTask = new FutureTask<Schema>(schemaCompiler);
+            task = cacheData.putIfAbsent(key, newTask);
+            if (task==null) {
+                /* We won, so do the compilation in this thread */
+                task = newTask;
+                task.run();
+            }
+        }
+        return awaitSchema(key, task);
+    }
+
+    /** Returns the number of schemas currently cached, including any being compiled */
+    public int size() {
+        return cacheData.size();
+    }
+
+    public void clear() {
+        cacheData.clear();
+    }
+
+    private Schema awaitSchema(final String key, final FutureTask<Schema> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                }
+                catch (final InterruptedException e) {
+                    /* (Keep waiting, as the compilation doesn't belong to this thread) */
+                    interrupted = true;
+                }
+                catch (final ExecutionException e) {
+                    /* Compilation failed. Forget about it so that we can try again next time */
+                    cacheData.remove(key, task);
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new XmlResourceReaderException("Unexpected Exception compiling schema(s) with key " + key, cause);
+                }
+            }
+        }
+        finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(keys=" + cacheData.keySet() + ")";
+    }
+}
@@ -39,7 +39,8 @@ import javax.xml.validation.Schema;
  * Interface for a simple schema cache.
  * <p>
  * All use of this cache within this application is done in a thread-safe manner, so
- * implementations need not be thread-safe.
+ * implementations need not be thread-safe. (The exception is {@link ConcurrentSchemaCache},
+ * which is thread-safe and is used without locking.)
  *
  * @author David McKain
  */
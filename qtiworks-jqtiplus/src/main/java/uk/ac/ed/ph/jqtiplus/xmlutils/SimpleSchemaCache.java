@@ -43,6 +43,10 @@ import javax.xml.validation.Schema;
  * <p>
  * (This is probably a good fit for QTI systems, as they'll support a small and known set of
  * schemas.)
+ * <p>
+ * The {@link XmlResourceReader} locks this while it is being used, so compiling one schema
+ * holds up validation against any others. Use {@link ConcurrentSchemaCache} for systems that
+ * need to validate lots of documents concurrently.
  *
  * @author David McKain
  */
@@ -0,0 +1,259 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.xmlutils;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.internal.util.Assert;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Bounded pool of pre-configured {@link SAXParser}s and {@link DocumentBuilder}s.
+ * <p>
+ * Creating JAXP factories involves a service lookup over the ClassPath, which is surprisingly
+ * expensive when done for every parse. Each pool therefore configures its factories once
+ * and then hands out parsers created from them. Parsers are reset when they are returned
+ * and kept for reuse, up to a maximum number of idle parsers. A borrowed parser must only
+ * be used by one thread at a time, so callers should return it in a <code>finally</code> block.
+ * <p>
+ * Per-parse settings (e.g. handlers and entity resolvers) are not part of the pooled
+ * configuration and must be set each time a parser is borrowed.
+ * <p>
+ * An instance of this class may safely be used by multiple threads.
+ *
+ * @author David McKain
+ */
+public final class XmlParserPool {
+
+    /** Default maximum number of idle parsers of each type kept by a pool */
+    public static final int DEFAULT_MAX_IDLE = 32;
+
+    /** Handler used to clear out the handlers of returned SAX parsers */
+    private static final DefaultHandler NULL_HANDLER = new DefaultHandler();
+
+    /** Shared pool of namespace-aware, non-validating parsers */
+    private static final XmlParserPool nsAwareInstance = new XmlParserPool(createNsAwareSaxParserFactory(),
+            createNsAwareDocumentBuilderFactory(), DEFAULT_MAX_IDLE);
+
+    /**
+     * Returns a shared pool of namespace-aware, non-validating parsers, suitable for reading
+     * trusted XML and building new DOM {@link Document}s.
+     */
+    public static XmlParserPool getNsAwareInstance() {
+        return nsAwareInstance;
+    }
+
+    public static SAXParserFactory createNsAwareSaxParserFactory() {
+        final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+        saxParserFactory.setNamespaceAware(true);
+        saxParserFactory.setValidating(false);
+        return saxParserFactory;
+    }
+
+    public static DocumentBuilderFactory createNsAwareDocumentBuilderFactory() {
+        final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        return documentBuilderFactory;
+    }
+
+    //--------------------------------------------------
+
+    private final SAXParserFactory saxParserFactory;
+    private final DocumentBuilderFactory documentBuilderFactory;
+    private final BlockingQueue<SAXParser> idleSaxParsers;
+    private final BlockingQueue<DocumentBuilder> idleDocumentBuilders;
+
+    /**
+     * Creates a new pool using the given factories, which must be fully configured and must not
+     * be changed afterwards.
+     *
+     * @param saxParserFactory factory for creating {@link SAXParser}s, which must not be null
+     * @param documentBuilderFactory factory for creating {@link DocumentBuilder}s, which must not be null
+     * @param maxIdle maximum number of idle parsers of each type to keep, which must be positive
+     */
+    public XmlParserPool(final SAXParserFactory saxParserFactory, final DocumentBuilderFactory documentBuilderFactory,
+            final int maxIdle) {
+        Assert.notNull(saxParserFactory, "saxParserFactory");
+        Assert.notNull(documentBuilderFactory, "documentBuilderFactory");
+        if (maxIdle<=0) {
+            throw new IllegalArgumentException("maxIdle must be positive");
+        }
+        this.saxParserFactory = saxParserFactory;
+        this.documentBuilderFactory = documentBuilderFactory;
+        this.idleSaxParsers = new ArrayBlockingQueue<SAXParser>(maxIdle);
+        this.idleDocumentBuilders = new ArrayBlockingQueue<DocumentBuilder>(maxIdle);
+    }
+
+    //--------------------------------------------------
+
+    /**
+     * Borrows a {@link SAXParser} from this pool, creating a new one if none are idle.
+     * This should be returned via {@link #returnSaxParser(SAXParser)} once finished with.
+     */
+    public SAXParser borrowSaxParser() {
+        final SAXParser result = idleSaxParsers.poll();
+        if (result!=null) {
+            return result;
+        }
+        try {
+            /* (JAXP factories aren't guaranteed to be thread-safe) */
+            synchronized (saxParserFactory) {
+                return saxParserFactory.newSAXParser();
+            }
+        }
+        catch (final ParserConfigurationException e) {
+            throw new QtiLogicException("Could not create SAXParser. Check deployment/runtime ClassPath", e);
+        }
+        catch (final SAXException e) {
+            throw new QtiLogicException("Could not create SAXParser. Check deployment/runtime ClassPath", e);
+        }
+    }
+
+    /**
+     * Returns a {@link SAXParser} previously borrowed from this pool, resetting it for reuse.
+     * Parsers that can't be reset are discarded. Passing null does nothing.
+     */
+    public void returnSaxParser(final SAXParser saxParser) {
+        if (saxParser==null) {
+            return;
+        }
+        try {
+            saxParser.reset();
+            final XMLReader xmlReader = saxParser.getXMLReader();
+            xmlReader.setContentHandler(NULL_HANDLER);
+            xmlReader.setDTDHandler(NULL_HANDLER);
+            xmlReader.setEntityResolver(NULL_HANDLER);
+            xmlReader.setErrorHandler(NULL_HANDLER);
+        }
+        catch (final UnsupportedOperationException e) {
+            return;
+        }
+        catch (final SAXException e) {
+            return;
+        }
+        idleSaxParsers.offer(saxParser);
+    }
+
+    /**
+     * Borrows a {@link DocumentBuilder} from this pool, creating a new one if none are idle.
+     * This should be returned via {@link #returnDocumentBuilder(DocumentBuilder)} once finished with.
+     */
+    public DocumentBuilder borrowDocumentBuilder() {
+        final DocumentBuilder result = idleDocumentBuilders.poll();
+        if (result!=null) {
+            return result;
+        }
+        try {
+            synchronized (documentBuilderFactory) {
+                return documentBuilderFactory.newDocumentBuilder();
+            }
+        }
+        catch (final ParserConfigurationException e) {
+            throw new QtiLogicException("Could not create DocumentBuilder. Check deployment/runtime ClassPath", e);
+        }
+    }
+
+    /**
+     * Returns a {@link DocumentBuilder} previously borrowed from this pool, resetting it for reuse.
+     * Builders that can't be reset are discarded. Passing null does nothing.
+     */
+    public void returnDocumentBuilder(final DocumentBuilder documentBuilder) {
+        if (documentBuilder==null) {
+            return;
+        }
+        try {
+            documentBuilder.reset();
+            documentBuilder.setEntityResolver(null);
+            documentBuilder.setErrorHandler(null);
+        }
+        catch (final UnsupportedOperationException e) {
+            return;
+        }
+        idleDocumentBuilders.offer(documentBuilder);
+    }
+
+    //--------------------------------------------------
+
+    /**
+     * Convenience method that creates a new empty DOM {@link Document}.
+     */
+    public Document newDocument() {
+        final DocumentBuilder documentBuilder = borrowDocumentBuilder();
+        try {
+            return documentBuilder.newDocument();
+        }
+        finally {
+            returnDocumentBuilder(documentBuilder);
+        }
+    }
+
+    /**
+     * Convenience method that parses the given {@link InputSource} into a DOM {@link Document}
+     * using a pooled {@link DocumentBuilder}.
+     */
+    public Document parse(final InputSource inputSource) throws SAXException, IOException {
+        Assert.notNull(inputSource, "inputSource");
+        final DocumentBuilder documentBuilder = borrowDocumentBuilder();
+        try {
+            return documentBuilder.parse(inputSource);
+        }
+        finally {
+            returnDocumentBuilder(documentBuilder);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
+                + "(saxParserFactory=" + saxParserFactory
+                + ",documentBuilderFactory=" + documentBuilderFactory
+                + ",idleSaxParsers=" + idleSaxParsers.size()
+                + ",idleDocumentBuilders=" + idleDocumentBuilders.size()
+                + ")";
+    }
+}
@@ -38,37 +38,42 @@ import uk.ac.ed.ph.jqtiplus.xmlutils.locators.EntityResourceResolver;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.LoadSaveResourceResolver;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
 import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * Helper class that makes it easy to parse XML into a DOM and optionally schema validate
@@ -85,9 +90,21 @@ import org.xml.sax.XMLReader;
  *
  * <h2>Implementation notes</h2>
  *
- * The XML parsing process performs a SAX parse followed by a DOM tree build,
+ * The XML parsing process performs a single SAX parse that builds a DOM tree,
  * filling the resulting tree with SAX {@link Locator} information, which makes
- * later error reporting richer.
+ * later error reporting richer. If schema validation is requested, the same SAX
+ * events are also fed through a {@link ValidatorHandler}, so the input is only
+ * read once. Callers may alternatively supply their own {@link ContentHandler}
+ * to receive the SAX events instead of building a DOM.
+ * <p>
+ * The exception to this is input that uses XInclude. The parser performs the inclusions
+ * (adding <code>xml:base</code> attributes to the included elements) before the SAX events
+ * are seen, whereas schemas such as QTI's expect to validate the <code>xi:include</code>
+ * elements themselves. Input that mentions the XInclude namespace is therefore validated by
+ * reading it in again, exactly as it is.
+ * <p>
+ * SAX parsers are pre-configured once and pooled via an {@link XmlParserPool}, as creating
+ * new JAXP factories for each read is surprisingly expensive.
  *
  * @see XmlReadResult
  * @author David McKain
@@ -99,6 +116,34 @@ public final class XmlResourceReader {
     /** Name of the DOM "user object" where SAX {@link Locator} information will be stowed while parsing */
     public static final String LOCATION_INFORMATION_NAME = "locationInformation";
 
+    /** Namespace URI for XInclude */
+    public static final String XINCLUDE_NAMESPACE_URI = "http://www.w3.org/2001/XInclude";
+
+    /**
+     * Pool of SAX parsers used to read XML input. These are configured once to be namespace-aware
+     * and XInclude-aware, and to resolve external entities (via the {@link FailureEntityResolver}
+     * set up for each read). Schema validation is performed separately.
+     */
+    private static final XmlParserPool inputParserPool = new XmlParserPool(createInputSaxParserFactory(),
+            XmlParserPool.createNsAwareDocumentBuilderFactory(), XmlParserPool.DEFAULT_MAX_IDLE);
+
+    private static SAXParserFactory createInputSaxParserFactory() {
+        final SAXParserFactory spFactory = SAXParserFactory.newInstance();
+        spFactory.setNamespaceAware(true);
+        spFactory.setValidating(false);
+        spFactory.setXIncludeAware(true);
+        try {
+            spFactory.setFeature("http://xml.org/sax/features/validation", false);
+            spFactory.setFeature("http://xml.org/sax/features/external-general-entities", true);
+            spFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", true);
+            spFactory.setFeature("http://xml.org/sax/features/lexical-handler/parameter-entities", false);
+        }
+        catch (final Exception e) {
+            throw new XmlResourceReaderException("Could not configure SAXParserFactory. Check deployment/runtime ClassPath", e);
+        }
+        return spFactory;
+    }
+
     //--------------------------------------------------
 
     /**
@@ -159,12 +204,41 @@ public final class XmlResourceReader {
         return schemaCache;
     }
 
+    /**
+     * Compiles each registered schema and stores it in the {@link SchemaCache}, so that the first
+     * documents to be validated against each of these schemas don't have to wait for this.
+     * This does nothing if there is no {@link SchemaCache}.
+     * <p>
+     * This only preloads each schema on its own, which is what is used for documents that don't
+     * declare a <code>schemaLocation</code> or declare only a single schema. Schemas for other
+     * combinations will still be compiled when first used.
+     *
+     * @return number of schemas preloaded
+     *
+     * @throws XmlResourceReaderException if any of the registered schemas could not be located
+     *   or compiled
+     */
+    public int preloadSchemas() {
+        if (schemaCache==null || registeredSchemaMap==null) {
+            return 0;
+        }
+        final Set<String> schemaUris = new LinkedHashSet<String>(registeredSchemaMap.values());
+        for (final String schemaUri : schemaUris) {
+            logger.debug("Preloading schema {}", schemaUri);
+            final List<String> schemaUriList = new ArrayList<String>();
+            schemaUriList.add(schemaUri);
+            getSchema(schemaUriList);
+        }
+        logger.debug("Preloaded {} schema(s)", schemaUris.size());
+        return schemaUris.size();
+    }
+
     //--------------------------------------------------
 
     /**
-     * FIXME: This currently calls the {@link ResourceLocator} to read the input *twice*. We may
-     * want to save the initial input to a temp file if the stream is not something that can be
-     * quickly re-read (e.g. HTTP!)
+     * Reads and (optionally) schema validates the XML resource having the given System ID.
+     * This reads the resource only once, performing schema validation during the same parse
+     * used to build the DOM.
      *
      * @param systemId system ID of the XML resource to read
      * @param inputResourceLocator resource locator that will find the XML to be read
@@ -180,13 +254,45 @@ public final class XmlResourceReader {
     public XmlReadResult read(final URI systemId, final ResourceLocator inputResourceLocator,
             final ResourceLocator entityResourceLocator, final boolean schemaValidating)
             throws XmlResourceNotFoundException {
+        final Document document = XmlParserPool.getNsAwareInstance().newDocument();
+        final XmlParseResult xmlParseResult = read(systemId, inputResourceLocator, entityResourceLocator,
+                schemaValidating, new SimpleDomBuilderHandler(document));
+        return new XmlReadResult(xmlParseResult.isParsed() ? document : null, xmlParseResult);
+    }
+
+    /**
+     * Variant of {@link #read(URI, ResourceLocator, ResourceLocator, boolean)} that passes the
+     * SAX events from the parse to the given {@link ContentHandler} instead of building a DOM.
+     * This allows callers to build their own representation of the XML without holding a DOM
+     * in memory.
+     * <p>
+     * Note that the {@link ContentHandler} receives events as the parse proceeds, so callers
+     * must check the resulting {@link XmlParseResult} before trusting whatever they have built.
+     *
+     * @param systemId system ID of the XML resource to read
+     * @param inputResourceLocator resource locator that will find the XML to be read
+     * @param entityResourceLocator resource locator that will load in any entities/DTD stuff
+     *   encountered
+     * @param schemaValidating whether to perform schema validation or not.
+     * @param contentHandler {@link ContentHandler} that will receive the SAX events from the parse
+     *
+     * @throws XmlResourceNotFoundException if the XML resource with the given System ID cannot be
+     *             located using the given {@link ResourceLocator}
+     * @throws XmlResourceReaderException if an unexpected Exception occurred parsing and/or validating the XML, or
+     *             if any of the required schemas could not be located.
+     */
+    public XmlParseResult read(final URI systemId, final ResourceLocator inputResourceLocator,
+            final ResourceLocator entityResourceLocator, final boolean schemaValidating,
+            final ContentHandler contentHandler)
+            throws XmlResourceNotFoundException {
         Assert.notNull(systemId, "systemId");
         Assert.notNull(inputResourceLocator, "inputResourceLocator");
         Assert.notNull(entityResourceLocator, "entityResourceLocator");
+        Assert.notNull(contentHandler, "contentHandler");
 
         try {
             logger.debug("read({}, {}, {}, {}) starting", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating });
-            final XmlReadResult result = doRead(systemId, inputResourceLocator, entityResourceLocator, schemaValidating);
+            final XmlParseResult result = doRead(systemId, inputResourceLocator, entityResourceLocator, schemaValidating, contentHandler);
             logger.debug("read({}, {}, {}, {}) => {}", new Object[] { systemId, inputResourceLocator, entityResourceLocator, schemaValidating, result });
             return result;
         }
@@ -203,53 +309,49 @@ public final class XmlResourceReader {
         }
     }
 
-    private XmlReadResult doRead(final URI systemId, final ResourceLocator inputResourceLocator,
-            final ResourceLocator entityResourceLocator, final boolean schemaValidating)
-            throws XmlResourceNotFoundException, ParserConfigurationException, SAXException, IOException {
+    private XmlParseResult doRead(final URI systemId, final ResourceLocator inputResourceLocator,
+            final ResourceLocator entityResourceLocator, final boolean schemaValidating,
+            final ContentHandler contentHandler)
+            throws XmlResourceNotFoundException, SAXException, IOException {
         final String systemIdString = systemId.toString();
         boolean parsed = false;
         boolean validated = false;
-        final List<String> supportedSchemaNamespaces = new ArrayList<String>();
-        final List<String> unsupportedSchemaNamespaces = new ArrayList<String>();
 
         final InputErrorHandler inputErrorHandler = new InputErrorHandler();
 
-        /* Create the DOM Document that will be built up here */
-        final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        dbFactory.setNamespaceAware(true);
-        final DocumentBuilder documentBuilder = dbFactory.newDocumentBuilder();
-        documentBuilder.setErrorHandler(inputErrorHandler);
-        final Document document = documentBuilder.newDocument();
-
         /* Set up SAX EntityResolver, which will record locator failures appropriately */
         final FailureEntityResolver failureEntityResolver = new FailureEntityResolver(entityResourceLocator);
 
-        /* Create and configure SAX parser */
-        final SAXParserFactory spFactory = SAXParserFactory.newInstance();
-        spFactory.setNamespaceAware(true);
-        spFactory.setValidating(false);
-        spFactory.setXIncludeAware(true);
-        spFactory.setFeature("http://xml.org/sax/features/validation", false);
-        spFactory.setFeature("http://xml.org/sax/features/external-general-entities", true);
-        spFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", true);
-        spFactory.setFeature("http://xml.org/sax/features/lexical-handler/parameter-entities", false);
-        final XMLReader xmlReader = spFactory.newSAXParser().getXMLReader();
-        xmlReader.setErrorHandler(inputErrorHandler);
-        xmlReader.setEntityResolver(failureEntityResolver);
-
-        /* Parse input and convert to a DOM containing SAX Locator information */
-        logger.trace("XML parse of {} starting", systemIdString);
-        final InputSource inputSource = new InputSource();
-        inputSource.setByteStream(ensureLocateInput(systemId, inputResourceLocator));
-        inputSource.setSystemId(systemIdString);
-
-        final SimpleDomBuilderHandler handler = new SimpleDomBuilderHandler(document);
-        xmlReader.setContentHandler(handler);
+        /* Set up input, watching out for any use of XInclude */
+        final XIncludeDetectingInputStream inputStream = new XIncludeDetectingInputStream(ensureLocateInput(systemId, inputResourceLocator));
+
+        /* Set up handler that passes events on and (optionally) schema validates in the same pass */
+        final ValidatingForwardingHandler handler = new ValidatingForwardingHandler(systemIdString,
+                contentHandler, schemaValidating, inputStream);
+
+        /* Borrow pre-configured SAX parser */
+        final SAXParser saxParser = inputParserPool.borrowSaxParser();
         try {
-            xmlReader.parse(inputSource); /* Fatal errors will cause SAXParseException */
+            final XMLReader xmlReader = saxParser.getXMLReader();
+            xmlReader.setErrorHandler(inputErrorHandler);
+            xmlReader.setEntityResolver(failureEntityResolver);
+            xmlReader.setContentHandler(handler);
+
+            /* Parse input, passing events on to the target handler */
+            logger.trace("XML parse of {} starting", systemIdString);
+            final InputSource inputSource = new InputSource();
+            inputSource.setByteStream(inputStream);
+            inputSource.setSystemId(systemIdString);
+            try {
+                xmlReader.parse(inputSource); /* Fatal errors will cause SAXParseException */
+            }
+            catch (final SAXParseException e) {
+                /* Fatal parsing error */
+            }
         }
-        catch (final SAXParseException e) {
-            /* Fatal parsing error */
+        finally {
+            inputParserPool.returnSaxParser(saxParser);
+            inputStream.close();
         }
 
         /* We'll consider successful parsing to be no errors or fatal errors, and no unresolved
@@ -259,81 +361,134 @@ public final class XmlResourceReader {
                 && unresolvedEntitySystemIds.isEmpty();
         logger.debug("XML parse of {} success? {}", systemIdString, parsed);
 
+        /* Merge in validation results, which we only report if the parse succeeded */
+        final List<String> supportedSchemaNamespaces = new ArrayList<String>();
+        final List<String> unsupportedSchemaNamespaces = new ArrayList<String>();
         if (parsed && schemaValidating) {
-            /* Work out which schema(s) to use */
-            logger.trace("Deciding which schemas to use to validate {}", systemIdString);
-            final Element rootElement = document.getDocumentElement();
-            final String schemaLocation = rootElement.getAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
-            final List<String> schemaUris = new ArrayList<String>();
-            if (schemaLocation.length() != 0) {
-                /* Document declares schema(s) to use. Make sure we support each one */
-                final String[] schemaData = schemaLocation.trim().split("\\s+");
-                for (int i = 0; i < schemaData.length; i += 2) { /* (ns1 uri1 ns2 uri2 ...) */
-                    final String schemaNamespaceUri = schemaData[i];
-                    final String schemaUri = getRegisteredSchemaLocation(schemaNamespaceUri);
-                    if (schemaUri != null) {
-                        supportedSchemaNamespaces.add(schemaNamespaceUri);
-                        schemaUris.add(schemaUri);
-                    }
-                    else {
-                        logger.trace("Schema with namespace " + schemaNamespaceUri + " declared in schemaLocation is not registered with this reader");
-                        unsupportedSchemaNamespaces.add(schemaNamespaceUri);
-                    }
-                }
+            supportedSchemaNamespaces.addAll(handler.supportedSchemaNamespaces);
+            unsupportedSchemaNamespaces.addAll(handler.unsupportedSchemaNamespaces);
+            if (handler.schema!=null && inputStream.isXIncludeNamespaceSeen()) {
+                /* The events we saw had any XIncludes performed, so validate the raw input instead */
+                validated = validateRawInput(systemId, inputResourceLocator, handler.schema, inputErrorHandler);
             }
             else {
-                /* No schema declared in the document, so use namespace of root element */
-                final String schemaNamespaceUri = rootElement.getNamespaceURI();
-                final String schemaUri = getRegisteredSchemaLocation(rootElement.getNamespaceURI());
+                inputErrorHandler.warnings.addAll(handler.validationErrorHandler.warnings);
+                inputErrorHandler.errors.addAll(handler.validationErrorHandler.errors);
+                inputErrorHandler.fatalErrors.addAll(handler.validationErrorHandler.fatalErrors);
+                validated = handler.validated;
+            }
+            logger.debug("Schema validation of {} performed? {}", systemIdString, validated);
+        }
+
+        /* Build up result */
+        return new XmlParseResult(systemId, parsed, validated,
+                inputErrorHandler.warnings, inputErrorHandler.errors, inputErrorHandler.fatalErrors,
+                unresolvedEntitySystemIds, supportedSchemaNamespaces, unsupportedSchemaNamespaces);
+    }
+
+    /**
+     * Schema validates the input having the given System ID by reading it in again, exactly
+     * as it is. This is used for input that uses XInclude, where the SAX events from the
+     * main parse are not what the schema expects to see.
+     *
+     * @return whether validation ran to completion
+     */
+    private boolean validateRawInput(final URI systemId, final ResourceLocator inputResourceLocator,
+            final Schema schema, final InputErrorHandler inputErrorHandler)
+            throws XmlResourceNotFoundException, SAXException, IOException {
+        final String systemIdString = systemId.toString();
+        logger.trace("Input {} uses XInclude, so validating the raw input", systemIdString);
+        final InputStream inputStream = ensureLocateInput(systemId, inputResourceLocator);
+        try {
+            final Validator validator = schema.newValidator();
+            validator.setResourceResolver(schemaResourceResolver);
+            validator.setErrorHandler(inputErrorHandler);
+            validator.validate(new StreamSource(inputStream, systemIdString));
+            logger.debug("Schema validation of raw input {} finished", systemIdString);
+            return true;
+        }
+        catch (final SAXParseException e) {
+            /* (The error will have been recorded by the inputErrorHandler) */
+            logger.debug("Schema validation of raw input {} aborted after fatal error", systemIdString);
+            return false;
+        }
+        finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Decides which registered schema(s) should be used to validate a document having
+     * the given document element details, recording supported and unsupported schema
+     * namespaces in the given Lists.
+     *
+     * @return URIs of the schemas to use, which will be empty if the document should not
+     *   be validated.
+     */
+    private List<String> chooseSchemaUris(final String systemIdString, final String documentElementNamespaceUri,
+            final String schemaLocation, final List<String> supportedSchemaNamespaces,
+            final List<String> unsupportedSchemaNamespaces) {
+        logger.trace("Deciding which schemas to use to validate {}", systemIdString);
+        final List<String> schemaUris = new ArrayList<String>();
+        if (schemaLocation!=null && schemaLocation.length() != 0) {
+            /* Document declares schema(s) to use. Make sure we support each one */
+            final String[] schemaData = schemaLocation.trim().split("\\s+");
+            for (int i = 0; i < schemaData.length; i += 2) { /* (ns1 uri1 ns2 uri2 ...) */
+                final String schemaNamespaceUri = schemaData[i];
+                final String schemaUri = getRegisteredSchemaLocation(schemaNamespaceUri);
                 if (schemaUri != null) {
                     supportedSchemaNamespaces.add(schemaNamespaceUri);
                     schemaUris.add(schemaUri);
                 }
                 else {
-                    logger.trace("Schema with namespace " + schemaNamespaceUri + " inferred from that of document element is not registered with this reader");
+                    logger.trace("Schema with namespace " + schemaNamespaceUri + " declared in schemaLocation is not registered with this reader");
                     unsupportedSchemaNamespaces.add(schemaNamespaceUri);
                 }
             }
-
-            /* Validate (if at least supported schemas was used and no unsupported schemas) */
-            if (!schemaUris.isEmpty() && unsupportedSchemaNamespaces.isEmpty()) {
-                logger.trace("Will validate {} against schemas {}", systemIdString, schemaUris);
-                final Schema schema = getSchema(schemaUris);
-
-                /* Now validate. Note that we read in the input again, as this will let the parser provide source
-                 * information to the schema validator. (I couldn't work out a way of passing source information
-                 * when validating from a DOM.)
-                 */
-                logger.trace("Schema validaton of {} starting", systemIdString);
-                final StreamSource input = new StreamSource(ensureLocateInput(systemId, inputResourceLocator), systemIdString);
-                final Validator validator = schema.newValidator();
-                validator.setResourceResolver(schemaResourceResolver);
-                validator.setErrorHandler(inputErrorHandler);
-                validator.validate(input);
-                validated = true;
-                logger.debug("Schema validation of {} finished", systemIdString);
+        }
+        else {
+            /* No schema declared in the document, so use namespace of root element */
+            final String schemaUri = getRegisteredSchemaLocation(documentElementNamespaceUri);
+            if (schemaUri != null) {
+                supportedSchemaNamespaces.add(documentElementNamespaceUri);
+                schemaUris.add(schemaUri);
             }
             else {
-                logger.debug("No schema validation was performed as {} supported and {} unsupported schemas were detected",
-                        schemaUris.size(), unsupportedSchemaNamespaces.size());
+                logger.trace("Schema with namespace " + documentElementNamespaceUri + " inferred from that of document element is not registered with this reader");
+                unsupportedSchemaNamespaces.add(documentElementNamespaceUri);
             }
         }
 
-        /* Build up result */
-        final XmlParseResult xmlParseResult = new XmlParseResult(systemId, parsed, validated,
-                inputErrorHandler.warnings, inputErrorHandler.errors, inputErrorHandler.fatalErrors,
-                unresolvedEntitySystemIds, supportedSchemaNamespaces, unsupportedSchemaNamespaces);
-        return new XmlReadResult(parsed ? document : null, xmlParseResult);
+        /* Validate only if at least one supported schema was used and no unsupported schemas */
+        if (schemaUris.isEmpty() || !unsupportedSchemaNamespaces.isEmpty()) {
+            logger.debug("No schema validation will be performed as {} supported and {} unsupported schemas were detected",
+                    schemaUris.size(), unsupportedSchemaNamespaces.size());
+            schemaUris.clear();
+        }
+        return schemaUris;
     }
 
     /**
      * Obtains the schema compiled from the given list of URIs, using a cached version if
      * possible.
+     * <p>
+     * A {@link ConcurrentSchemaCache} is used without locking, so that compiling one schema
+     * doesn't hold up validation against any others. Other {@link SchemaCache}s are locked
+     * while being used.
      */
     private Schema getSchema(final List<String> schemaUris) {
         Schema result = null;
         final String key = schemaUris.toString();
-        if (schemaCache!=null) {
+        if (schemaCache instanceof ConcurrentSchemaCache) {
+            result = ((ConcurrentSchemaCache) schemaCache).getSchema(key, new Callable<Schema>() {
+                @Override
+                public Schema call() {
+                    logger.debug("Schema cache miss for URIs {}, so compiling", key);
+                    return compileSchema(schemaUris);
+                }
+            });
+        }
+        else if (schemaCache!=null) {
             synchronized (schemaCache) {
                 result = schemaCache.getSchema(key);
                 if (result!=null) {
@@ -380,6 +535,317 @@ public final class XmlResourceReader {
         }
     }
 
+    /**
+     * SAX handler that passes events on to a target {@link ContentHandler} (usually a
+     * {@link SimpleDomBuilderHandler}), while optionally feeding the same events through a
+     * {@link ValidatorHandler} so that schema validation happens during the same parse.
+     * <p>
+     * The schema(s) to use can't be decided until the document element has been seen, so
+     * any prefix mappings preceding it are buffered and replayed once the
+     * {@link ValidatorHandler} has been created. The {@link ValidatorHandler} doesn't pass
+     * events on, so the target never sees schema defaults.
+     * <p>
+     * If validation fails fatally then validation stops, but events continue to be passed on.
+     * <p>
+     * If the input is known to use XInclude by the time the document element is seen, then
+     * the {@link Schema} is chosen but no {@link ValidatorHandler} is created, as the raw input
+     * will be validated afterwards instead.
+     */
+    private final class ValidatingForwardingHandler extends DefaultHandler {
+
+        private final String systemIdString;
+        private final ContentHandler targetHandler;
+        private final boolean schemaValidating;
+        private final XIncludeDetectingInputStream inputStream;
+        private final List<String[]> pendingPrefixMappings;
+
+        /** Records validation problems separately so that they don't affect the parse result */
+        final InputErrorHandler validationErrorHandler;
+        final List<String> supportedSchemaNamespaces;
+        final List<String> unsupportedSchemaNamespaces;
+        Schema schema;
+        boolean validated;
+
+        private Locator locator;
+        private boolean seenDocumentElement;
+        private ValidatorHandler validatorHandler;
+
+        public ValidatingForwardingHandler(final String systemIdString, final ContentHandler targetHandler,
+                final boolean schemaValidating, final XIncludeDetectingInputStream inputStream) {
+            this.systemIdString = systemIdString;
+            this.targetHandler = targetHandler;
+            this.schemaValidating = schemaValidating;
+            this.inputStream = inputStream;
+            this.pendingPrefixMappings = new ArrayList<String[]>();
+            this.validationErrorHandler = new InputErrorHandler();
+            this.supportedSchemaNamespaces = new ArrayList<String>();
+            this.unsupportedSchemaNamespaces = new ArrayList<String>();
+            this.validated = false;
+        }
+
+        @Override
+        public void setDocumentLocator(final Locator locator) {
+            this.locator = locator;
+            targetHandler.setDocumentLocator(locator);
+        }
+
+        @Override
+        public void startDocument() throws SAXException {
+            targetHandler.startDocument();
+        }
+
+        @Override
+        public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+            targetHandler.startPrefixMapping(prefix, uri);
+            if (!seenDocumentElement) {
+                pendingPrefixMappings.add(new String[] { prefix, uri });
+            }
+            else if (validatorHandler!=null) {
+                try {
+                    validatorHandler.startPrefixMapping(prefix, uri);
+                }
+                catch (final SAXException e) {
+                    abortValidation(e);
+                }
+            }
+        }
+
+        @Override
+        public void endPrefixMapping(final String prefix) throws SAXException {
+            targetHandler.endPrefixMapping(prefix);
+            if (validatorHandler!=null) {
+                try {
+                    validatorHandler.endPrefixMapping(prefix);
+                }
+                catch (final SAXException e) {
+                    abortValidation(e);
+                }
+            }
+        }
+
+        @Override
+        public void startElement(final String uri, final String localName, final String qName, final Attributes attributes)
+                throws SAXException {
+            if (!seenDocumentElement) {
+                seenDocumentElement = true;
+                if (schemaValidating) {
+                    startValidation(uri, attributes);
+                }
+            }
+            targetHandler.startElement(uri, localName, qName, attributes);
+            if (validatorHandler!=null) {
+                try {
+                    validatorHandler.startElement(uri, localName, qName, attributes);
+                }
+                catch (final SAXException e) {
+                    abortValidation(e);
+                }
+            }
+        }
+
+        @Override
+        public void characters(final char[] ch, final int start, final int length) throws SAXException {
+            targetHandler.characters(ch, start, length);
+            if (validatorHandler!=null) {
+                try {
+                    validatorHandler.characters(ch, start, length);
+                }
+                catch (final SAXException e) {
+                    abortValidation(e);
+                }
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(final char[] ch, final int start, final int length) throws SAXException {
+            targetHandler.ignorableWhitespace(ch, start, length);
+            if (validatorHandler!=null) {
+                try {
+                    validatorHandler.ignorableWhitespace(ch, start, length);
+                }
+                catch (final SAXException e) {
+                    abortValidation(e);
+                }
+            }
+        }
+
+        @Override
+        public void processingInstruction(final String target, final String data) throws SAXException {
+            targetHandler.processingInstruction(target, data);
+        }
+
+        @Override
+        public void skippedEntity(final String name) throws SAXException {
+            targetHandler.skippedEntity(name);
+        }
+
+        @Override
+        public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+            targetHandler.endElement(uri, localName, qName);
+            if (validatorHandler!=null) {
+                try {
+                    validatorHandler.endElement(uri, localName, qName);
+                }
+                catch (final SAXException e) {
+                    abortValidation(e);
+                }
+            }
+        }
+
+        @Override
+        public void endDocument() throws SAXException {
+            targetHandler.endDocument();
+            if (validatorHandler!=null) {
+                try {
+                    validatorHandler.endDocument();
+                    validated = true;
+                    logger.debug("Schema validation of {} finished", systemIdString);
+                }
+                catch (final SAXException e) {
+                    abortValidation(e);
+                }
+            }
+        }
+
+        private void startValidation(final String documentElementNamespaceUri, final Attributes attributes) {
+            final String schemaLocation = attributes.getValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
+            final List<String> schemaUris = chooseSchemaUris(systemIdString,
+                    documentElementNamespaceUri.length()!=0 ? documentElementNamespaceUri : null,
+                    schemaLocation, supportedSchemaNamespaces, unsupportedSchemaNamespaces);
+            if (schemaUris.isEmpty()) {
+                return;
+            }
+            logger.trace("Will validate {} against schemas {}", systemIdString, schemaUris);
+            schema = getSchema(schemaUris);
+            if (inputStream.isXIncludeNamespaceSeen()) {
+                logger.trace("Input {} uses XInclude, so deferring schema validation", systemIdString);
+                return;
+            }
+            validatorHandler = schema.newValidatorHandler();
+            validatorHandler.setResourceResolver(schemaResourceResolver);
+            validatorHandler.setErrorHandler(validationErrorHandler);
+            if (locator!=null) {
+                validatorHandler.setDocumentLocator(locator);
+            }
+
+            /* Catch up on the events we've already seen */
+            logger.trace("Schema validaton of {} starting", systemIdString);
+            try {
+                validatorHandler.startDocument();
+                for (final String[] prefixMapping : pendingPrefixMappings) {
+                    validatorHandler.startPrefixMapping(prefixMapping[0], prefixMapping[1]);
+                }
+            }
+            catch (final SAXException e) {
+                abortValidation(e);
+            }
+        }
+
+        private void abortValidation(final SAXException e) {
+            if (!(e instanceof SAXParseException)) {
+                /* (Not a validation problem, so something has gone badly wrong) */
+                throw new XmlResourceReaderException("Unexpected Exception validating XML at system ID " + systemIdString, e);
+            }
+            /* (The error will have been recorded by the validationErrorHandler) */
+            logger.debug("Schema validation of {} aborted after fatal error", systemIdString);
+            validatorHandler = null;
+        }
+    }
+
+    /**
+     * {@link FilterInputStream} that watches the raw input for the XInclude namespace URI,
+     * which tells us whether the parser might have performed any XInclude processing.
+     * <p>
+     * This looks for the URI in ASCII-compatible encodings (e.g. UTF-8) and in UTF-16. A false
+     * positive (e.g. the URI appearing within a comment) just means that the input ends up
+     * being validated in the same way as input that does use XInclude.
+     */
+    static final class XIncludeDetectingInputStream extends FilterInputStream {
+
+        /** XInclude namespace URI in ASCII-compatible encodings */
+        private static final byte[] singleBytePattern;
+
+        /**
+         * XInclude namespace URI in UTF-16. This is the little-endian encoding with the final
+         * zero byte dropped, which also appears within the big-endian encoding.
+         */
+        private static final byte[] utf16Pattern;
+
+        static {
+            final char[] chars = XINCLUDE_NAMESPACE_URI.toCharArray();
+            singleBytePattern = new byte[chars.length];
+            utf16Pattern = new byte[2 * chars.length - 1];
+            for (int i = 0; i < chars.length; i++) {
+                singleBytePattern[i] = (byte) chars[i];
+                utf16Pattern[2 * i] = (byte) chars[i];
+            }
+        }
+
+        private int singleByteMatchCount;
+        private int utf16MatchCount;
+        private boolean xincludeNamespaceSeen;
+
+        public XIncludeDetectingInputStream(final InputStream inputStream) {
+            super(inputStream);
+        }
+
+        public boolean isXIncludeNamespaceSeen() {
+            return xincludeNamespaceSeen;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = super.read();
+            if (result!=-1 && !xincludeNamespaceSeen) {
+                scan((byte) result);
+            }
+            return result;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            final int result = super.read(buffer, offset, length);
+            for (int i = 0; i < result && !xincludeNamespaceSeen; i++) {
+                scan(buffer[offset + i]);
+            }
+            return result;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            /* (Make sure we see every byte) */
+            long skipped = 0;
+            while (skipped < n && read()!=-1) {
+                skipped++;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /*
+         * (Each pattern starts with 'h', which doesn't appear anywhere else in it, so a failed
+         * partial match can only be restarted at the current byte.)
+         */
+        private void scan(final byte b) {
+            singleByteMatchCount = advanceMatch(singleBytePattern, singleByteMatchCount, b);
+            utf16MatchCount = advanceMatch(utf16Pattern, utf16MatchCount, b);
+            if (singleByteMatchCount==singleBytePattern.length || utf16MatchCount==utf16Pattern.length) {
+                xincludeNamespaceSeen = true;
+            }
+        }
+
+        private static int advanceMatch(final byte[] pattern, final int matchCount, final byte b) {
+            if (pattern[matchCount]==b) {
+                return matchCount + 1;
+            }
+            return pattern[0]==b ? 1 : 0;
+        }
+    }
+
     /**
      * Trivial extension of {@link EntityResourceResolver} that handles failed
      * resolutions by recording the offending systemId then simply returning an
@@ -33,35 +33,94 @@
  */
 package uk.ac.ed.ph.jqtiplus.xmlutils.xslt;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.transform.Templates;
 
 /**
- * Trivial implementation of {@link XsltStylesheetCache} that simply uses a {@link HashMap}.
+ * Trivial implementation of {@link XsltStylesheetCache} that simply uses a {@link ConcurrentMap}.
  * <p>
  * (This is probably a good fit for QTI systems, as they'll support a small and known set of
  * schemas.)
+ * <p>
+ * This also keeps some simple statistics about how the cache is being used. The time taken
+ * to load each stylesheet is measured from the initial cache miss until it is put into the cache.
+ * These statistics are maintained without locking, so may be very slightly inconsistent with
+ * each other when read while the cache is being used.
  *
  * @author David McKain
  */
 public class SimpleXsltStylesheetCache implements XsltStylesheetCache {
 
-    private final Map<String, Templates> cacheData;
+    private final ConcurrentMap<String, Templates> cacheData;
+
+    /** Time (as per {@link System#nanoTime()}) of the last miss for each key not yet put into the cache */
+    private final ConcurrentMap<String, Long> pendingLoadStartTimes;
+
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong loadCount;
+    private final AtomicLong totalLoadTime;
 
     public SimpleXsltStylesheetCache() {
-        this.cacheData = new HashMap<String, Templates>();
+        this.cacheData = new ConcurrentHashMap<String, Templates>();
+        this.pendingLoadStartTimes = new ConcurrentHashMap<String, Long>();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.loadCount = new AtomicLong();
+        this.totalLoadTime = new AtomicLong();
     }
 
     @Override
     public Templates getStylesheet(final String key) {
-        return cacheData.get(key);
+        final Templates result = cacheData.get(key);
+        if (result!=null) {
+            hitCount.incrementAndGet();
+        }
+        else {
+            missCount.incrementAndGet();
+            pendingLoadStartTimes.put(key, Long.valueOf(System.nanoTime()));
+        }
+        return result;
     }
 
     @Override
     public void putStylesheet(final String key, final Templates stylesheet) {
         cacheData.put(key, stylesheet);
+        final Long loadStartTime = pendingLoadStartTimes.remove(key);
+        if (loadStartTime!=null) {
+            loadCount.incrementAndGet();
+            totalLoadTime.addAndGet(System.nanoTime() - loadStartTime.longValue());
+        }
+    }
+
+    //----------------------------------------------------------
+
+    /** Returns the number of stylesheets currently in this cache */
+    public int getSize() {
+        return cacheData.size();
+    }
+
+    /** Returns the number of times {@link #getStylesheet(String)} found a cached stylesheet */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Returns the number of times {@link #getStylesheet(String)} did not find a cached stylesheet */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** Returns the number of stylesheets put into this cache following a miss */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /** Returns the total time spent loading the stylesheets counted by {@link #getLoadCount()}, in nanoseconds */
+    public long getTotalLoadTime() {
+        return totalLoadTime.get();
     }
 
     @Override
@@ -44,6 +44,8 @@ import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
@@ -71,10 +73,19 @@ import javax.xml.transform.stream.StreamSource;
  */
 public final class XsltStylesheetManager {
 
+    /** Maximum number of idle {@link TransformerFactory}s kept by each manager */
+    public static final int MAX_IDLE_TRANSFORMER_FACTORIES = 16;
+
+    /** Shared manager used to create simple serializers */
+    private static final XsltStylesheetManager serializerManager = new XsltStylesheetManager(NullResourceLocator.getInstance());
+
     private final XsltStylesheetCache xsltStylesheetCache;
     private final ResourceLocator xsltResourceLocator;
     private final XsltResourceResolver xsltResourceResolver;
 
+    /** Idle {@link SAXTransformerFactory}s, configured with {@link #xsltResourceResolver} */
+    private final BlockingQueue<SAXTransformerFactory> idleTransformerFactories;
+
     /**
      * Creates a new {@link XsltStylesheetManager} using the given {@link ResourceLocator}
      * to load XSLT resources and with no {@link XsltStylesheetCache}
@@ -99,6 +110,7 @@ public final class XsltStylesheetManager {
         this.xsltResourceLocator = xsltResourceLocator;
         this.xsltStylesheetCache = xsltStylesheetCache;
         this.xsltResourceResolver = new XsltResourceResolver(xsltResourceLocator);
+        this.idleTransformerFactories = new ArrayBlockingQueue<SAXTransformerFactory>(MAX_IDLE_TRANSFORMER_FACTORIES);
     }
 
     /**
@@ -106,7 +118,7 @@ public final class XsltStylesheetManager {
      * configured using the given {@link XsltSerializationOptions} and no runtime URI resolution.
      */
     public static Transformer createSerializer(final XsltSerializationOptions xsltSerializationOptions) {
-        return new XsltStylesheetManager(NullResourceLocator.getInstance()).getSerializer(null, xsltSerializationOptions);
+        return serializerManager.getSerializer(null, xsltSerializationOptions);
     }
 
     /**
@@ -114,7 +126,7 @@ public final class XsltStylesheetManager {
      * configured using the given {@link XsltSerializationOptions}
      */
     public static TransformerHandler createSerializerHandler(final XsltSerializationOptions xsltSerializationOptions) {
-        return new XsltStylesheetManager(NullResourceLocator.getInstance()).getSerializerHandler(null, xsltSerializationOptions);
+        return serializerManager.getSerializerHandler(null, xsltSerializationOptions);
     }
 
     //----------------------------------------------------------
@@ -184,7 +196,7 @@ public final class XsltStylesheetManager {
         Assert.notNull(xsltUri, "xsltUri");
         TransformerHandler transformerHandler;
         try {
-            transformerHandler = getSaxTransformerFactory().newTransformerHandler(getCompiledStylesheet(xsltUri));
+            transformerHandler = newTransformerHandler(getCompiledStylesheet(xsltUri));
         }
         catch (final TransformerConfigurationException e) {
             throw new QtiSerializationException("Unexpected failure instantiating TransformerHandler " + xsltUri, e);
@@ -196,7 +208,6 @@ public final class XsltStylesheetManager {
     }
 
     private Templates compileStylesheet(final URI xsltUri) {
-        final TransformerFactory transformerFactory = getTransformerFactory();
         Source resolved;
         try {
             final InputStream resolvedStream = xsltResourceLocator.findResource(xsltUri);
@@ -204,7 +215,7 @@ public final class XsltStylesheetManager {
                 throw new QtiSerializationException("Could not locate XSLT resource at system ID " + xsltUri);
             }
             resolved = new StreamSource(resolvedStream, xsltUri.toString());
-            return transformerFactory.newTemplates(resolved);
+            return newTemplates(resolved);
         }
         catch (final TransformerConfigurationException e) {
             throw new QtiSerializationException("Could not compile stylesheet at " + xsltUri, e);
@@ -231,7 +242,6 @@ public final class XsltStylesheetManager {
 
     private Templates compileStylesheetDriver(final List<URI> xsltUris) {
         /* Build up driver XSLT that simply imports the required stylesheets */
-        final TransformerFactory transformerFactory = getTransformerFactory();
         final StringBuilder xsltBuilder = new StringBuilder("<stylesheet version='1.0' xmlns='http://www.w3.org/1999/XSL/Transform'>\n");
         for (final URI importUri : xsltUris) {
             xsltBuilder.append("<import href='").append(importUri.toString()).append("'/>\n");
@@ -241,7 +251,7 @@ public final class XsltStylesheetManager {
 
         /* Now compile and return result */
         try {
-            return transformerFactory.newTemplates(new StreamSource(new StringReader(xslt)));
+            return newTemplates(new StreamSource(new StringReader(xslt)));
         }
         catch (final TransformerConfigurationException e) {
             throw new QtiSerializationException("Could not compile stylesheet driver " + xslt, e);
@@ -254,7 +264,7 @@ public final class XsltStylesheetManager {
         /* Create serializer */
         Transformer serializer;
         try {
-            serializer = getTransformerFactory().newTransformer();
+            serializer = newTransformer();
         }
         catch (final TransformerConfigurationException e) {
             throw new QtiSerializationException("Unexpected failure instantiating default serializer", e);
@@ -269,7 +279,7 @@ public final class XsltStylesheetManager {
         /* Create serializer */
         TransformerHandler serializerHandler;
         try {
-            serializerHandler = getSaxTransformerFactory().newTransformerHandler();
+            serializerHandler = newTransformerHandler();
         }
         catch (final TransformerConfigurationException e) {
             throw new QtiSerializationException("Unexpected failure instantiating default serializer", e);
@@ -298,7 +308,7 @@ public final class XsltStylesheetManager {
         Assert.notNull(serializerUri, "serializerUri");
         TransformerHandler serializerHandler;
         try {
-            serializerHandler = getSaxTransformerFactory().newTransformerHandler(getCompiledStylesheet(serializerUri));
+            serializerHandler = newTransformerHandler(getCompiledStylesheet(serializerUri));
         }
         catch (final TransformerConfigurationException e) {
             throw new QtiSerializationException("Unexpected failure instantiating serializing TransformerHandler " + serializerUri, e);
@@ -327,7 +337,7 @@ public final class XsltStylesheetManager {
         Assert.notNull(serializerUris, "serializerUris");
         TransformerHandler serializerHandler;
         try {
-            serializerHandler = getSaxTransformerFactory().newTransformerHandler(getCompiledStylesheetDriver(serializerUris));
+            serializerHandler = newTransformerHandler(getCompiledStylesheetDriver(serializerUris));
         }
         catch (final TransformerConfigurationException e) {
             throw new QtiSerializationException("Unexpected failure instantiating serializer driver from " + serializerUris, e);
@@ -372,16 +382,17 @@ public final class XsltStylesheetManager {
 
     //----------------------------------------------------------
 
-    private TransformerFactory getTransformerFactory() {
-        /* Choose appropriate TransformerFactory implementation */
-        final TransformerFactory transformerFactory = XsltFactoryUtilities.createJAXPTransformerFactory();
-
-        /* Configure URIResolver */
-        transformerFactory.setURIResolver(xsltResourceResolver);
-        return transformerFactory;
-    }
+    /**
+     * Borrows a {@link SAXTransformerFactory} configured with our {@link XsltResourceResolver},
+     * creating a new one if none are idle. These are pooled as looking up the JAXP implementation
+     * is relatively expensive, and a factory isn't guaranteed to be safe to use concurrently.
+     */
+    private SAXTransformerFactory borrowTransformerFactory() {
+        final SAXTransformerFactory result = idleTransformerFactories.poll();
+        if (result!=null) {
+            return result;
+        }
 
-    private SAXTransformerFactory getSaxTransformerFactory() {
         /* Choose appropriate TransformerFactory implementation */
         final TransformerFactory transformerFactory = XsltFactoryUtilities.createJAXPTransformerFactory();
         XsltFactoryUtilities.requireFeature(transformerFactory, SAXTransformerFactory.FEATURE);
@@ -391,6 +402,50 @@ public final class XsltStylesheetManager {
         return (SAXTransformerFactory) transformerFactory;
     }
 
+    private void returnTransformerFactory(final SAXTransformerFactory transformerFactory) {
+        idleTransformerFactories.offer(transformerFactory);
+    }
+
+    private Templates newTemplates(final Source source) throws TransformerConfigurationException {
+        final SAXTransformerFactory transformerFactory = borrowTransformerFactory();
+        try {
+            return transformerFactory.newTemplates(source);
+        }
+        finally {
+            returnTransformerFactory(transformerFactory);
+        }
+    }
+
+    private Transformer newTransformer() throws TransformerConfigurationException {
+        final SAXTransformerFactory transformerFactory = borrowTransformerFactory();
+        try {
+            return transformerFactory.newTransformer();
+        }
+        finally {
+            returnTransformerFactory(transformerFactory);
+        }
+    }
+
+    private TransformerHandler newTransformerHandler() throws TransformerConfigurationException {
+        final SAXTransformerFactory transformerFactory = borrowTransformerFactory();
+        try {
+            return transformerFactory.newTransformerHandler();
+        }
+        finally {
+            returnTransformerFactory(transformerFactory);
+        }
+    }
+
+    private TransformerHandler newTransformerHandler(final Templates templates) throws TransformerConfigurationException {
+        final SAXTransformerFactory transformerFactory = borrowTransformerFactory();
+        try {
+            return transformerFactory.newTransformerHandler(templates);
+        }
+        finally {
+            returnTransformerFactory(transformerFactory);
+        }
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(this))
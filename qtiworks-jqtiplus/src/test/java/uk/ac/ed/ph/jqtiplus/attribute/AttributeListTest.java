@@ -0,0 +1,144 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.attribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiAttributeException;
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the indexed lookups in {@link AttributeList}
+ *
+ * @author David McKain
+ */
+public class AttributeListTest {
+
+    private static final String FOREIGN_NAMESPACE_URI = "http://example.com/foreign";
+
+    private AssessmentItem item;
+    private AttributeList attributeList;
+
+    @Before
+    public void setup() {
+        item = new AssessmentItem();
+        attributeList = item.getAttributes();
+    }
+
+    @Test
+    public void testLookupKeepsInsertionOrder() {
+        final List<Attribute<?>> expected = new ArrayList<Attribute<?>>();
+        for (final Attribute<?> attribute : attributeList) {
+            expected.add(attribute);
+        }
+
+        /* Add enough attributes to make the index grow a few times */
+        for (int i=0; i<50; i++) {
+            final ForeignAttribute attribute = new ForeignAttribute(item, "attr" + i, FOREIGN_NAMESPACE_URI);
+            attributeList.add(attribute);
+            expected.add(attribute);
+        }
+
+        assertEquals(expected.size(), attributeList.size());
+        for (int i=0; i<expected.size(); i++) {
+            final Attribute<?> attribute = expected.get(i);
+            assertSame(attribute, attributeList.get(i));
+            assertSame(attribute, attributeList.get(attribute.getLocalName(), attribute.getNamespaceUri()));
+        }
+        assertSame(attributeList.get(AssessmentItem.ATTR_TITLE_NAME), attributeList.getStringAttribute(AssessmentItem.ATTR_TITLE_NAME));
+    }
+
+    @Test
+    public void testNamespacesDistinguished() {
+        final ForeignAttribute foreignTitle = new ForeignAttribute(item, AssessmentItem.ATTR_TITLE_NAME, FOREIGN_NAMESPACE_URI);
+        attributeList.add(foreignTitle);
+        assertSame(foreignTitle, attributeList.get(AssessmentItem.ATTR_TITLE_NAME, FOREIGN_NAMESPACE_URI));
+        assertFalse(foreignTitle==attributeList.get(AssessmentItem.ATTR_TITLE_NAME));
+    }
+
+    @Test(expected=QtiAttributeException.class)
+    public void testDuplicateRejected() {
+        attributeList.add(new ForeignAttribute(item, AssessmentItem.ATTR_TITLE_NAME, ""));
+    }
+
+    @Test
+    public void testRemove() {
+        final ForeignAttribute foreign = new ForeignAttribute(item, "foreign", FOREIGN_NAMESPACE_URI);
+        attributeList.add(foreign);
+        assertTrue(attributeList.contains("foreign"));
+
+        attributeList.remove(foreign);
+        assertFalse(attributeList.contains("foreign"));
+        try {
+            attributeList.get("foreign", FOREIGN_NAMESPACE_URI);
+            fail("Expected removed attribute not to be found");
+        }
+        catch (final QtiAttributeException e) {
+            /* Expected */
+        }
+    }
+
+    @Test
+    public void testCompact() {
+        final List<Attribute<?>> expected = new ArrayList<Attribute<?>>();
+        for (final Attribute<?> attribute : attributeList) {
+            expected.add(attribute);
+        }
+        attributeList.compact();
+
+        assertEquals(expected.size(), attributeList.size());
+        for (int i=0; i<expected.size(); i++) {
+            final Attribute<?> attribute = expected.get(i);
+            assertSame(attribute, attributeList.get(i));
+            assertSame(attribute, attributeList.get(attribute.getLocalName(), attribute.getNamespaceUri()));
+        }
+        try {
+            attributeList.add(new ForeignAttribute(item, "foreign", FOREIGN_NAMESPACE_URI));
+            fail("Expected compacted AttributeList to be read-only");
+        }
+        catch (final UnsupportedOperationException e) {
+            /* Expected */
+        }
+    }
+}
@@ -34,6 +34,8 @@
 package uk.ac.ed.ph.jqtiplus.reading;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
 
 import uk.ac.ed.ph.jqtiplus.QtiConstants;
@@ -41,8 +43,10 @@ import uk.ac.ed.ph.jqtiplus.node.RootNode;
 import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
 import uk.ac.ed.ph.jqtiplus.node.result.AssessmentResult;
 import uk.ac.ed.ph.jqtiplus.node.test.AssessmentTest;
+import uk.ac.ed.ph.jqtiplus.serialization.QtiSerializer;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceNotFoundException;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
 
 import java.net.URI;
 
@@ -58,12 +62,14 @@ public final class QtiObjectReaderTest {
 
     private QtiObjectReader qtiObjectReader;
     private URI choiceUri;
+    private URI nestedUri;
     private URI choiceAssessmentResultUri;
 
     @Before
     public void before() {
         qtiObjectReader = UnitTestHelper.createUnitTestQtiObjectReader(false);
         choiceUri = UnitTestHelper.createTestResourceUri("reading/choice.xml");
+        nestedUri = UnitTestHelper.createTestResourceUri("reading/nested.xml");
         choiceAssessmentResultUri = UnitTestHelper.createTestResourceUri("reading/choice-assessmentResult.xml");
     }
 
@@ -119,4 +125,70 @@ public final class QtiObjectReaderTest {
         assertNotNull(result.getRootNode());
         assertEquals(AssessmentResult.class, result.getRootNode().getClass());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStreamingMatchesDom() throws Exception {
+        final QtiXmlReader qtiXmlReader = UnitTestHelper.createUnitTestQtiXmlReader();
+        final QtiObjectReader streamingReader = qtiXmlReader.createQtiObjectReader(UnitTestHelper.createTestFileResourceLocator(), false, true);
+        final QtiObjectReader domReader = qtiXmlReader.createQtiObjectReader(UnitTestHelper.createTestFileResourceLocator(), false, false);
+        assertTrue(streamingReader.isStreaming());
+        assertFalse(domReader.isStreaming());
+
+        final AssessmentItem streamedItem = streamingReader.lookupRootNode(choiceUri, AssessmentItem.class).getRootNode();
+        final AssessmentItem domItem = domReader.lookupRootNode(choiceUri, AssessmentItem.class).getRootNode();
+
+        final QtiSerializer qtiSerializer = new QtiSerializer(qtiXmlReader.getJqtiExtensionManager());
+        assertEquals(qtiSerializer.serializeJqtiObject(domItem), qtiSerializer.serializeJqtiObject(streamedItem));
+        assertSameLocation(domItem.getSourceLocation(), streamedItem.getSourceLocation());
+        assertSameLocation(domItem.getItemBody().getSourceLocation(), streamedItem.getItemBody().getSourceLocation());
+        assertSameLocation(domItem.getItemBody().getBlocks().get(1).getSourceLocation(),
+                streamedItem.getItemBody().getBlocks().get(1).getSourceLocation());
+    }
+
+    @Test
+    public void testStreamingMatchesDomNested() throws Exception {
+        final QtiXmlReader qtiXmlReader = UnitTestHelper.createUnitTestQtiXmlReader();
+        final QtiSerializer qtiSerializer = new QtiSerializer(qtiXmlReader.getJqtiExtensionManager());
+        for (final boolean skippingPresentationContent : new boolean[] { false, true }) {
+            final QtiObjectReader streamingReader = qtiXmlReader.createQtiObjectReader(UnitTestHelper.createTestFileResourceLocator(),
+                    false, true, skippingPresentationContent);
+            final QtiObjectReader domReader = qtiXmlReader.createQtiObjectReader(UnitTestHelper.createTestFileResourceLocator(),
+                    false, false, skippingPresentationContent);
+
+            final AssessmentItem streamedItem = streamingReader.lookupRootNode(nestedUri, AssessmentItem.class).getRootNode();
+            final AssessmentItem domItem = domReader.lookupRootNode(nestedUri, AssessmentItem.class).getRootNode();
+            assertEquals(qtiSerializer.serializeJqtiObject(domItem), qtiSerializer.serializeJqtiObject(streamedItem));
+            assertEquals(domItem.getSkippedContentLocations().size(), streamedItem.getSkippedContentLocations().size());
+            assertEquals(1, streamedItem.getItemBody().findInteractions().size());
+        }
+    }
+
+    @Test
+    public void testSkippingPresentationContent() throws Exception {
+        final QtiXmlReader qtiXmlReader = UnitTestHelper.createUnitTestQtiXmlReader();
+        final QtiObjectReader skippingReader = qtiXmlReader.createQtiObjectReader(UnitTestHelper.createTestFileResourceLocator(), false, true, true);
+        final AssessmentItem skippedItem = skippingReader.lookupRootNode(choiceUri, AssessmentItem.class).getRootNode();
+        final AssessmentItem fullItem = qtiObjectReader.lookupRootNode(choiceUri, AssessmentItem.class).getRootNode();
+
+        /* The two paragraphs should have been skipped, leaving just the interaction */
+        assertFalse(fullItem.isPresentationContentSkipped());
+        assertTrue(skippedItem.isPresentationContentSkipped());
+        assertEquals(2, skippedItem.getSkippedContentLocations().size());
+        assertEquals(1, skippedItem.getItemBody().getBlocks().size());
+        assertEquals(1, skippedItem.getItemBody().findInteractions().size());
+        assertEquals(skippedItem.getResponseDeclarations().size(), fullItem.getResponseDeclarations().size());
+
+        /* Then load in the skipped content */
+        skippingReader.loadSkippedPresentationContent(skippedItem);
+        assertFalse(skippedItem.isPresentationContentSkipped());
+        final QtiSerializer qtiSerializer = new QtiSerializer(qtiXmlReader.getJqtiExtensionManager());
+        assertEquals(qtiSerializer.serializeJqtiObject(fullItem), qtiSerializer.serializeJqtiObject(skippedItem));
+    }
+
+    private static void assertSameLocation(final XmlSourceLocationInformation expected, final XmlSourceLocationInformation actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getSystemId(), actual.getSystemId());
+        assertEquals(expected.getLineNumber(), actual.getLineNumber());
+        assertEquals(expected.getColumnNumber(), actual.getColumnNumber());
+    }
+}
@@ -39,15 +39,18 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import uk.ac.ed.ph.jqtiplus.QtiConstants;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlParseResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlReadResult;
 import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceNotFoundException;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlResourceReader;
 import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
 
 import java.net.URI;
 
 import org.junit.Test;
+import org.w3c.dom.Document;
 
 /**
  * Tests for the {@link QtiXmlReader}
@@ -177,6 +180,31 @@ public class QtiXmlReaderTest {
         assertEquals(1, parseResult.getUnsupportedSchemaNamespaces().size()); /* (Unsupported) */
     }
 
+    @Test
+    public void testReadWithXInclude() throws Exception {
+        final String fileName = "xinclude.xml";
+        final XmlReadResult result = readUnitTestFile(fileName, true);
+        final XmlParseResult parseResult = result.getXmlParseResult();
+
+        /* The DOM should contain the included content... */
+        final Document document = result.getDocument();
+        assertNotNull(document);
+        assertEquals(1, document.getElementsByTagNameNS(QtiConstants.QTI_21_NAMESPACE_URI, "span").getLength());
+        assertEquals(0, document.getElementsByTagNameNS(XmlResourceReader.XINCLUDE_NAMESPACE_URI, "include").getLength());
+
+        /* ...but schema validation should apply to the xi:include, as the included content
+         * isn't valid in its place */
+        assertEquals(makeSystemId(fileName), parseResult.getSystemId());
+        assertTrue(parseResult.isParsed());
+        assertTrue(parseResult.isValidated());
+        assertTrue(parseResult.isSchemaValid());
+        assertEquals(0, parseResult.getFatalErrors().size());
+        assertEquals(0, parseResult.getErrors().size());
+        assertEquals(0, parseResult.getWarnings().size());
+        assertEquals(1, parseResult.getSupportedSchemaNamespaces().size()); /* (QTI 2.1) */
+        assertEquals(0, parseResult.getUnsupportedSchemaNamespaces().size());
+    }
+
     //-------------------------------
 
     private XmlReadResult readUnitTestFile(final String testFilePath, final boolean schemaValiadating)
@@ -0,0 +1,144 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.resolution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.node.item.AssessmentItem;
+import uk.ac.ed.ph.jqtiplus.provision.BadResourceException;
+import uk.ac.ed.ph.jqtiplus.provision.ResourceNotFoundException;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.testutils.ParallelItemHandlingTestBase;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link AssessmentObjectResolver} gives the same results when resolving
+ * test items in parallel as it does when resolving them one at a time.
+ *
+ * @author David McKain
+ */
+public final class AssessmentObjectResolverTest extends ParallelItemHandlingTestBase {
+
+    private static final String TEST_FILE_PATH = "resolution/test-bad-items.xml";
+
+    private static final LoaderCallback<ResolvedAssessmentTest> resolveCallback = new LoaderCallback<ResolvedAssessmentTest>() {
+        @Override
+        public ResolvedAssessmentTest run(final AssessmentObjectXmlLoader assessmentObjectXmlLoader) {
+            return assessmentObjectXmlLoader.loadAndResolveAssessmentTest(UnitTestHelper.createTestResourceUri(TEST_FILE_PATH));
+        }
+    };
+
+    @Test
+    public void testParallelMatchesSequential() {
+        final List<ResolvedAssessmentTest> results = runSequentialAndParallel(UnitTestHelper.createTestFileResourceLocator(), resolveCallback);
+        final ResolvedAssessmentTest sequentialResult = results.get(0);
+        final ResolvedAssessmentTest parallelResult = results.get(1);
+
+        final Map<URI, ResolvedAssessmentItem> sequentialItemMap = sequentialResult.getResolvedAssessmentItemBySystemIdMap();
+        final Map<URI, ResolvedAssessmentItem> parallelItemMap = parallelResult.getResolvedAssessmentItemBySystemIdMap();
+        assertEquals(6, sequentialItemMap.size());
+        assertEquals(new ArrayList<URI>(sequentialItemMap.keySet()), new ArrayList<URI>(parallelItemMap.keySet()));
+        assertEquals(sequentialResult.getSystemIdByItemRefMap().values().toString(), parallelResult.getSystemIdByItemRefMap().values().toString());
+        int failureCount = 0;
+        for (final URI itemSystemId : sequentialItemMap.keySet()) {
+            final RootNodeLookup<AssessmentItem> sequentialLookup = sequentialItemMap.get(itemSystemId).getItemLookup();
+            final RootNodeLookup<AssessmentItem> parallelLookup = parallelItemMap.get(itemSystemId).getItemLookup();
+            assertEquals(sequentialLookup.wasSuccessful(), parallelLookup.wasSuccessful());
+            if (sequentialLookup.wasSuccessful()) {
+                assertEquals(sequentialLookup.extractIfSuccessful().getIdentifier(), parallelLookup.extractIfSuccessful().getIdentifier());
+            }
+            else {
+                failureCount++;
+                assertEquals(describeFailure(sequentialLookup), describeFailure(parallelLookup));
+            }
+        }
+        assertEquals(3, failureCount);
+    }
+
+    @Test
+    public void testParallelRethrowsFirstFailure() {
+        /* Make reading the 2nd and 4th items fail unexpectedly. The first of these should be reported */
+        final ResourceLocator explodingResourceLocator = new ExplodingResourceLocator("missing.xml", "nested.xml");
+        final RuntimeException failure = assertSameFailure(explodingResourceLocator, resolveCallback);
+        assertTrue(failure.getMessage().contains("missing.xml"));
+        assertFalse(failure.getMessage().contains("nested.xml"));
+    }
+
+    private static String describeFailure(final RootNodeLookup<?> lookup) {
+        /* (Not found messages mention the per-run ResourceLocator, so we only compare the systemId here) */
+        final ResourceNotFoundException notFoundException = lookup.getNotFoundException();
+        if (notFoundException!=null) {
+            return notFoundException.getClass().getName() + ": " + lookup.getSystemId();
+        }
+        final BadResourceException badResourceException = lookup.getBadResourceException();
+        return badResourceException.getClass().getName() + ": " + badResourceException.getMessage();
+    }
+
+    /**
+     * Wraps the usual test {@link ResourceLocator}, throwing an unexpected Exception when asked
+     * for any resource whose URI ends with one of the given suffixes.
+     */
+    private static final class ExplodingResourceLocator implements ResourceLocator {
+
+        private final ResourceLocator delegate;
+        private final String[] explodingSuffixes;
+
+        public ExplodingResourceLocator(final String... explodingSuffixes) {
+            this.delegate = UnitTestHelper.createTestFileResourceLocator();
+            this.explodingSuffixes = explodingSuffixes;
+        }
+
+        @Override
+        public InputStream findResource(final URI systemId) {
+            for (final String explodingSuffix : explodingSuffixes) {
+                if (systemId.toString().endsWith(explodingSuffix)) {
+                    throw new QtiLogicException("Exploding on " + systemId);
+                }
+            }
+            return delegate.findResource(systemId);
+        }
+    }
+}
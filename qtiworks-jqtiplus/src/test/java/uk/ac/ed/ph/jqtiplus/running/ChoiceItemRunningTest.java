@@ -43,6 +43,9 @@ import uk.ac.ed.ph.jqtiplus.internal.util.ObjectDumper;
 import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
 import uk.ac.ed.ph.jqtiplus.node.result.SessionStatus;
 import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateSaxMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateStaxUnmarshaller;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.ItemSessionStateXmlMarshaller;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.types.FileResponseData;
@@ -51,13 +54,22 @@ import uk.ac.ed.ph.jqtiplus.types.ResponseData;
 import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
 import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
 import uk.ac.ed.ph.jqtiplus.value.Value;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.StringWriter;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -125,6 +137,45 @@ public final class ChoiceItemRunningTest {
             System.err.println("State after marshalling: " + ObjectDumper.dumpObject(refried));
             Assert.assertEquals(itemSessionState, refried);
         }
+
+        /* Check the streaming unmarshaller gives the same result from the serialized XML */
+        final ItemSessionState restaxed = ItemSessionStateStaxUnmarshaller.unmarshal(serializeDocument(itemSessionStateXmlDocument));
+        if (!restaxed.equals(itemSessionState)) {
+            System.err.println("State before marshalling: " + ObjectDumper.dumpObject(itemSessionState));
+            System.err.println("State after StAX unmarshalling: " + ObjectDumper.dumpObject(restaxed));
+            Assert.assertEquals(itemSessionState, restaxed);
+        }
+
+        /* Same again for state -> streamed XML -> state */
+        final ByteArrayOutputStream streamedXmlStream = new ByteArrayOutputStream();
+        ItemSessionStateSaxMarshaller.marshal(itemSessionState, streamedXmlStream);
+        final ItemSessionState restreamed = ItemSessionStateStaxUnmarshaller.unmarshal(new ByteArrayInputStream(streamedXmlStream.toByteArray()));
+        if (!restreamed.equals(itemSessionState)) {
+            System.err.println("State before streamed marshalling: " + ObjectDumper.dumpObject(itemSessionState));
+            System.err.println("State after streamed marshalling: " + ObjectDumper.dumpObject(restreamed));
+            Assert.assertEquals(itemSessionState, restreamed);
+        }
+
+        /* Same again for state -> binary -> state */
+        final byte[] itemSessionStateBinary = ItemSessionStateBinaryMarshaller.marshal(itemSessionState);
+        final ItemSessionState rebinned = ItemSessionStateBinaryMarshaller.unmarshal(itemSessionStateBinary);
+        if (!rebinned.equals(itemSessionState)) {
+            System.err.println("State before binary marshalling: " + ObjectDumper.dumpObject(itemSessionState));
+            System.err.println("State after binary marshalling: " + ObjectDumper.dumpObject(rebinned));
+            Assert.assertEquals(itemSessionState, rebinned);
+        }
+    }
+
+    private static String serializeDocument(final Document document) {
+        final StringWriter stringWriter = new StringWriter();
+        try {
+            XsltStylesheetManager.createSerializer(new XsltSerializationOptions())
+                .transform(new DOMSource(document), new StreamResult(stringWriter));
+        }
+        catch (final TransformerException e) {
+            throw new RuntimeException(e);
+        }
+        return stringWriter.toString();
     }
 
     @Test
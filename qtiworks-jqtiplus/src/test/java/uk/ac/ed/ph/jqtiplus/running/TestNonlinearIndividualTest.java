@@ -167,4 +167,22 @@ public final class TestNonlinearIndividualTest extends SimpleProcessingTestBase
         assertItemResponseProcessingNotRun();
         assertOutcomeProcessingNotRun();
     }
+
+    @Test
+    public void testResultDirtyTracking() {
+        testSessionController.enterTest(testEntryTimestamp);
+        testSessionController.enterNextAvailableTestPart(testPartEntryTimestamp);
+        testSessionController.selectItemNonlinear(operationTimestamp, getTestNodeKey("i1"));
+        testSessionController.selectItemNonlinear(operationTimestamp, getTestNodeKey("i2"));
+        testSessionState.clearResultDirty();
+
+        /* Navigating back to item 1 should only affect durations */
+        testSessionController.selectItemNonlinear(operationTimestamp, getTestNodeKey("i1"));
+        Assert.assertFalse(testSessionState.isResultDirty());
+
+        /* Responding should change things */
+        handleChoiceResponse("ChoiceA");
+        Assert.assertTrue(item1SessionState.isResultDirty());
+        Assert.assertTrue(testSessionState.isResultDirty());
+    }
 }
@@ -40,6 +40,7 @@ import uk.ac.ed.ph.jqtiplus.state.ItemSessionState;
 import uk.ac.ed.ph.jqtiplus.state.TestPartSessionState;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 
 import java.util.Arrays;
@@ -493,6 +494,60 @@ public final class TestNonlinearNavigationTest extends TestTestBase {
         assertItemsSelectable(allItemsAfter("p2"));
     }
 
+    //-------------------------------------------------------
+
+    @Test
+    public void testDeltasBetweenActions() {
+        final long item2EntryDelta = 4000L;
+        final Date item2EntryTimestamp = ObjectUtilities.addToTime(item1EntryTimestamp, item2EntryDelta);
+        final long testPart1EndDelta = 8000L;
+        final Date testPart1EndTimestamp = ObjectUtilities.addToTime(item2EntryTimestamp, testPart1EndDelta);
+        final long testPart2EntryDelta = 16000L;
+        final Date testPart2EntryTimestamp = ObjectUtilities.addToTime(testPart1EndTimestamp, testPart2EntryDelta);
+
+        TestSessionState beforeState = copyTestSessionState();
+        enterTestPart1();
+        assertDeltaFrom(beforeState);
+
+        /* Selecting an item changes its state and its sections, but not anything in the other testPart */
+        beforeState = copyTestSessionState();
+        ItemSessionState i211SessionState = beforeState.getItemSessionStates().get(getTestNodeKey("i211"));
+        final TestPartSessionState beforeTestPart2SessionState = beforeState.getTestPartSessionStates().get(getTestNodeKey("p2"));
+        testSessionController.selectItemNonlinear(item1EntryTimestamp, getTestNodeKey("i1111"));
+        TestSessionState afterState = assertDeltaFrom(beforeState);
+        Assert.assertSame(i211SessionState, afterState.getItemSessionStates().get(getTestNodeKey("i211")));
+        Assert.assertSame(beforeTestPart2SessionState, afterState.getTestPartSessionStates().get(getTestNodeKey("p2")));
+
+        beforeState = copyTestSessionState();
+        i211SessionState = beforeState.getItemSessionStates().get(getTestNodeKey("i211"));
+        testSessionController.selectItemNonlinear(item2EntryTimestamp, getTestNodeKey("i112"));
+        afterState = assertDeltaFrom(beforeState);
+        Assert.assertSame(i211SessionState, afterState.getItemSessionStates().get(getTestNodeKey("i211")));
+
+        beforeState = copyTestSessionState();
+        testSessionController.endCurrentTestPart(testPart1EndTimestamp);
+        assertDeltaFrom(beforeState);
+
+        beforeState = copyTestSessionState();
+        testSessionController.enterNextAvailableTestPart(testPart2EntryTimestamp);
+        assertDeltaFrom(beforeState);
+    }
+
+    @Test
+    public void testDeltaWithRemovedItemState() {
+        enterTestPart1();
+        testSessionController.selectItemNonlinear(item1EntryTimestamp, getTestNodeKey("i1111"));
+
+        /* Remove an item state from the current state, which should be recorded in the delta */
+        final TestSessionState beforeState = copyTestSessionState();
+        testSessionState.getItemSessionStates().remove(getTestNodeKey("i211"));
+        final TestSessionState afterState = assertDeltaFrom(beforeState);
+        Assert.assertFalse(afterState.getItemSessionStates().containsKey(getTestNodeKey("i211")));
+
+        /* (Put things back so that the usual marshalling checks still make sense) */
+        testSessionState.getItemSessionStates().put(getTestNodeKey("i211"), beforeState.getItemSessionStates().get(getTestNodeKey("i211")));
+    }
+
     private void assertNothingInTestPart2Entered() {
         assertTestPart2NotEntered();
         assertAssessmentSectionsNotEntered("s21");
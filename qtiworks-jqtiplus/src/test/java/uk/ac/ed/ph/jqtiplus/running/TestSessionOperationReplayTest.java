@@ -0,0 +1,255 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.running;
+
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectDumper;
+import uk.ac.ed.ph.jqtiplus.internal.util.ObjectUtilities;
+import uk.ac.ed.ph.jqtiplus.node.test.NavigationMode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
+import uk.ac.ed.ph.jqtiplus.state.TestPlanNode.TestNodeType;
+import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionOperationBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+import uk.ac.ed.ph.jqtiplus.types.Identifier;
+import uk.ac.ed.ph.jqtiplus.types.ResponseData;
+import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests that replaying the {@link TestSessionOperation}s recorded by a {@link TestSessionController}
+ * on a checkpoint of the state taken when recording started recreates the live state.
+ * <p>
+ * Each test runs right through a test, performing the same sequence of operations as a delivery
+ * engine would for each candidate action, then exits it. The recorded operations are marshalled
+ * and unmarshalled before being replayed.
+ *
+ * @author David McKain
+ */
+public final class TestSessionOperationReplayTest {
+
+    private static final Long RANDOM_SEED = Long.valueOf(1234L);
+
+    private static final Identifier CHOICE_ITEM_RESPONSE = Identifier.assumedLegal("RESPONSE");
+
+    private Date timestamp;
+    private TestSessionController testSessionController;
+    private TestSessionState testSessionState;
+
+    /** Operations recorded for each action performed since the checkpoint */
+    private List<List<TestSessionOperation>> recordedActions;
+
+    /** Copies of the live state after each action performed since the checkpoint */
+    private List<TestSessionState> liveStates;
+
+    @Test
+    public void testLinearSinglePart() {
+        runReplayTest("running/simple-linear-simultaneous.xml");
+    }
+
+    @Test
+    public void testNonlinearSinglePart() {
+        runReplayTest("running/simple-nonlinear-individual.xml");
+    }
+
+    @Test
+    public void testLinearMultiPart() {
+        runReplayTest("running/test-incomplete-exit.xml");
+    }
+
+    @Test
+    public void testNonlinearMultiPart() {
+        runReplayTest("running/test-nonlinear.xml");
+    }
+
+    //-------------------------------------------------------
+
+    private void runReplayTest(final String testFilePath) {
+        testSessionController = UnitTestHelper.loadUnitTestAssessmentTestForControl(testFilePath, true);
+        testSessionController.setRandomSeed(RANDOM_SEED);
+        testSessionState = testSessionController.getTestSessionState();
+        timestamp = new Date();
+        recordedActions = new ArrayList<List<TestSessionOperation>>();
+        liveStates = new ArrayList<TestSessionState>();
+
+        /* Enter test, also entering the testPart if there is only one. We take a checkpoint here */
+        testSessionController.initialize(timestamp);
+        final boolean singlePart = testSessionController.enterTest(timestamp)==1;
+        if (singlePart) {
+            testSessionController.enterNextAvailableTestPart(timestamp);
+        }
+        final byte[] checkpointData = TestSessionStateBinaryMarshaller.marshal(testSessionState);
+
+        /* Then run through the test */
+        boolean testPartOpen = singlePart;
+        while (true) {
+            if (!testPartOpen) {
+                startAction();
+                final TestPlanNode testPartNode = testSessionController.enterNextAvailableTestPart(nextTimestamp());
+                if (testPartNode==null) {
+                    /* Single part tests are exited in the same action that advances out of the testPart */
+                    if (singlePart) {
+                        testSessionController.exitTest(timestamp);
+                    }
+                    endAction();
+                    break;
+                }
+                endAction();
+            }
+            runThroughCurrentTestPart();
+            testPartOpen = false;
+        }
+        if (!singlePart) {
+            /* Multi-part tests are exited in a separate action */
+            startAction();
+            testSessionController.exitTest(nextTimestamp());
+            endAction();
+        }
+        Assert.assertTrue(testSessionState.isExited());
+        assertLastRecordedOperation(TestSessionOperationType.EXIT_TEST);
+
+        /* Now replay each action from the checkpoint, checking that we get to the same place each time */
+        final TestSessionState replayedState = TestSessionStateBinaryMarshaller.unmarshal(checkpointData);
+        final TestSessionController replayController = new TestSessionController(UnitTestHelper.createJqtiExtensionManager(),
+                new TestSessionControllerSettings(), testSessionController.getTestProcessingMap(), replayedState);
+        for (int i=0; i<recordedActions.size(); i++) {
+            replayController.setRandomSeed(RANDOM_SEED);
+            for (final TestSessionOperation operation : recordedActions.get(i)) {
+                operation.replay(replayController);
+            }
+            assertStateEquals(liveStates.get(i), replayedState);
+        }
+        assertStateEquals(testSessionState, replayedState);
+    }
+
+    private void runThroughCurrentTestPart() {
+        final TestPlanNode testPartNode = testSessionState.getTestPlan().getNode(testSessionState.getCurrentTestPartKey());
+        if (testSessionController.getCurrentTestPart().getNavigationMode()==NavigationMode.LINEAR) {
+            /* Respond to each item in turn. Advancing past the last item ends the testPart */
+            while (testSessionState.getCurrentItemKey()!=null) {
+                startAction();
+                handleChoiceResponse("ChoiceA");
+                endAction();
+
+                startAction();
+                testSessionController.advanceItemLinear(nextTimestamp());
+                endAction();
+            }
+            Assert.assertTrue(testSessionState.getCurrentTestPartSessionState().isEnded());
+        }
+        else {
+            /* Select and respond to each item, returning to the menu in between */
+            for (final TestPlanNode itemRefNode : testPartNode.searchDescendants(TestNodeType.ASSESSMENT_ITEM_REF)) {
+                startAction();
+                testSessionController.selectItemNonlinear(nextTimestamp(), itemRefNode.getKey());
+                endAction();
+
+                startAction();
+                handleChoiceResponse("ChoiceB");
+                endAction();
+
+                startAction();
+                testSessionController.selectItemNonlinear(nextTimestamp(), null);
+                endAction();
+            }
+            startAction();
+            testSessionController.endCurrentTestPart(nextTimestamp());
+            endAction();
+        }
+    }
+
+    private void handleChoiceResponse(final String choiceIdentifier) {
+        final Map<Identifier, ResponseData> responseMap = new HashMap<Identifier, ResponseData>();
+        responseMap.put(CHOICE_ITEM_RESPONSE, new StringResponseData(choiceIdentifier));
+        testSessionController.handleResponsesToCurrentItem(nextTimestamp(), responseMap);
+    }
+
+    private Date nextTimestamp() {
+        timestamp = ObjectUtilities.addToTime(timestamp, 1000L);
+        return timestamp;
+    }
+
+    private void startAction() {
+        testSessionController.startRecordingOperations();
+    }
+
+    private void endAction() {
+        final List<TestSessionOperation> operations = testSessionController.getRecordedOperations();
+        Assert.assertFalse(operations.isEmpty());
+        recordedActions.add(remarshal(operations));
+        liveStates.add(TestSessionStateBinaryMarshaller.unmarshal(TestSessionStateBinaryMarshaller.marshal(testSessionState)));
+    }
+
+    private static List<TestSessionOperation> remarshal(final List<TestSessionOperation> operations) {
+        try {
+            final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(byteStream);
+            TestSessionOperationBinaryMarshaller.writeOperations(output, operations);
+            output.flush();
+            final DataInputStream input = new DataInputStream(new ByteArrayInputStream(byteStream.toByteArray()));
+            final List<TestSessionOperation> result = TestSessionOperationBinaryMarshaller.readOperations(input);
+            Assert.assertEquals(-1, input.read());
+            return result;
+        }
+        catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void assertLastRecordedOperation(final TestSessionOperationType expectedOperationType) {
+        final List<TestSessionOperation> lastActionOperations = recordedActions.get(recordedActions.size()-1);
+        Assert.assertEquals(expectedOperationType, lastActionOperations.get(lastActionOperations.size()-1).getOperationType());
+    }
+
+    private static void assertStateEquals(final TestSessionState expected, final TestSessionState actual) {
+        if (!expected.equals(actual)) {
+            System.err.println("Live state: " + ObjectDumper.dumpObject(expected));
+            System.err.println("Replayed state: " + ObjectDumper.dumpObject(actual));
+            Assert.assertEquals(expected, actual);
+        }
+    }
+}
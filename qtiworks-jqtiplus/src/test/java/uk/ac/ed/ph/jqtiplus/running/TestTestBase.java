@@ -41,13 +41,22 @@ import uk.ac.ed.ph.jqtiplus.state.TestPlan;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNode;
 import uk.ac.ed.ph.jqtiplus.state.TestPlanNodeKey;
 import uk.ac.ed.ph.jqtiplus.state.TestSessionState;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateDeltaBinaryMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateSaxMarshaller;
+import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateStaxUnmarshaller;
 import uk.ac.ed.ph.jqtiplus.state.marshalling.TestSessionStateXmlMarshaller;
 import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
 import uk.ac.ed.ph.jqtiplus.types.Identifier;
 import uk.ac.ed.ph.jqtiplus.types.ResponseData;
 import uk.ac.ed.ph.jqtiplus.types.StringResponseData;
 import uk.ac.ed.ph.jqtiplus.value.BooleanValue;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltSerializationOptions;
+import uk.ac.ed.ph.jqtiplus.xmlutils.xslt.XsltStylesheetManager;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -55,6 +64,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -121,6 +134,81 @@ public abstract class TestTestBase {
             System.err.println("State after marshalling: " + ObjectDumper.dumpObject(refried));
             Assert.assertEquals(testSessionState, refried);
         }
+
+        /* Check the streaming unmarshaller gives the same result from the serialized XML */
+        final TestSessionState restaxed = TestSessionStateStaxUnmarshaller.unmarshal(serializeDocument(testSessionStateXmlDocument));
+        if (!restaxed.equals(testSessionState)) {
+            System.err.println("State before marshalling: " + ObjectDumper.dumpObject(testSessionState));
+            System.err.println("State after StAX unmarshalling: " + ObjectDumper.dumpObject(restaxed));
+            Assert.assertEquals(testSessionState, restaxed);
+        }
+
+        /* Same again for state -> streamed XML -> state */
+        final ByteArrayOutputStream streamedXmlStream = new ByteArrayOutputStream();
+        TestSessionStateSaxMarshaller.marshal(testSessionState, streamedXmlStream);
+        final TestSessionState restreamed = TestSessionStateStaxUnmarshaller.unmarshal(new ByteArrayInputStream(streamedXmlStream.toByteArray()));
+        if (!restreamed.equals(testSessionState)) {
+            System.err.println("State before streamed marshalling: " + ObjectDumper.dumpObject(testSessionState));
+            System.err.println("State after streamed marshalling: " + ObjectDumper.dumpObject(restreamed));
+            Assert.assertEquals(testSessionState, restreamed);
+        }
+
+        /* Same again for state -> binary -> state */
+        final byte[] testSessionStateBinary = TestSessionStateBinaryMarshaller.marshal(testSessionState);
+        final TestSessionState rebinned = TestSessionStateBinaryMarshaller.unmarshal(testSessionStateBinary);
+        if (!rebinned.equals(testSessionState)) {
+            System.err.println("State before binary marshalling: " + ObjectDumper.dumpObject(testSessionState));
+            System.err.println("State after binary marshalling: " + ObjectDumper.dumpObject(rebinned));
+            Assert.assertEquals(testSessionState, rebinned);
+        }
+
+        /* Finally check that applying a delta against a fresh state gets us back to the same place */
+        final TestSessionState baseState = new TestSessionState(testSessionState.getTestPlan());
+        final byte[] testSessionStateDelta = TestSessionStateDeltaBinaryMarshaller.marshalDelta(baseState, testSessionState);
+        final TestSessionState redelta = TestSessionStateDeltaBinaryMarshaller.applyDelta(baseState, testSessionStateDelta);
+        if (!redelta.equals(testSessionState)) {
+            System.err.println("State before delta marshalling: " + ObjectDumper.dumpObject(testSessionState));
+            System.err.println("State after delta marshalling: " + ObjectDumper.dumpObject(redelta));
+            Assert.assertEquals(testSessionState, redelta);
+        }
+    }
+
+    /**
+     * Returns an independent copy of the current {@link TestSessionState}, for use as the base
+     * state in {@link #assertDeltaFrom(TestSessionState)}. (The controller updates the state in place.)
+     */
+    protected TestSessionState copyTestSessionState() {
+        return TestSessionStateBinaryMarshaller.unmarshal(TestSessionStateBinaryMarshaller.marshal(testSessionState));
+    }
+
+    /**
+     * Checks that marshalling the delta between the given earlier copy of the state and the
+     * current state, then applying it to that copy, gets us back to the current state.
+     *
+     * @return the state resulting from applying the delta
+     */
+    protected TestSessionState assertDeltaFrom(final TestSessionState baseState) {
+        final byte[] testSessionStateDelta = TestSessionStateDeltaBinaryMarshaller.marshalDelta(baseState, testSessionState);
+        final TestSessionState redelta = TestSessionStateDeltaBinaryMarshaller.applyDelta(baseState, testSessionStateDelta);
+        if (!redelta.equals(testSessionState)) {
+            System.err.println("State before action: " + ObjectDumper.dumpObject(baseState));
+            System.err.println("State after action: " + ObjectDumper.dumpObject(testSessionState));
+            System.err.println("State after applying delta: " + ObjectDumper.dumpObject(redelta));
+            Assert.assertEquals(testSessionState, redelta);
+        }
+        return redelta;
+    }
+
+    private static String serializeDocument(final Document document) {
+        final StringWriter stringWriter = new StringWriter();
+        try {
+            XsltStylesheetManager.createSerializer(new XsltSerializationOptions())
+                .transform(new DOMSource(document), new StreamResult(stringWriter));
+        }
+        catch (final TransformerException e) {
+            throw new RuntimeException(e);
+        }
+        return stringWriter.toString();
     }
 
     //-------------------------------------------------------
@@ -0,0 +1,95 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.state.marshalling;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests the variable length integer encodings used by {@link BinaryMarshallerCore}
+ *
+ * @author David McKain
+ */
+public class BinaryMarshallerCoreTest {
+
+    @Test
+    public void testUnsignedIntRoundTrip() throws IOException {
+        for (final int value : new int[] { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE }) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryMarshallerCore.writeUnsignedInt(new DataOutputStream(bytes), value);
+            assertEquals(value, BinaryMarshallerCore.readUnsignedInt(input(bytes.toByteArray())));
+        }
+    }
+
+    @Test
+    public void testSignedLongRoundTrip() throws IOException {
+        for (final long value : new long[] { 0L, -1L, 1L, -64L, 64L, Long.MIN_VALUE, Long.MAX_VALUE }) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryMarshallerCore.writeSignedLong(new DataOutputStream(bytes), value);
+            assertEquals(value, BinaryMarshallerCore.readSignedLong(input(bytes.toByteArray())));
+        }
+    }
+
+    @Test(expected=BinaryUnmarshallingException.class)
+    public void testUnsignedIntFifthByteOverflow() throws IOException {
+        /* 5th byte sets bit 4, which would be bit 32 of the decoded value */
+        BinaryMarshallerCore.readUnsignedInt(input(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x17 }));
+    }
+
+    @Test(expected=BinaryUnmarshallingException.class)
+    public void testUnsignedIntTooLong() throws IOException {
+        BinaryMarshallerCore.readUnsignedInt(input(new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01 }));
+    }
+
+    @Test(expected=BinaryUnmarshallingException.class)
+    public void testSignedLongTenthByteOverflow() throws IOException {
+        final byte[] data = new byte[10];
+        for (int i=0; i<9; i++) {
+            data[i] = (byte) 0xFF;
+        }
+        data[9] = 0x03;
+        BinaryMarshallerCore.readSignedLong(input(data));
+    }
+
+    private static DataInputStream input(final byte[] data) {
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+}
@@ -0,0 +1,155 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.testutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import uk.ac.ed.ph.jqtiplus.JqtiExtensionManager;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.notification.Notification;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.xmlutils.XmlSourceLocationInformation;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ResourceLocator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Base for tests checking that reading, resolving and validating the items within a test
+ * in parallel gives the same results as doing this one item at a time.
+ *
+ * @author David McKain
+ */
+public abstract class ParallelItemHandlingTestBase {
+
+    /** Callback that does something with an {@link AssessmentObjectXmlLoader} */
+    public interface LoaderCallback<E> {
+        E run(AssessmentObjectXmlLoader assessmentObjectXmlLoader);
+    }
+
+    private ExecutorService executorService;
+
+    @Before
+    public void createExecutorService() {
+        executorService = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void shutdownExecutorService() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Runs the given callback twice, first with an {@link AssessmentObjectXmlLoader} that handles
+     * items one at a time, then with one that handles items in parallel, returning the two results
+     * in that order.
+     */
+    protected <E> List<E> runSequentialAndParallel(final ResourceLocator resourceLocator, final LoaderCallback<E> callback) {
+        final List<E> result = new ArrayList<E>(2);
+        result.add(callback.run(createAssessmentObjectXmlLoader(null, resourceLocator)));
+        result.add(callback.run(createAssessmentObjectXmlLoader(executorService, resourceLocator)));
+        return result;
+    }
+
+    /**
+     * Runs the given callback as per {@link #runSequentialAndParallel(ResourceLocator, LoaderCallback)},
+     * expecting both runs to fail, and checks that the same Exception was thrown each time.
+     *
+     * @return the {@link RuntimeException} thrown when handling items in parallel
+     */
+    protected RuntimeException assertSameFailure(final ResourceLocator resourceLocator, final LoaderCallback<?> callback) {
+        final RuntimeException sequentialException = runExpectingFailure(createAssessmentObjectXmlLoader(null, resourceLocator), callback);
+        final RuntimeException parallelException = runExpectingFailure(createAssessmentObjectXmlLoader(executorService, resourceLocator), callback);
+        assertEquals(sequentialException.getClass(), parallelException.getClass());
+        assertEquals(sequentialException.getMessage(), parallelException.getMessage());
+        return parallelException;
+    }
+
+    private static RuntimeException runExpectingFailure(final AssessmentObjectXmlLoader assessmentObjectXmlLoader,
+            final LoaderCallback<?> callback) {
+        RuntimeException result = null;
+        try {
+            callback.run(assessmentObjectXmlLoader);
+        }
+        catch (final RuntimeException e) {
+            result = e;
+        }
+        assertNotNull("Expected a RuntimeException", result);
+        return result;
+    }
+
+    private static AssessmentObjectXmlLoader createAssessmentObjectXmlLoader(final ExecutorService itemExecutor,
+            final ResourceLocator resourceLocator) {
+        final JqtiExtensionManager jqtiExtensionManager = UnitTestHelper.createJqtiExtensionManager();
+        jqtiExtensionManager.setItemResolutionExecutor(itemExecutor);
+        jqtiExtensionManager.setItemValidationExecutor(itemExecutor);
+        return new AssessmentObjectXmlLoader(new QtiXmlReader(jqtiExtensionManager), resourceLocator);
+    }
+
+    /**
+     * Describes each of the given {@link Notification}s in a form that can be compared
+     * between different runs.
+     */
+    protected static List<String> describeNotifications(final List<Notification> notifications) {
+        final List<String> result = new ArrayList<String>(notifications.size());
+        for (final Notification notification : notifications) {
+            final StringBuilder descriptionBuilder = new StringBuilder()
+                .append(notification.getNotificationLevel())
+                .append(' ')
+                .append(notification.getNotificationType())
+                .append(' ');
+            final QtiNode qtiNode = notification.getQtiNode();
+            if (qtiNode!=null) {
+                descriptionBuilder.append(qtiNode.getQtiClassName());
+                final XmlSourceLocationInformation sourceLocation = qtiNode.getSourceLocation();
+                if (sourceLocation!=null) {
+                    descriptionBuilder.append('@')
+                        .append(sourceLocation.getSystemId())
+                        .append(':')
+                        .append(sourceLocation.getLineNumber());
+                }
+                descriptionBuilder.append(' ');
+            }
+            result.add(descriptionBuilder.append(notification.getMessage()).toString());
+        }
+        return result;
+    }
+}
@@ -34,6 +34,8 @@
 package uk.ac.ed.ph.jqtiplus.types;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.util.Arrays;
 import java.util.Collection;
@@ -85,4 +87,25 @@ public class IdentifierAcceptTest {
     public void testParseIdentifier() {
         assertEquals(string, Identifier.parseString(string).toString());
     }
+
+    /**
+     * Tests that interned values are shared and equal to non-interned ones.
+     */
+    @Test
+    public void testParseInternedIdentifier() {
+        final Identifier interned = Identifier.parseInterned(string);
+        assertSame(interned, Identifier.parseInterned(string));
+        assertEquals(Identifier.parseString(string), interned);
+    }
+
+    /**
+     * Tests that reusing parses share interned values but never add to the pool.
+     */
+    @Test
+    public void testParseReusingIdentifier() {
+        final String notInternedString = string + "_notInterned";
+        assertEquals(notInternedString, Identifier.parseReusing(notInternedString).toString());
+        assertNotSame(Identifier.parseReusing(notInternedString), Identifier.parseReusing(notInternedString));
+        assertSame(Identifier.parseInterned(string), Identifier.parseReusing(string));
+    }
 }
@@ -84,4 +84,14 @@ public class IdentifierRefuseTest {
     public void testParseIdentifier() throws QtiParseException {
         Identifier.parseString(string);
     }
+
+    @Test(expected = QtiParseException.class)
+    public void testParseInternedIdentifier() throws QtiParseException {
+        Identifier.parseInterned(string);
+    }
+
+    @Test(expected = QtiParseException.class)
+    public void testParseReusingIdentifier() throws QtiParseException {
+        Identifier.parseReusing(string);
+    }
 }
@@ -0,0 +1,127 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.testutils.ParallelItemHandlingTestBase;
+import uk.ac.ed.ph.jqtiplus.testutils.UnitTestHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link AssessmentObjectValidator} gives the same results when validating
+ * test items in parallel as it does when validating them one at a time.
+ *
+ * @author David McKain
+ */
+public final class AssessmentObjectValidatorTest extends ParallelItemHandlingTestBase {
+
+    private static final String TEST_FILE_PATH = "validation/test-invalid-items.xml";
+
+    @Test
+    public void testParallelMatchesSequential() {
+        final ValidateCallback validateCallback = new ValidateCallback();
+        final List<TestValidationResult> results = runSequentialAndParallel(UnitTestHelper.createTestFileResourceLocator(), validateCallback);
+        final TestValidationResult sequentialResult = results.get(0);
+        final TestValidationResult parallelResult = results.get(1);
+
+        final List<ItemValidationResult> sequentialItemResults = sequentialResult.getItemValidationResults();
+        final List<ItemValidationResult> parallelItemResults = parallelResult.getItemValidationResults();
+        assertEquals(6, sequentialItemResults.size());
+        assertEquals(sequentialItemResults.size(), parallelItemResults.size());
+        int invalidItemCount = 0;
+        for (int i=0; i<sequentialItemResults.size(); i++) {
+            final ItemValidationResult sequentialItemResult = sequentialItemResults.get(i);
+            final ItemValidationResult parallelItemResult = parallelItemResults.get(i);
+            assertEquals(sequentialItemResult.getResolvedAssessmentItem().getItemLookup().getSystemId(),
+                    parallelItemResult.getResolvedAssessmentItem().getItemLookup().getSystemId());
+            assertEquals(describeNotifications(sequentialItemResult.getNotifications()),
+                    describeNotifications(parallelItemResult.getNotifications()));
+            assertEquals(sequentialItemResult.isValid(), parallelItemResult.isValid());
+            if (!sequentialItemResult.isValid()) {
+                invalidItemCount++;
+            }
+        }
+        /* (Two items fail validation, plus the missing and ill-formed ones) */
+        assertEquals(4, invalidItemCount);
+        assertFalse(sequentialResult.isValid());
+        assertEquals(describeNotifications(sequentialResult.getNotifications()),
+                describeNotifications(parallelResult.getNotifications()));
+
+        /* Check progress was reported for each item */
+        assertEquals(2, validateCallback.listeners.size());
+        for (final CountingProgressListener listener : validateCallback.listeners) {
+            assertEquals(sequentialItemResults.size(), listener.itemCount);
+            assertEquals(sequentialItemResults.size(), listener.validatedItemCount.get());
+        }
+    }
+
+    /**
+     * Validates the test, recording a fresh {@link CountingProgressListener} for each run
+     */
+    private static final class ValidateCallback implements LoaderCallback<TestValidationResult> {
+
+        final List<CountingProgressListener> listeners = new ArrayList<CountingProgressListener>();
+
+        @Override
+        public TestValidationResult run(final AssessmentObjectXmlLoader assessmentObjectXmlLoader) {
+            final CountingProgressListener listener = new CountingProgressListener();
+            listeners.add(listener);
+            return assessmentObjectXmlLoader.loadResolveAndValidateTest(UnitTestHelper.createTestResourceUri(TEST_FILE_PATH), listener);
+        }
+    }
+
+    private static final class CountingProgressListener implements ValidationProgressListener {
+
+        volatile int itemCount;
+        final AtomicInteger validatedItemCount = new AtomicInteger();
+
+        @Override
+        public void onValidationStarted(final int itemCount) {
+            this.itemCount = itemCount;
+        }
+
+        @Override
+        public void onItemValidated(final ItemValidationResult itemValidationResult, final int validatedItemCount, final int itemCount) {
+            this.validatedItemCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.xmlutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the {@link ConcurrentSchemaCache} class
+ *
+ * @author David McKain
+ */
+public class ConcurrentSchemaCacheTest {
+
+    private ConcurrentSchemaCache schemaCache;
+    private Schema schema;
+
+    @Before
+    public void setup() throws Exception {
+        schemaCache = new ConcurrentSchemaCache();
+        schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema();
+    }
+
+    @Test
+    public void testPutAndGet() {
+        assertNull(schemaCache.getSchema("key"));
+        schemaCache.putSchema("key", schema);
+        assertSame(schema, schemaCache.getSchema("key"));
+    }
+
+    @Test
+    public void testCompiledOnceConcurrently() throws Exception {
+        final AtomicInteger compileCount = new AtomicInteger();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final Callable<Schema> schemaCompiler = new Callable<Schema>() {
+            @Override
+            public Schema call() throws Exception {
+                compileCount.incrementAndGet();
+                Thread.sleep(50);
+                return schema;
+            }
+        };
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Schema>> results = new ArrayList<Future<Schema>>();
+            for (int i=0; i<8; i++) {
+                results.add(executorService.submit(new Callable<Schema>() {
+                    @Override
+                    public Schema call() throws Exception {
+                        startLatch.await();
+                        return schemaCache.getSchema("key", schemaCompiler);
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (final Future<Schema> result : results) {
+                assertSame(schema, result.get());
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+        assertEquals(1, compileCount.get());
+    }
+
+    @Test
+    public void testFailureNotCached() {
+        try {
+            schemaCache.getSchema("key", new Callable<Schema>() {
+                @Override
+                public Schema call() {
+                    throw new XmlResourceReaderException("Expected failure");
+                }
+            });
+        }
+        catch (final XmlResourceReaderException e) {
+            /* Expected */
+        }
+        assertNull(schemaCache.getSchema("key"));
+        assertEquals(0, schemaCache.size());
+        assertSame(schema, schemaCache.getSchema("key", new Callable<Schema>() {
+            @Override
+            public Schema call() {
+                return schema;
+            }
+        }));
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.jqtiplus.xmlutils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.SAXParser;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Tests the {@link XmlParserPool} class
+ *
+ * @author David McKain
+ */
+public class XmlParserPoolTest {
+
+    private XmlParserPool xmlParserPool;
+
+    @Before
+    public void setup() {
+        xmlParserPool = new XmlParserPool(XmlParserPool.createNsAwareSaxParserFactory(),
+                XmlParserPool.createNsAwareDocumentBuilderFactory(), 1);
+    }
+
+    @Test
+    public void testSaxParserReused() throws Exception {
+        final SAXParser saxParser = xmlParserPool.borrowSaxParser();
+        saxParser.getXMLReader().setContentHandler(new DefaultHandler());
+        saxParser.getXMLReader().parse(new InputSource(new StringReader("<a xmlns='urn:x'/>")));
+        xmlParserPool.returnSaxParser(saxParser);
+
+        assertSame(saxParser, xmlParserPool.borrowSaxParser());
+    }
+
+    @Test
+    public void testDocumentBuilderReused() {
+        final DocumentBuilder documentBuilder = xmlParserPool.borrowDocumentBuilder();
+        xmlParserPool.returnDocumentBuilder(documentBuilder);
+
+        assertSame(documentBuilder, xmlParserPool.borrowDocumentBuilder());
+    }
+
+    @Test
+    public void testParseNsAware() throws Exception {
+        final Document document = xmlParserPool.parse(new InputSource(new StringReader("<a xmlns='urn:x'><b/></a>")));
+        assertEquals("urn:x", document.getDocumentElement().getNamespaceURI());
+        assertEquals("a", document.getDocumentElement().getLocalName());
+    }
+}
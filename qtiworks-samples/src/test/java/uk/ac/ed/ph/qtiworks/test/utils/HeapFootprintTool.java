@@ -0,0 +1,186 @@
+/* Copyright (c) 2012-2013, University of Edinburgh.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * * Redistributions of source code must retain the above copyright notice, this
+ *   list of conditions and the following disclaimer.
+ *
+ * * Redistributions in binary form must reproduce the above copyright notice, this
+ *   list of conditions and the following disclaimer in the documentation and/or
+ *   other materials provided with the distribution.
+ *
+ * * Neither the name of the University of Edinburgh nor the names of its
+ *   contributors may be used to endorse or promote products derived from this
+ *   software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *
+ * This software is derived from (and contains code from) QTItools and MathAssessEngine.
+ * QTItools is (c) 2008, University of Southampton.
+ * MathAssessEngine is (c) 2010, University of Edinburgh.
+ */
+package uk.ac.ed.ph.qtiworks.test.utils;
+
+import uk.ac.ed.ph.qtiworks.samples.LanguageSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleAssessment.Feature;
+import uk.ac.ed.ph.qtiworks.samples.QtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.QtiworksRegressionSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StandardQtiSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.StompSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.TestImplementationSampleSet;
+import uk.ac.ed.ph.qtiworks.samples.UpmcSampleSet;
+
+import uk.ac.ed.ph.jqtiplus.exception.QtiLogicException;
+import uk.ac.ed.ph.jqtiplus.node.QtiNode;
+import uk.ac.ed.ph.jqtiplus.reading.AssessmentObjectXmlLoader;
+import uk.ac.ed.ph.jqtiplus.reading.QtiXmlReader;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentItem;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentObject;
+import uk.ac.ed.ph.jqtiplus.resolution.ResolvedAssessmentTest;
+import uk.ac.ed.ph.jqtiplus.resolution.RootNodeLookup;
+import uk.ac.ed.ph.jqtiplus.utils.QueryUtils;
+import uk.ac.ed.ph.jqtiplus.utils.TreeWalkNodeHandler;
+import uk.ac.ed.ph.jqtiplus.xmlutils.locators.ClassPathResourceLocator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rough and ready tool for measuring how much heap is used by resolved
+ * items and tests built from the QTI samples, both before and after
+ * {@link ResolvedAssessmentObject#compact()} has been called.
+ * <p>
+ * (This is not a test, so isn't run during the build. Run it with a fixed heap size, e.g.
+ * <code>-Xms512m -Xmx512m</code>, to make the numbers more stable. The optional argument
+ * gives the number of copies of each sample to load, which defaults to 20.)
+ *
+ * @author David McKain
+ */
+public final class HeapFootprintTool {
+
+    public static void main(final String[] args) {
+        final int copies = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        final List<QtiSampleAssessment> samples = new ArrayList<QtiSampleAssessment>();
+        for (final QtiSampleSet qtiSampleSet : new QtiSampleSet[] {
+                StandardQtiSampleSet.instance(),
+                UpmcSampleSet.instance(),
+                StompSampleSet.instance(),
+                LanguageSampleSet.instance(),
+                QtiworksRegressionSampleSet.instance(),
+                TestImplementationSampleSet.instance()
+        }) {
+            /* (MathAssess samples are left out as they require Maxima to be set up) */
+            samples.addAll(qtiSampleSet.withoutFeatures(Feature.REQUIRES_MATHASSES).getQtiSampleAssessments());
+        }
+
+        final QtiXmlReader qtiXmlReader = new QtiXmlReader();
+        final AssessmentObjectXmlLoader assessmentObjectXmlLoader = new AssessmentObjectXmlLoader(qtiXmlReader, new ClassPathResourceLocator());
+
+        final long baseline = measureUsedHeap();
+        final List<ResolvedAssessmentObject<?>> resolvedObjects = new ArrayList<ResolvedAssessmentObject<?>>();
+        for (int i=0; i<copies; i++) {
+            for (final QtiSampleAssessment sample : samples) {
+                resolvedObjects.add(loadAndResolve(assessmentObjectXmlLoader, sample));
+            }
+        }
+        final long nodeCount = countNodes(resolvedObjects);
+        final long standardUsage = measureUsedHeap() - baseline;
+
+        for (final ResolvedAssessmentObject<?> resolvedObject : resolvedObjects) {
+            resolvedObject.compact();
+        }
+        final long compactUsage = measureUsedHeap() - baseline;
+
+        System.out.println("Loaded " + copies + " copies of " + samples.size() + " samples, containing "
+                + nodeCount + " QtiNodes in total");
+        report("Standard", standardUsage, resolvedObjects.size(), nodeCount);
+        report("Compact", compactUsage, resolvedObjects.size(), nodeCount);
+        System.out.println("Saving: " + (100 - (100 * compactUsage / Math.max(1L, standardUsage))) + "%");
+    }
+
+    private static ResolvedAssessmentObject<?> loadAndResolve(final AssessmentObjectXmlLoader assessmentObjectXmlLoader,
+            final QtiSampleAssessment sample) {
+        switch (sample.getType()) {
+            case ASSESSMENT_ITEM:
+                return assessmentObjectXmlLoader.loadAndResolveAssessmentItem(sample.assessmentClassPathUri());
+
+            case ASSESSMENT_TEST:
+                return assessmentObjectXmlLoader.loadAndResolveAssessmentTest(sample.assessmentClassPathUri());
+
+            default:
+                throw new QtiLogicException("Unexpected switch case " + sample.getType());
+        }
+    }
+
+    private static long countNodes(final List<ResolvedAssessmentObject<?>> resolvedObjects) {
+        final long[] count = new long[1];
+        final TreeWalkNodeHandler nodeCounter = new TreeWalkNodeHandler() {
+            @Override
+            public boolean handleNode(final QtiNode node) {
+                count[0]++;
+                return true;
+            }
+        };
+        for (final ResolvedAssessmentObject<?> resolvedObject : resolvedObjects) {
+            if (resolvedObject instanceof ResolvedAssessmentItem) {
+                countNodes(nodeCounter, (ResolvedAssessmentItem) resolvedObject);
+            }
+            else {
+                final ResolvedAssessmentTest resolvedAssessmentTest = (ResolvedAssessmentTest) resolvedObject;
+                countNodes(nodeCounter, resolvedAssessmentTest.getTestLookup());
+                for (final ResolvedAssessmentItem resolvedAssessmentItem : resolvedAssessmentTest.getResolvedAssessmentItemBySystemIdMap().values()) {
+                    countNodes(nodeCounter, resolvedAssessmentItem);
+                }
+            }
+        }
+        return count[0];
+    }
+
+    private static void countNodes(final TreeWalkNodeHandler nodeCounter, final ResolvedAssessmentItem resolvedAssessmentItem) {
+        countNodes(nodeCounter, resolvedAssessmentItem.getItemLookup());
+        countNodes(nodeCounter, resolvedAssessmentItem.getResolvedResponseProcessingTemplateLookup());
+    }
+
+    private static void countNodes(final TreeWalkNodeHandler nodeCounter, final RootNodeLookup<?> rootNodeLookup) {
+        if (rootNodeLookup!=null && rootNodeLookup.wasSuccessful()) {
+            QueryUtils.walkTree(nodeCounter, Collections.singletonList(rootNodeLookup.extractAssumingSuccessful()));
+        }
+    }
+
+    private static void report(final String mode, final long usage, final int objectCount, final long nodeCount) {
+        System.out.println(mode + ": " + (usage / 1024) + "KB used, "
+                + (usage / Math.max(1, objectCount)) + " bytes per item/test, "
+                + (usage / Math.max(1L, nodeCount)) + " bytes per QtiNode");
+    }
+
+    private static long measureUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i=0; i<5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            }
+            catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}